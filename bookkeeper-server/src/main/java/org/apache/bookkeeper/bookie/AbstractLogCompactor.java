@@ -21,11 +21,19 @@
 
 package org.apache.bookkeeper.bookie;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.RateLimiter;
+import io.netty.buffer.ByteBuf;
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.bookkeeper.bookie.storage.EntryLogScanner;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
 import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.MathUtils;
 
 /**
  * Abstract entry log compactor used for compaction.
@@ -44,9 +52,20 @@ public abstract class AbstractLogCompactor {
 
     protected final LogRemovalListener logRemovalListener;
 
+    // bytes read from the compacted entry logs and written to the new entry logs by this compactor
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
     public AbstractLogCompactor(ServerConfiguration conf, LogRemovalListener logRemovalListener) {
+        this(conf, new Throttler(conf), logRemovalListener);
+    }
+
+    /**
+     * Create a compactor sharing the I/O budget of the throttler with the other users of the throttler.
+     */
+    public AbstractLogCompactor(ServerConfiguration conf, Throttler throttler, LogRemovalListener logRemovalListener) {
         this.conf = conf;
-        this.throttler = new Throttler(conf);
+        this.throttler = throttler;
         this.logRemovalListener = logRemovalListener;
     }
 
@@ -62,18 +81,122 @@ public abstract class AbstractLogCompactor {
      */
     public void cleanUpAndRecover() {}
 
+    /**
+     * @return the number of bytes read from the entry logs compacted by this compactor
+     */
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * @return the number of bytes of the live entries written by this compactor
+     */
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * Record a live entry written by the compaction.
+     *
+     * @param entrySize size of the entry, without its size header
+     */
+    protected void recordEntryWritten(int entrySize) {
+        bytesWritten.add(entrySize + 4);
+    }
+
+    /**
+     * Pass the live entries of an entry log to the scanner.
+     *
+     * <p>If the ledger storage can look up the locations of the live entries in its index, only those entries
+     * are read, in the order of the entry log. Otherwise the whole entry log is scanned, and the scanner gets
+     * all the entries of the ledgers it accepts.
+     */
+    protected void scanLiveEntries(EntryLogger entryLogger, CompactableLedgerStorage ledgerStorage,
+                                   EntryLogMetadata entryLogMeta, EntryLogScanner scanner) throws IOException {
+        List<EntryLocation> locations = ledgerStorage.getEntryLocationsInEntryLog(entryLogMeta);
+        if (locations == null) {
+            entryLogger.scanEntryLog(entryLogMeta.getEntryLogId(), scanner);
+            bytesRead.add(entryLogMeta.getTotalSize());
+            return;
+        }
+        for (EntryLocation location : locations) {
+            ByteBuf entry = entryLogger.readEntry(location.getLedger(), location.getEntry(), location.getLocation());
+            bytesRead.add(entry.readableBytes() + 4);
+            try {
+                // the location points after the size header of the entry, where the scanners get the offset
+                scanner.process(location.getLedger(), (location.getLocation() & 0xFFFFFFFFL) - 4, entry);
+            } finally {
+                entry.release();
+            }
+        }
+    }
+
     /**
      * class Throttler.
+     *
+     * <p>The throttler is a token bucket refilled at the configured compaction rate. If a foreground latency target
+     * is configured, the rate is adjusted every second from the latency of the foreground reads of the disk: it is
+     * halved when the average latency is above the target, down to a tenth of the configured rate, and increased
+     * back by a tenth of the configured rate otherwise.
      */
     public static class Throttler {
+        private static final double MIN_RATE_FRACTION = 0.1;
+        private static final long RATE_ADJUST_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
         private final RateLimiter rateLimiter;
         private final boolean isThrottleByBytes;
         private final AtomicBoolean cancelled = new AtomicBoolean(false);
 
+        private final double maxRate;
+        private final long latencyTargetNanos;
+        private final LongAdder foregroundLatencySumNanos = new LongAdder();
+        private final LongAdder foregroundLatencyCount = new LongAdder();
+        private final AtomicLong lastRateAdjustNanos = new AtomicLong(MathUtils.nowInNano());
+
         Throttler(ServerConfiguration conf) {
             this.isThrottleByBytes  = conf.getIsThrottleByBytes();
-            this.rateLimiter = RateLimiter.create(this.isThrottleByBytes
-                ? conf.getCompactionRateByBytes() : conf.getCompactionRateByEntries());
+            this.maxRate = this.isThrottleByBytes
+                ? conf.getCompactionRateByBytes() : conf.getCompactionRateByEntries();
+            this.rateLimiter = RateLimiter.create(maxRate);
+            this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(
+                conf.getCompactionForegroundLatencyTargetMillis());
+        }
+
+        /**
+         * Record the latency of a foreground operation on the disk throttled by this throttler.
+         */
+        public void recordForegroundLatency(long latencyNanos) {
+            if (latencyTargetNanos > 0) {
+                foregroundLatencySumNanos.add(latencyNanos);
+                foregroundLatencyCount.increment();
+            }
+        }
+
+        /**
+         * @return the current rate of the throttler, in permits per second
+         */
+        public double getRate() {
+            return rateLimiter.getRate();
+        }
+
+        @VisibleForTesting
+        void maybeAdjustRate(long now) {
+            long last = lastRateAdjustNanos.get();
+            if (now - last < RATE_ADJUST_INTERVAL_NANOS || !lastRateAdjustNanos.compareAndSet(last, now)) {
+                return;
+            }
+            long count = foregroundLatencyCount.sumThenReset();
+            long sumNanos = foregroundLatencySumNanos.sumThenReset();
+            double rate = rateLimiter.getRate();
+            double newRate;
+            if (count > 0 && sumNanos / count > latencyTargetNanos) {
+                newRate = Math.max(maxRate * MIN_RATE_FRACTION, rate / 2);
+            } else {
+                newRate = Math.min(maxRate, rate + maxRate * MIN_RATE_FRACTION);
+            }
+            if (newRate != rate) {
+                rateLimiter.setRate(newRate);
+            }
         }
 
         // acquire. if bybytes: bytes of this entry; if byentries: 1.
@@ -85,6 +208,9 @@ public abstract class AbstractLogCompactor {
         // If the compactor is being stopped by other threads,
         // and the GC thread is still limited, the compact task will be stopped.
         public void acquire(int permits) throws IOException {
+            if (latencyTargetNanos > 0) {
+                maybeAdjustRate(MathUtils.nowInNano());
+            }
             long timeout = 100;
             long start = System.currentTimeMillis();
             while (!tryAcquire(permits, timeout, TimeUnit.MILLISECONDS)) {
@@ -61,6 +61,8 @@ public interface BookKeeperServerStats {
     String READ_ENTRY_LONG_POLL_PRE_WAIT = "READ_ENTRY_LONG_POLL_PRE_WAIT";
     String READ_ENTRY_LONG_POLL_WAIT = "READ_ENTRY_LONG_POLL_WAIT";
     String READ_ENTRY_LONG_POLL_READ = "READ_ENTRY_LONG_POLL_READ";
+    String BATCH_READ_ENTRY_REQUEST = "BATCH_READ_ENTRY_REQUEST";
+    String BATCH_READ_ENTRY = "BATCH_READ_ENTRY";
     String WRITE_LAC_REQUEST = "WRITE_LAC_REQUEST";
     String WRITE_LAC = "WRITE_LAC";
     String READ_LAC_REQUEST = "READ_LAC_REQUEST";
@@ -110,12 +112,19 @@ public interface BookKeeperServerStats {
     String JOURNAL_FORCE_WRITE_BATCH_ENTRIES = "JOURNAL_FORCE_WRITE_BATCH_ENTRIES";
     String JOURNAL_FORCE_WRITE_BATCH_BYTES = "JOURNAL_FORCE_WRITE_BATCH_BYTES";
     String JOURNAL_FLUSH_LATENCY = "JOURNAL_FLUSH_LATENCY";
+    String JOURNAL_FLUSH_WRITE_LATENCY = "JOURNAL_FLUSH_WRITE_LATENCY";
+    String JOURNAL_FLUSH_SYSCALLS = "JOURNAL_FLUSH_SYSCALLS";
+    String JOURNAL_SYNC_SYSCALLS = "JOURNAL_SYNC_SYSCALLS";
     String JOURNAL_QUEUE_LATENCY = "JOURNAL_QUEUE_LATENCY";
     String JOURNAL_QUEUE_MAX_SIZE = "JOURNAL_QUEUE_MAX_SIZE";
     String JOURNAL_PROCESS_TIME_LATENCY = "JOURNAL_PROCESS_TIME_LATENCY";
     String JOURNAL_CREATION_LATENCY = "JOURNAL_CREATION_LATENCY";
     String JOURNAL_MEMORY_MAX = "JOURNAL_MEMORY_MAX";
     String JOURNAL_MEMORY_USED = "JOURNAL_MEMORY_USED";
+    String JOURNAL_GROUP_COMMIT_WAIT_USEC = "JOURNAL_GROUP_COMMIT_WAIT_USEC";
+    String JOURNAL_GROUP_COMMIT_MAX_ENTRIES = "JOURNAL_GROUP_COMMIT_MAX_ENTRIES";
+    String JOURNAL_GROUP_COMMIT_MAX_BYTES = "JOURNAL_GROUP_COMMIT_MAX_BYTES";
+    String JOURNAL_GROUP_COMMIT_ARRIVAL_RATE = "JOURNAL_GROUP_COMMIT_ARRIVAL_RATE";
 
     // Ledger Storage Stats
     String STORAGE_GET_OFFSET = "STORAGE_GET_OFFSET";
@@ -152,6 +161,13 @@ public interface BookKeeperServerStats {
     String MINOR_COMPACTION_COUNT = "MINOR_COMPACTION_TOTAL";
     String ACTIVE_LEDGER_COUNT = "ACTIVE_LEDGER_TOTAL";
     String DELETED_LEDGER_COUNT = "DELETED_LEDGER_TOTAL";
+    String ENTRY_LOG_USAGE_COUNT = "ENTRY_LOG_USAGE_TOTAL";
+    String MINOR_COMPACTION_RECLAIMABLE_BYTES = "MINOR_COMPACTION_RECLAIMABLE_BYTES";
+    String MAJOR_COMPACTION_RECLAIMABLE_BYTES = "MAJOR_COMPACTION_RECLAIMABLE_BYTES";
+    String MINOR_COMPACTION_RECLAIM_TIME_ESTIMATE = "MINOR_COMPACTION_RECLAIM_TIME_ESTIMATE_MS";
+    String MAJOR_COMPACTION_RECLAIM_TIME_ESTIMATE = "MAJOR_COMPACTION_RECLAIM_TIME_ESTIMATE_MS";
+    String COMPACTION_READ_BYTES = "COMPACTION_READ_BYTES";
+    String COMPACTION_WRITTEN_BYTES = "COMPACTION_WRITTEN_BYTES";
 
     // Index Related Counters
     String INDEX_INMEM_ILLEGAL_STATE_RESET = "INDEX_INMEM_ILLEGAL_STATE_RESET";
@@ -19,6 +19,7 @@
 package org.apache.bookkeeper.bookie;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
 import java.io.IOException;
 import java.util.PrimitiveIterator;
 import java.util.concurrent.CompletableFuture;
@@ -57,6 +58,17 @@ public interface Bookie {
     // TODO: Shouldn't this be async?
     ByteBuf readEntry(long ledgerId, long entryId)
             throws IOException, NoLedgerException, BookieException;
+
+    /**
+     * Get a reference to an entry in the ledger storage files, so that it can be sent
+     * without being read in memory.
+     *
+     * @return the file region of the entry, or null if it must be read with {@link #readEntry}
+     */
+    default FileRegion readEntryRegion(long ledgerId, long entryId)
+            throws IOException, NoLedgerException, BookieException {
+        return null;
+    }
     long readLastAddConfirmed(long ledgerId) throws IOException, BookieException;
     PrimitiveIterator.OfLong getListOfEntriesOfLedger(long ledgerId) throws IOException, NoLedgerException;
 
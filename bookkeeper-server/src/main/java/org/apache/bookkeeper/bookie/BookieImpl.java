@@ -32,6 +32,7 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.FileRegion;
 import io.netty.util.ReferenceCountUtil;
 import java.io.File;
 import java.io.FilenameFilter;
@@ -456,12 +457,12 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
          *
          * 2) DbLedgerStorage
          */
-        if (entryLogPerLedgerEnabled || isDbLedgerStorage) {
+        if (entryLogPerLedgerEnabled || conf.getEntryLogBuckets() > 1 || isDbLedgerStorage) {
             syncThread = new SyncThread(conf, getLedgerDirsListener(), ledgerStorage, checkpointSource, statsLogger) {
                 @Override
                 public void startCheckpoint(Checkpoint checkpoint) {
                     /*
-                     * in the case of entryLogPerLedgerEnabled, LedgerStorage
+                     * in the case of multiple entry logs, LedgerStorage
                      * dont drive checkpoint logic, but instead it is done
                      * periodically by SyncThread. So startCheckpoint which
                      * will be called by LedgerStorage will be no-op.
@@ -1131,6 +1132,35 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
         }
     }
 
+    @Override
+    public FileRegion readEntryRegion(long ledgerId, long entryId)
+            throws IOException, NoLedgerException, BookieException {
+        long requestNanos = MathUtils.nowInNano();
+        boolean success = false;
+        FileRegion region = null;
+        long entrySize = 0;
+        try {
+            LedgerDescriptor handle = handles.getReadOnlyHandle(ledgerId);
+            region = handle.readEntryRegion(entryId);
+            if (region != null) {
+                entrySize = region.count();
+                bookieStats.getReadBytes().addCount(entrySize);
+            }
+            success = true;
+            return region;
+        } finally {
+            long elapsedNanos = MathUtils.elapsedNanos(requestNanos);
+            if (!success) {
+                bookieStats.getReadEntryStats().registerFailedEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+                bookieStats.getReadBytesStats().registerFailedValue(entrySize);
+            } else if (region != null) {
+                // Otherwise the entry is read with readEntry(), which records the stats
+                bookieStats.getReadEntryStats().registerSuccessfulEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+                bookieStats.getReadBytesStats().registerSuccessfulValue(entrySize);
+            }
+        }
+    }
+
     public long readLastAddConfirmed(long ledgerId) throws IOException, BookieException {
         LedgerDescriptor handle = handles.getReadOnlyHandle(ledgerId);
         return handle.getLastAddConfirmed();
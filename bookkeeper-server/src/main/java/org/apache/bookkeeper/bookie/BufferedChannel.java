@@ -70,6 +70,13 @@ public class BufferedChannel extends BufferedReadChannel implements Closeable {
      */
     protected final AtomicLong unpersistedBytes;
 
+    /*
+     * number of write and sync system calls issued on the FileChannel, to
+     * measure how many of them are needed for each flush.
+     */
+    protected final AtomicLong writeSyscalls = new AtomicLong(0);
+    protected final AtomicLong syncSyscalls = new AtomicLong(0);
+
     private boolean closed = false;
 
     // make constructor to be public for unit test
@@ -86,11 +93,19 @@ public class BufferedChannel extends BufferedReadChannel implements Closeable {
 
     public BufferedChannel(ByteBufAllocator allocator, FileChannel fc, int writeCapacity, int readCapacity,
             long unpersistedBytesBound) throws IOException {
+        this(allocator.directBuffer(writeCapacity), fc, writeCapacity, readCapacity, unpersistedBytesBound);
+    }
+
+    /**
+     * Create a channel that buffers the writes in the given buffer, which is released on close.
+     */
+    protected BufferedChannel(ByteBuf writeBuffer, FileChannel fc, int writeCapacity, int readCapacity,
+            long unpersistedBytesBound) throws IOException {
         super(fc, readCapacity);
         this.writeCapacity = writeCapacity;
         this.position = fc.position();
         this.writeBufferStartPosition.set(position);
-        this.writeBuffer = allocator.directBuffer(writeCapacity);
+        this.writeBuffer = writeBuffer;
         this.unpersistedBytes = new AtomicLong(0);
         this.unpersistedBytesBound = unpersistedBytesBound;
         this.doRegularFlushes = unpersistedBytesBound > 0;
@@ -199,6 +214,7 @@ public class BufferedChannel extends BufferedReadChannel implements Closeable {
         ByteBuffer toWrite = writeBuffer.internalNioBuffer(0, writeBuffer.writerIndex());
         do {
             fileChannel.write(toWrite);
+            writeSyscalls.incrementAndGet();
         } while (toWrite.hasRemaining());
         writeBuffer.clear();
         writeBufferStartPosition.set(fileChannel.position());
@@ -238,6 +254,7 @@ public class BufferedChannel extends BufferedReadChannel implements Closeable {
         }
 
         fileChannel.force(forceMetadata);
+        syncSyscalls.incrementAndGet();
         return positionForceWrite;
     }
 
@@ -292,6 +309,28 @@ public class BufferedChannel extends BufferedReadChannel implements Closeable {
         return writeBuffer.readableBytes();
     }
 
+    /**
+     * Extend the file up to the end of the zeros written at the given position, without moving
+     * the write position.
+     */
+    void preallocate(ByteBuffer zeros, long position) throws IOException {
+        fileChannel.write(zeros, position);
+    }
+
+    /**
+     * Get the number of write system calls issued so far by {@link #flush()}.
+     */
+    public long getNumWriteSyscalls() {
+        return writeSyscalls.get();
+    }
+
+    /**
+     * Get the number of sync system calls issued so far by {@link #forceWrite(boolean)}.
+     */
+    public long getNumSyncSyscalls() {
+        return syncSyscalls.get();
+    }
+
     long getUnpersistedBytes() {
         return unpersistedBytes.get();
     }
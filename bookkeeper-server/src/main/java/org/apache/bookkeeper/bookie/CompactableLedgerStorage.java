@@ -22,6 +22,8 @@
 package org.apache.bookkeeper.bookie;
 
 import java.io.IOException;
+import java.util.List;
+
 /**
  * Interface that identifies LedgerStorage implementations using EntryLogger and running periodic entries compaction.
  */
@@ -51,4 +53,43 @@ public interface CompactableLedgerStorage extends LedgerStorage {
      * @throws IOException
      */
     void flushEntriesLocationsIndex() throws IOException;
+
+    /**
+     * Called by the garbage collector before a compaction of the entry logs, to prepare the lookups of the
+     * live entries of the flushed entry logs.
+     *
+     * @throws IOException
+     */
+    default void prepareEntryLogsCompaction() throws IOException {
+    }
+
+    /**
+     * Get the locations of the live entries stored in an entry log, sorted by position in the entry log,
+     * looking them up in the index of the storage instead of scanning the entry log. The entry log was
+     * flushed before the last call to {@link #prepareEntryLogsCompaction()}.
+     *
+     * @param entryLogMeta the metadata of the entry log, with the ledgers stored in the entry log
+     * @return the locations of the entries, or null if the storage cannot look them up
+     * @throws IOException
+     */
+    default List<EntryLocation> getEntryLocationsInEntryLog(EntryLogMetadata entryLogMeta) throws IOException {
+        return null;
+    }
+
+    /**
+     * Called by the garbage collector after each compaction of the entry logs, once the locations of the
+     * compacted entries are updated.
+     *
+     * @throws IOException
+     */
+    default void entryLogsCompacted() throws IOException {
+    }
+
+    /**
+     * Called by the garbage collector when an entry log is removed.
+     *
+     * @param entryLogId the id of the removed entry log
+     */
+    default void entryLogRemoved(long entryLogId) {
+    }
 }
@@ -31,6 +31,10 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.FileRegion;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.IllegalReferenceCountException;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.concurrent.FastThreadLocal;
 import java.io.BufferedReader;
@@ -284,6 +288,7 @@ public class DefaultEntryLogger implements EntryLogger {
     static final long MB = 1024 * 1024;
 
     private final int maxSaneEntrySize;
+    private final int zeroCopyReadMinEntrySize;
 
     private final ByteBufAllocator allocator;
 
@@ -318,6 +323,7 @@ public class DefaultEntryLogger implements EntryLogger {
         //We reserve 500 bytes as overhead for the protocol.  This is not 100% accurate
         // but the protocol varies so an exact value is difficult to determine
         this.maxSaneEntrySize = conf.getNettyMaxFrameSizeBytes() - 500;
+        this.zeroCopyReadMinEntrySize = conf.getZeroCopyReadMinEntrySize();
         this.allocator = allocator;
         this.ledgerDirsManager = ledgerDirsManager;
         this.conf = conf;
@@ -353,6 +359,9 @@ public class DefaultEntryLogger implements EntryLogger {
         if (entryLogPerLedgerEnabled) {
             this.entryLogManager = new EntryLogManagerForEntryLogPerLedger(conf, ledgerDirsManager,
                     entryLoggerAllocator, listeners, recentlyCreatedEntryLogsStatus, statsLogger);
+        } else if (conf.getEntryLogBuckets() > 1) {
+            this.entryLogManager = new EntryLogManagerForLedgerBuckets(conf, ledgerDirsManager,
+                    entryLoggerAllocator, listeners, recentlyCreatedEntryLogsStatus);
         } else {
             this.entryLogManager = new EntryLogManagerForSingleEntryLog(conf, ledgerDirsManager, entryLoggerAllocator,
                     listeners, recentlyCreatedEntryLogsStatus);
@@ -419,6 +428,14 @@ public class DefaultEntryLogger implements EntryLogger {
      */
     private final ConcurrentMap<Long, FileChannel> logid2FileChannel = new ConcurrentHashMap<Long, FileChannel>();
 
+    /**
+     * File channels used by the zero-copy reads. A region may still be transferred after the log was closed
+     * or garbage collected, so each region holds a reference to the channel, which is only closed once the
+     * map and all the regions have released it.
+     */
+    @VisibleForTesting
+    final ConcurrentMap<Long, RegionChannel> logid2RegionChannel = new ConcurrentHashMap<>();
+
     /**
      * Put the logId, bc pair in the map responsible for the current thread.
      * @param logId
@@ -442,6 +459,14 @@ public class DefaultEntryLogger implements EntryLogger {
                 LOG.warn("Exception while closing channel for log file:" + logId);
             }
         }
+        releaseRegionChannel(logId);
+    }
+
+    private void releaseRegionChannel(long logId) {
+        RegionChannel regionChannel = logid2RegionChannel.remove(logId);
+        if (null != regionChannel) {
+            regionChannel.release();
+        }
     }
 
     public BufferedReadChannel getFromChannels(long logId) {
@@ -529,6 +554,9 @@ public class DefaultEntryLogger implements EntryLogger {
         if (!entryLogFile.delete()) {
             LOG.warn("Could not delete entry log file {}", entryLogFile);
         }
+        // a zero-copy read may have opened the file before it was deleted and added its channel after the
+        // channels were closed
+        releaseRegionChannel(entryLogId);
         return true;
     }
 
@@ -819,6 +847,150 @@ public class DefaultEntryLogger implements EntryLogger {
         return internalReadEntry(location, -1L, -1L, false /* validateEntry */);
     }
 
+    @Override
+    public ByteBuf readRegion(long entryLocation, int length) throws IOException {
+        long entryLogId = logIdForOffset(entryLocation);
+        long pos = posForOffset(entryLocation) - 4; // include the size header of the first entry
+
+        BufferedReadChannel fc;
+        try {
+            fc = getFCForEntryInternal(-1L, -1L, entryLogId, pos);
+        } catch (EntryLookupException e) {
+            throw new IOException("Bad region read from log file id: " + entryLogId, e);
+        }
+
+        ByteBuf data = allocator.buffer(length, length);
+        try {
+            int rc = readFromLogChannel(entryLogId, fc, data, pos);
+            if (rc != length) {
+                throw new IOException("Short read of region in " + entryLogId + "@" + pos
+                        + "(" + rc + "!=" + length + ")");
+            }
+        } catch (IOException e) {
+            ReferenceCountUtil.release(data);
+            throw e;
+        }
+        data.writerIndex(length);
+
+        return data;
+    }
+
+    @Override
+    public FileRegion readEntryRegion(long ledgerId, long entryId, long entryLocation) throws IOException {
+        long entryLogId = logIdForOffset(entryLocation);
+        long pos = posForOffset(entryLocation);
+
+        int entrySize;
+        try {
+            BufferedReadChannel fc = getFCForEntryInternal(ledgerId, entryId, entryLogId, pos);
+            ByteBuf sizeBuff = readEntrySize(ledgerId, entryId, entryLogId, pos, fc);
+            entrySize = sizeBuff.getInt(0);
+            validateEntry(ledgerId, entryId, entryLogId, pos, sizeBuff);
+        } catch (EntryLookupException e) {
+            throw new IOException("Bad entry read from log file id: " + entryLogId, e);
+        }
+
+        if (entrySize < zeroCopyReadMinEntrySize) {
+            return null;
+        }
+
+        // The region holds a reference to the channel until the transfer is done, so that
+        // it's not affected by the entry log being closed or deleted in the meantime
+        RegionChannel channel;
+        try {
+            channel = retainRegionChannel(entryLogId);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        if (channel.fileChannel.size() < pos + entrySize) {
+            // Still in the write buffer of the current entry log
+            channel.release();
+            return null;
+        }
+        return new EntryLogFileRegion(channel, pos, entrySize);
+    }
+
+    private RegionChannel retainRegionChannel(long entryLogId) throws IOException {
+        while (true) {
+            RegionChannel channel = logid2RegionChannel.get(entryLogId);
+            if (channel == null) {
+                RegionChannel newChannel = new RegionChannel(
+                        new RandomAccessFile(findFile(entryLogId), "r").getChannel());
+                regionChannelOpened(entryLogId);
+                channel = logid2RegionChannel.putIfAbsent(entryLogId, newChannel);
+                if (channel == null) {
+                    channel = newChannel;
+                    if (!logExists(entryLogId)) {
+                        // the log was removed after the file was opened, before the channel was added: the
+                        // removal did not release it
+                        releaseRegionChannel(entryLogId, newChannel);
+                        throw new FileNotFoundException("Entry log " + Long.toHexString(entryLogId) + " removed");
+                    }
+                } else {
+                    newChannel.release();
+                }
+            }
+
+            try {
+                channel.retain();
+                return channel;
+            } catch (IllegalReferenceCountException e) {
+                // Released concurrently by the removal of the log
+                logid2RegionChannel.remove(entryLogId, channel);
+            }
+        }
+    }
+
+    private void releaseRegionChannel(long entryLogId, RegionChannel channel) {
+        if (logid2RegionChannel.remove(entryLogId, channel)) {
+            channel.release();
+        }
+    }
+
+    /**
+     * Called once the file of a region channel is opened, before the channel is shared.
+     */
+    @VisibleForTesting
+    void regionChannelOpened(long entryLogId) {
+    }
+
+    /**
+     * A file channel shared by the file regions of an entry log, closed when the last reference is released.
+     */
+    static final class RegionChannel extends AbstractReferenceCounted {
+        private final FileChannel fileChannel;
+
+        RegionChannel(FileChannel fileChannel) {
+            this.fileChannel = fileChannel;
+        }
+
+        @Override
+        protected void deallocate() {
+            IOUtils.close(LOG, fileChannel);
+        }
+
+        @Override
+        public RegionChannel touch(Object hint) {
+            return this;
+        }
+    }
+
+    /**
+     * A region of an entry log that releases its reference to the shared channel instead of closing it.
+     */
+    private static final class EntryLogFileRegion extends DefaultFileRegion {
+        private final RegionChannel channel;
+
+        EntryLogFileRegion(RegionChannel channel, long position, long count) {
+            super(channel.fileChannel, position, count);
+            this.channel = channel;
+        }
+
+        @Override
+        protected void deallocate() {
+            channel.release();
+        }
+    }
 
     private ByteBuf internalReadEntry(long ledgerId, long entryId, long location, boolean validateEntry)
             throws IOException, Bookie.NoEntryException {
@@ -1185,6 +1357,10 @@ public class DefaultEntryLogger implements EntryLogger {
             for (FileChannel fc : logid2FileChannel.values()) {
                 IOUtils.close(LOG, fc);
             }
+            // the regions being transferred close their channel once done
+            for (Long logId : logid2RegionChannel.keySet()) {
+                releaseRegionChannel(logId);
+            }
 
             entryLogManager.forceClose();
             synchronized (compactionLogLock) {
@@ -0,0 +1,226 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.apache.bookkeeper.common.util.nativeio.IoUring;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
+
+/**
+ * A {@link BufferedChannel} that writes to the file with direct I/O, bypassing the page cache.
+ *
+ * <p>The data is written from a memory-aligned buffer, with aligned offsets and sizes. When a
+ * flush ends in the middle of a block, the block is written padded with zeros and its content
+ * is kept at the start of the buffer, so that the next flush writes it again completed with the
+ * following data.
+ *
+ * <p>If an {@link IoUring} is given, the writes are submitted to the ring. With {@code linkSync},
+ * each write is linked with a fdatasync in the same submission, and {@link #forceWrite(boolean)}
+ * only has to wait for the sync of the last flush instead of issuing a new one. The flush itself
+ * only waits for the write.
+ *
+ * <p>Once the channel is created, all the writes to the file, including the preallocation, go
+ * through the direct I/O descriptor, so that the page cache never holds a stale copy of a block.
+ * The file channel is still used for the reads of the flushed data and for the metadata syncs.
+ */
+class DirectBufferedChannel extends BufferedChannel {
+    static final int ALIGNMENT = 4096;
+
+    private final NativeIO nativeIO;
+    private final IoUring ioUring;
+    private final boolean linkSync;
+    private final String filename;
+    private final int fd;
+
+    // End of the data written by the last flush, to skip writing twice the same incomplete block
+    private long lastFlushedEnd = -1;
+    // Sync linked to the last flushed write, it makes everything flushed so far durable
+    private volatile CompletableFuture<Integer> lastLinkedSync = null;
+    private boolean fdClosed = false;
+
+    DirectBufferedChannel(ByteBufAllocator allocator, File file, FileChannel fc, int capacity,
+                          NativeIO nativeIO, IoUring ioUring, boolean linkSync) throws IOException {
+        this(allocator.directBuffer(alignUp(capacity) + ALIGNMENT), file, fc, alignUp(capacity),
+                nativeIO, ioUring, linkSync);
+    }
+
+    private DirectBufferedChannel(ByteBuf alignedBuffer, File file, FileChannel fc, int capacity,
+                                  NativeIO nativeIO, IoUring ioUring, boolean linkSync) throws IOException {
+        // The aligned slice shares the reference count of the whole buffer, which is released on close
+        super(alignedSlice(alignedBuffer, capacity), fc, capacity, capacity, 0L);
+        this.nativeIO = nativeIO;
+        this.ioUring = ioUring;
+        this.linkSync = linkSync && ioUring != null;
+        this.filename = file.getPath();
+
+        try {
+            this.fd = nativeIO.open(filename, NativeIO.O_RDWR | NativeIO.O_DIRECT, 00644);
+        } catch (NativeIOException ne) {
+            // Leave the file channel open, the caller can still fallback to it
+            ReferenceCountUtil.release(writeBuffer);
+            throw new IOException("Failed to open " + filename + " with direct I/O", ne);
+        }
+
+        // Start from the beginning of the current block, loading the bytes already in the file
+        long startPosition = writeBufferStartPosition.get();
+        int bytesInBlock = (int) (startPosition % ALIGNMENT);
+        if (bytesInBlock > 0) {
+            long read;
+            try {
+                read = nativeIO.pread(fd, writeBuffer.memoryAddress(), ALIGNMENT, startPosition - bytesInBlock);
+            } catch (NativeIOException ne) {
+                read = -1;
+            }
+            if (read < bytesInBlock) {
+                nativeIO.close(fd);
+                ReferenceCountUtil.release(writeBuffer);
+                throw new IOException("Short read of the last block of " + filename);
+            }
+            writeBuffer.writerIndex(bytesInBlock);
+            writeBufferStartPosition.set(startPosition - bytesInBlock);
+        }
+    }
+
+    private static ByteBuf alignedSlice(ByteBuf buffer, int capacity) {
+        long address = buffer.memoryAddress();
+        int offset = (int) ((ALIGNMENT - (address & (ALIGNMENT - 1))) & (ALIGNMENT - 1));
+        return buffer.slice(offset, capacity).clear();
+    }
+
+    private static int alignUp(int size) {
+        return (size + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        int bytes = writeBuffer.writerIndex();
+        long fileOffset = writeBufferStartPosition.get();
+        int completeBlocksBytes = bytes & -ALIGNMENT;
+        int tailBytes = bytes - completeBlocksBytes;
+        if (bytes == 0 || (tailBytes == bytes && fileOffset + bytes == lastFlushedEnd)) {
+            // Nothing new to write
+            return;
+        }
+
+        // Pad the last block, the padding gets overwritten by the next flush
+        int bytesToWrite = alignUp(bytes);
+        writeBuffer.setZero(bytes, bytesToWrite - bytes);
+        writeFully(writeBuffer.memoryAddress(), bytesToWrite, fileOffset);
+        lastFlushedEnd = fileOffset + bytes;
+
+        // Keep the incomplete block, the two regions never overlap since the tail is shorter than a block
+        if (completeBlocksBytes > 0 && tailBytes > 0) {
+            writeBuffer.setBytes(0, writeBuffer, completeBlocksBytes, tailBytes);
+        }
+        writeBuffer.writerIndex(tailBytes);
+        writeBufferStartPosition.set(fileOffset + completeBlocksBytes);
+    }
+
+    private void writeFully(long pointer, int size, long offset) throws IOException {
+        if (ioUring == null) {
+            while (size > 0) {
+                int written = nativeIO.pwrite(fd, pointer, size, offset);
+                writeSyscalls.incrementAndGet();
+                pointer += written;
+                size -= written;
+                offset += written;
+            }
+            return;
+        }
+
+        CompletableFuture<Integer> write;
+        if (linkSync) {
+            IoUring.WriteAndSync writeAndSync = ioUring.writeAndSync(fd, pointer, size, offset, -1, true);
+            // The flush only waits for the write, the sync is waited by the next force write
+            write = writeAndSync.write();
+            lastLinkedSync = writeAndSync.sync();
+        } else {
+            write = ioUring.write(fd, pointer, size, offset, -1);
+        }
+        writeSyscalls.incrementAndGet();
+
+        int written = waitFor(write);
+        if (written != size) {
+            throw new IOException("Incomplete write to " + filename + " at offset " + offset
+                    + ": " + written + " of " + size + " bytes written");
+        }
+    }
+
+    @Override
+    public long forceWrite(boolean forceMetadata) throws IOException {
+        // Everything before this position was written by a flush that completed already
+        long positionForceWrite = writeBufferStartPosition.get();
+        CompletableFuture<Integer> linkedSync = lastLinkedSync;
+        if (forceMetadata || linkedSync == null) {
+            return super.forceWrite(forceMetadata);
+        }
+
+        waitFor(linkedSync);
+        return positionForceWrite;
+    }
+
+    /**
+     * Allocate the blocks of the range with fallocate, so that no zeros are written through the
+     * page cache. The preallocation is only an optimization, so it's skipped if the filesystem
+     * doesn't support it.
+     */
+    @Override
+    void preallocate(ByteBuffer zeros, long position) throws IOException {
+        try {
+            nativeIO.fallocate(fd, 0, position, zeros.remaining());
+        } catch (NativeIOException ne) {
+            // The writes extend the file anyway
+        }
+    }
+
+    private int waitFor(CompletableFuture<Integer> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing to " + filename, ie);
+        } catch (ExecutionException ee) {
+            throw new IOException("Failed to write to " + filename, ee.getCause());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (!fdClosed) {
+                fdClosed = true;
+                nativeIO.close(fd);
+            }
+        } finally {
+            super.close();
+        }
+    }
+}
@@ -49,7 +49,16 @@ public class EntryLogCompactor extends AbstractLogCompactor {
             EntryLogger entryLogger,
             CompactableLedgerStorage ledgerStorage,
             LogRemovalListener logRemover) {
-        super(conf, logRemover);
+        this(conf, entryLogger, ledgerStorage, new Throttler(conf), logRemover);
+    }
+
+    public EntryLogCompactor(
+            ServerConfiguration conf,
+            EntryLogger entryLogger,
+            CompactableLedgerStorage ledgerStorage,
+            Throttler throttler,
+            LogRemovalListener logRemover) {
+        super(conf, throttler, logRemover);
         this.maxOutstandingRequests = conf.getCompactionMaxOutstandingRequests();
         this.entryLogger = entryLogger;
         this.ledgerStorage = ledgerStorage;
@@ -58,8 +67,7 @@ public class EntryLogCompactor extends AbstractLogCompactor {
     @Override
     public boolean compact(EntryLogMetadata entryLogMeta) {
         try {
-            entryLogger.scanEntryLog(entryLogMeta.getEntryLogId(),
-                scannerFactory.newScanner(entryLogMeta));
+            scanLiveEntries(entryLogger, ledgerStorage, entryLogMeta, scannerFactory.newScanner(entryLogMeta));
             scannerFactory.flush();
             LOG.info("Removing entry log {} after compaction", entryLogMeta.getEntryLogId());
             logRemovalListener.removeEntryLog(entryLogMeta.getEntryLogId());
@@ -99,7 +107,9 @@ public class EntryLogCompactor extends AbstractLogCompactor {
                     }
                     long entryId = entry.getLong(entry.readerIndex() + 8);
 
+                    int entrySize = entry.readableBytes();
                     long newoffset = entryLogger.addEntry(ledgerId, entry);
+                    recordEntryWritten(entrySize);
                     offsets.add(new EntryLocation(ledgerId, entryId, newoffset));
 
                 }
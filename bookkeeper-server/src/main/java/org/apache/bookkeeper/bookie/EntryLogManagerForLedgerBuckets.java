@@ -0,0 +1,334 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.bookie.DefaultEntryLogger.BufferedLogChannel;
+import org.apache.bookkeeper.bookie.LedgerDirsManager.LedgerDirsListener;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.IOUtils;
+
+/**
+ * Entry log manager that spreads the ledgers over a fixed number of buckets, each bucket having its own active
+ * entry log.
+ *
+ * <p>With a single active entry log, the entries of all the ledgers are interleaved in each entry log, so deleting
+ * a ledger rarely frees a whole entry log, and the compaction has to rewrite the entries of the other ledgers. With
+ * an active entry log per ledger, the number of open entry logs grows with the number of ledgers being written.
+ * The buckets bound the number of active entry logs, while each entry log only holds the entries of the ledgers of
+ * its bucket.
+ *
+ * <p>The bucket of a ledger is its ledger id modulo the number of buckets. The bookie does not know how long a
+ * ledger lives, so the ledgers are not grouped by lifetime: the buckets only divide the number of ledgers
+ * interleaved in an entry log by the number of buckets, and a long lived ledger still keeps alive the entry logs of
+ * its bucket after the other ledgers of the bucket are deleted.
+ *
+ * <p>A ledger is always written to the same bucket, including when its entries are moved by the compaction.
+ */
+@Slf4j
+class EntryLogManagerForLedgerBuckets extends EntryLogManagerBase {
+
+    private final int numBuckets;
+    private final BufferedLogChannel[] activeLogChannels;
+    private final ReentrantLock[] bucketLocks;
+    private final AtomicBoolean[] shouldCreateNewEntryLog;
+    private final DefaultEntryLogger.RecentEntryLogsStatus recentlyCreatedEntryLogsStatus;
+
+    EntryLogManagerForLedgerBuckets(ServerConfiguration conf, LedgerDirsManager ledgerDirsManager,
+            EntryLoggerAllocator entryLoggerAllocator, List<DefaultEntryLogger.EntryLogListener> listeners,
+            DefaultEntryLogger.RecentEntryLogsStatus recentlyCreatedEntryLogsStatus) {
+        super(conf, ledgerDirsManager, entryLoggerAllocator, listeners);
+        this.numBuckets = conf.getEntryLogBuckets();
+        this.activeLogChannels = new BufferedLogChannel[numBuckets];
+        this.bucketLocks = new ReentrantLock[numBuckets];
+        this.shouldCreateNewEntryLog = new AtomicBoolean[numBuckets];
+        for (int i = 0; i < numBuckets; i++) {
+            bucketLocks[i] = new ReentrantLock();
+            shouldCreateNewEntryLog[i] = new AtomicBoolean(false);
+        }
+        this.rotatedLogChannels = new CopyOnWriteArrayList<BufferedLogChannel>();
+        this.recentlyCreatedEntryLogsStatus = recentlyCreatedEntryLogsStatus;
+        // Register listener for disk full notifications.
+        ledgerDirsManager.addLedgerDirsListener(getLedgerDirsListener());
+    }
+
+    private LedgerDirsListener getLedgerDirsListener() {
+        return new LedgerDirsListener() {
+            @Override
+            public void diskFull(File disk) {
+                rollLogsInDir(disk);
+            }
+
+            @Override
+            public void diskAlmostFull(File disk) {
+                rollLogsInDir(disk);
+            }
+        };
+    }
+
+    /*
+     * create new entry logs for the buckets whose active entry log is in
+     * the disk, on their next add.
+     */
+    private void rollLogsInDir(File disk) {
+        for (int bucket = 0; bucket < numBuckets; bucket++) {
+            BufferedLogChannel currentActiveLogChannel = getActiveLogChannel(bucket);
+            if (currentActiveLogChannel != null
+                    && currentActiveLogChannel.getLogFile().getParentFile().equals(disk)) {
+                shouldCreateNewEntryLog[bucket].set(true);
+            }
+        }
+    }
+
+    int getBucket(long ledgerId) {
+        return MathUtils.signSafeMod(ledgerId, numBuckets);
+    }
+
+    private BufferedLogChannel getActiveLogChannel(int bucket) {
+        ReentrantLock lock = bucketLocks[bucket];
+        lock.lock();
+        try {
+            return activeLogChannels[bucket];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<BufferedLogChannel> getCopyOfCurrentLogs() {
+        List<BufferedLogChannel> currentLogs = new ArrayList<>(numBuckets);
+        for (int bucket = 0; bucket < numBuckets; bucket++) {
+            BufferedLogChannel logChannel = getActiveLogChannel(bucket);
+            if (logChannel != null) {
+                currentLogs.add(logChannel);
+            }
+        }
+        return currentLogs;
+    }
+
+    @Override
+    public long addEntry(long ledger, ByteBuf entry, boolean rollLog) throws IOException {
+        ReentrantLock lock = bucketLocks[getBucket(ledger)];
+        lock.lock();
+        try {
+            return super.addEntry(ledger, entry, rollLog);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    BufferedLogChannel getCurrentLogForLedgerForAddEntry(long ledgerId, int entrySize, boolean rollLog)
+            throws IOException {
+        int bucket = getBucket(ledgerId);
+        ReentrantLock lock = bucketLocks[bucket];
+        lock.lock();
+        try {
+            BufferedLogChannel logChannel = activeLogChannels[bucket];
+            if (null == logChannel) {
+                // log channel can be null because the file is deferred to be created
+                createNewLog(ledgerId, "because the active log channel of bucket " + bucket
+                        + " has not initialized yet");
+                return activeLogChannels[bucket];
+            }
+
+            boolean reachEntryLogLimit = rollLog ? reachEntryLogLimit(logChannel, entrySize)
+                    : readEntryLogHardLimit(logChannel, entrySize);
+            // Create new log if logSizeLimit reached or current disk is full
+            boolean createNewLog = shouldCreateNewEntryLog[bucket].get();
+            if (createNewLog || reachEntryLogLimit) {
+                logChannel.flushAndForceWriteIfRegularFlush(false);
+                createNewLog(ledgerId, "in bucket " + bucket + " : createNewLog = " + createNewLog
+                        + ", reachEntryLogLimit = " + reachEntryLogLimit);
+                // Reset the flag
+                if (createNewLog) {
+                    shouldCreateNewEntryLog[bucket].set(false);
+                }
+            }
+            return activeLogChannels[bucket];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    void createNewLog(long ledgerId) throws IOException {
+        ReentrantLock lock = bucketLocks[getBucket(ledgerId)];
+        lock.lock();
+        try {
+            super.createNewLog(ledgerId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    void setCurrentLogForLedgerAndAddToRotate(long ledgerId, BufferedLogChannel logChannel) {
+        int bucket = getBucket(ledgerId);
+        ReentrantLock lock = bucketLocks[bucket];
+        lock.lock();
+        try {
+            BufferedLogChannel hasToRotateLogChannel = activeLogChannels[bucket];
+            activeLogChannels[bucket] = logChannel;
+            if (hasToRotateLogChannel != null) {
+                rotatedLogChannels.add(hasToRotateLogChannel);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    BufferedLogChannel getCurrentLogForLedger(long ledgerId) {
+        return getActiveLogChannel(getBucket(ledgerId));
+    }
+
+    @Override
+    public BufferedLogChannel getCurrentLogIfPresent(long entryLogId) {
+        for (BufferedLogChannel logChannel : getCopyOfCurrentLogs()) {
+            if (logChannel.getLogId() == entryLogId) {
+                return logChannel;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * the next entry log is created in the writable ledger dir with the
+     * least number of active entry logs, so the buckets are spread over
+     * the ledger dirs.
+     */
+    @Override
+    public File getDirForNextEntryLog(List<File> writableLedgerDirs) {
+        Map<File, Integer> numActiveLogsInDir = new HashMap<>();
+        for (File dir : writableLedgerDirs) {
+            numActiveLogsInDir.put(dir, 0);
+        }
+        for (BufferedLogChannel logChannel : getCopyOfCurrentLogs()) {
+            numActiveLogsInDir.computeIfPresent(logChannel.getLogFile().getParentFile(), (dir, n) -> n + 1);
+        }
+        List<File> dirs = new ArrayList<>(writableLedgerDirs);
+        Collections.shuffle(dirs);
+        File selectedDir = dirs.get(0);
+        for (File dir : dirs) {
+            if (numActiveLogsInDir.get(dir) < numActiveLogsInDir.get(selectedDir)) {
+                selectedDir = dir;
+            }
+        }
+        return selectedDir;
+    }
+
+    @Override
+    public void checkpoint() throws IOException {
+        /*
+         * as for the entry log per ledger, the checkpoint is driven
+         * periodically by the SyncThread, so both the rotated logs and the
+         * active logs of all the buckets should be flushed.
+         */
+        super.flush();
+    }
+
+    @Override
+    void flushCurrentLogs() throws IOException {
+        for (BufferedLogChannel logChannel : getCopyOfCurrentLogs()) {
+            /**
+             * flushCurrentLogs method is called during checkpoint, so metadata
+             * of the file also should be force written.
+             */
+            flushLogChannel(logChannel, true);
+        }
+    }
+
+    @Override
+    void flushRotatedLogs() throws IOException {
+        for (BufferedLogChannel channel : rotatedLogChannels) {
+            channel.flushAndForceWrite(true);
+            // since this channel is only used for writing, after flushing the channel,
+            // we had to close the underlying file channel. Otherwise, we might end up
+            // leaking fds which cause the disk spaces could not be reclaimed.
+            channel.close();
+            recentlyCreatedEntryLogsStatus.flushRotatedEntryLog(channel.getLogId());
+            rotatedLogChannels.remove(channel);
+            log.info("Synced entry logger {} to disk.", channel.getLogId());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (BufferedLogChannel logChannel : getCopyOfCurrentLogs()) {
+            logChannel.close();
+        }
+    }
+
+    @Override
+    public void forceClose() {
+        for (BufferedLogChannel logChannel : getCopyOfCurrentLogs()) {
+            IOUtils.close(log, logChannel);
+        }
+    }
+
+    @Override
+    public void prepareEntryMemTableFlush() {
+        // do nothing
+    }
+
+    @Override
+    public boolean commitEntryMemTableFlush() throws IOException {
+        boolean rolled = false;
+        for (int bucket = 0; bucket < numBuckets; bucket++) {
+            ReentrantLock lock = bucketLocks[bucket];
+            lock.lock();
+            try {
+                if (reachEntryLogLimit(activeLogChannels[bucket], 0L)) {
+                    log.info("Rolling entry logger since it reached size limitation for bucket: {}", bucket);
+                    // the bucket of a ledger id lower than the number of buckets is the ledger id
+                    createNewLog(bucket, "due to reaching log limit after flushing memtable in bucket " + bucket);
+                    rolled = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return rolled;
+    }
+
+    @Override
+    public void prepareSortedLedgerStorageCheckpoint(long numBytesFlushed) throws IOException {
+        // do nothing, the active logs of all the buckets are flushed by the checkpoint
+    }
+
+    @Override
+    public BufferedLogChannel createNewLogForCompaction() throws IOException {
+        return entryLoggerAllocator.createNewLogForCompaction(selectDirForNextEntryLog());
+    }
+}
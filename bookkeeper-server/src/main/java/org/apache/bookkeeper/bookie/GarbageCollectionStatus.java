@@ -21,6 +21,7 @@
 
 package org.apache.bookkeeper.bookie;
 
+import java.util.List;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.Setter;
@@ -44,4 +45,21 @@ public class GarbageCollectionStatus {
     private long lastMinorCompactionTime;
     private long majorCompactionCounter;
     private long minorCompactionCounter;
+
+    // the ledger dirs of the entry logs collected by the GC thread.
+    private List<String> ledgerDirs;
+    // number of entry logs by usage, in buckets of 10% from [0%, 10%) to [90%, 100%].
+    private int[] entryLogUsageBuckets;
+    // bytes reclaimed by compacting the entry logs below the minor and major compaction thresholds.
+    private long minorCompactionReclaimableBytes;
+    private long majorCompactionReclaimableBytes;
+    // estimated time to compact them at the current compaction rate, -1 if not throttled by bytes.
+    private long minorCompactionTimeEstimateMillis;
+    private long majorCompactionTimeEstimateMillis;
+
+    private long reclaimedSpaceViaCompaction;
+    private long compactionBytesRead;
+    private long compactionBytesWritten;
+    // bytes rewritten by the compaction per byte it reclaimed.
+    private double compactionWriteAmplification;
 }
@@ -27,14 +27,22 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.atomic.AtomicLong;
 import lombok.Getter;
 import org.apache.bookkeeper.bookie.BookieException.EntryLogMetadataMapException;
@@ -90,17 +98,25 @@ public class GarbageCollectorThread implements Runnable {
     final EntryLogger entryLogger;
     final AbstractLogCompactor compactor;
 
+    // Compactors of the entry logs compacted concurrently and the executor running them,
+    // null if the entry logs are compacted one at a time on the gc thread
+    final int maxConcurrentCompactions;
+    private final BlockingQueue<AbstractLogCompactor> idleCompactors;
+    private final ExecutorService compactionExecutor;
+
     // Stats loggers for garbage collection operations
     private final GarbageCollectorStats gcStats;
 
     private volatile long totalEntryLogSize;
     private volatile int numActiveEntryLogs;
+    private volatile EntryLogUsage entryLogUsage = new EntryLogUsage();
 
     final CompactableLedgerStorage ledgerStorage;
 
-    // flag to ensure gc thread will not be interrupted during compaction
-    // to reduce the risk getting entry log corrupted
-    final AtomicBoolean compacting = new AtomicBoolean(false);
+    // number of entry logs being compacted and flag to stop starting new compactions, to ensure
+    // gc thread will not be interrupted during compaction to reduce the risk getting entry log corrupted
+    final AtomicInteger numCompactingEntryLogs = new AtomicInteger(0);
+    volatile boolean compactionStopped = false;
 
     // use to get the compacting status
     final AtomicBoolean minorCompacting = new AtomicBoolean(false);
@@ -171,7 +187,12 @@ public class GarbageCollectorThread implements Runnable {
             statsLogger,
             () -> numActiveEntryLogs,
             () -> totalEntryLogSize,
-            () -> garbageCollector.getNumActiveLedgers()
+            () -> garbageCollector.getNumActiveLedgers(),
+            bucket -> entryLogUsage.numEntryLogsByUsage[bucket],
+            () -> entryLogUsage.minorCompactionReclaimableBytes,
+            () -> entryLogUsage.majorCompactionReclaimableBytes,
+            () -> estimateCompactionTimeMillis(entryLogUsage.minorCompactionLiveBytes),
+            () -> estimateCompactionTimeMillis(entryLogUsage.majorCompactionLiveBytes)
         );
 
         this.garbageCleaner = ledgerId -> {
@@ -210,13 +231,30 @@ public class GarbageCollectorThread implements Runnable {
                 }
             }
         };
-        if (conf.getUseTransactionalCompaction()) {
-            this.compactor = new TransactionalEntryLogCompactor(conf, entryLogger, ledgerStorage, remover);
+        // the compactors share the I/O budget of the gc thread
+        this.throttler = new AbstractLogCompactor.Throttler(conf);
+        this.compactor = newCompactor(remover);
+
+        int maxConcurrentCompactions = Math.max(1, conf.getCompactionMaxConcurrentEntryLogs());
+        if (maxConcurrentCompactions > 1 && conf.getUseTransactionalCompaction()
+                && entryLogger instanceof DefaultEntryLogger) {
+            LOG.warn("Transactional compaction uses a single compaction log with the default entry logger,"
+                    + " compacting one entry log at a time instead of {}", maxConcurrentCompactions);
+            maxConcurrentCompactions = 1;
+        }
+        this.maxConcurrentCompactions = maxConcurrentCompactions;
+        if (maxConcurrentCompactions > 1) {
+            this.idleCompactors = new ArrayBlockingQueue<>(maxConcurrentCompactions);
+            this.idleCompactors.add(compactor);
+            for (int i = 1; i < maxConcurrentCompactions; i++) {
+                this.idleCompactors.add(newCompactor(remover));
+            }
+            this.compactionExecutor = Executors.newFixedThreadPool(maxConcurrentCompactions,
+                    new DefaultThreadFactory("GarbageCollectorThread-compaction"));
         } else {
-            this.compactor = new EntryLogCompactor(conf, entryLogger, ledgerStorage, remover);
+            this.idleCompactors = null;
+            this.compactionExecutor = null;
         }
-
-        this.throttler = new AbstractLogCompactor.Throttler(conf);
         if (minorCompactionInterval > 0 && minorCompactionThreshold > 0) {
             if (minorCompactionThreshold > 1.0d) {
                 throw new IOException("Invalid minor compaction threshold "
@@ -264,10 +302,19 @@ public class GarbageCollectorThread implements Runnable {
                + minorCompactionThreshold + ", interval=" + minorCompactionInterval);
         LOG.info("Major Compaction : enabled=" + enableMajorCompaction + ", threshold="
                + majorCompactionThreshold + ", interval=" + majorCompactionInterval);
+        LOG.info("Compaction : maxConcurrentEntryLogs=" + maxConcurrentCompactions);
 
         lastMinorCompactionTime = lastMajorCompactionTime = System.currentTimeMillis();
     }
 
+    private AbstractLogCompactor newCompactor(AbstractLogCompactor.LogRemovalListener remover) {
+        if (conf.getUseTransactionalCompaction()) {
+            return new TransactionalEntryLogCompactor(conf, entryLogger, ledgerStorage, throttler, remover);
+        } else {
+            return new EntryLogCompactor(conf, entryLogger, ledgerStorage, throttler, remover);
+        }
+    }
+
     private EntryLogMetadataMap createEntryLogMetadataMap() throws IOException {
         if (conf.isGcEntryLogMetadataCacheEnabled()) {
             String baseDir = Strings.isNullOrEmpty(conf.getGcEntryLogMetadataCachePath())
@@ -484,9 +531,11 @@ public class GarbageCollectorThread implements Runnable {
     /**
      * Garbage collect those entry loggers which are not associated with any active ledgers.
      */
-    private void doGcEntryLogs() throws EntryLogMetadataMapException {
+    @VisibleForTesting
+    void doGcEntryLogs() throws EntryLogMetadataMapException {
         // Get a cumulative count, don't update until complete
         AtomicLong totalEntryLogSizeAcc = new AtomicLong(0L);
+        EntryLogUsage usageAcc = new EntryLogUsage();
 
         // Loop through all of the entry logs and remove the non-active ledgers.
         entryLogMetaMap.forEach((entryLogId, meta) -> {
@@ -510,10 +559,62 @@ public class GarbageCollectorThread implements Runnable {
                 LOG.warn("Failed to remove ledger from entry-log metadata {}", entryLogId, e);
             }
            totalEntryLogSizeAcc.getAndAdd(meta.getRemainingSize());
+            if (!meta.isEmpty()) {
+                usageAcc.add(meta, getUsage(meta));
+            }
         });
 
         this.totalEntryLogSize = totalEntryLogSizeAcc.get();
         this.numActiveEntryLogs = entryLogMetaMap.size();
+        this.entryLogUsage = usageAcc;
+    }
+
+    /**
+     * The usage of an entry log, which is compared to the compaction thresholds.
+     */
+    private double getUsage(EntryLogMetadata meta) {
+        double usage = meta.getUsage();
+        if (conf.isUseTargetEntryLogSizeForGc() && usage < 1.0d) {
+            usage = (double) meta.getRemainingSize() / Math.max(meta.getTotalSize(), conf.getEntryLogSizeLimit());
+        }
+        return usage;
+    }
+
+    /**
+     * Estimate the time to compact entry logs at the current compaction rate.
+     *
+     * @param liveBytes bytes of the live entries to rewrite
+     * @return the estimated time in milliseconds, or -1 if the compaction is not throttled by bytes
+     */
+    private long estimateCompactionTimeMillis(long liveBytes) {
+        if (!conf.getIsThrottleByBytes() || throttler == null) {
+            return -1L;
+        }
+        return (long) (liveBytes * 1000 / Math.max(1.0d, throttler.getRate()));
+    }
+
+    /**
+     * The usage of the entry logs, computed on each pass of the garbage collection of the entry logs.
+     */
+    private class EntryLogUsage {
+        final int[] numEntryLogsByUsage = new int[GarbageCollectorStats.NUM_ENTRY_LOG_USAGE_BUCKETS];
+        // bytes reclaimed and live bytes rewritten by compacting the entry logs below the compaction thresholds
+        long minorCompactionReclaimableBytes;
+        long minorCompactionLiveBytes;
+        long majorCompactionReclaimableBytes;
+        long majorCompactionLiveBytes;
+
+        void add(EntryLogMetadata meta, double usage) {
+            numEntryLogsByUsage[calculateUsageIndex(numEntryLogsByUsage.length, usage)]++;
+            if (usage < minorCompactionThreshold) {
+                minorCompactionReclaimableBytes += meta.getTotalSize() - meta.getRemainingSize();
+                minorCompactionLiveBytes += meta.getRemainingSize();
+            }
+            if (usage < majorCompactionThreshold) {
+                majorCompactionReclaimableBytes += meta.getTotalSize() - meta.getRemainingSize();
+                majorCompactionLiveBytes += meta.getRemainingSize();
+            }
+        }
     }
 
     private boolean removeIfLedgerNotExists(EntryLogMetadata meta) throws EntryLogMetadataMapException {
@@ -539,33 +640,33 @@ public class GarbageCollectorThread implements Runnable {
      * Compact entry logs if necessary.
      *
      * <p>
-     * Compaction will be executed from low unused space to high unused space.
-     * Those entry log files whose remaining size percentage is higher than threshold
-     * would not be compacted.
+     * Compaction will be executed from the entry log files reclaiming the most space for the
+     * I/O of their compaction to those reclaiming the least, which is from low unused space
+     * to high unused space. Those entry log files whose remaining size percentage is higher
+     * than threshold would not be compacted.
+     * </p>
+     *
+     * <p>
+     * Up to {@link ServerConfiguration#getCompactionMaxConcurrentEntryLogs()} entry log files
+     * are compacted concurrently, sharing the I/O budget of the throttler.
      * </p>
      */
     @VisibleForTesting
     void doCompactEntryLogs(double threshold, long maxTimeMillis) throws EntryLogMetadataMapException {
         LOG.info("Do compaction to compact those files lower than {}", threshold);
 
-        final int numBuckets = 10;
+        final int numBuckets = GarbageCollectorStats.NUM_ENTRY_LOG_USAGE_BUCKETS;
         int[] entryLogUsageBuckets = new int[numBuckets];
-        int[] compactedBuckets = new int[numBuckets];
+        AtomicIntegerArray compactedBuckets = new AtomicIntegerArray(numBuckets);
 
-        ArrayList<LinkedList<Long>> compactableBuckets = new ArrayList<>(numBuckets);
-        for (int i = 0; i < numBuckets; i++) {
-            compactableBuckets.add(new LinkedList<>());
-        }
+        List<CompactionCandidate> candidates = new ArrayList<>();
 
         long start = System.currentTimeMillis();
         MutableLong end = new MutableLong(start);
         MutableLong timeDiff = new MutableLong(0);
 
         entryLogMetaMap.forEach((entryLogId, meta) -> {
-            double usage = meta.getUsage();
-            if (conf.isUseTargetEntryLogSizeForGc() && usage < 1.0d) {
-                usage = (double) meta.getRemainingSize() / Math.max(meta.getTotalSize(), conf.getEntryLogSizeLimit());
-            }
+            double usage = getUsage(meta);
             int bucketIndex = calculateUsageIndex(numBuckets, usage);
             entryLogUsageBuckets[bucketIndex]++;
 
@@ -581,49 +682,67 @@ public class GarbageCollectorThread implements Runnable {
                 return;
             }
 
-            compactableBuckets.get(bucketIndex).add(meta.getEntryLogId());
+            candidates.add(new CompactionCandidate(meta.getEntryLogId(), bucketIndex,
+                    meta.getTotalSize(), meta.getRemainingSize()));
         });
 
         LOG.info(
                 "Compaction: entry log usage buckets before compaction [10% 20% 30% 40% 50% 60% 70% 80% 90% 100%] = {}",
                 entryLogUsageBuckets);
 
-        final int maxBucket = calculateUsageIndex(numBuckets, threshold);
-        stopCompaction:
-        for (int currBucket = 0; currBucket <= maxBucket; currBucket++) {
-            LinkedList<Long> entryLogIds = compactableBuckets.get(currBucket);
-            while (!entryLogIds.isEmpty()) {
-                if (timeDiff.getValue() < maxTimeMillis) {
-                    end.setValue(System.currentTimeMillis());
-                    timeDiff.setValue(end.getValue() - start);
-                }
+        candidates.sort(CompactionCandidate.BY_RECLAIM_PER_IO);
+        if (!candidates.isEmpty() && !prepareEntryLogsCompaction()) {
+            candidates.clear();
+        }
+        for (CompactionCandidate candidate : candidates) {
+            if (timeDiff.getValue() < maxTimeMillis) {
+                end.setValue(System.currentTimeMillis());
+                timeDiff.setValue(end.getValue() - start);
+            }
 
-                if ((maxTimeMillis > 0 && timeDiff.getValue() >= maxTimeMillis) || !running) {
-                    // We allow the usage limit calculation to continue so that we get an accurate
-                    // report of where the usage was prior to running compaction.
-                    break stopCompaction;
-                }
+            if ((maxTimeMillis > 0 && timeDiff.getValue() >= maxTimeMillis) || !running) {
+                // We allow the usage limit calculation to continue so that we get an accurate
+                // report of where the usage was prior to running compaction.
+                break;
+            }
 
-                final int bucketIndex = currBucket;
-                final long logId = entryLogIds.remove();
+            if (compactionExecutor == null) {
+                compactEntryLog(candidate, compactor, threshold, compactedBuckets);
+                continue;
+            }
 
-                entryLogMetaMap.forKey(logId, (entryLogId, meta) -> {
-                    if (meta == null) {
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("Metadata for entry log {} already deleted", logId);
-                        }
-                        return;
-                    }
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Compacting entry log {} with usage {} below threshold {}",
-                                meta.getEntryLogId(), meta.getUsage(), threshold);
+            // wait for a compactor to be idle, so at most maxConcurrentCompactions entry logs are compacted
+            AbstractLogCompactor idleCompactor;
+            try {
+                idleCompactor = idleCompactors.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            try {
+                compactionExecutor.execute(() -> {
+                    try {
+                        compactEntryLog(candidate, idleCompactor, threshold, compactedBuckets);
+                    } catch (EntryLogMetadataMapException e) {
+                        LOG.error("Failed to compact entry log {} due to entry-log metadata map error",
+                                candidate.entryLogId, e);
+                    } finally {
+                        idleCompactors.add(idleCompactor);
                     }
-
-                    long priorRemainingSize = meta.getRemainingSize();
-                    compactEntryLog(meta);
-                    gcStats.getReclaimedSpaceViaCompaction().addCount(meta.getTotalSize() - priorRemainingSize);
-                    compactedBuckets[bucketIndex]++;
                 });
+            } catch (RejectedExecutionException e) {
+                // the gc thread is shutting down
+                idleCompactors.add(idleCompactor);
+                break;
+            }
+        }
+        awaitConcurrentCompactions();
+
+        if (running) {
+            try {
+                ledgerStorage.entryLogsCompacted();
+            } catch (IOException e) {
+                LOG.warn("Failed to complete the compaction in the ledger storage", e);
             }
         }
 
@@ -640,6 +759,86 @@ public class GarbageCollectorThread implements Runnable {
                 entryLogUsageBuckets, compactedBuckets);
     }
 
+    private boolean prepareEntryLogsCompaction() {
+        try {
+            ledgerStorage.prepareEntryLogsCompaction();
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Failed to prepare the compaction in the ledger storage, skipping the compaction", e);
+            return false;
+        }
+    }
+
+    private void compactEntryLog(CompactionCandidate candidate, AbstractLogCompactor logCompactor,
+                                 double threshold, AtomicIntegerArray compactedBuckets)
+            throws EntryLogMetadataMapException {
+        entryLogMetaMap.forKey(candidate.entryLogId, (entryLogId, meta) -> {
+            if (meta == null) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Metadata for entry log {} already deleted", entryLogId);
+                }
+                return;
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Compacting entry log {} with usage {} below threshold {}",
+                        meta.getEntryLogId(), meta.getUsage(), threshold);
+            }
+
+            long priorRemainingSize = meta.getRemainingSize();
+            long priorBytesRead = logCompactor.getBytesRead();
+            long priorBytesWritten = logCompactor.getBytesWritten();
+            compactEntryLog(meta, logCompactor);
+            gcStats.getReclaimedSpaceViaCompaction().addCount(meta.getTotalSize() - priorRemainingSize);
+            gcStats.getCompactionReadBytes().addCount(logCompactor.getBytesRead() - priorBytesRead);
+            gcStats.getCompactionWrittenBytes().addCount(logCompactor.getBytesWritten() - priorBytesWritten);
+            compactedBuckets.incrementAndGet(candidate.bucketIndex);
+        });
+    }
+
+    /**
+     * Wait for the entry logs being compacted concurrently to be compacted.
+     */
+    private void awaitConcurrentCompactions() {
+        if (compactionExecutor == null) {
+            return;
+        }
+        List<AbstractLogCompactor> compactors = new ArrayList<>(maxConcurrentCompactions);
+        try {
+            while (compactors.size() < maxConcurrentCompactions) {
+                compactors.add(idleCompactors.take());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            idleCompactors.addAll(compactors);
+        }
+    }
+
+    /**
+     * An entry log to compact.
+     */
+    private static class CompactionCandidate {
+        // The entry log with the most bytes reclaimed per byte read and written by its compaction first.
+        // The compaction reads the whole entry log and writes its remaining entries, and the entry logs
+        // reclaiming the same bytes per byte of I/O are compacted from the largest to the smallest.
+        static final Comparator<CompactionCandidate> BY_RECLAIM_PER_IO =
+                Comparator.comparingDouble((CompactionCandidate c) -> c.reclaimPerIo)
+                        .thenComparingLong(c -> c.totalSize)
+                        .reversed();
+
+        final long entryLogId;
+        final int bucketIndex;
+        final long totalSize;
+        final double reclaimPerIo;
+
+        CompactionCandidate(long entryLogId, int bucketIndex, long totalSize, long remainingSize) {
+            this.entryLogId = entryLogId;
+            this.bucketIndex = bucketIndex;
+            this.totalSize = totalSize;
+            this.reclaimPerIo = (double) (totalSize - remainingSize) / Math.max(1L, totalSize + remainingSize);
+        }
+    }
+
     /**
      * Calculate the index for the batch based on the usage between 0 and 1.
      *
@@ -665,16 +864,19 @@ public class GarbageCollectorThread implements Runnable {
         }
         LOG.info("Shutting down GarbageCollectorThread");
 
+        compactionStopped = true;
         throttler.cancelledAcquire();
-        compactor.throttler.cancelledAcquire();
-        while (!compacting.compareAndSet(false, true)) {
-            // Wait till the thread stops compacting
+        while (numCompactingEntryLogs.get() > 0) {
+            // Wait till the threads stop compacting
             Thread.sleep(100);
         }
 
         this.running = false;
         // Interrupt GC executor thread
         gcExecutor.shutdownNow();
+        if (compactionExecutor != null) {
+            compactionExecutor.shutdownNow();
+        }
         try {
             entryLogMetaMap.close();
         } catch (Exception e) {
@@ -694,6 +896,7 @@ public class GarbageCollectorThread implements Runnable {
         if (entryLogger.removeEntryLog(entryLogId)) {
             LOG.info("Removing entry log metadata for {}", entryLogId);
             entryLogMetaMap.remove(entryLogId);
+            ledgerStorage.entryLogRemoved(entryLogId);
         }
     }
 
@@ -703,28 +906,43 @@ public class GarbageCollectorThread implements Runnable {
      * @param entryLogMeta
      */
     protected void compactEntryLog(EntryLogMetadata entryLogMeta) {
+        if (prepareEntryLogsCompaction()) {
+            compactEntryLog(entryLogMeta, compactor);
+        }
+    }
+
+    private void compactEntryLog(EntryLogMetadata entryLogMeta, AbstractLogCompactor logCompactor) {
         // Similar with Sync Thread
-        // try to mark compacting flag to make sure it would not be interrupted
+        // count the compaction to make sure it would not be interrupted
         // by shutdown during compaction. otherwise it will receive
         // ClosedByInterruptException which may cause index file & entry logger
         // closed and corrupted.
-        if (!compacting.compareAndSet(false, true)) {
-            // set compacting flag failed, means compacting is true now
-            // indicates that compaction is in progress for this EntryLogId.
-            return;
-        }
-
+        numCompactingEntryLogs.incrementAndGet();
         try {
+            if (compactionStopped) {
+                // shutdown is waiting for the compactions in progress to complete
+                return;
+            }
             // Do the actual compaction
-            compactor.compact(entryLogMeta);
+            logCompactor.compact(entryLogMeta);
         } catch (Exception e) {
             LOG.error("Failed to compact entry log {} due to unexpected error", entryLogMeta.getEntryLogId(), e);
         } finally {
             // Mark compaction done
-            compacting.set(false);
+            numCompactingEntryLogs.decrementAndGet();
         }
     }
 
+    /**
+     * Record the latency of a foreground read of the entry logs, to back off the compaction when
+     * the latency of the disk rises.
+     *
+     * @param latencyNanos latency of the read, in nanoseconds
+     */
+    public void recordForegroundReadLatency(long latencyNanos) {
+        throttler.recordForegroundLatency(latencyNanos);
+    }
+
     /**
      * Method to read in all of the entry logs (those that we haven't done so yet),
      * and find the set of ledger ID's that make up each entry log file.
@@ -756,6 +974,7 @@ public class GarbageCollectorThread implements Runnable {
                     // remove it from entrylogmetadata-map if it is present in
                     // the map
                     entryLogMetaMap.remove(entryLogId);
+                    ledgerStorage.entryLogRemoved(entryLogId);
                 } else {
                     entryLogMetaMap.put(entryLogId, entryLogMeta);
                 }
@@ -776,6 +995,13 @@ public class GarbageCollectorThread implements Runnable {
     }
 
     public GarbageCollectionStatus getGarbageCollectionStatus() {
+        EntryLogUsage usage = entryLogUsage;
+        List<String> ledgerDirs = new ArrayList<>();
+        for (File dir : ledgerDirsManager.getAllLedgerDirs()) {
+            ledgerDirs.add(dir.getPath());
+        }
+        long reclaimedSpaceViaCompaction = gcStats.getReclaimedSpaceViaCompaction().get();
+        long compactionBytesWritten = gcStats.getCompactionWrittenBytes().get();
         return GarbageCollectionStatus.builder()
             .forceCompacting(forceGarbageCollection.get())
             .majorCompacting(majorCompacting.get())
@@ -784,6 +1010,17 @@ public class GarbageCollectorThread implements Runnable {
             .lastMinorCompactionTime(lastMinorCompactionTime)
             .majorCompactionCounter(gcStats.getMajorCompactionCounter().get())
             .minorCompactionCounter(gcStats.getMinorCompactionCounter().get())
+            .ledgerDirs(ledgerDirs)
+            .entryLogUsageBuckets(usage.numEntryLogsByUsage.clone())
+            .minorCompactionReclaimableBytes(usage.minorCompactionReclaimableBytes)
+            .majorCompactionReclaimableBytes(usage.majorCompactionReclaimableBytes)
+            .minorCompactionTimeEstimateMillis(estimateCompactionTimeMillis(usage.minorCompactionLiveBytes))
+            .majorCompactionTimeEstimateMillis(estimateCompactionTimeMillis(usage.majorCompactionLiveBytes))
+            .reclaimedSpaceViaCompaction(reclaimedSpaceViaCompaction)
+            .compactionBytesRead(gcStats.getCompactionReadBytes().get())
+            .compactionBytesWritten(compactionBytesWritten)
+            .compactionWriteAmplification(reclaimedSpaceViaCompaction > 0
+                    ? (double) compactionBytesWritten / reclaimedSpaceViaCompaction : 0.0d)
             .build();
     }
 }
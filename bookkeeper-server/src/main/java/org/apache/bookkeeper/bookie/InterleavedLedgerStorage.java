@@ -438,11 +438,14 @@ public class InterleavedLedgerStorage implements CompactableLedgerStorage, Entry
             success = true;
             return retBytes;
         } finally {
+            long readEntryNanos = MathUtils.elapsedNanos(startTimeNanos);
             if (success) {
-                getEntryStats.registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+                getEntryStats.registerSuccessfulEvent(readEntryNanos, TimeUnit.NANOSECONDS);
             } else {
-                getEntryStats.registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+                getEntryStats.registerFailedEvent(readEntryNanos, TimeUnit.NANOSECONDS);
             }
+            // the failed reads also went to the entry log disk
+            gcThread.recordForegroundReadLatency(readEntryNanos);
         }
     }
 
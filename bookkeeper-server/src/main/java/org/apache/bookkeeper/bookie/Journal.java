@@ -51,6 +51,9 @@ import org.apache.bookkeeper.common.collections.BlockingMpscQueue;
 import org.apache.bookkeeper.common.collections.RecyclableArrayList;
 import org.apache.bookkeeper.common.util.MemoryLimitController;
 import org.apache.bookkeeper.common.util.affinity.CpuAffinity;
+import org.apache.bookkeeper.common.util.nativeio.IoUring;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOImpl;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.proto.BookieRequestHandler;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
@@ -90,6 +93,13 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                 int capacity) -> new BufferedChannel(UnpooledByteBufAllocator.DEFAULT, fc, capacity);
 
         BufferedChannel create(FileChannel fc, int capacity) throws IOException;
+
+        /**
+         * Create the channel to write the given journal file.
+         */
+        default BufferedChannel create(File file, FileChannel fc, int capacity) throws IOException {
+            return create(fc, capacity);
+        }
     }
 
 
@@ -535,10 +545,17 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
 
         private void syncJournal(ForceWriteRequest lastRequest) throws IOException {
             long fsyncStartTime = MathUtils.nowInNano();
+            BufferedChannel bc = lastRequest.logFile.bc;
+            long syncSyscallsBeforeSync = bc.getNumSyncSyscalls();
             try {
                 lastRequest.flushFileToDisk();
-                journalStats.getJournalSyncStats().registerSuccessfulEvent(MathUtils.elapsedNanos(fsyncStartTime),
-                        TimeUnit.NANOSECONDS);
+                journalStats.getJournalSyncSyscallsStats()
+                        .registerSuccessfulValue(bc.getNumSyncSyscalls() - syncSyscallsBeforeSync);
+                long fsyncNanos = MathUtils.elapsedNanos(fsyncStartTime);
+                journalStats.getJournalSyncStats().registerSuccessfulEvent(fsyncNanos, TimeUnit.NANOSECONDS);
+                if (groupCommitController != null) {
+                    groupCommitController.onSync(fsyncNanos);
+                }
                 lastLogMark.setCurLogMark(lastRequest.logId, lastRequest.lastFlushedPosition);
             } catch (IOException ioe) {
                 journalStats.getJournalSyncStats()
@@ -617,6 +634,8 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
     private final long bufferedWritesThreshold;
     // should we flush if the queue is empty
     private final boolean flushWhenQueueEmpty;
+    // picks the group commit parameters at runtime, null if they are fixed
+    private final JournalGroupCommitController groupCommitController;
     // should we hint the filesystem to remove pages from cache after force write
     private final boolean removePagesFromCache;
     private final int journalFormatVersionToWrite;
@@ -629,6 +648,11 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
     // Should data be fsynced on disk before triggering the callback
     private final boolean syncData;
 
+    // Whether the journal files are written with direct I/O, disabled if it's not supported
+    private volatile boolean journalDirectIo;
+    private final NativeIO journalNativeIO;
+    private final IoUring journalIoUring;
+
     private final LastLogMark lastLogMark = new LastLogMark(0, 0);
 
     private static final String LAST_MARK_DEFAULT_NAME = "lastMark";
@@ -703,7 +727,20 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
         // we cannot skip flushing for queue empty
         this.flushWhenQueueEmpty = maxGroupWaitInNanos <= 0 || conf.getJournalFlushWhenQueueEmpty();
 
+        this.groupCommitController = conf.getJournalAdaptiveGroupCommitEnabled()
+                ? new JournalGroupCommitController(
+                        TimeUnit.MILLISECONDS.toNanos(conf.getJournalAdaptiveGroupCommitTargetLatencyMSec()),
+                        maxGroupWaitInNanos, bufferedEntriesThreshold, bufferedWritesThreshold, syncData,
+                        journalStatsLogger)
+                : null;
+
         this.removePagesFromCache = conf.getJournalRemovePagesFromCache();
+
+        this.journalDirectIo = conf.getJournalDirectIoEnabled();
+        this.journalNativeIO = journalDirectIo ? new NativeIOImpl() : null;
+        this.journalIoUring = journalDirectIo && conf.getJournalIoUringQueueDepth() > 0
+                ? createIoUring(conf.getJournalIoUringQueueDepth(), journalIndex) : null;
+
         // read last log mark
         if (conf.getJournalDirs().length == 1) {
             lastMarkFileName = LAST_MARK_DEFAULT_NAME;
@@ -727,6 +764,16 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                 () -> memoryLimitController.currentUsage());
     }
 
+    private IoUring createIoUring(int queueDepth, int journalIndex) {
+        try {
+            return new IoUring(journalNativeIO, queueDepth, "BookieJournalIoUring-" + journalIndex);
+        } catch (IOException | LinkageError e) {
+            LOG.warn("io_uring is not available, journal {} falls back to pwrite: {}",
+                    journalDirectory, e.getMessage());
+            return null;
+        }
+    }
+
     public Journal(int journalIndex, File journalDirectory, ServerConfiguration conf,
                    LedgerDirsManager ledgerDirsManager, StatsLogger statsLogger,
                    ByteBufAllocator allocator, JournalAliveListener journalAliveListener) {
@@ -977,6 +1024,12 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
             long dequeueStartTime = 0L;
             long lastFlushTimeMs = System.currentTimeMillis();
 
+            // Group commit parameters, refreshed after each dequeue when the adaptive group commit is enabled
+            long groupWaitNanos = maxGroupWaitInNanos;
+            long entriesThreshold = bufferedEntriesThreshold;
+            long writesThreshold = bufferedWritesThreshold;
+            boolean flushIfQueueEmpty = flushWhenQueueEmpty;
+
             final ObjectHashSet<BookieRequestHandler> writeHandlers = new ObjectHashSet<>();
             QueueEntry[] localQueueEntries = new QueueEntry[conf.getJournalQueueSize()];
             int localQueueEntriesIdx = 0;
@@ -1022,9 +1075,9 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                     } else {
                         // There are already some entries pending. We must adjust
                         // the waiting time to the remaining groupWait time
-                        long pollWaitTimeNanos = maxGroupWaitInNanos
+                        long pollWaitTimeNanos = groupWaitNanos
                                 - MathUtils.elapsedNanos(toFlush.get(0).enqueueTime);
-                        if (flushWhenQueueEmpty || pollWaitTimeNanos < 0) {
+                        if (flushIfQueueEmpty || pollWaitTimeNanos < 0) {
                             pollWaitTimeNanos = 0;
                         }
 
@@ -1034,6 +1087,14 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
 
                     dequeueStartTime = MathUtils.nowInNano();
 
+                    if (groupCommitController != null) {
+                        groupCommitController.onEntriesDequeued(localQueueEntriesLen, dequeueStartTime);
+                        groupWaitNanos = groupCommitController.getGroupWaitNanos();
+                        entriesThreshold = groupCommitController.getBufferedEntriesThreshold();
+                        writesThreshold = groupCommitController.getBufferedWritesThreshold();
+                        flushIfQueueEmpty = groupWaitNanos <= 0;
+                    }
+
                     if (localQueueEntriesLen > 0) {
                         qe = localQueueEntries[localQueueEntriesIdx];
                         localQueueEntries[localQueueEntriesIdx++] = null;
@@ -1050,12 +1111,12 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                     boolean shouldFlush = false;
                     // We should issue a forceWrite if any of the three conditions below holds good
                     // 1. If the oldest pending entry has been pending for longer than the max wait time
-                    if (maxGroupWaitInNanos > 0 && !groupWhenTimeout && (MathUtils
-                            .elapsedNanos(toFlush.get(0).enqueueTime) > maxGroupWaitInNanos)) {
+                    if (groupWaitNanos > 0 && !groupWhenTimeout && (MathUtils
+                            .elapsedNanos(toFlush.get(0).enqueueTime) > groupWaitNanos)) {
                         groupWhenTimeout = true;
-                    } else if (maxGroupWaitInNanos > 0 && groupWhenTimeout
+                    } else if (groupWaitNanos > 0 && groupWhenTimeout
                         && (qe == null // no entry to group
-                            || MathUtils.elapsedNanos(qe.enqueueTime) < maxGroupWaitInNanos)) {
+                            || MathUtils.elapsedNanos(qe.enqueueTime) < groupWaitNanos)) {
                         // when group timeout, it would be better to look forward, as there might be lots of
                         // entries already timeout
                         // due to a previous slow write (writing to filesystem which impacted by force write).
@@ -1066,13 +1127,13 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                         shouldFlush = true;
                         journalStats.getFlushMaxWaitCounter().inc();
                     } else if (qe != null
-                            && ((bufferedEntriesThreshold > 0 && toFlush.size() > bufferedEntriesThreshold)
-                            || (bc.position() > lastFlushPosition + bufferedWritesThreshold))) {
+                            && ((entriesThreshold > 0 && toFlush.size() > entriesThreshold)
+                            || (bc.position() > lastFlushPosition + writesThreshold))) {
                         // 2. If we have buffered more than the buffWriteThreshold or bufferedEntriesThreshold
                         groupWhenTimeout = false;
                         shouldFlush = true;
                         journalStats.getFlushMaxOutstandingBytesCounter().inc();
-                    } else if (qe == null && flushWhenQueueEmpty) {
+                    } else if (qe == null && flushIfQueueEmpty) {
                         // We should get here only if we flushWhenQueueEmpty is true else we would wait
                         // for timeout that would put is past the maxWait threshold
                         // 3. If the queue is empty i.e. no benefit of grouping. This happens when we have one
@@ -1088,7 +1149,17 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                             writePaddingBytes(logFile, paddingBuff, journalAlignmentSize);
                         }
                         journalFlushWatcher.reset().start();
+                        long writeSyscallsBeforeFlush = bc.getNumWriteSyscalls();
                         bc.flush();
+                        long flushWriteNanos = journalFlushWatcher.elapsed(TimeUnit.NANOSECONDS);
+                        journalStats.getJournalFlushWriteStats().registerSuccessfulEvent(
+                                flushWriteNanos, TimeUnit.NANOSECONDS);
+                        if (groupCommitController != null) {
+                            groupCommitController.onFlush(flushWriteNanos, numEntriesToFlush,
+                                    bc.position() - lastFlushPosition);
+                        }
+                        journalStats.getJournalFlushSyscallsStats().registerSuccessfulValue(
+                                bc.getNumWriteSyscalls() - writeSyscallsBeforeFlush);
 
                         for (int i = 0; i < toFlush.size(); i++) {
                             QueueEntry entry = toFlush.get(i);
@@ -1224,7 +1295,32 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
     }
 
     public BufferedChannelBuilder getBufferedChannelBuilder() {
-        return (FileChannel fc, int capacity) -> new BufferedChannel(allocator, fc, capacity);
+        if (!journalDirectIo) {
+            return (FileChannel fc, int capacity) -> new BufferedChannel(allocator, fc, capacity);
+        }
+
+        return new BufferedChannelBuilder() {
+            @Override
+            public BufferedChannel create(FileChannel fc, int capacity) throws IOException {
+                return new BufferedChannel(allocator, fc, capacity);
+            }
+
+            @Override
+            public BufferedChannel create(File file, FileChannel fc, int capacity) throws IOException {
+                if (journalDirectIo) {
+                    try {
+                        // With syncData every flush is followed by a sync, so it's submitted along with the write
+                        return new DirectBufferedChannel(allocator, file, fc, capacity,
+                                journalNativeIO, journalIoUring, syncData);
+                    } catch (IOException | LinkageError e) {
+                        LOG.warn("Direct I/O is not available for journal file {}, fallback to buffered writes: {}",
+                                file, e.getMessage());
+                        journalDirectIo = false;
+                    }
+                }
+                return create(fc, capacity);
+            }
+        };
     }
 
     /**
@@ -1245,6 +1341,9 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
             running = false;
             this.interrupt();
             this.join();
+            if (journalIoUring != null) {
+                journalIoUring.close();
+            }
             LOG.info("Finished Shutting down Journal thread");
         } catch (IOException | InterruptedException ie) {
             Thread.currentThread().interrupt();
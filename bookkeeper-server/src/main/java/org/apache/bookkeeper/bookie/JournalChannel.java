@@ -23,6 +23,7 @@ package org.apache.bookkeeper.bookie;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import io.netty.buffer.Unpooled;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
@@ -185,11 +186,11 @@ class JournalChannel implements Closeable {
             }
             fc = channel.getFileChannel();
             formatVersion = formatVersionToWrite;
-            writeHeader(bcBuilder, writeBufferSize);
+            writeHeader(fn, bcBuilder, writeBufferSize);
         } else if (reuseFile) { // Open an existing journal to write, it needs fileChannelProvider support reuse file.
             fc = channel.getFileChannel();
             formatVersion = formatVersionToWrite;
-            writeHeader(bcBuilder, writeBufferSize);
+            writeHeader(fn, bcBuilder, writeBufferSize);
         } else {  // open an existing file to read.
             fc = channel.getFileChannel();
             bc = null; // readonly
@@ -247,7 +248,7 @@ class JournalChannel implements Closeable {
         }
     }
 
-    private void writeHeader(Journal.BufferedChannelBuilder bcBuilder,
+    private void writeHeader(File fn, Journal.BufferedChannelBuilder bcBuilder,
                              int writeBufferSize) throws IOException {
         int headerSize = (V4 == formatVersion) ? VERSION_HEADER_SIZE : HEADER_SIZE;
         ByteBuffer bb = ByteBuffer.allocate(headerSize);
@@ -256,12 +257,14 @@ class JournalChannel implements Closeable {
         bb.put(magicWord);
         bb.putInt(formatVersion);
         bb.clear();
-        fc.write(bb);
 
-        bc = bcBuilder.create(fc, writeBufferSize);
+        // The header is written through the buffered channel, which can write the file with direct I/O
+        bc = bcBuilder.create(fn, fc, writeBufferSize);
+        bc.write(Unpooled.wrappedBuffer(bb));
+        bc.flush();
         forceWrite(true);
         nextPrealloc = this.preAllocSize;
-        fc.write(zeros, nextPrealloc - journalAlignSize);
+        bc.preallocate(zeros, nextPrealloc - journalAlignSize);
     }
 
     public static void renameJournalFile(File source, File target) throws IOException {
@@ -286,7 +289,7 @@ class JournalChannel implements Closeable {
         if (bc.position() + size > nextPrealloc) {
             nextPrealloc += preAllocSize;
             zeros.clear();
-            fc.write(zeros, nextPrealloc - journalAlignSize);
+            bc.preallocate(zeros, nextPrealloc - journalAlignSize);
         }
     }
 
@@ -0,0 +1,266 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_ARRIVAL_RATE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_MAX_BYTES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_MAX_ENTRIES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_WAIT_USEC;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_SCOPE;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
+
+/**
+ * Picks the journal group commit parameters based on the observed load.
+ *
+ * <p>An entry added to the journal waits for the group to be formed, then for the write
+ * of the group in the journal file and, when {@code journalSyncData} is enabled, for the
+ * fsync. The controller keeps an estimate of the tail latency of the write and of the fsync,
+ * and uses what is left of the add latency target as group wait time. The entries threshold
+ * is the number of entries expected to arrive during the wait time, given the current
+ * arrival rate, so that a group is flushed as soon as it's complete. When the expected group
+ * is too small to make waiting worthwhile, the journal is flushed as soon as the queue is
+ * empty.
+ *
+ * <p>The statistics are updated by the journal thread and by the force write thread, the
+ * parameters are only computed and read by the journal thread.
+ */
+@StatsDoc(
+    name = JOURNAL_SCOPE,
+    category = CATEGORY_SERVER,
+    help = "Journal adaptive group commit stats"
+)
+class JournalGroupCommitController {
+
+    // Weight of the last sample in the moving averages
+    private static final double EWMA_ALPHA = 0.2;
+    // Number of mean deviations added to the mean latency to estimate its tail
+    private static final double TAIL_DEVIATIONS = 3.0;
+    // Min interval to compute the arrival rate, to smooth out the dequeue bursts
+    private static final long RATE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    // Do not wait for a group that is expected to have less entries than this
+    private static final int MIN_GROUP_ENTRIES = 2;
+
+    private final long targetLatencyNanos;
+    private final long maxGroupWaitNanos;
+    private final long maxBufferedEntries;
+    private final long maxBufferedBytes;
+    private final boolean syncData;
+
+    // Updated by the journal thread
+    private long arrivals;
+    private long rateIntervalStartNanos;
+    private volatile double arrivalRate;
+    private double avgEntrySize;
+    private final LatencyEstimate writeLatency = new LatencyEstimate();
+
+    // Updated by the force write thread
+    private final LatencyEstimate syncLatency = new LatencyEstimate();
+
+    private volatile long groupWaitNanos;
+    private volatile long bufferedEntriesThreshold;
+    private volatile long bufferedWritesThreshold;
+
+    @StatsDoc(
+        name = JOURNAL_GROUP_COMMIT_WAIT_USEC,
+        help = "The group wait time currently picked by the adaptive group commit, in microseconds"
+    )
+    private final Gauge<Long> groupWaitGauge;
+    @StatsDoc(
+        name = JOURNAL_GROUP_COMMIT_MAX_ENTRIES,
+        help = "The number of entries after which the journal is flushed, picked by the adaptive group commit"
+    )
+    private final Gauge<Long> bufferedEntriesGauge;
+    @StatsDoc(
+        name = JOURNAL_GROUP_COMMIT_MAX_BYTES,
+        help = "The number of bytes after which the journal is flushed, picked by the adaptive group commit"
+    )
+    private final Gauge<Long> bufferedWritesGauge;
+    @StatsDoc(
+        name = JOURNAL_GROUP_COMMIT_ARRIVAL_RATE,
+        help = "The rate of entries added to the journal, as seen by the adaptive group commit, per second"
+    )
+    private final Gauge<Long> arrivalRateGauge;
+
+    /**
+     * @param targetLatencyNanos the add latency to stay under
+     * @param maxGroupWaitNanos upper bound for the group wait time, or 0 for none
+     * @param maxBufferedEntries upper bound for the entries threshold, or 0 for none
+     * @param maxBufferedBytes upper bound for the bytes threshold
+     * @param syncData whether the entries are acknowledged after the fsync
+     */
+    JournalGroupCommitController(long targetLatencyNanos, long maxGroupWaitNanos, long maxBufferedEntries,
+                                 long maxBufferedBytes, boolean syncData, StatsLogger statsLogger) {
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.maxGroupWaitNanos = maxGroupWaitNanos > 0 ? Math.min(maxGroupWaitNanos, targetLatencyNanos)
+                : targetLatencyNanos;
+        this.maxBufferedEntries = maxBufferedEntries;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.syncData = syncData;
+        this.rateIntervalStartNanos = System.nanoTime();
+
+        // Until there is some load, flush as soon as possible
+        this.groupWaitNanos = 0;
+        this.bufferedEntriesThreshold = maxBufferedEntries;
+        this.bufferedWritesThreshold = maxBufferedBytes;
+
+        groupWaitGauge = longGauge(statsLogger, JOURNAL_GROUP_COMMIT_WAIT_USEC,
+                () -> TimeUnit.NANOSECONDS.toMicros(groupWaitNanos));
+        bufferedEntriesGauge = longGauge(statsLogger, JOURNAL_GROUP_COMMIT_MAX_ENTRIES,
+                () -> bufferedEntriesThreshold);
+        bufferedWritesGauge = longGauge(statsLogger, JOURNAL_GROUP_COMMIT_MAX_BYTES,
+                () -> bufferedWritesThreshold);
+        arrivalRateGauge = longGauge(statsLogger, JOURNAL_GROUP_COMMIT_ARRIVAL_RATE,
+                () -> (long) arrivalRate);
+    }
+
+    private static Gauge<Long> longGauge(StatsLogger statsLogger, String name,
+                                         Supplier<Long> supplier) {
+        Gauge<Long> gauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return supplier.get();
+            }
+        };
+        statsLogger.registerGauge(name, gauge);
+        return gauge;
+    }
+
+    /**
+     * Record the entries taken from the journal queue, and update the group commit
+     * parameters if the arrival rate has changed.
+     */
+    void onEntriesDequeued(int numEntries, long nowNanos) {
+        arrivals += numEntries;
+        long elapsed = nowNanos - rateIntervalStartNanos;
+        if (elapsed < RATE_INTERVAL_NANOS) {
+            return;
+        }
+
+        double rate = arrivals * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+        if (elapsed > RATE_INTERVAL_NANOS * 10) {
+            // The journal was idle, the previous rate is not meaningful anymore
+            arrivalRate = rate;
+        } else {
+            arrivalRate += EWMA_ALPHA * (rate - arrivalRate);
+        }
+        arrivals = 0;
+        rateIntervalStartNanos = nowNanos;
+        update();
+    }
+
+    /**
+     * Record the time it took to write a group of entries in the journal file.
+     */
+    void onFlush(long writeNanos, int numEntries, long numBytes) {
+        writeLatency.add(writeNanos);
+        if (numEntries > 0) {
+            avgEntrySize += EWMA_ALPHA * ((double) numBytes / numEntries - avgEntrySize);
+        }
+    }
+
+    /**
+     * Record the time it took to fsync the journal file.
+     */
+    void onSync(long syncNanos) {
+        syncLatency.add(syncNanos);
+    }
+
+    private void update() {
+        long persistNanos = writeLatency.tail();
+        if (syncData) {
+            persistNanos += syncLatency.tail();
+        }
+
+        long waitNanos = Math.min(Math.max(targetLatencyNanos - persistNanos, 0), maxGroupWaitNanos);
+        double expectedEntries = arrivalRate * waitNanos / TimeUnit.SECONDS.toNanos(1);
+        if (expectedEntries < MIN_GROUP_ENTRIES) {
+            // Not enough load to form a group, or no latency budget left to wait for it
+            groupWaitNanos = 0;
+            bufferedEntriesThreshold = maxBufferedEntries;
+            bufferedWritesThreshold = maxBufferedBytes;
+            return;
+        }
+
+        long entries = (long) Math.ceil(expectedEntries);
+        if (maxBufferedEntries > 0) {
+            entries = Math.min(entries, maxBufferedEntries);
+        }
+        long bytes = maxBufferedBytes;
+        if (avgEntrySize > 0) {
+            bytes = Math.min(bytes, (long) (avgEntrySize * entries));
+        }
+
+        groupWaitNanos = waitNanos;
+        bufferedEntriesThreshold = entries;
+        bufferedWritesThreshold = bytes;
+    }
+
+    /**
+     * @return the max time the oldest entry of a group can wait before the group is flushed,
+     *         0 if the journal should be flushed as soon as the queue is empty
+     */
+    long getGroupWaitNanos() {
+        return groupWaitNanos;
+    }
+
+    /**
+     * @return the number of buffered entries after which the journal is flushed, or 0 for none
+     */
+    long getBufferedEntriesThreshold() {
+        return bufferedEntriesThreshold;
+    }
+
+    /**
+     * @return the number of buffered bytes after which the journal is flushed
+     */
+    long getBufferedWritesThreshold() {
+        return bufferedWritesThreshold;
+    }
+
+    /**
+     * Moving average of a latency and of its deviation, only updated by one thread.
+     */
+    private static final class LatencyEstimate {
+        private volatile double mean;
+        private volatile double deviation;
+
+        void add(long nanos) {
+            double delta = nanos - mean;
+            mean += EWMA_ALPHA * delta;
+            deviation += EWMA_ALPHA * (Math.abs(delta) - deviation);
+        }
+
+        long tail() {
+            return (long) (mean + TAIL_DEVIATIONS * deviation);
+        }
+    }
+}
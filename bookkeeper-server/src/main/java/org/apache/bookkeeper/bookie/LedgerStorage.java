@@ -24,6 +24,7 @@ package org.apache.bookkeeper.bookie;
 import com.google.common.util.concurrent.RateLimiter;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.FileRegion;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -144,6 +145,15 @@ public interface LedgerStorage {
      */
     ByteBuf getEntry(long ledgerId, long entryId) throws IOException, BookieException;
 
+    /**
+     * Get a reference to an entry in the storage files, to transfer it without reading it in memory.
+     *
+     * @return the file region of the entry, or null if the entry should be read with {@link #getEntry}
+     */
+    default FileRegion getEntryRegion(long ledgerId, long entryId) throws IOException, BookieException {
+        return null;
+    }
+
     /**
      * Get last add confirmed.
      *
@@ -57,7 +57,16 @@ public class TransactionalEntryLogCompactor extends AbstractLogCompactor {
             EntryLogger entryLogger,
             CompactableLedgerStorage ledgerStorage,
             LogRemovalListener logRemover) {
-        super(conf, logRemover);
+        this(conf, entryLogger, ledgerStorage, new Throttler(conf), logRemover);
+    }
+
+    public TransactionalEntryLogCompactor(
+            ServerConfiguration conf,
+            EntryLogger entryLogger,
+            CompactableLedgerStorage ledgerStorage,
+            Throttler throttler,
+            LogRemovalListener logRemover) {
+        super(conf, throttler, logRemover);
         this.entryLogger = entryLogger;
         this.ledgerStorage = ledgerStorage;
     }
@@ -162,7 +171,7 @@ public class TransactionalEntryLogCompactor extends AbstractLogCompactor {
         @Override
         void start() throws IOException {
             // scan entry log into compaction log and offset list
-            entryLogger.scanEntryLog(metadata.getEntryLogId(), new EntryLogScanner() {
+            scanLiveEntries(entryLogger, ledgerStorage, metadata, new EntryLogScanner() {
                 @Override
                 public boolean accept(long ledgerId) {
                     return metadata.containsLedger(ledgerId);
@@ -180,7 +189,9 @@ public class TransactionalEntryLogCompactor extends AbstractLogCompactor {
                                     ledgerId, lid, entryId, offset);
                             throw new IOException("Invalid entry found @ offset " + offset);
                         }
+                        int entrySize = entry.readableBytes();
                         long newOffset = compactionLog.addEntry(ledgerId, entry);
+                        recordEntryWritten(entrySize);
                         offsets.add(new EntryLocation(ledgerId, entryId, newOffset));
 
                         if (LOG.isDebugEnabled()) {
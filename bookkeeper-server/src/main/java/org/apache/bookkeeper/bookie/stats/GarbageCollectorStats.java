@@ -24,13 +24,22 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ACTIVE_ENTRY_LO
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ACTIVE_LEDGER_COUNT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_SCOPE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COMPACTION_READ_BYTES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COMPACTION_WRITTEN_BYTES;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.DELETED_LEDGER_COUNT;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ENTRY_LOG_USAGE_COUNT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MAJOR_COMPACTION_COUNT;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MAJOR_COMPACTION_RECLAIMABLE_BYTES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MAJOR_COMPACTION_RECLAIM_TIME_ESTIMATE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MINOR_COMPACTION_COUNT;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MINOR_COMPACTION_RECLAIMABLE_BYTES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MINOR_COMPACTION_RECLAIM_TIME_ESTIMATE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.RECLAIMED_COMPACTION_SPACE_BYTES;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.RECLAIMED_DELETION_SPACE_BYTES;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.THREAD_RUNTIME;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Supplier;
 import lombok.Getter;
 import org.apache.bookkeeper.stats.Counter;
@@ -50,6 +59,18 @@ import org.apache.bookkeeper.stats.annotations.StatsDoc;
 @Getter
 public class GarbageCollectorStats {
 
+    /**
+     * Number of usage buckets of the entry logs, each bucket covering 10% of usage.
+     */
+    public static final int NUM_ENTRY_LOG_USAGE_BUCKETS = 10;
+
+    /**
+     * Supplies the number of entry logs in a usage bucket.
+     */
+    public interface EntryLogUsageSupplier {
+        int getNumEntryLogs(int bucket);
+    }
+
     final StatsLogger statsLogger;
     @StatsDoc(
         name = MINOR_COMPACTION_COUNT,
@@ -96,11 +117,58 @@ public class GarbageCollectorStats {
         help = "Current number of active ledgers"
     )
     private final Gauge<Integer> activeLedgerCountGauge;
+    @StatsDoc(
+        name = ENTRY_LOG_USAGE_COUNT,
+        help = "Current number of entry log files by usage, in buckets of 10% labelled by their upper bound"
+    )
+    private final List<Gauge<Integer>> entryLogUsageGauges;
+    @StatsDoc(
+        name = MINOR_COMPACTION_RECLAIMABLE_BYTES,
+        help = "Current number of disk space bytes a minor compaction would reclaim"
+    )
+    private final Gauge<Long> minorCompactionReclaimableBytesGauge;
+    @StatsDoc(
+        name = MAJOR_COMPACTION_RECLAIMABLE_BYTES,
+        help = "Current number of disk space bytes a major compaction would reclaim"
+    )
+    private final Gauge<Long> majorCompactionReclaimableBytesGauge;
+    @StatsDoc(
+        name = MINOR_COMPACTION_RECLAIM_TIME_ESTIMATE,
+        help = "Estimated time in milliseconds of a minor compaction at the current compaction rate,"
+            + " -1 if the compaction is not throttled by bytes"
+    )
+    private final Gauge<Long> minorCompactionReclaimTimeEstimateGauge;
+    @StatsDoc(
+        name = MAJOR_COMPACTION_RECLAIM_TIME_ESTIMATE,
+        help = "Estimated time in milliseconds of a major compaction at the current compaction rate,"
+            + " -1 if the compaction is not throttled by bytes"
+    )
+    private final Gauge<Long> majorCompactionReclaimTimeEstimateGauge;
+    @StatsDoc(
+        name = COMPACTION_READ_BYTES,
+        help = "Number of bytes read from the compacted entry log files"
+    )
+    private final Counter compactionReadBytes;
+    @StatsDoc(
+        name = COMPACTION_WRITTEN_BYTES,
+        help = "Number of bytes of live entries rewritten by compaction, to compare with the reclaimed bytes"
+    )
+    private final Counter compactionWrittenBytes;
 
+    /**
+     * Create the gc stats.
+     *
+     * @param entryLogUsageSupplier number of entry logs in a usage bucket, from 0 (0% - 10%) to 9 (90% - 100%)
+     */
     public GarbageCollectorStats(StatsLogger statsLogger,
                                  Supplier<Integer> activeEntryLogCountSupplier,
                                  Supplier<Long> activeEntryLogSpaceBytesSupplier,
-                                 Supplier<Integer> activeLedgerCountSupplier) {
+                                 Supplier<Integer> activeLedgerCountSupplier,
+                                 EntryLogUsageSupplier entryLogUsageSupplier,
+                                 Supplier<Long> minorCompactionReclaimableBytesSupplier,
+                                 Supplier<Long> majorCompactionReclaimableBytesSupplier,
+                                 Supplier<Long> minorCompactionReclaimTimeEstimateSupplier,
+                                 Supplier<Long> majorCompactionReclaimTimeEstimateSupplier) {
         this.statsLogger = statsLogger;
 
         this.minorCompactionCounter = statsLogger.getCounter(MINOR_COMPACTION_COUNT);
@@ -146,6 +214,51 @@ public class GarbageCollectorStats {
             }
         };
         statsLogger.registerGauge(ACTIVE_LEDGER_COUNT, activeLedgerCountGauge);
+
+        this.entryLogUsageGauges = new ArrayList<>(NUM_ENTRY_LOG_USAGE_BUCKETS);
+        for (int i = 0; i < NUM_ENTRY_LOG_USAGE_BUCKETS; i++) {
+            final int bucket = i;
+            Gauge<Integer> gauge = new Gauge<Integer>() {
+                @Override
+                public Integer getDefaultValue() {
+                    return 0;
+                }
+
+                @Override
+                public Integer getSample() {
+                    return entryLogUsageSupplier.getNumEntryLogs(bucket);
+                }
+            };
+            statsLogger.scopeLabel("usage", (bucket + 1) * 10 + "%").registerGauge(ENTRY_LOG_USAGE_COUNT, gauge);
+            entryLogUsageGauges.add(gauge);
+        }
+        this.minorCompactionReclaimableBytesGauge = registerLongGauge(statsLogger,
+                MINOR_COMPACTION_RECLAIMABLE_BYTES, 0L, minorCompactionReclaimableBytesSupplier);
+        this.majorCompactionReclaimableBytesGauge = registerLongGauge(statsLogger,
+                MAJOR_COMPACTION_RECLAIMABLE_BYTES, 0L, majorCompactionReclaimableBytesSupplier);
+        this.minorCompactionReclaimTimeEstimateGauge = registerLongGauge(statsLogger,
+                MINOR_COMPACTION_RECLAIM_TIME_ESTIMATE, -1L, minorCompactionReclaimTimeEstimateSupplier);
+        this.majorCompactionReclaimTimeEstimateGauge = registerLongGauge(statsLogger,
+                MAJOR_COMPACTION_RECLAIM_TIME_ESTIMATE, -1L, majorCompactionReclaimTimeEstimateSupplier);
+        this.compactionReadBytes = statsLogger.getCounter(COMPACTION_READ_BYTES);
+        this.compactionWrittenBytes = statsLogger.getCounter(COMPACTION_WRITTEN_BYTES);
+    }
+
+    private static Gauge<Long> registerLongGauge(StatsLogger statsLogger, String name, long defaultValue,
+                                                 Supplier<Long> supplier) {
+        Gauge<Long> gauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return defaultValue;
+            }
+
+            @Override
+            public Long getSample() {
+                return supplier.get();
+            }
+        };
+        statsLogger.registerGauge(name, gauge);
+        return gauge;
     }
 
 }
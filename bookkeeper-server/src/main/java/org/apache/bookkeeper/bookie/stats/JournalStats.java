@@ -25,6 +25,8 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.FORCE_LEDGER;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_ADD_ENTRY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_CREATION_LATENCY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FLUSH_LATENCY;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FLUSH_SYSCALLS;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FLUSH_WRITE_LATENCY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_LEDGER;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_WRITE_BATCH_BYTES;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_WRITE_BATCH_ENTRIES;
@@ -41,6 +43,7 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_QUEUE_L
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_QUEUE_SIZE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_SCOPE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_SYNC;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_SYNC_SYSCALLS;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_WRITE_BYTES;
 
 import java.util.function.Supplier;
@@ -102,6 +105,23 @@ public class JournalStats {
         happensAfter = JOURNAL_CREATION_LATENCY
     )
     private final OpStatsLogger journalFlushStats;
+    @StatsDoc(
+        name = JOURNAL_FLUSH_WRITE_LATENCY,
+        help = "operation stats of writing the buffered data of a flush to the journal file",
+        parent = JOURNAL_FLUSH_LATENCY
+    )
+    private final OpStatsLogger journalFlushWriteStats;
+    @StatsDoc(
+        name = JOURNAL_FLUSH_SYSCALLS,
+        help = "The distribution of number of write system calls issued by a journal flush"
+    )
+    private final OpStatsLogger journalFlushSyscallsStats;
+    @StatsDoc(
+        name = JOURNAL_SYNC_SYSCALLS,
+        help = "The distribution of number of sync system calls issued by a journal sync,"
+            + " 0 when the sync was already submitted along with the last flush"
+    )
+    private final OpStatsLogger journalSyncSyscallsStats;
     @StatsDoc(
         name = JOURNAL_PROCESS_TIME_LATENCY,
         help = "operation stats of processing requests in a journal (from dequeue an item to finish processing it)",
@@ -180,6 +200,9 @@ public class JournalStats {
         fwEnqueueTimeStats = statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_FORCE_WRITE_ENQUEUE);
         journalCreationStats = statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_CREATION_LATENCY);
         journalFlushStats = statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_FLUSH_LATENCY);
+        journalFlushWriteStats = statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_FLUSH_WRITE_LATENCY);
+        journalFlushSyscallsStats = statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_FLUSH_SYSCALLS);
+        journalSyncSyscallsStats = statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_SYNC_SYSCALLS);
         journalQueueStats = statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_QUEUE_LATENCY);
         journalProcessTimeStats = statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_PROCESS_TIME_LATENCY);
         forceWriteGroupingCountStats =
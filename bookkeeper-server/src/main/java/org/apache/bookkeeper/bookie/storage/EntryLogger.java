@@ -21,6 +21,7 @@
 package org.apache.bookkeeper.bookie.storage;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
 import java.io.IOException;
 import java.util.Collection;
 import org.apache.bookkeeper.bookie.AbstractLogCompactor;
@@ -67,6 +68,32 @@ public interface EntryLogger extends AutoCloseable {
     ByteBuf readEntry(long ledgerId, long entryId, long entryLocation)
             throws IOException, NoEntryException;
 
+    /**
+     * Read a contiguous region of an entrylog, starting from the size header of the
+     * entry stored at ```entryLocation```. This allows to fetch several entries
+     * that are stored next to each other with a single positional read. In the
+     * returned buffer, each entry is prefixed by its 4 bytes size header.
+     * @param entryLocation the location of the first entry of the region
+     * @param length the number of bytes to read, including the size header of the first entry
+     * @return the content of the region, or null if region reads are not supported
+     */
+    default ByteBuf readRegion(long entryLocation, int length) throws IOException {
+        return null;
+    }
+
+    /**
+     * Get a reference to the content of an entry in its entrylog file, after verifying that it
+     * matches the expected ledger and entry ID, so that it can be transferred to a socket without
+     * being read in memory. The region stays valid even if the entrylog is removed in the meantime.
+     * @param ledgerId the ledgerID to match
+     * @param entryId the entryID to match
+     * @param entryLocation the location of the entry
+     * @return the file region of the entry, or null if the entry should be read in memory instead
+     */
+    default FileRegion readEntryRegion(long ledgerId, long entryId, long entryLocation) throws IOException {
+        return null;
+    }
+
     /**
      * Flush any outstanding writes to disk.
      */
@@ -61,6 +61,8 @@ class Buffer {
     ByteBuf buffer;
     ByteBuffer byteBuffer;
     long pointer = 0;
+    // Index of the buffer in the io_uring registered buffers, or -1 if not registered
+    int ioUringIndex = -1;
 
     Buffer(NativeIO nativeIO, int bufferSize) throws IOException {
         checkArgument(isAligned(bufferSize),
@@ -220,6 +222,10 @@ class Buffer {
         return bufferSize;
     }
 
+    int ioUringIndex() {
+        return ioUringIndex;
+    }
+
     /**
      * Pad the buffer to the next alignment position.
      * @return the position of the next alignment. This should be used as the size argument to make aligned writes.
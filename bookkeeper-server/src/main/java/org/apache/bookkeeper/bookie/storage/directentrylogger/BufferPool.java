@@ -22,6 +22,7 @@ package org.apache.bookkeeper.bookie.storage.directentrylogger;
 
 import java.io.IOException;
 import java.util.concurrent.ArrayBlockingQueue;
+import org.apache.bookkeeper.common.util.nativeio.IoUring;
 import org.apache.bookkeeper.common.util.nativeio.NativeIO;
 
 /**
@@ -37,6 +38,25 @@ public class BufferPool implements AutoCloseable {
         }
     }
 
+    /**
+     * Register all the buffers of the pool as io_uring fixed buffers. Must be called before
+     * any buffer is acquired.
+     */
+    void registerBuffers(IoUring ioUring) throws IOException {
+        Buffer[] buffers = pool.toArray(new Buffer[0]);
+        long[] pointers = new long[buffers.length];
+        int[] sizes = new int[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            pointers[i] = buffers[i].pointer();
+            sizes[i] = buffers[i].size();
+        }
+
+        ioUring.registerBuffers(pointers, sizes);
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i].ioUringIndex = i;
+        }
+    }
+
     Buffer acquire() throws IOException {
         try {
             return pool.take();
@@ -56,6 +56,7 @@ import org.apache.bookkeeper.bookie.storage.EntryLogIds;
 import org.apache.bookkeeper.bookie.storage.EntryLogIdsImpl;
 import org.apache.bookkeeper.bookie.storage.EntryLogScanner;
 import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.common.util.nativeio.IoUring;
 import org.apache.bookkeeper.common.util.nativeio.NativeIO;
 import org.apache.bookkeeper.slogger.Slogger;
 import org.apache.bookkeeper.stats.StatsLogger;
@@ -81,6 +82,7 @@ public class DirectEntryLogger implements EntryLogger {
 
     private List<Future<?>> pendingFlushes;
     private final NativeIO nativeIO;
+    private final IoUring ioUring;
     private final List<Cache<?, ?>> allCaches = new CopyOnWriteArrayList<>();
     private final ThreadLocal<Cache<Integer, LogReader>> caches;
 
@@ -101,6 +103,32 @@ public class DirectEntryLogger implements EntryLogger {
                              int maxFdCacheTimeSeconds,
                              Slogger slogParent,
                              StatsLogger stats) throws IOException {
+        this(ledgerDir, ids, nativeIO, allocator, writeExecutor, flushExecutor, maxFileSize, maxSaneEntrySize,
+             totalWriteBufferSize, totalReadBufferSize, readBufferSize, numReadThreads, maxFdCacheTimeSeconds,
+             0, slogParent, stats);
+    }
+
+    /**
+     * @param ioUringQueueDepth if positive, the entry logs are written through an io_uring instance with
+     *                          this queue depth, falling back to pwrite if io_uring is not available.
+     *                          The reads block on each block, so they always use pread
+     */
+    public DirectEntryLogger(File ledgerDir,
+                             EntryLogIds ids,
+                             NativeIO nativeIO,
+                             ByteBufAllocator allocator,
+                             ExecutorService writeExecutor,
+                             ExecutorService flushExecutor,
+                             long maxFileSize,
+                             int maxSaneEntrySize,
+                             long totalWriteBufferSize,
+                             long totalReadBufferSize,
+                             int readBufferSize,
+                             int numReadThreads,
+                             int maxFdCacheTimeSeconds,
+                             int ioUringQueueDepth,
+                             Slogger slogParent,
+                             StatsLogger stats) throws IOException {
         this.ledgerDir = ledgerDir;
         this.flushExecutor = flushExecutor;
         this.writeExecutor = writeExecutor;
@@ -120,6 +148,7 @@ public class DirectEntryLogger implements EntryLogger {
 
         int singleWriteBufferSize = Buffer.nextAlignment((int) (totalWriteBufferSize / NUMBER_OF_WRITE_BUFFERS));
         this.writeBuffers = new BufferPool(nativeIO, singleWriteBufferSize, NUMBER_OF_WRITE_BUFFERS);
+        this.ioUring = ioUringQueueDepth > 0 ? createIoUring(ioUringQueueDepth) : null;
 
         // The total read buffer memory needs to get split across all the read threads, since the caches
         // are thread-specific and we want to ensure we don't pass the total memory limit.
@@ -150,6 +179,7 @@ public class DirectEntryLogger implements EntryLogger {
             .kv("perThreadBufferSize", perThreadBufferSize)
             .kv("maxCachedReadersPerThread", maxCachedReadersPerThread)
             .kv("maxCachedReaders", maxCachedReaders)
+            .kv("ioUringEnabled", ioUring != null)
             .info(Events.ENTRYLOGGER_CREATED);
 
         this.caches = ThreadLocal.withInitial(() -> {
@@ -173,6 +203,26 @@ public class DirectEntryLogger implements EntryLogger {
         });
     }
 
+    private IoUring createIoUring(int queueDepth) {
+        IoUring ring = null;
+        try {
+            ring = new IoUring(nativeIO, queueDepth, "entrylogger-io-uring-" + ledgerDir.getName());
+            // Registered buffers are mapped once, instead of on every write
+            writeBuffers.registerBuffers(ring);
+            return ring;
+        } catch (IOException | UnsatisfiedLinkError e) {
+            slog.kv("queueDepth", queueDepth).kv("reason", e.getMessage()).warn(Events.IO_URING_NOT_AVAILABLE);
+            if (ring != null) {
+                try {
+                    ring.close();
+                } catch (IOException ioe) {
+                    // ignore, the ring is not used
+                }
+            }
+            return null;
+        }
+    }
+
     @Override
     public long addEntry(long ledgerId, ByteBuf buf) throws IOException {
         long start = System.nanoTime();
@@ -211,6 +261,21 @@ public class DirectEntryLogger implements EntryLogger {
         return internalReadEntry(ledgerId, entryId, entryLocation, true);
     }
 
+    @Override
+    public ByteBuf readRegion(long entryLocation, int length) throws IOException {
+        int logId = (int) (entryLocation >> 32);
+        int pos = (int) (entryLocation & 0xFFFFFFFF);
+
+        try {
+            // include the size header of the first entry
+            return getReader(logId).readBufferAt(pos - Integer.BYTES, length);
+        } catch (EOFException eof) {
+            throw new IOException(
+                    exMsg("Region doesn't exist").kv("location", entryLocation).kv("length", length).toString(),
+                    eof);
+        }
+    }
+
     private LogReader getReader(int logId) throws IOException {
         Cache<Integer, LogReader> cache = caches.get();
         try {
@@ -361,6 +426,9 @@ public class DirectEntryLogger implements EntryLogger {
             c.invalidateAll();
         }
 
+        if (ioUring != null) {
+            ioUring.close();
+        }
         writeBuffers.close();
     }
 
@@ -449,7 +517,7 @@ public class DirectEntryLogger implements EntryLogger {
     private LogWriter newDirectWriter(int newId) throws IOException {
         unflushedLogs.add(newId);
         LogWriter writer = new DirectWriter(newId, logFilename(ledgerDir, newId), maxFileSize,
-                                            writeExecutor, writeBuffers, nativeIO, slog);
+                                            writeExecutor, writeBuffers, nativeIO, ioUring, slog);
         ByteBuf buf = allocator.buffer(Buffer.ALIGNMENT);
         try {
             Header.writeEmptyHeader(buf);
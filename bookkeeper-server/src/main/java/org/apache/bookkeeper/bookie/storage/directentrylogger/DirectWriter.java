@@ -29,8 +29,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import org.apache.bookkeeper.common.util.nativeio.IoUring;
 import org.apache.bookkeeper.common.util.nativeio.NativeIO;
 import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
 import org.apache.bookkeeper.slogger.Slogger;
@@ -43,6 +45,7 @@ class DirectWriter implements LogWriter {
     final String filename;
     final BufferPool bufferPool;
     final ExecutorService writeExecutor;
+    final IoUring ioUring;
     final Object bufferLock = new Object();
     final List<Future<?>> outstandingWrites = new ArrayList<Future<?>>();
     Buffer nativeBuffer;
@@ -55,11 +58,26 @@ class DirectWriter implements LogWriter {
                  ExecutorService writeExecutor,
                  BufferPool bufferPool,
                  NativeIO nativeIO, Slogger slog) throws IOException {
+        this(id, filename, maxFileSize, writeExecutor, bufferPool, nativeIO, null, slog);
+    }
+
+    /**
+     * @param ioUring if not null, the writes are submitted to the ring instead of the write executor
+     */
+    DirectWriter(int id,
+                 String filename,
+                 long maxFileSize,
+                 ExecutorService writeExecutor,
+                 BufferPool bufferPool,
+                 NativeIO nativeIO,
+                 IoUring ioUring,
+                 Slogger slog) throws IOException {
         checkArgument(maxFileSize > 0, "Max file size (%d) must be positive");
         this.id = id;
         this.filename = filename;
         this.writeExecutor = writeExecutor;
         this.nativeIO = nativeIO;
+        this.ioUring = ioUring;
 
         offset = 0;
 
@@ -122,11 +140,36 @@ class DirectWriter implements LogWriter {
         Buffer tmpBuffer = bufferPool.acquire();
         tmpBuffer.reset();
         tmpBuffer.writeByteBuf(buf);
-        Future<?> f = writeExecutor.submit(() -> {
-            writeByteBuf(tmpBuffer, bytesToWrite, offset);
-            return null;
+        addOutstandingWrite(submitWrite(tmpBuffer, bytesToWrite, offset));
+    }
+
+    private Future<?> submitWrite(Buffer buffer, int bytesToWrite, long offsetToWrite) {
+        if (ioUring == null) {
+            return writeExecutor.submit(() -> {
+                writeByteBuf(buffer, bytesToWrite, offsetToWrite);
+                return null;
             });
-        addOutstandingWrite(f);
+        }
+
+        CompletableFuture<Void> f = new CompletableFuture<>();
+        ioUring.write(fd, buffer.pointer(), bytesToWrite, offsetToWrite, buffer.ioUringIndex())
+            .whenComplete((ret, t) -> {
+                try {
+                    if (t instanceof NativeIOException) {
+                        f.completeExceptionally(writeError(buffer, bytesToWrite, offsetToWrite,
+                                                           (NativeIOException) t));
+                    } else if (t != null) {
+                        f.completeExceptionally(new IOException(t));
+                    } else if (ret != bytesToWrite) {
+                        f.completeExceptionally(incompleteWrite(buffer, bytesToWrite, offsetToWrite, ret));
+                    } else {
+                        f.complete(null);
+                    }
+                } finally {
+                    bufferPool.release(buffer);
+                }
+            });
+        return f;
     }
 
     private void writeByteBuf(Buffer buffer, int bytesToWrite, long offsetToWrite) throws IOException{
@@ -136,27 +179,35 @@ class DirectWriter implements LogWriter {
             }
             int ret = nativeIO.pwrite(fd, buffer.pointer(), bytesToWrite, offsetToWrite);
             if (ret != bytesToWrite) {
-                throw new IOException(exMsg("Incomplete write")
-                    .kv("filename", filename)
-                    .kv("pointer", buffer.pointer())
-                    .kv("offset", offsetToWrite)
-                    .kv("writeSize", bytesToWrite)
-                    .kv("bytesWritten", ret)
-                    .toString());
+                throw incompleteWrite(buffer, bytesToWrite, offsetToWrite, ret);
             }
         } catch (NativeIOException ne) {
-            throw new IOException(exMsg("Write error")
-                .kv("filename", filename)
-                .kv("offset", offsetToWrite)
-                .kv("writeSize", bytesToWrite)
-                .kv("pointer", buffer.pointer())
-                .kv("errno", ne.getErrno())
-                .toString());
+            throw writeError(buffer, bytesToWrite, offsetToWrite, ne);
         } finally {
             bufferPool.release(buffer);
         }
     }
 
+    private IOException incompleteWrite(Buffer buffer, int bytesToWrite, long offsetToWrite, int ret) {
+        return new IOException(exMsg("Incomplete write")
+            .kv("filename", filename)
+            .kv("pointer", buffer.pointer())
+            .kv("offset", offsetToWrite)
+            .kv("writeSize", bytesToWrite)
+            .kv("bytesWritten", ret)
+            .toString());
+    }
+
+    private IOException writeError(Buffer buffer, int bytesToWrite, long offsetToWrite, NativeIOException ne) {
+        return new IOException(exMsg("Write error")
+            .kv("filename", filename)
+            .kv("offset", offsetToWrite)
+            .kv("writeSize", bytesToWrite)
+            .kv("pointer", buffer.pointer())
+            .kv("errno", ne.getErrno())
+            .toString());
+    }
+
     @Override
     public int writeDelimited(ByteBuf buf) throws IOException {
         synchronized (bufferLock) {
@@ -297,11 +348,7 @@ class DirectWriter implements LogWriter {
                 long offsetToWrite = offset;
                 offset += bytesToWrite;
 
-                Future<?> f = writeExecutor.submit(() -> {
-                    writeByteBuf(bufferToFlush, bytesToWrite, offsetToWrite);
-                    return null;
-                });
-                addOutstandingWrite(f);
+                addOutstandingWrite(submitWrite(bufferToFlush, bytesToWrite, offsetToWrite));
 
                 // must acquire after triggering the write
                 // otherwise it could try to acquire a buffer without kicking off
@@ -31,6 +31,13 @@ public enum Events {
      */
     FALLOCATE_NOT_AVAILABLE,
 
+    /**
+     * io_uring was enabled in the configuration, but it could not be set up on this host. This generally
+     * indicates that the kernel is older than 5.6, or that io_uring is disabled by the kernel settings or the
+     * container runtime. The entrylogger falls back to synchronous pread/pwrite calls.
+     */
+    IO_URING_NOT_AVAILABLE,
+
     /**
      * EntryLog ID candidates selected. These are the set entry log ID that subsequent entry log files
      * will use. To find the candidates, the bookie lists all the log ids which have already been used,
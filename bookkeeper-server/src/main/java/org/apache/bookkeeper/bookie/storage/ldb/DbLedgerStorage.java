@@ -29,6 +29,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.FileRegion;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import io.netty.util.internal.PlatformDependent;
 import java.io.File;
@@ -39,8 +40,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.PrimitiveIterator.OfLong;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.bookie.BookieException;
@@ -67,6 +71,7 @@ import org.apache.bookkeeper.meta.LedgerManager;
 import org.apache.bookkeeper.slogger.slf4j.Slf4jSlogger;
 import org.apache.bookkeeper.stats.Gauge;
 import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.stats.OpStatsLogger;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.stats.annotations.StatsDoc;
 import org.apache.bookkeeper.util.DiskChecker;
@@ -91,6 +96,8 @@ public class DbLedgerStorage implements LedgerStorage {
         "dbStorage_directIOEntryLoggerReadBufferSizeMB";
     public static final String DIRECT_IO_ENTRYLOGGER_MAX_FD_CACHE_TIME_SECONDS =
         "dbStorage_directIOEntryLoggerMaxFdCacheTimeSeconds";
+    public static final String DIRECT_IO_ENTRYLOGGER_IO_URING_QUEUE_DEPTH =
+        "dbStorage_directIOEntryLoggerIoUringQueueDepth";
 
     static final String MAX_THROTTLE_TIME_MILLIS = "dbStorage_maxThrottleTimeMs";
 
@@ -104,6 +111,25 @@ public class DbLedgerStorage implements LedgerStorage {
     static final String READ_AHEAD_CACHE_BATCH_SIZE = "dbStorage_readAheadCacheBatchSize";
     private static final int DEFAULT_READ_AHEAD_CACHE_BATCH_SIZE = 100;
 
+    static final String READ_CACHE_LOCK_FREE_ENABLED = "dbStorage_readCacheLockFreeEnabled";
+
+    static final String READ_AHEAD_PREFETCH_ENABLED = "dbStorage_readAheadPrefetchEnabled";
+    static final String READ_AHEAD_PREFETCH_SEQUENTIAL_THRESHOLD = "dbStorage_readAheadPrefetchSequentialThreshold";
+    static final String READ_AHEAD_PREFETCH_THREADS = "dbStorage_readAheadPrefetchThreads";
+
+    static final String PARALLEL_FLUSH_THREADS = "dbStorage_parallelFlushThreads";
+
+    static final String WRITE_CACHE_LEDGER_BUDGET_THRESHOLD_PERCENT =
+            "dbStorage_writeCacheLedgerBudgetThresholdPercent";
+
+    static final String COMPACTION_LOOKUP_LIVE_ENTRIES_ENABLED = "dbStorage_compactionLookupLiveEntriesEnabled";
+    static final String COMPACTION_LOOKUP_MAX_RANGES = "dbStorage_compactionLookupMaxRanges";
+    static final long DEFAULT_COMPACTION_LOOKUP_MAX_RANGES = 1_000_000L;
+
+    static final String ENTRY_LOCATION_SNAPSHOTS_ENABLED = "dbStorage_entryLocationSnapshotsEnabled";
+    static final String ENTRY_LOCATION_SNAPSHOT_MIN_ENTRIES = "dbStorage_entryLocationSnapshotMinEntries";
+    static final String ENTRY_LOCATION_SNAPSHOT_MAX_COUNT = "dbStorage_entryLocationSnapshotMaxCount";
+
     private static final long DEFAULT_DIRECT_IO_TOTAL_WRITEBUFFER_SIZE_MB =
         (long) (0.125 * PlatformDependent.estimateMaxDirectMemory())
             / MB;
@@ -114,6 +140,8 @@ public class DbLedgerStorage implements LedgerStorage {
 
     private static final int DEFAULT_DIRECT_IO_MAX_FD_CACHE_TIME_SECONDS = 300;
 
+    private static final int DEFAULT_DIRECT_IO_IO_URING_QUEUE_DEPTH = 0;
+
     // use the storage assigned to ledger 0 for flags.
     // if the storage configuration changes, the flags may be lost
     // but in that case data integrity should kick off anyhow.
@@ -124,11 +152,17 @@ public class DbLedgerStorage implements LedgerStorage {
     private ExecutorService entryLoggerWriteExecutor = null;
     private ExecutorService entryLoggerFlushExecutor = null;
 
+    // When set, the directories are flushed concurrently on this executor
+    private ExecutorService parallelFlushExecutor = null;
+    private CheckpointSource checkpointSource = CheckpointSource.DEFAULT;
+
     protected ByteBufAllocator allocator;
 
     // parent DbLedgerStorage stats (not per directory)
     private static final String MAX_READAHEAD_BATCH_SIZE = "readahead-max-batch-size";
     private static final String MAX_WRITE_CACHE_SIZE = "write-cache-max-size";
+    private static final String PARALLEL_FLUSH = "parallel-flush";
+    private static final String PARALLEL_FLUSH_DIRECTORY = "parallel-flush-directory";
 
     @StatsDoc(
             name = MAX_READAHEAD_BATCH_SIZE,
@@ -142,6 +176,19 @@ public class DbLedgerStorage implements LedgerStorage {
     )
     private Gauge<Long> writeCacheSizeGauge;
 
+    @StatsDoc(
+            name = PARALLEL_FLUSH,
+            help = "operation stats of flushing the write caches of all the directories in parallel"
+    )
+    private OpStatsLogger parallelFlushStats;
+
+    @StatsDoc(
+            name = PARALLEL_FLUSH_DIRECTORY,
+            help = "operation stats of flushing the write cache of a directory during a parallel flush,"
+                    + " including the wait for an ongoing flush of the same directory"
+    )
+    private List<OpStatsLogger> parallelFlushDirectoryStats;
+
     @Override
     public void initialize(ServerConfiguration conf, LedgerManager ledgerManager, LedgerDirsManager ledgerDirsManager,
                            LedgerDirsManager indexDirsManager, StatsLogger statsLogger, ByteBufAllocator allocator)
@@ -173,6 +220,7 @@ public class DbLedgerStorage implements LedgerStorage {
         int readAheadCacheBatchSize = conf.getInt(READ_AHEAD_CACHE_BATCH_SIZE, DEFAULT_READ_AHEAD_CACHE_BATCH_SIZE);
 
         ledgerStorageList = Lists.newArrayList();
+        parallelFlushDirectoryStats = Lists.newArrayList();
         for (int i = 0; i < ledgerDirsManager.getAllLedgerDirs().size(); i++) {
             File ledgerDir = ledgerDirsManager.getAllLedgerDirs().get(i);
             File indexDir = indexDirsManager.getAllLedgerDirs().get(i);
@@ -208,6 +256,10 @@ public class DbLedgerStorage implements LedgerStorage {
                     conf,
                     DIRECT_IO_ENTRYLOGGER_MAX_FD_CACHE_TIME_SECONDS,
                     DEFAULT_DIRECT_IO_MAX_FD_CACHE_TIME_SECONDS);
+                int ioUringQueueDepth = (int) getLongVariableOrDefault(
+                    conf,
+                    DIRECT_IO_ENTRYLOGGER_IO_URING_QUEUE_DEPTH,
+                    DEFAULT_DIRECT_IO_IO_URING_QUEUE_DEPTH);
                 Slf4jSlogger slog = new Slf4jSlogger(DbLedgerStorage.class);
                 entryLoggerWriteExecutor = Executors.newSingleThreadExecutor(
                     new DefaultThreadFactory("EntryLoggerWrite"));
@@ -229,6 +281,7 @@ public class DbLedgerStorage implements LedgerStorage {
                     readBufferSize,
                     numReadThreads,
                     maxFdCacheTimeSeconds,
+                    ioUringQueueDepth,
                     slog, statsLogger);
             } else {
                 entrylogger = new DefaultEntryLogger(conf, ldm, null, statsLogger, allocator);
@@ -238,6 +291,8 @@ public class DbLedgerStorage implements LedgerStorage {
                 statsLogger, perDirectoryWriteCacheSize,
                 perDirectoryReadCacheSize,
                 readAheadCacheBatchSize));
+            parallelFlushDirectoryStats.add(statsLogger.scopeLabel("ledgerDir", ledgerDir.getPath())
+                    .getOpStatsLogger(PARALLEL_FLUSH_DIRECTORY));
             ldm.getListeners().forEach(ledgerDirsManager::addLedgerDirsListener);
             if (!lDirs[0].getPath().equals(iDirs[0].getPath())) {
                 idm.getListeners().forEach(indexDirsManager::addLedgerDirsListener);
@@ -270,6 +325,14 @@ public class DbLedgerStorage implements LedgerStorage {
             }
         };
         statsLogger.registerGauge(MAX_WRITE_CACHE_SIZE, writeCacheSizeGauge);
+
+        int parallelFlushThreads = conf.getInt(PARALLEL_FLUSH_THREADS, 0);
+        if (parallelFlushThreads > 0 && numberOfDirs > 1) {
+            log.info(" - Parallel flush threads: {}", Math.min(parallelFlushThreads, numberOfDirs));
+            parallelFlushExecutor = Executors.newFixedThreadPool(Math.min(parallelFlushThreads, numberOfDirs),
+                    new DefaultThreadFactory("db-storage-parallel-flush"));
+        }
+        parallelFlushStats = statsLogger.getOpStatsLogger(PARALLEL_FLUSH);
     }
 
     @VisibleForTesting
@@ -289,6 +352,7 @@ public class DbLedgerStorage implements LedgerStorage {
     }
     @Override
     public void setCheckpointSource(CheckpointSource checkpointSource) {
+        this.checkpointSource = checkpointSource;
         ledgerStorageList.forEach(s -> s.setCheckpointSource(checkpointSource));
     }
     @Override
@@ -313,6 +377,9 @@ public class DbLedgerStorage implements LedgerStorage {
         if (entryLoggerFlushExecutor != null) {
             entryLoggerFlushExecutor.shutdown();
         }
+        if (parallelFlushExecutor != null) {
+            parallelFlushExecutor.shutdown();
+        }
     }
 
     @Override
@@ -356,6 +423,11 @@ public class DbLedgerStorage implements LedgerStorage {
         return getLedgerStorage(ledgerId).getEntry(ledgerId, entryId);
     }
 
+    @Override
+    public FileRegion getEntryRegion(long ledgerId, long entryId) throws IOException, BookieException {
+        return getLedgerStorage(ledgerId).getEntryRegion(ledgerId, entryId);
+    }
+
     @Override
     public long getLastAddConfirmed(long ledgerId) throws IOException, BookieException {
         return getLedgerStorage(ledgerId).getLastAddConfirmed(ledgerId);
@@ -376,6 +448,14 @@ public class DbLedgerStorage implements LedgerStorage {
 
     @Override
     public void flush() throws IOException {
+        if (parallelFlushExecutor != null) {
+            // Flush all the directories up to the same checkpoint, and complete it once
+            Checkpoint cp = checkpointSource.newCheckpoint();
+            parallelCheckpoint(cp);
+            checkpointSource.checkpointComplete(cp, true);
+            return;
+        }
+
         for (LedgerStorage ls : ledgerStorageList) {
             ls.flush();
         }
@@ -383,11 +463,68 @@ public class DbLedgerStorage implements LedgerStorage {
 
     @Override
     public void checkpoint(Checkpoint checkpoint) throws IOException {
+        if (parallelFlushExecutor != null) {
+            parallelCheckpoint(checkpoint);
+            return;
+        }
+
         for (LedgerStorage ls : ledgerStorageList) {
             ls.checkpoint(checkpoint);
         }
     }
 
+    /**
+     * Checkpoint all the directories concurrently, and wait for all of them to be done.
+     */
+    private void parallelCheckpoint(Checkpoint checkpoint) throws IOException {
+        long startTime = MathUtils.nowInNano();
+        List<Future<?>> futures = new ArrayList<>(ledgerStorageList.size());
+        for (int i = 0; i < ledgerStorageList.size(); i++) {
+            SingleDirectoryDbLedgerStorage ls = ledgerStorageList.get(i);
+            OpStatsLogger directoryStats = parallelFlushDirectoryStats.get(i);
+            futures.add(parallelFlushExecutor.submit(() -> {
+                long directoryStartTime = MathUtils.nowInNano();
+                try {
+                    ls.checkpoint(checkpoint);
+                } catch (IOException e) {
+                    directoryStats.registerFailedEvent(MathUtils.elapsedNanos(directoryStartTime),
+                            TimeUnit.NANOSECONDS);
+                    throw e;
+                }
+                directoryStats.registerSuccessfulEvent(MathUtils.elapsedNanos(directoryStartTime),
+                        TimeUnit.NANOSECONDS);
+                return null;
+            }));
+        }
+
+        // Wait for all the directories, even if one of them failed, so that no flush is left
+        // running in background
+        IOException exception = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                IOException ioe = e.getCause() instanceof IOException
+                        ? (IOException) e.getCause() : new IOException(e.getCause());
+                if (exception == null) {
+                    exception = ioe;
+                } else {
+                    exception.addSuppressed(ioe);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                parallelFlushStats.registerFailedEvent(MathUtils.elapsedNanos(startTime), TimeUnit.NANOSECONDS);
+                throw new IOException("Interrupted while flushing the ledger directories", e);
+            }
+        }
+
+        if (exception != null) {
+            parallelFlushStats.registerFailedEvent(MathUtils.elapsedNanos(startTime), TimeUnit.NANOSECONDS);
+            throw exception;
+        }
+        parallelFlushStats.registerSuccessfulEvent(MathUtils.elapsedNanos(startTime), TimeUnit.NANOSECONDS);
+    }
+
     @Override
     public void deleteLedger(long ledgerId) throws IOException {
         getLedgerStorage(ledgerId).deleteLedger(ledgerId);
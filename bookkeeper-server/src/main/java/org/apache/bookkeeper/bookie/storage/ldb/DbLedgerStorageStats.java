@@ -52,9 +52,15 @@ class DbLedgerStorageStats {
     private static final String WRITE_CACHE_MISSES = "write-cache-misses";
     private static final String READ_CACHE_HITS = "read-cache-hits";
     private static final String READ_CACHE_MISSES = "read-cache-misses";
+    private static final String READ_ZERO_COPY = "read-zero-copy";
     private static final String READAHEAD_BATCH_COUNT = "readahead-batch-count";
     private static final String READAHEAD_BATCH_SIZE = "readahead-batch-size";
     private static final String READAHEAD_TIME = "readahead-time";
+    private static final String READAHEAD_PREFETCH_TRIGGERED = "readahead-prefetch-triggered";
+    private static final String READAHEAD_PREFETCH_BATCH_COUNT = "readahead-prefetch-batch-count";
+    private static final String READAHEAD_PREFETCH_BATCH_SIZE = "readahead-prefetch-batch-size";
+    private static final String READAHEAD_PREFETCH_READS = "readahead-prefetch-entrylog-reads";
+    private static final String READAHEAD_PREFETCH_TIME = "readahead-prefetch-time";
     private static final String FLUSH = "flush";
     private static final String FLUSH_ENTRYLOG = "flush-entrylog";
     private static final String FLUSH_LOCATIONS_INDEX = "flush-locations-index";
@@ -66,10 +72,13 @@ class DbLedgerStorageStats {
     // throttled-write-requests is deprecated, use new metric: throttled-write
     private static final String THROTTLED_WRITE = "throttled-write";
     private static final String REJECTED_WRITE_REQUESTS = "rejected-write-requests";
+    private static final String LEDGER_BUDGET_THROTTLED_WRITE_REQUESTS = "ledger-budget-throttled-write-requests";
+    private static final String LEDGER_BUDGET_REJECTED_WRITE_REQUESTS = "ledger-budget-rejected-write-requests";
     private static final String WRITE_CACHE_SIZE = "write-cache-size";
     private static final String WRITE_CACHE_COUNT = "write-cache-count";
     private static final String READ_CACHE_SIZE = "read-cache-size";
     private static final String READ_CACHE_COUNT = "read-cache-count";
+    private static final String READ_CACHE_DROPPED = "read-cache-dropped";
 
     @StatsDoc(
         name = ADD_ENTRY,
@@ -119,6 +128,12 @@ class DbLedgerStorageStats {
         parent = READ_ENTRY
     )
     private final Counter readCacheMissCounter;
+    @StatsDoc(
+        name = READ_ZERO_COPY,
+        help = "number of entries read from the entry logs that are sent with zero-copy transfers",
+        parent = READ_ENTRY
+    )
+    private final Counter readZeroCopyCounter;
     @StatsDoc(
         name = READAHEAD_BATCH_COUNT,
         help = "the distribution of num of entries to read in one readahead batch"
@@ -134,6 +149,31 @@ class DbLedgerStorageStats {
             help = "Time spent on readahead operations"
     )
     private final Counter readAheadTime;
+    @StatsDoc(
+        name = READAHEAD_PREFETCH_TRIGGERED,
+        help = "number of asynchronous prefetches triggered by sequential reads"
+    )
+    private final Counter readAheadPrefetchTriggeredCounter;
+    @StatsDoc(
+        name = READAHEAD_PREFETCH_BATCH_COUNT,
+        help = "the distribution of num of entries loaded in read cache in one prefetch batch"
+    )
+    private final OpStatsLogger readAheadPrefetchBatchCountStats;
+    @StatsDoc(
+        name = READAHEAD_PREFETCH_BATCH_SIZE,
+        help = "the distribution of num of bytes loaded in read cache in one prefetch batch"
+    )
+    private final OpStatsLogger readAheadPrefetchBatchSizeStats;
+    @StatsDoc(
+        name = READAHEAD_PREFETCH_READS,
+        help = "number of reads on the entry log files issued by the prefetcher"
+    )
+    private final Counter readAheadPrefetchEntryLogReadsCounter;
+    @StatsDoc(
+        name = READAHEAD_PREFETCH_TIME,
+        help = "operation stats of the prefetch batches"
+    )
+    private final OpStatsLogger readAheadPrefetchStats;
     @StatsDoc(
         name = FLUSH,
         help = "operation stats of flushing write cache to entry log files"
@@ -174,6 +214,19 @@ class DbLedgerStorageStats {
         help = "The number of requests rejected due to write cache is full"
     )
     private final Counter rejectedWriteRequests;
+    // all the ledgers are held to the same share of the write cache, so there is no budget class to label with
+    @StatsDoc(
+        name = LEDGER_BUDGET_THROTTLED_WRITE_REQUESTS,
+        help = "The number of requests throttled because their ledger was over its share of the write cache",
+        parent = THROTTLED_WRITE_REQUESTS
+    )
+    private final Counter ledgerBudgetThrottledWriteRequests;
+    @StatsDoc(
+        name = LEDGER_BUDGET_REJECTED_WRITE_REQUESTS,
+        help = "The number of requests rejected because their ledger was over its share of the write cache",
+        parent = REJECTED_WRITE_REQUESTS
+    )
+    private final Counter ledgerBudgetRejectedWriteRequests;
 
     @StatsDoc(
         name = WRITE_CACHE_SIZE,
@@ -195,23 +248,35 @@ class DbLedgerStorageStats {
         help = "Current number of entries in read cache"
     )
     private final Gauge<Long> readCacheCountGauge;
+    @StatsDoc(
+        name = READ_CACHE_DROPPED,
+        help = "Number of entries that were not inserted in the read cache while it was evicting a segment"
+    )
+    private final Gauge<Long> readCacheDroppedGauge;
 
     DbLedgerStorageStats(StatsLogger stats,
                          Supplier<Long> writeCacheSizeSupplier,
                          Supplier<Long> writeCacheCountSupplier,
                          Supplier<Long> readCacheSizeSupplier,
-                         Supplier<Long> readCacheCountSupplier) {
+                         Supplier<Long> readCacheCountSupplier,
+                         Supplier<Long> readCacheDroppedSupplier) {
         addEntryStats = stats.getThreadScopedOpStatsLogger(ADD_ENTRY);
         readEntryStats = stats.getThreadScopedOpStatsLogger(READ_ENTRY);
         readFromLocationIndexTime = stats.getThreadScopedCounter(READ_ENTRY_LOCATIONS_INDEX_TIME);
         readFromEntryLogTime = stats.getThreadScopedCounter(READ_ENTRYLOG_TIME);
         readCacheHitCounter = stats.getCounter(READ_CACHE_HITS);
         readCacheMissCounter = stats.getCounter(READ_CACHE_MISSES);
+        readZeroCopyCounter = stats.getCounter(READ_ZERO_COPY);
         writeCacheHitCounter = stats.getCounter(WRITE_CACHE_HITS);
         writeCacheMissCounter = stats.getCounter(WRITE_CACHE_MISSES);
         readAheadBatchCountStats = stats.getOpStatsLogger(READAHEAD_BATCH_COUNT);
         readAheadBatchSizeStats = stats.getOpStatsLogger(READAHEAD_BATCH_SIZE);
         readAheadTime = stats.getThreadScopedCounter(READAHEAD_TIME);
+        readAheadPrefetchTriggeredCounter = stats.getCounter(READAHEAD_PREFETCH_TRIGGERED);
+        readAheadPrefetchBatchCountStats = stats.getOpStatsLogger(READAHEAD_PREFETCH_BATCH_COUNT);
+        readAheadPrefetchBatchSizeStats = stats.getOpStatsLogger(READAHEAD_PREFETCH_BATCH_SIZE);
+        readAheadPrefetchEntryLogReadsCounter = stats.getCounter(READAHEAD_PREFETCH_READS);
+        readAheadPrefetchStats = stats.getOpStatsLogger(READAHEAD_PREFETCH_TIME);
         flushStats = stats.getOpStatsLogger(FLUSH);
         flushEntryLogStats = stats.getOpStatsLogger(FLUSH_ENTRYLOG);
         flushLocationIndexStats = stats.getOpStatsLogger(FLUSH_LOCATIONS_INDEX);
@@ -221,6 +286,8 @@ class DbLedgerStorageStats {
         throttledWriteRequests = stats.getThreadScopedCounter(THROTTLED_WRITE_REQUESTS);
         throttledWriteStats = stats.getOpStatsLogger(THROTTLED_WRITE);
         rejectedWriteRequests = stats.getThreadScopedCounter(REJECTED_WRITE_REQUESTS);
+        ledgerBudgetThrottledWriteRequests = stats.getThreadScopedCounter(LEDGER_BUDGET_THROTTLED_WRITE_REQUESTS);
+        ledgerBudgetRejectedWriteRequests = stats.getThreadScopedCounter(LEDGER_BUDGET_REJECTED_WRITE_REQUESTS);
 
         writeCacheSizeGauge = new Gauge<Long>() {
             @Override
@@ -271,6 +338,19 @@ class DbLedgerStorageStats {
             }
         };
         stats.registerGauge(READ_CACHE_COUNT, readCacheCountGauge);
+        readCacheDroppedGauge = new Gauge<Long>() {
+
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return readCacheDroppedSupplier.get();
+            }
+        };
+        stats.registerGauge(READ_CACHE_DROPPED, readCacheDroppedGauge);
     }
 
 }
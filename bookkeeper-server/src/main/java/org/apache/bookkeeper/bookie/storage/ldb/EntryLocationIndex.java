@@ -20,20 +20,27 @@
  */
 package org.apache.bookkeeper.bookie.storage.ldb;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Iterables;
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.bookkeeper.bookie.Bookie;
 import org.apache.bookkeeper.bookie.EntryLocation;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.CloseableIterator;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.util.MathUtils;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
 import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,17 +49,46 @@ import org.slf4j.LoggerFactory;
  *
  * <p>For each ledger multiple entries are stored in the same "record", represented
  * by the {@link LedgerIndexPage} class.
+ *
+ * <p>The locations of the closed ledgers can be copied to memory-mapped {@link EntryLocationSnapshots}, which
+ * are looked up before the db.
+ *
+ * <p>When the compaction looks up the live entries of the entry logs in the index, the range of the entries of each
+ * ledger written to each entry log since the index was opened is kept in memory, to bound the lookup of the entries
+ * of a ledger stored in an entry log. The ranges are not persisted and their number is bounded: the lookups in the
+ * entry logs written before a restart, or once the bound is reached, scan all the entries of the ledger.
  */
 public class EntryLocationIndex implements Closeable {
 
     private final KeyValueStorage locationsDb;
     private final ConcurrentLongHashSet deletedLedgers = ConcurrentLongHashSet.newBuilder().build();
     private final EntryLocationIndexStats stats;
+    // null if the snapshots are disabled
+    private final EntryLocationSnapshots snapshots;
+    // null if the compaction does not look up the entries of the entry logs in the index
+    private final ConcurrentLongHashMap<LedgerEntryRanges> entryLogRanges;
+    private final long maxEntryLogRanges;
+    // Number of ledger ranges in the entry logs, approximate as the ranges of an entry log can still be
+    // updated while it is untracked
+    private final AtomicLong entryLogRangesCount = new AtomicLong();
     private boolean isCompacting;
 
     public EntryLocationIndex(ServerConfiguration conf, KeyValueStorageFactory storageFactory, String basePath,
             StatsLogger stats) throws IOException {
         locationsDb = storageFactory.newKeyValueStorage(basePath, "locations", DbConfigType.EntryLocation, conf);
+        if (conf.getBoolean(DbLedgerStorage.ENTRY_LOCATION_SNAPSHOTS_ENABLED, false)) {
+            snapshots = new EntryLocationSnapshots(new File(basePath, "locations-snapshots"),
+                    conf.getInt(DbLedgerStorage.ENTRY_LOCATION_SNAPSHOT_MAX_COUNT, 1000));
+        } else {
+            snapshots = null;
+        }
+        if (conf.getBoolean(DbLedgerStorage.COMPACTION_LOOKUP_LIVE_ENTRIES_ENABLED, false)) {
+            entryLogRanges = ConcurrentLongHashMap.<LedgerEntryRanges>newBuilder().build();
+        } else {
+            entryLogRanges = null;
+        }
+        maxEntryLogRanges = conf.getLong(DbLedgerStorage.COMPACTION_LOOKUP_MAX_RANGES,
+                DbLedgerStorage.DEFAULT_COMPACTION_LOOKUP_MAX_RANGES);
 
         this.stats = new EntryLocationIndexStats(
             stats,
@@ -62,15 +98,27 @@ public class EntryLocationIndex implements Closeable {
                 } catch (IOException e) {
                     return -1L;
                 }
-            });
+            },
+            () -> snapshots != null ? snapshots.count() : 0L);
     }
 
     @Override
     public void close() throws IOException {
+        if (snapshots != null) {
+            snapshots.close();
+        }
         locationsDb.close();
     }
 
     public long getLocation(long ledgerId, long entryId) throws IOException {
+        if (snapshots != null) {
+            long location = snapshots.getLocation(ledgerId, entryId);
+            if (location != 0) {
+                stats.getSnapshotLookupsCounter().inc();
+                return location;
+            }
+        }
+
         LongPairWrapper key = LongPairWrapper.get(ledgerId, entryId);
         LongWrapper value = LongWrapper.get();
 
@@ -98,6 +146,130 @@ public class EntryLocationIndex implements Closeable {
         }
     }
 
+    /**
+     * Get the locations of a range of consecutive entries of a ledger, resolving them
+     * with a single scan on the index instead of one lookup per entry.
+     *
+     * <p>The scan stops at the first entry that is missing from the index, so the
+     * returned locations always belong to entries {@code firstEntryId} to
+     * {@code firstEntryId + count - 1}.
+     *
+     * @param ledgerId the ledger id
+     * @param firstEntryId the first entry of the range
+     * @param locations the array to fill with the locations of the entries
+     * @return the number of consecutive entries found, starting from {@code firstEntryId}
+     */
+    public int getLocations(long ledgerId, long firstEntryId, long[] locations) throws IOException {
+        if (locations.length == 0 || deletedLedgers.contains(ledgerId)) {
+            return 0;
+        }
+        if (snapshots != null) {
+            int count = snapshots.getLocations(ledgerId, firstEntryId, locations);
+            if (count > 0) {
+                stats.getSnapshotLookupsCounter().addCount(count);
+                return count;
+            }
+        }
+
+        LongPairWrapper firstKey = LongPairWrapper.get(ledgerId, firstEntryId);
+        LongPairWrapper lastKey = LongPairWrapper.get(ledgerId, firstEntryId + locations.length);
+
+        long startTimeNanos = MathUtils.nowInNano();
+        boolean operationSuccess = false;
+        int count = 0;
+        try (CloseableIterator<Entry<byte[], byte[]>> iterator = locationsDb.iterator(firstKey.array,
+                lastKey.array)) {
+            while (iterator.hasNext()) {
+                Entry<byte[], byte[]> entry = iterator.next();
+                long entryId = ArrayUtil.getLong(entry.getKey(), 8);
+                if (entryId != firstEntryId + count) {
+                    // Found a gap in the range
+                    break;
+                }
+
+                locations[count++] = ArrayUtil.getLong(entry.getValue(), 0);
+            }
+            operationSuccess = true;
+            return count;
+        } finally {
+            firstKey.recycle();
+            lastKey.recycle();
+            if (operationSuccess) {
+                stats.getLookupEntryLocationRangeStats()
+                        .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            } else {
+                stats.getLookupEntryLocationRangeStats()
+                        .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Get the locations of the entries of a ledger that are stored in an entry log, with a single scan
+     * on the entries of the ledger in the index. If the entry log was written since the index was opened,
+     * and the ranges of its ledgers are still tracked, the scan is limited to the range of the entries of
+     * the ledger written to the entry log. Otherwise all the entries of the ledger are scanned.
+     *
+     * @param ledgerId the ledger id
+     * @param entryLogId the entry log id
+     * @param locations the list to add the locations of the entries to
+     * @return the number of entries of the ledger found in the entry log
+     */
+    public int getLocationsInEntryLog(long ledgerId, long entryLogId, List<EntryLocation> locations)
+            throws IOException {
+        if (deletedLedgers.contains(ledgerId)) {
+            return 0;
+        }
+
+        long firstEntryId = 0;
+        long lastEntryId = Long.MAX_VALUE;
+        LedgerEntryRanges ranges = entryLogRanges != null ? entryLogRanges.get(entryLogId) : null;
+        if (ranges != null && !ranges.untracked) {
+            long first = ranges.firstEntries.get(ledgerId);
+            long last = ranges.lastEntries.get(ledgerId);
+            // The ranges are cleared after being untracked, so they are only valid if still tracked after the reads
+            if (!ranges.untracked) {
+                if (first < 0) {
+                    // No location of the ledger points to the entry log
+                    return 0;
+                }
+                firstEntryId = first;
+                // the last key is excluded
+                lastEntryId = last + 1;
+            }
+        }
+
+        LongPairWrapper firstKey = LongPairWrapper.get(ledgerId, firstEntryId);
+        LongPairWrapper lastKey = LongPairWrapper.get(ledgerId, lastEntryId);
+
+        long startTimeNanos = MathUtils.nowInNano();
+        boolean operationSuccess = false;
+        int count = 0;
+        try (CloseableIterator<Entry<byte[], byte[]>> iterator = locationsDb.iterator(firstKey.array,
+                lastKey.array)) {
+            while (iterator.hasNext()) {
+                Entry<byte[], byte[]> entry = iterator.next();
+                long location = ArrayUtil.getLong(entry.getValue(), 0);
+                if ((location >> 32) == entryLogId) {
+                    locations.add(new EntryLocation(ledgerId, ArrayUtil.getLong(entry.getKey(), 8), location));
+                    count++;
+                }
+            }
+            operationSuccess = true;
+            return count;
+        } finally {
+            firstKey.recycle();
+            lastKey.recycle();
+            if (operationSuccess) {
+                stats.getLookupEntryLogLocationsStats()
+                        .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            } else {
+                stats.getLookupEntryLogLocationsStats()
+                        .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
     public long getLastEntryInLedger(long ledgerId) throws IOException {
         if (deletedLedgers.contains(ledgerId)) {
             // Ledger already deleted
@@ -139,14 +311,14 @@ public class EntryLocationIndex implements Closeable {
     }
 
     public void addLocation(long ledgerId, long entryId, long location) throws IOException {
-        Batch batch = locationsDb.newBatch();
+        Batch batch = newBatch();
         addLocation(batch, ledgerId, entryId, location);
         batch.flush();
         batch.close();
     }
 
     public Batch newBatch() {
-        return locationsDb.newBatch();
+        return snapshots != null ? new SnapshotInvalidatingBatch(locationsDb.newBatch()) : locationsDb.newBatch();
     }
 
     public void addLocation(Batch batch, long ledgerId, long entryId, long location) throws IOException {
@@ -156,6 +328,13 @@ public class EntryLocationIndex implements Closeable {
         if (log.isDebugEnabled()) {
             log.debug("Add location - ledger: {} -- entry: {} -- location: {}", ledgerId, entryId, location);
         }
+        if (snapshots != null) {
+            snapshots.invalidate(ledgerId);
+        }
+        if (entryLogRanges != null && entryId >= 0) {
+            // Recorded before the location is visible, for the lookups of the entries of the entry log
+            addEntryLogRange(location >> 32, ledgerId, entryId);
+        }
 
         try {
             batch.put(key.array, value.array);
@@ -188,6 +367,109 @@ public class EntryLocationIndex implements Closeable {
         // We need to find all the LedgerIndexPage records belonging to one specific
         // ledgers
         deletedLedgers.add(ledgerId);
+        if (snapshots != null) {
+            snapshots.invalidate(ledgerId);
+        }
+    }
+
+    private void addEntryLogRange(long entryLogId, long ledgerId, long entryId) {
+        LedgerEntryRanges ranges = entryLogRanges.computeIfAbsent(entryLogId, k -> new LedgerEntryRanges());
+        if (ranges.add(ledgerId, entryId) && entryLogRangesCount.incrementAndGet() > maxEntryLogRanges) {
+            // Stop tracking the entry log, its lookups fall back to scanning all the entries of the ledgers
+            long size = ranges.untrack();
+            if (size > 0) {
+                entryLogRangesCount.addAndGet(-size);
+                log.info("Too many entry log ranges in the locations index, no longer tracking entry log {}",
+                        entryLogId);
+            }
+        }
+    }
+
+    /**
+     * Forget the ranges of the entries of the ledgers written to an entry log, once it is removed.
+     *
+     * @param entryLogId the entry log id
+     */
+    public void removeEntryLog(long entryLogId) {
+        if (entryLogRanges != null) {
+            LedgerEntryRanges ranges = entryLogRanges.remove(entryLogId);
+            if (ranges != null) {
+                entryLogRangesCount.addAndGet(-ranges.untrack());
+            }
+        }
+    }
+
+    @VisibleForTesting
+    long getEntryLogRangesCount() {
+        return entryLogRangesCount.get();
+    }
+
+    public boolean isSnapshotsEnabled() {
+        return snapshots != null;
+    }
+
+    public boolean hasSnapshot(long ledgerId) {
+        return snapshots != null && snapshots.contains(ledgerId);
+    }
+
+    /**
+     * @return true if no more snapshot can be created
+     */
+    public boolean isSnapshotsFull() {
+        return snapshots == null || snapshots.isFull();
+    }
+
+    /**
+     * Copy the locations of the entries of a ledger to a memory-mapped snapshot, to look them up without
+     * accessing the db. The ledger should not be written anymore, the snapshot is dropped when the
+     * locations of the ledger are modified.
+     *
+     * @param ledgerId the ledger id
+     * @param minEntries the minimum number of entries of the snapshot, to avoid mapping small ledgers
+     * @return true if the snapshot is created
+     */
+    public boolean createSnapshot(long ledgerId, long minEntries) throws IOException {
+        // Marked as pending before the locations are read, so that any modification of the locations that is not
+        // seen by the iterators, including the deletion of the ledger, discards the snapshot
+        if (snapshots == null || !snapshots.startCreate(ledgerId)) {
+            return false;
+        }
+
+        LongPairWrapper firstKey = LongPairWrapper.get(ledgerId, 0);
+        LongPairWrapper lastKey = LongPairWrapper.get(ledgerId, Long.MAX_VALUE);
+        try {
+            if (deletedLedgers.contains(ledgerId)) {
+                return false;
+            }
+
+            long firstEntryId;
+            try (CloseableIterator<Entry<byte[], byte[]>> iterator = locationsDb.iterator(firstKey.array,
+                    lastKey.array)) {
+                if (!iterator.hasNext()) {
+                    return false;
+                }
+                firstEntryId = ArrayUtil.getLong(iterator.next().getKey(), 8);
+            }
+            long lastEntryId = getLastEntryInLedgerInternal(ledgerId);
+            if (lastEntryId - firstEntryId + 1 < minEntries) {
+                return false;
+            }
+
+            try (CloseableIterator<Entry<byte[], byte[]>> iterator = locationsDb.iterator(firstKey.array,
+                    lastKey.array)) {
+                snapshotIteratorOpened(ledgerId);
+                return snapshots.create(ledgerId, firstEntryId, lastEntryId, iterator);
+            }
+        } finally {
+            // no-op if the snapshot was created or discarded
+            snapshots.abortCreate(ledgerId);
+            firstKey.recycle();
+            lastKey.recycle();
+        }
+    }
+
+    @VisibleForTesting
+    void snapshotIteratorOpened(long ledgerId) throws IOException {
     }
 
     public String getEntryLocationDBPath() {
@@ -245,5 +527,108 @@ public class EntryLocationIndex implements Closeable {
                 TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) / 1000.0);
     }
 
+    /**
+     * A batch that drops again the snapshots of the ledgers whose locations it wrote, once they are visible in the
+     * db. A snapshot created from the db after the locations were added to the batch, but before the batch was
+     * flushed, is then not kept.
+     */
+    private class SnapshotInvalidatingBatch implements Batch {
+        private final Batch batch;
+        private final ConcurrentLongHashSet ledgers = ConcurrentLongHashSet.newBuilder()
+                .concurrencyLevel(1).build();
+        private long lastLedgerId = -1;
+
+        SnapshotInvalidatingBatch(Batch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void put(byte[] key, byte[] value) throws IOException {
+            batch.put(key, value);
+            long ledgerId = ArrayUtil.getLong(key, 0);
+            // the locations are mostly written in order of ledger
+            if (ledgerId != lastLedgerId) {
+                ledgers.add(ledgerId);
+                lastLedgerId = ledgerId;
+            }
+        }
+
+        @Override
+        public void remove(byte[] key) throws IOException {
+            batch.remove(key);
+        }
+
+        @Override
+        public void deleteRange(byte[] beginKey, byte[] endKey) throws IOException {
+            batch.deleteRange(beginKey, endKey);
+        }
+
+        @Override
+        public void clear() {
+            batch.clear();
+            ledgers.clear();
+            lastLedgerId = -1;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            batch.flush();
+            ledgers.forEach(snapshots::invalidate);
+            ledgers.clear();
+            lastLedgerId = -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            batch.close();
+        }
+    }
+
+    /**
+     * The first and last entry ids of the ledgers whose locations were added in an entry log.
+     */
+    private static class LedgerEntryRanges {
+        private final ConcurrentLongLongHashMap firstEntries = ConcurrentLongLongHashMap.newBuilder()
+                .expectedItems(16).concurrencyLevel(1).build();
+        private final ConcurrentLongLongHashMap lastEntries = ConcurrentLongLongHashMap.newBuilder()
+                .expectedItems(16).concurrencyLevel(1).build();
+        // Set once the ranges are incomplete, and can't be used to bound the lookups anymore
+        volatile boolean untracked = false;
+
+        /**
+         * @return true if the ledger was not in the ranges yet
+         */
+        boolean add(long ledgerId, long entryId) {
+            if (untracked) {
+                return false;
+            }
+            long first = firstEntries.putIfAbsent(ledgerId, entryId);
+            while (first >= 0 && entryId < first && !firstEntries.compareAndSet(ledgerId, first, entryId)) {
+                first = firstEntries.get(ledgerId);
+            }
+            long last = lastEntries.putIfAbsent(ledgerId, entryId);
+            while (last >= 0 && entryId > last && !lastEntries.compareAndSet(ledgerId, last, entryId)) {
+                last = lastEntries.get(ledgerId);
+            }
+            return first < 0;
+        }
+
+        /**
+         * Stop tracking the ranges and release them.
+         *
+         * @return the number of ledger ranges released, 0 if the ranges were already untracked
+         */
+        synchronized long untrack() {
+            if (untracked) {
+                return 0;
+            }
+            untracked = true;
+            long size = firstEntries.size();
+            firstEntries.clear();
+            lastEntries.clear();
+            return size;
+        }
+    }
+
     private static final Logger log = LoggerFactory.getLogger(EntryLocationIndex.class);
 }
@@ -24,6 +24,7 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER
 
 import java.util.function.Supplier;
 import lombok.Getter;
+import org.apache.bookkeeper.stats.Counter;
 import org.apache.bookkeeper.stats.Gauge;
 import org.apache.bookkeeper.stats.OpStatsLogger;
 import org.apache.bookkeeper.stats.StatsLogger;
@@ -42,6 +43,10 @@ class EntryLocationIndexStats {
 
     private static final String ENTRIES_COUNT = "entries-count";
     private static final String LOOKUP_ENTRY_LOCATION = "lookup-entry-location";
+    private static final String LOOKUP_ENTRY_LOCATION_RANGE = "lookup-entry-location-range";
+    private static final String LOOKUP_ENTRY_LOG_LOCATIONS = "lookup-entry-log-locations";
+    private static final String SNAPSHOTS_COUNT = "location-snapshots-count";
+    private static final String SNAPSHOT_LOOKUPS = "location-snapshot-lookups";
 
     @StatsDoc(
         name = ENTRIES_COUNT,
@@ -55,8 +60,33 @@ class EntryLocationIndexStats {
     )
     private final OpStatsLogger lookupEntryLocationStats;
 
+    @StatsDoc(
+            name = LOOKUP_ENTRY_LOCATION_RANGE,
+            help = "operation stats of looking up the locations of a range of entries with a single scan"
+    )
+    private final OpStatsLogger lookupEntryLocationRangeStats;
+
+    @StatsDoc(
+            name = LOOKUP_ENTRY_LOG_LOCATIONS,
+            help = "operation stats of looking up the locations of the entries of a ledger stored in an entry log"
+    )
+    private final OpStatsLogger lookupEntryLogLocationsStats;
+
+    @StatsDoc(
+        name = SNAPSHOTS_COUNT,
+        help = "Current number of ledgers with a memory-mapped snapshot of their entry locations"
+    )
+    private final Gauge<Long> snapshotsCountGauge;
+
+    @StatsDoc(
+            name = SNAPSHOT_LOOKUPS,
+            help = "Number of entry locations found in the memory-mapped snapshots, without a lookup in the db"
+    )
+    private final Counter snapshotLookupsCounter;
+
     EntryLocationIndexStats(StatsLogger statsLogger,
-                            Supplier<Long> entriesCountSupplier) {
+                            Supplier<Long> entriesCountSupplier,
+                            Supplier<Long> snapshotsCountSupplier) {
         entriesCountGauge = new Gauge<Long>() {
             @Override
             public Long getDefaultValue() {
@@ -70,6 +100,21 @@ class EntryLocationIndexStats {
         };
         statsLogger.registerGauge(ENTRIES_COUNT, entriesCountGauge);
         lookupEntryLocationStats = statsLogger.getOpStatsLogger(LOOKUP_ENTRY_LOCATION);
+        lookupEntryLocationRangeStats = statsLogger.getOpStatsLogger(LOOKUP_ENTRY_LOCATION_RANGE);
+        lookupEntryLogLocationsStats = statsLogger.getOpStatsLogger(LOOKUP_ENTRY_LOG_LOCATIONS);
+        snapshotsCountGauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return snapshotsCountSupplier.get();
+            }
+        };
+        statsLogger.registerGauge(SNAPSHOTS_COUNT, snapshotsCountGauge);
+        snapshotLookupsCounter = statsLogger.getCounter(SNAPSHOT_LOOKUPS);
     }
 
 }
@@ -0,0 +1,324 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+// CHECKSTYLE.OFF: IllegalImport
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.IllegalReferenceCountException;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.internal.PlatformDependent;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map.Entry;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.CloseableIterator;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable snapshots of the entry locations of closed ledgers, stored in memory-mapped files.
+ *
+ * <p>The locations of the entries of a ledger are stored as a dense array, where the entry id is implied by the
+ * position in the array, so looking up a location is a single load from the mapped memory. The entries missing
+ * from the snapshot, stored with location 0, are looked up in the index.
+ *
+ * <p>A snapshot is dropped when the locations of its ledger are modified in the index, for example when its entries
+ * are moved by the compaction, or when the ledger is deleted. The snapshots are not reloaded on restart, they are
+ * created again from the index.
+ *
+ * <p>The number of snapshots is capped, since each of them holds a memory mapping. The mapping of a dropped snapshot
+ * is unmapped once the lookups in progress on it are done.
+ */
+class EntryLocationSnapshots {
+
+    private static final Logger log = LoggerFactory.getLogger(EntryLocationSnapshots.class);
+
+    private static final String SNAPSHOT_FILE_SUFFIX = ".loc";
+    private static final String TMP_FILE_SUFFIX = ".tmp";
+
+    // first entry id and number of entries
+    private static final int HEADER_SIZE = 2 * Long.BYTES;
+    static final int MAX_ENTRIES = (Integer.MAX_VALUE - HEADER_SIZE) / Long.BYTES;
+
+    private final File snapshotsDir;
+    private final int maxSnapshots;
+    private final ConcurrentLongHashMap<Snapshot> snapshots = ConcurrentLongHashMap.<Snapshot>newBuilder().build();
+    // ledgers whose snapshot is being created, removed when the locations of the ledger are modified
+    private final ConcurrentLongHashSet pendingSnapshots = ConcurrentLongHashSet.newBuilder().build();
+
+    EntryLocationSnapshots(File snapshotsDir, int maxSnapshots) throws IOException {
+        this.snapshotsDir = snapshotsDir;
+        this.maxSnapshots = maxSnapshots;
+        if (snapshotsDir.exists()) {
+            File[] files = snapshotsDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+        } else if (!snapshotsDir.mkdirs()) {
+            throw new IOException("Failed to create entry location snapshots directory " + snapshotsDir);
+        }
+    }
+
+    /**
+     * @return the location of the entry, or 0 if the entry is not in a snapshot
+     */
+    long getLocation(long ledgerId, long entryId) {
+        Snapshot snapshot = retainSnapshot(ledgerId);
+        if (snapshot == null) {
+            return 0L;
+        }
+        try {
+            return snapshot.getLocation(entryId);
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    /**
+     * Get the locations of a range of consecutive entries of a ledger from its snapshot.
+     *
+     * @return the number of consecutive entries found, starting from {@code firstEntryId}
+     */
+    int getLocations(long ledgerId, long firstEntryId, long[] locations) {
+        Snapshot snapshot = retainSnapshot(ledgerId);
+        if (snapshot == null) {
+            return 0;
+        }
+        try {
+            int count = 0;
+            while (count < locations.length) {
+                long location = snapshot.getLocation(firstEntryId + count);
+                if (location == 0L) {
+                    break;
+                }
+                locations[count++] = location;
+            }
+            return count;
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    /**
+     * @return the snapshot of the ledger, retained so that it is not unmapped while it is read, or null
+     */
+    private Snapshot retainSnapshot(long ledgerId) {
+        Snapshot snapshot = snapshots.get(ledgerId);
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            snapshot.retain();
+            return snapshot;
+        } catch (IllegalReferenceCountException e) {
+            // the snapshot was dropped concurrently
+            return null;
+        }
+    }
+
+    boolean contains(long ledgerId) {
+        return snapshots.containsKey(ledgerId);
+    }
+
+    long count() {
+        return snapshots.size();
+    }
+
+    /**
+     * Drop the snapshot of a ledger, before its locations are modified in the index.
+     */
+    void invalidate(long ledgerId) {
+        // a snapshot being created is added to the snapshots before being removed from the pending snapshots,
+        // so it is found in one of them when they are checked in this order
+        if (!pendingSnapshots.contains(ledgerId) && !snapshots.containsKey(ledgerId)) {
+            return;
+        }
+        pendingSnapshots.remove(ledgerId);
+        Snapshot snapshot = snapshots.remove(ledgerId);
+        if (snapshot != null) {
+            deleteFile(snapshot.file);
+            // the mapping is unmapped once the readers of the snapshot are done with it
+            snapshot.release();
+        }
+    }
+
+    /**
+     * Mark the snapshot of a ledger as being created, before its locations are read from the index. From then on,
+     * a modification of the locations of the ledger discards the snapshot.
+     *
+     * @return false if the snapshot cannot be created, because the maximum number of snapshots is reached or the
+     *         snapshot is already being created
+     */
+    boolean startCreate(long ledgerId) {
+        return !isFull() && pendingSnapshots.add(ledgerId);
+    }
+
+    /**
+     * Clear the mark of a snapshot that is not created after {@link #startCreate(long)}.
+     */
+    void abortCreate(long ledgerId) {
+        pendingSnapshots.remove(ledgerId);
+    }
+
+    /**
+     * Create the snapshot of the locations of a ledger, marked as being created by {@link #startCreate(long)}.
+     *
+     * <p>The snapshot is discarded if the locations of the ledger were modified since it was marked.
+     *
+     * @param firstEntryId the first entry of the ledger in the index
+     * @param lastEntryId the last entry of the ledger in the index
+     * @param locations the iterator on the entries of the ledger in the index, in order of entry id
+     * @return true if the snapshot is created
+     */
+    boolean create(long ledgerId, long firstEntryId, long lastEntryId,
+                   CloseableIterator<Entry<byte[], byte[]>> locations) throws IOException {
+        long numEntries = lastEntryId - firstEntryId + 1;
+        if (numEntries <= 0 || numEntries > MAX_ENTRIES) {
+            pendingSnapshots.remove(ledgerId);
+            return false;
+        }
+
+        File file = new File(snapshotsDir, Long.toHexString(ledgerId) + SNAPSHOT_FILE_SUFFIX);
+        File tmpFile = new File(snapshotsDir, file.getName() + TMP_FILE_SUFFIX);
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tmpFile)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+                out.writeLong(firstEntryId);
+                out.writeLong(numEntries);
+                long nextEntryId = firstEntryId;
+                while (locations.hasNext()) {
+                    Entry<byte[], byte[]> location = locations.next();
+                    long entryId = ArrayUtil.getLong(location.getKey(), 8);
+                    if (entryId < nextEntryId || entryId > lastEntryId) {
+                        continue;
+                    }
+                    // the entries not stored in this bookie are left out of the snapshot
+                    for (; nextEntryId < entryId; nextEntryId++) {
+                        out.writeLong(0L);
+                    }
+                    out.writeLong(ArrayUtil.getLong(location.getValue(), 0));
+                    nextEntryId++;
+                }
+                for (; nextEntryId <= lastEntryId; nextEntryId++) {
+                    out.writeLong(0L);
+                }
+                out.flush();
+                fos.getChannel().force(true);
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+            Snapshot snapshot = new Snapshot(file, firstEntryId, (int) numEntries, map(file));
+            Snapshot previous = snapshots.put(ledgerId, snapshot);
+            if (previous != null) {
+                previous.release();
+            }
+            if (!pendingSnapshots.remove(ledgerId)) {
+                // the locations were modified while the snapshot was created
+                if (snapshots.remove(ledgerId, snapshot)) {
+                    snapshot.release();
+                }
+                deleteFile(file);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            pendingSnapshots.remove(ledgerId);
+            deleteFile(tmpFile);
+            deleteFile(file);
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if no more snapshot can be created
+     */
+    boolean isFull() {
+        return snapshots.size() >= maxSnapshots;
+    }
+
+    void close() {
+        pendingSnapshots.clear();
+        for (long ledgerId : snapshots.keys()) {
+            Snapshot snapshot = snapshots.remove(ledgerId);
+            if (snapshot != null) {
+                snapshot.release();
+            }
+        }
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            // the mapping stays valid after the channel is closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+    }
+
+    private static void deleteFile(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            log.warn("Failed to delete entry location snapshot {}", file, e);
+        }
+    }
+
+    private static final class Snapshot extends AbstractReferenceCounted {
+        final File file;
+        final long firstEntryId;
+        final int numEntries;
+        final MappedByteBuffer locations;
+
+        Snapshot(File file, long firstEntryId, int numEntries, MappedByteBuffer locations) {
+            this.file = file;
+            this.firstEntryId = firstEntryId;
+            this.numEntries = numEntries;
+            this.locations = locations;
+        }
+
+        long getLocation(long entryId) {
+            long index = entryId - firstEntryId;
+            if (index < 0 || index >= numEntries) {
+                return 0L;
+            }
+            return locations.getLong(HEADER_SIZE + (int) index * Long.BYTES);
+        }
+
+        @Override
+        protected void deallocate() {
+            PlatformDependent.freeDirectBuffer(locations);
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.apache.bookkeeper.bookie.storage.ldb.WriteCache.align64;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCountUtil;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read cache implementation where lookups never block.
+ *
+ * <p>Like {@link DefaultReadCache}, the memory is splitted in multiple segments that
+ * are used in a ring-buffer fashion, but there is no cache-wide lock:
+ * <ul>
+ * <li>Each segment keeps a count of the threads that are accessing it. A segment that is
+ * retired by the rotation is closed to new threads, and it is cleared by the last thread
+ * that leaves it, so the rotation never waits for the readers.</li>
+ * <li>The current segment is rotated by swapping an atomic reference. Only the writers
+ * that fill up a segment have to coordinate for the rotation.</li>
+ * <li>Each segment has its own open-addressing hash index, with the keys stored
+ * off-heap and a single slot word per entry that is atomically published once the
+ * entry has been copied in the segment.</li>
+ * </ul>
+ *
+ * <p>A segment is rotated when either its memory or its index is full. The index of a segment is
+ * sized from the average size of the entries that filled the previous segment, and resized when
+ * the segment is reclaimed, so that small entries do not fill the index while most of the memory
+ * is left unused. The expected entry size is bounded to {@value #MIN_EXPECTED_ENTRY_SIZE} bytes,
+ * which bounds the index to a fraction of the segment: smaller entries still rotate the segment
+ * on a full index.
+ *
+ * <p>The entries inserted while the current segment is still being left by the readers of its
+ * previous entries are not cached, and counted by {@link #droppedCount()}.
+ */
+public class LockFreeReadCache implements ReadCache {
+    private static final Logger log = LoggerFactory.getLogger(LockFreeReadCache.class);
+
+    private static final int DEFAULT_MAX_SEGMENT_SIZE = 1 * 1024 * 1024 * 1024;
+
+    // Used to size the index of the segments, until a segment is filled
+    private static final int DEFAULT_EXPECTED_ENTRY_SIZE = 1024;
+
+    // Bound to the expected entry size, so that the index of a segment, which takes 24 bytes per
+    // slot with at least 2 slots per entry, does not take more memory than a fraction of the segment
+    static final int MIN_EXPECTED_ENTRY_SIZE = 256;
+
+    private static final int MIN_ENTRIES_PER_SEGMENT = 1024;
+
+    private final ByteBufAllocator allocator;
+    private final Segment[] segments;
+    private final AtomicReference<Segment> currentSegment;
+
+    private final int segmentSize;
+
+    // Average size of the entries of the last filled segment, used to size the index of the next ones
+    private volatile int expectedEntrySize = DEFAULT_EXPECTED_ENTRY_SIZE;
+
+    private final LongAdder droppedCount = new LongAdder();
+
+    public LockFreeReadCache(ByteBufAllocator allocator, long maxCacheSize) {
+        this(allocator, maxCacheSize, DEFAULT_MAX_SEGMENT_SIZE);
+    }
+
+    public LockFreeReadCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize) {
+        this.allocator = allocator;
+        int segmentsCount = Math.max(2, (int) (maxCacheSize / maxSegmentSize));
+        segmentSize = (int) (maxCacheSize / segmentsCount);
+
+        int maxEntriesPerSegment = maxEntriesPerSegment(expectedEntrySize);
+        segments = new Segment[segmentsCount];
+        for (int i = 0; i < segmentsCount; i++) {
+            segments[i] = new Segment(i, segmentSize, maxEntriesPerSegment);
+        }
+        currentSegment = new AtomicReference<>(segments[0]);
+    }
+
+    @Override
+    public void close() {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    @Override
+    public void put(long ledgerId, long entryId, ByteBuf entry) {
+        int entrySize = entry.readableBytes();
+        if (entrySize > segmentSize) {
+            log.warn("entrySize {} > segmentSize {}, skip update read cache!", entrySize, segmentSize);
+            return;
+        }
+        int alignedSize = align64(entrySize);
+
+        while (true) {
+            Segment segment = currentSegment.get();
+            if (!segment.tryAcquire()) {
+                // The current segment is still being left by the readers of its previous entries,
+                // skip the entry rather than waiting for them
+                droppedCount.increment();
+                return;
+            }
+
+            try {
+                long offset = segment.writeOffset.getAndAdd(alignedSize);
+                if (offset + entrySize <= segmentSize) {
+                    // Copy entry into read cache segment, then make it visible in the index
+                    segment.data.setBytes((int) offset, entry, entry.readerIndex(), entrySize);
+                    if (segment.index.put(ledgerId, entryId, (int) offset, entrySize)) {
+                        return;
+                    }
+
+                    // The index is full, no more entries can go in this segment
+                    segment.indexFullOffset = offset;
+                    segment.writeOffset.set(segmentSize);
+                }
+            } finally {
+                segment.release();
+            }
+
+            rotate(segment);
+        }
+    }
+
+    /**
+     * Move to the next segment, retiring its entries, unless another writer already did.
+     */
+    private void rotate(Segment fullSegment) {
+        synchronized (currentSegment) {
+            if (currentSegment.get() != fullSegment) {
+                return;
+            }
+
+            // Size the index of the next segment for the entries that filled this one
+            int count = fullSegment.index.size();
+            if (count > 0) {
+                long usedSize = fullSegment.indexFullOffset >= 0 ? fullSegment.indexFullOffset : segmentSize;
+                expectedEntrySize = (int) Math.max(MIN_EXPECTED_ENTRY_SIZE, usedSize / count);
+            }
+
+            Segment nextSegment = segments[(fullSegment.idx + 1) % segments.length];
+            nextSegment.retire(maxEntriesPerSegment(expectedEntrySize));
+            currentSegment.set(nextSegment);
+        }
+    }
+
+    private int maxEntriesPerSegment(int entrySize) {
+        return Math.max(MIN_ENTRIES_PER_SEGMENT, segmentSize / entrySize);
+    }
+
+    @Override
+    public ByteBuf get(long ledgerId, long entryId) {
+        // We need to check all the segments, starting from the current one and looking
+        // backward to minimize the checks for recently inserted entries
+        int size = segments.length;
+        int currentIdx = currentSegment.get().idx;
+        for (int i = 0; i < size; i++) {
+            Segment segment = segments[(currentIdx + (size - i)) % size];
+            if (!segment.tryAcquire()) {
+                // The segment is retired, its entries are gone
+                continue;
+            }
+
+            try {
+                long location = segment.index.get(ledgerId, entryId);
+                if (location != SegmentIndex.EMPTY) {
+                    int entryOffset = SegmentIndex.offset(location);
+                    int entryLen = SegmentIndex.length(location);
+
+                    ByteBuf entry = allocator.buffer(entryLen, entryLen);
+                    entry.writeBytes(segment.data, entryOffset, entryLen);
+                    return entry;
+                }
+            } finally {
+                segment.release();
+            }
+        }
+
+        // Entry not found in any segment
+        return null;
+    }
+
+    @Override
+    public boolean hasEntry(long ledgerId, long entryId) {
+        for (Segment segment : segments) {
+            if (!segment.tryAcquire()) {
+                continue;
+            }
+
+            try {
+                if (segment.index.get(ledgerId, entryId) != SegmentIndex.EMPTY) {
+                    return true;
+                }
+            } finally {
+                segment.release();
+            }
+        }
+
+        // Entry not found in any segment
+        return false;
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            if (segment.index.size() > 0) {
+                size += Math.min(segment.writeOffset.get(), segmentSize);
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public long count() {
+        long count = 0;
+        for (Segment segment : segments) {
+            count += segment.index.size();
+        }
+        return count;
+    }
+
+    @Override
+    public long droppedCount() {
+        return droppedCount.sum();
+    }
+
+    @VisibleForTesting
+    int indexMaxEntries(int segmentIdx) {
+        return segments[segmentIdx].index.maxEntries;
+    }
+
+    private static final class Segment {
+        final int idx;
+        final ByteBuf data;
+        // Only replaced when the segment is reclaimed, while no thread is accessing it
+        volatile SegmentIndex index;
+        // Number of entries the index must hold once the segment is reclaimed
+        private volatile int targetMaxEntries;
+
+        // Bytes reserved in the segment, can grow past the segment size when it's full
+        final AtomicLong writeOffset = new AtomicLong();
+        // Bytes used when the index was found full, set before the write offset is moved to the end
+        volatile long indexFullOffset = -1;
+
+        // Flag set in the state while the segment is retired, until the last thread leaves it
+        private static final int RETIRED = 1 << 30;
+
+        // Number of threads accessing the segment, plus the retired flag
+        private final AtomicInteger state = new AtomicInteger();
+
+        Segment(int idx, int segmentSize, int maxEntries) {
+            this.idx = idx;
+            this.data = Unpooled.directBuffer(segmentSize, segmentSize);
+            this.index = new SegmentIndex(maxEntries);
+            this.targetMaxEntries = maxEntries;
+        }
+
+        boolean tryAcquire() {
+            while (true) {
+                int s = state.get();
+                if ((s & RETIRED) != 0) {
+                    return false;
+                }
+                if (state.compareAndSet(s, s + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (state.decrementAndGet() == RETIRED) {
+                // Last thread leaving a retired segment
+                reclaim();
+            }
+        }
+
+        /**
+         * Close the segment to new threads and discard all its entries, right away if no thread
+         * is accessing it, otherwise when the last thread leaves it.
+         *
+         * @param maxEntries the number of entries the index of the segment is sized for once reclaimed
+         */
+        void retire(int maxEntries) {
+            targetMaxEntries = maxEntries;
+            while (true) {
+                int s = state.get();
+                if ((s & RETIRED) != 0) {
+                    // Still retired from the previous rotation, it will be reclaimed by its last thread
+                    return;
+                }
+                if (state.compareAndSet(s, s | RETIRED)) {
+                    if (s == 0) {
+                        reclaim();
+                    }
+                    return;
+                }
+            }
+        }
+
+        private void reclaim() {
+            SegmentIndex oldIndex = index;
+            if (oldIndex.needsResize(targetMaxEntries)) {
+                index = new SegmentIndex(targetMaxEntries);
+                oldIndex.close();
+            } else {
+                oldIndex.clear();
+            }
+            indexFullOffset = -1;
+            writeOffset.set(0);
+            // Reopen the segment, publishing the cleared index to the next threads
+            state.set(0);
+        }
+
+        void close() {
+            ReferenceCountUtil.safeRelease(data);
+            index.close();
+        }
+    }
+
+    /**
+     * Insert-only hash index from (ledgerId, entryId) to the location of the entry in
+     * the segment, using linear probing.
+     *
+     * <p>The keys are stored in a direct buffer, and each slot has a word in an atomic array
+     * that holds the location of the entry. A writer first reserves an empty slot with a CAS
+     * on its word, then writes the keys and finally publishes the location, so that readers
+     * that see the location will also see the keys and the entry content.
+     */
+    private static final class SegmentIndex {
+        static final long EMPTY = 0L;
+        private static final long RESERVED = -1L;
+
+        private static final int KEYS_SIZE = 2 * Long.BYTES;
+        private static final long HASH_MIXER = 0xc6a4a7935bd1e995L;
+        private static final int R = 47;
+
+        private final int capacity;
+        private final int maxEntries;
+        private final ByteBuf keys;
+        private final AtomicLongArray locations;
+        private final AtomicInteger size = new AtomicInteger();
+
+        SegmentIndex(int maxEntries) {
+            // Keep the fill factor under 50% to have short probe sequences
+            this.capacity = alignToPowerOfTwo(maxEntries * 2);
+            this.maxEntries = capacity / 2;
+            this.keys = Unpooled.directBuffer(capacity * KEYS_SIZE, capacity * KEYS_SIZE);
+            this.locations = new AtomicLongArray(capacity);
+        }
+
+        /**
+         * @return false if the index is full
+         */
+        boolean put(long ledgerId, long entryId, int offset, int length) {
+            if (size.incrementAndGet() > maxEntries) {
+                size.decrementAndGet();
+                return false;
+            }
+
+            int slot = (int) hash(ledgerId, entryId) & (capacity - 1);
+            while (true) {
+                if (locations.get(slot) == EMPTY && locations.compareAndSet(slot, EMPTY, RESERVED)) {
+                    keys.setLong(slot * KEYS_SIZE, ledgerId);
+                    keys.setLong(slot * KEYS_SIZE + Long.BYTES, entryId);
+                    locations.set(slot, location(offset, length));
+                    return true;
+                }
+
+                // Since the index is never more than half full, we will find an empty slot
+                slot = (slot + 1) & (capacity - 1);
+            }
+        }
+
+        long get(long ledgerId, long entryId) {
+            int slot = (int) hash(ledgerId, entryId) & (capacity - 1);
+            for (int i = 0; i < capacity; i++) {
+                long location = locations.get(slot);
+                if (location == EMPTY) {
+                    return EMPTY;
+                }
+
+                // Skip the slots that are still being written
+                if (location != RESERVED
+                        && keys.getLong(slot * KEYS_SIZE) == ledgerId
+                        && keys.getLong(slot * KEYS_SIZE + Long.BYTES) == entryId) {
+                    return location;
+                }
+
+                slot = (slot + 1) & (capacity - 1);
+            }
+
+            return EMPTY;
+        }
+
+        int size() {
+            return size.get();
+        }
+
+        /**
+         * @return true if the index can't hold {@code targetMaxEntries}, or is more than twice as large as needed
+         */
+        boolean needsResize(int targetMaxEntries) {
+            return targetMaxEntries > maxEntries || alignToPowerOfTwo(targetMaxEntries * 2) < capacity / 2;
+        }
+
+        /**
+         * Must only be called when there are no concurrent accesses to the index.
+         */
+        void clear() {
+            for (int i = 0; i < capacity; i++) {
+                locations.lazySet(i, EMPTY);
+            }
+            size.set(0);
+        }
+
+        void close() {
+            ReferenceCountUtil.safeRelease(keys);
+        }
+
+        private static long location(int offset, int length) {
+            // Offset is shifted by one so that a valid location is never EMPTY
+            return ((long) (offset + 1) << 32) | length;
+        }
+
+        static int offset(long location) {
+            return (int) (location >>> 32) - 1;
+        }
+
+        static int length(long location) {
+            return (int) location;
+        }
+
+        private static long hash(long key1, long key2) {
+            long hash = key1 * HASH_MIXER;
+            hash ^= hash >>> R;
+            hash *= HASH_MIXER;
+            hash += 31 + (key2 * HASH_MIXER);
+            hash ^= hash >>> R;
+            hash *= HASH_MIXER;
+            return hash;
+        }
+
+        private static int alignToPowerOfTwo(int n) {
+            return (int) Math.pow(2, 32 - Integer.numberOfLeadingZeros(n - 1));
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.util.MathUtils;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous read-ahead for ledgers that are being read sequentially.
+ *
+ * <p>The prefetcher keeps track of the last entry read for each ledger. Once a ledger is
+ * detected as being read sequentially, the next batch of entries is loaded in the
+ * {@link ReadCache} in background, ahead of the reader. The locations of the whole batch
+ * are resolved with a single scan on the {@link EntryLocationIndex}, and the entries that
+ * are stored close to each other in the same entry log are fetched with a single read.
+ */
+class SequentialReadPrefetcher implements Closeable {
+
+    @VisibleForTesting
+    static final long LEDGER_STATE_CACHING_TIME_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    // Max number of bytes to fetch from an entry log with a single read
+    private static final int MAX_REGION_READ_SIZE = 1024 * 1024;
+
+    private static final int MIN_SANE_ENTRY_SIZE = 8 + 8;
+
+    private final EntryLogger entryLogger;
+    private final EntryLocationIndex entryLocationIndex;
+    private final ReadCache readCache;
+    private final DbLedgerStorageStats stats;
+
+    private final int batchSize;
+    private final long maxBatchBytes;
+    private final int sequentialThreshold;
+
+    private final ConcurrentLongHashMap<LedgerReadState> ledgers;
+    private final ExecutorService executor;
+
+    SequentialReadPrefetcher(EntryLogger entryLogger, EntryLocationIndex entryLocationIndex, ReadCache readCache,
+                             DbLedgerStorageStats stats, int batchSize, long maxBatchBytes,
+                             int sequentialThreshold, int numThreads) {
+        this.entryLogger = entryLogger;
+        this.entryLocationIndex = entryLocationIndex;
+        this.readCache = readCache;
+        this.stats = stats;
+        this.batchSize = batchSize;
+        this.maxBatchBytes = maxBatchBytes;
+        this.sequentialThreshold = sequentialThreshold;
+        this.ledgers = ConcurrentLongHashMap.<LedgerReadState>newBuilder()
+                .expectedItems(1024)
+                .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+                .build();
+        this.executor = Executors.newFixedThreadPool(numThreads, new DefaultThreadFactory("db-storage-prefetch"));
+    }
+
+    /**
+     * Record a read of an entry that was not found in the write cache, and schedule the
+     * prefetch of the next entries if the ledger is being read sequentially.
+     *
+     * @param ledgerId the ledger id
+     * @param entryId the entry that was read
+     * @param readCacheMiss whether the entry had to be read from the entry log
+     * @return true if the read-ahead of this ledger is taken care of by the prefetcher
+     */
+    boolean onRead(long ledgerId, long entryId, boolean readCacheMiss) {
+        LedgerReadState state = ledgers.computeIfAbsent(ledgerId, k -> new LedgerReadState());
+        long firstEntryToPrefetch;
+        synchronized (state) {
+            state.lastAccessed = System.currentTimeMillis();
+            if (entryId == state.lastEntryId + 1) {
+                state.sequentialReads++;
+            } else if (entryId != state.lastEntryId) {
+                // Random access, start again the detection from here
+                state.sequentialReads = 0;
+                state.prefetchedUpTo = entryId;
+            }
+            state.lastEntryId = entryId;
+
+            if (state.sequentialReads < sequentialThreshold) {
+                return false;
+            }
+
+            if (state.prefetchInProgress) {
+                return true;
+            }
+
+            if (readCacheMiss) {
+                // The prefetched entries were already evicted, or never made it to the cache
+                state.prefetchedUpTo = entryId;
+            } else if (state.prefetchedUpTo - entryId > batchSize / 2) {
+                // There are still enough entries ahead of the reader
+                return true;
+            }
+
+            firstEntryToPrefetch = Math.max(state.prefetchedUpTo, entryId) + 1;
+            state.prefetchInProgress = true;
+        }
+
+        try {
+            executor.execute(() -> prefetch(ledgerId, state, firstEntryToPrefetch));
+        } catch (RejectedExecutionException e) {
+            synchronized (state) {
+                state.prefetchInProgress = false;
+            }
+            return false;
+        }
+
+        stats.getReadAheadPrefetchTriggeredCounter().inc();
+        return true;
+    }
+
+    void removeLedger(long ledgerId) {
+        ledgers.remove(ledgerId);
+    }
+
+    /**
+     * Evict the state of the ledgers that were not read recently.
+     */
+    void removeStaleLedgers() {
+        removeStaleLedgers(System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    void removeStaleLedgers(long now) {
+        ledgers.removeIf((ledgerId, state) -> {
+            synchronized (state) {
+                return !state.prefetchInProgress && state.lastAccessed + LEDGER_STATE_CACHING_TIME_MILLIS < now;
+            }
+        });
+    }
+
+    private void prefetch(long ledgerId, LedgerReadState state, long firstEntryId) {
+        long startTime = MathUtils.nowInNano();
+        long nextEntryId = firstEntryId;
+        long prefetchedUpTo = firstEntryId - 1;
+        int count = 0;
+        long size = 0;
+        boolean success = false;
+
+        try {
+            // Skip the entries that are already in the read cache
+            while (nextEntryId < firstEntryId + batchSize && readCache.hasEntry(ledgerId, nextEntryId)) {
+                nextEntryId++;
+            }
+
+            long[] locations = new long[(int) (firstEntryId + batchSize - nextEntryId)];
+            int found = entryLocationIndex.getLocations(ledgerId, nextEntryId, locations);
+            if (found < locations.length) {
+                // Reached the end of the entries available in the index, no point in trying again
+                // until the reader gets past them
+                prefetchedUpTo = firstEntryId + batchSize - 1;
+            }
+
+            int i = 0;
+            while (i < found && size < maxBatchBytes) {
+                int regionEnd = i + 1;
+                while (regionEnd < found && canCoalesce(locations[i], locations[regionEnd - 1],
+                        locations[regionEnd])) {
+                    regionEnd++;
+                }
+
+                if (regionEnd - i > 1) {
+                    // The size of the last entry is unknown until it gets read, so it will be
+                    // the first entry of the next region
+                    size += readRegion(ledgerId, nextEntryId + i, locations, i, regionEnd - 1);
+                    count += regionEnd - 1 - i;
+                    i = regionEnd - 1;
+                } else {
+                    ByteBuf entry = entryLogger.readEntry(ledgerId, nextEntryId + i, locations[i]);
+                    try {
+                        readCache.put(ledgerId, nextEntryId + i, entry);
+                        size += entry.readableBytes();
+                    } finally {
+                        ReferenceCountUtil.release(entry);
+                    }
+                    stats.getReadAheadPrefetchEntryLogReadsCounter().inc();
+                    count++;
+                    i++;
+                }
+            }
+            success = true;
+        } catch (Throwable t) {
+            if (log.isDebugEnabled()) {
+                log.debug("Exception during prefetch for ledger: {}", ledgerId, t);
+            }
+        } finally {
+            synchronized (state) {
+                state.prefetchInProgress = false;
+                state.prefetchedUpTo = Math.max(state.prefetchedUpTo,
+                        Math.max(prefetchedUpTo, nextEntryId + count - 1));
+            }
+
+            stats.getReadAheadPrefetchBatchCountStats().registerSuccessfulValue(count);
+            stats.getReadAheadPrefetchBatchSizeStats().registerSuccessfulValue(size);
+            if (success) {
+                stats.getReadAheadPrefetchStats()
+                        .registerSuccessfulEvent(MathUtils.elapsedNanos(startTime), TimeUnit.NANOSECONDS);
+            } else {
+                stats.getReadAheadPrefetchStats()
+                        .registerFailedEvent(MathUtils.elapsedNanos(startTime), TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Check whether the entry at {@code location} can be fetched with the same read of the
+     * region starting at {@code regionStart}, whose last entry so far is at {@code previous}.
+     */
+    private static boolean canCoalesce(long regionStart, long previous, long location) {
+        return (location >> 32) == (regionStart >> 32)
+                && location > previous
+                && location - regionStart <= MAX_REGION_READ_SIZE;
+    }
+
+    /**
+     * Read the entries from {@code locations[first]} to {@code locations[last - 1]} with a
+     * single read on the entry log, and insert them in the read cache.
+     *
+     * @return the number of bytes inserted in the cache
+     */
+    private long readRegion(long ledgerId, long firstEntryId, long[] locations, int first, int last)
+            throws IOException {
+        // Region goes from the size header of the first entry to the size header of the last one
+        int length = (int) (locations[last] - locations[first]);
+        ByteBuf region = entryLogger.readRegion(locations[first], length);
+        long size = 0;
+        if (region == null) {
+            // Region reads not supported by the entry logger, fallback to single entry reads
+            for (int i = first; i < last; i++) {
+                ByteBuf entry = entryLogger.readEntry(ledgerId, firstEntryId + i - first, locations[i]);
+                try {
+                    readCache.put(ledgerId, firstEntryId + i - first, entry);
+                    size += entry.readableBytes();
+                } finally {
+                    ReferenceCountUtil.release(entry);
+                }
+                stats.getReadAheadPrefetchEntryLogReadsCounter().inc();
+            }
+            return size;
+        }
+
+        stats.getReadAheadPrefetchEntryLogReadsCounter().inc();
+        try {
+            for (int i = first; i < last; i++) {
+                long entryId = firstEntryId + i - first;
+                int offset = (int) (locations[i] - locations[first]);
+                int entrySize = region.getInt(offset);
+                if (entrySize < MIN_SANE_ENTRY_SIZE || offset + Integer.BYTES + entrySize > length) {
+                    throw new IOException("Invalid entry size " + entrySize + " for " + ledgerId + "@" + entryId
+                            + " at location " + locations[i]);
+                }
+
+                ByteBuf entry = region.slice(offset + Integer.BYTES, entrySize);
+                if (entry.getLong(0) != ledgerId || entry.getLong(8) != entryId) {
+                    throw new IOException("Found entry " + entry.getLong(0) + "@" + entry.getLong(8)
+                            + " at location " + locations[i] + " while expecting " + ledgerId + "@" + entryId);
+                }
+
+                readCache.put(ledgerId, entryId, entry);
+                size += entrySize;
+            }
+            return size;
+        } finally {
+            region.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class LedgerReadState {
+        // Last entry read from the ledger
+        long lastEntryId = -1;
+        // Number of consecutive entries read in order
+        int sequentialReads;
+        // Last entry loaded, or being loaded, by the prefetcher
+        long prefetchedUpTo = -1;
+        boolean prefetchInProgress;
+        long lastAccessed;
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(SequentialReadPrefetcher.class);
+}
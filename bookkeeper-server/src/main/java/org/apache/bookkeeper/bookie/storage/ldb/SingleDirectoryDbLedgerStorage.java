@@ -22,6 +22,7 @@ package org.apache.bookkeeper.bookie.storage.ldb;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
+import static org.apache.bookkeeper.common.concurrent.FutureUtils.result;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
@@ -31,11 +32,14 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
@@ -57,6 +61,7 @@ import org.apache.bookkeeper.bookie.CheckpointSource.Checkpoint;
 import org.apache.bookkeeper.bookie.Checkpointer;
 import org.apache.bookkeeper.bookie.CompactableLedgerStorage;
 import org.apache.bookkeeper.bookie.EntryLocation;
+import org.apache.bookkeeper.bookie.EntryLogMetadata;
 import org.apache.bookkeeper.bookie.GarbageCollectionStatus;
 import org.apache.bookkeeper.bookie.GarbageCollectorThread;
 import org.apache.bookkeeper.bookie.LastAddConfirmedUpdateNotification;
@@ -78,6 +83,8 @@ import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.stats.ThreadRegistry;
 import org.apache.bookkeeper.util.MathUtils;
 import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongHashMap;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang.mutable.MutableLong;
 import org.slf4j.Logger;
@@ -108,6 +115,9 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     // Cache where we insert entries for speculative reading
     private final ReadCache readCache;
 
+    // Asynchronous read-ahead for sequential reads, null if disabled
+    private final SequentialReadPrefetcher prefetcher;
+
     private final StampedLock writeCacheRotationLock = new StampedLock();
 
     protected final ReentrantLock flushMutex = new ReentrantLock();
@@ -134,11 +144,27 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     private final int readAheadCacheBatchSize;
 
     private final long maxThrottleTimeNanos;
+    private final boolean ledgerBudgetEnabled;
+    private final boolean compactionLookupLiveEntries;
+    private final LedgerManager ledgerManager;
+    private final long entryLocationSnapshotMinEntries;
+    private final long ledgerMetadataTimeoutMillis;
+    // closed ledgers, whose metadata is not read again before creating their entry location snapshot
+    private final ConcurrentLongHashSet closedLedgers = ConcurrentLongHashSet.newBuilder().build();
+    // ledgers without an entry location snapshot, with the time after which they are checked again
+    private final ConcurrentLongLongHashMap snapshotRecheckTimes = ConcurrentLongLongHashMap.newBuilder().build();
 
     private final DbLedgerStorageStats dbLedgerStorageStats;
 
     private static final long DEFAULT_MAX_THROTTLE_TIME_MILLIS = TimeUnit.SECONDS.toMillis(10);
 
+    // Bounds of the work of a compaction pass to create the entry location snapshots
+    private static final int MAX_SNAPSHOT_LEDGER_CHECKS_PER_PASS = 1000;
+    private static final long SNAPSHOT_LEDGER_RECHECK_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final int DEFAULT_READ_AHEAD_PREFETCH_SEQUENTIAL_THRESHOLD = 3;
+    private static final int DEFAULT_READ_AHEAD_PREFETCH_THREADS = 1;
+
     private final long maxReadAheadBytesSize;
 
     private final Counter flushExecutorTime;
@@ -168,8 +194,21 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                 .scopeLabel("indexDir", indexBaseDir);
 
         this.writeCacheMaxSize = writeCacheSize;
-        this.writeCache = new WriteCache(allocator, writeCacheMaxSize / 2);
-        this.writeCacheBeingFlushed = new WriteCache(allocator, writeCacheMaxSize / 2);
+        int ledgerBudgetThresholdPercent = conf.getInt(DbLedgerStorage.WRITE_CACHE_LEDGER_BUDGET_THRESHOLD_PERCENT, 0);
+        checkArgument(ledgerBudgetThresholdPercent >= 0 && ledgerBudgetThresholdPercent <= 100,
+                DbLedgerStorage.WRITE_CACHE_LEDGER_BUDGET_THRESHOLD_PERCENT + " must be between 0 and 100");
+        this.ledgerBudgetEnabled = ledgerBudgetThresholdPercent > 0;
+        this.compactionLookupLiveEntries =
+                conf.getBoolean(DbLedgerStorage.COMPACTION_LOOKUP_LIVE_ENTRIES_ENABLED, false);
+        this.ledgerManager = ledgerManager;
+        this.entryLocationSnapshotMinEntries =
+                conf.getLong(DbLedgerStorage.ENTRY_LOCATION_SNAPSHOT_MIN_ENTRIES, 1000L);
+        this.ledgerMetadataTimeoutMillis = conf.getZkTimeout() * 2L;
+        long ledgerBudgetThreshold = writeCacheMaxSize / 2 * ledgerBudgetThresholdPercent / 100;
+        this.writeCache = new WriteCache(allocator, writeCacheMaxSize / 2,
+                WriteCache.DEFAULT_MAX_SEGMENT_SIZE, ledgerBudgetThreshold);
+        this.writeCacheBeingFlushed = new WriteCache(allocator, writeCacheMaxSize / 2,
+                WriteCache.DEFAULT_MAX_SEGMENT_SIZE, ledgerBudgetThreshold);
 
         readCacheMaxSize = readCacheSize;
         this.readAheadCacheBatchSize = readAheadCacheBatchSize;
@@ -181,7 +220,11 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                 DEFAULT_MAX_THROTTLE_TIME_MILLIS);
         maxThrottleTimeNanos = TimeUnit.MILLISECONDS.toNanos(maxThrottleTimeMillis);
 
-        readCache = new ReadCache(allocator, readCacheMaxSize);
+        if (conf.getBoolean(DbLedgerStorage.READ_CACHE_LOCK_FREE_ENABLED, false)) {
+            readCache = new LockFreeReadCache(allocator, readCacheMaxSize);
+        } else {
+            readCache = new DefaultReadCache(allocator, readCacheMaxSize);
+        }
 
         ledgerIndex = new LedgerMetadataIndex(conf,
                 KeyValueStorageRocksDB.factory, indexBaseDir, ledgerIndexDirStatsLogger);
@@ -205,9 +248,20 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             () -> writeCache.size() + writeCacheBeingFlushed.size(),
             () -> writeCache.count() + writeCacheBeingFlushed.count(),
             () -> readCache.size(),
-            () -> readCache.count()
+            () -> readCache.count(),
+            () -> readCache.droppedCount()
         );
 
+        if (conf.getBoolean(DbLedgerStorage.READ_AHEAD_PREFETCH_ENABLED, false)) {
+            prefetcher = new SequentialReadPrefetcher(entryLogger, entryLocationIndex, readCache,
+                    dbLedgerStorageStats, readAheadCacheBatchSize, maxReadAheadBytesSize,
+                    conf.getInt(DbLedgerStorage.READ_AHEAD_PREFETCH_SEQUENTIAL_THRESHOLD,
+                            DEFAULT_READ_AHEAD_PREFETCH_SEQUENTIAL_THRESHOLD),
+                    conf.getInt(DbLedgerStorage.READ_AHEAD_PREFETCH_THREADS, DEFAULT_READ_AHEAD_PREFETCH_THREADS));
+        } else {
+            prefetcher = null;
+        }
+
         flushExecutorTime = ledgerIndexDirStatsLogger.getThreadScopedCounter("db-storage-thread-time");
 
         executor.submit(() -> {
@@ -252,6 +306,10 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
             return isStale;
         });
+
+        if (prefetcher != null) {
+            prefetcher.removeStaleLedgers();
+        }
     }
 
     @Override
@@ -332,6 +390,9 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             flush();
 
             gcThread.shutdown();
+            if (prefetcher != null) {
+                prefetcher.close();
+            }
             entryLogger.close();
 
             cleanupExecutor.shutdown();
@@ -473,21 +534,27 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         long stamp = writeCacheRotationLock.tryOptimisticRead();
         boolean inserted = false;
 
-        inserted = writeCache.put(ledgerId, entryId, entry);
-        if (!writeCacheRotationLock.validate(stamp)) {
-            // The write cache was rotated while we were inserting. We need to acquire the proper read lock and repeat
-            // the operation because we might have inserted in a write cache that was already being flushed and cleared,
-            // without being sure about this last entry being flushed or not.
-            stamp = writeCacheRotationLock.readLock();
-            try {
-                inserted = writeCache.put(ledgerId, entryId, entry);
-            } finally {
-                writeCacheRotationLock.unlockRead(stamp);
+        // A ledger that is over its share of the write cache waits for the next flush, like when the cache is full
+        boolean overLedgerBudget = ledgerBudgetEnabled
+                && writeCache.isOverLedgerBudget(ledgerId, entry.readableBytes());
+        if (!overLedgerBudget) {
+            inserted = writeCache.put(ledgerId, entryId, entry);
+            if (!writeCacheRotationLock.validate(stamp)) {
+                // The write cache was rotated while we were inserting. We need to acquire the proper read lock and
+                // repeat the operation because we might have inserted in a write cache that was already being flushed,
+                // without being sure about this last entry being flushed or not. The flush seals the cache before
+                // iterating it, so the insertion is either complete or refused by then.
+                stamp = writeCacheRotationLock.readLock();
+                try {
+                    inserted = writeCache.put(ledgerId, entryId, entry);
+                } finally {
+                    writeCacheRotationLock.unlockRead(stamp);
+                }
             }
         }
 
         if (!inserted) {
-            triggerFlushAndAddEntry(ledgerId, entryId, entry);
+            triggerFlushAndAddEntry(ledgerId, entryId, entry, overLedgerBudget);
         }
 
         // after successfully insert the entry, update LAC and notify the watchers
@@ -497,10 +564,13 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         return entryId;
     }
 
-    private void triggerFlushAndAddEntry(long ledgerId, long entryId, ByteBuf entry)
+    private void triggerFlushAndAddEntry(long ledgerId, long entryId, ByteBuf entry, boolean overLedgerBudget)
             throws IOException, BookieException {
         long throttledStartTime = MathUtils.nowInNano();
         dbLedgerStorageStats.getThrottledWriteRequests().inc();
+        if (overLedgerBudget) {
+            dbLedgerStorageStats.getLedgerBudgetThrottledWriteRequests().inc();
+        }
         long absoluteTimeoutNanos = System.nanoTime() + maxThrottleTimeNanos;
 
         while (System.nanoTime() < absoluteTimeoutNanos) {
@@ -524,7 +594,10 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
             long stamp = writeCacheRotationLock.readLock();
             try {
-                if (writeCache.put(ledgerId, entryId, entry)) {
+                if (overLedgerBudget) {
+                    overLedgerBudget = writeCache.isOverLedgerBudget(ledgerId, entry.readableBytes());
+                }
+                if (!overLedgerBudget && writeCache.put(ledgerId, entryId, entry)) {
                     // We succeeded in putting the entry in write cache in the
                     recordSuccessfulEvent(dbLedgerStorageStats.getThrottledWriteStats(), throttledStartTime);
                     return;
@@ -544,6 +617,9 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
         // Timeout expired and we weren't able to insert in write cache
         dbLedgerStorageStats.getRejectedWriteRequests().inc();
+        if (overLedgerBudget) {
+            dbLedgerStorageStats.getLedgerBudgetRejectedWriteRequests().inc();
+        }
         recordFailedEvent(dbLedgerStorageStats.getThrottledWriteStats(), throttledStartTime);
         throw new OperationRejectedException();
     }
@@ -607,6 +683,9 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         entry = readCache.get(ledgerId, entryId);
         if (entry != null) {
             dbLedgerStorageStats.getReadCacheHitCounter().inc();
+            if (prefetcher != null) {
+                prefetcher.onRead(ledgerId, entryId, false);
+            }
             return entry;
         }
 
@@ -632,19 +711,106 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         try {
             entry = entryLogger.readEntry(ledgerId, entryId, entryLocation);
         } finally {
-            dbLedgerStorageStats.getReadFromEntryLogTime().addLatency(
-                    MathUtils.elapsedNanos(readEntryStartNano), TimeUnit.NANOSECONDS);
+            long readEntryNanos = MathUtils.elapsedNanos(readEntryStartNano);
+            dbLedgerStorageStats.getReadFromEntryLogTime().addLatency(readEntryNanos, TimeUnit.NANOSECONDS);
+            gcThread.recordForegroundReadLatency(readEntryNanos);
         }
 
         readCache.put(ledgerId, entryId, entry);
 
-        // Try to read more entries
-        long nextEntryLocation = entryLocation + 4 /* size header */ + entry.readableBytes();
-        fillReadAheadCache(ledgerId, entryId + 1, nextEntryLocation);
+        if (prefetcher == null || !prefetcher.onRead(ledgerId, entryId, true)) {
+            // Try to read more entries
+            long nextEntryLocation = entryLocation + 4 /* size header */ + entry.readableBytes();
+            fillReadAheadCache(ledgerId, entryId + 1, nextEntryLocation);
+        }
 
         return entry;
     }
 
+    @Override
+    public FileRegion getEntryRegion(long ledgerId, long entryId) throws IOException, BookieException {
+        long startTime = MathUtils.nowInNano();
+        try {
+            FileRegion region = doGetEntryRegion(ledgerId, entryId);
+            if (region != null) {
+                recordSuccessfulEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
+            }
+            return region;
+        } catch (IOException e) {
+            recordFailedEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
+            throw e;
+        }
+    }
+
+    private FileRegion doGetEntryRegion(long ledgerId, long entryId) throws IOException {
+        if (entryId == BookieProtocol.LAST_ADD_CONFIRMED) {
+            return null;
+        }
+
+        // Entries that are in memory are served from the caches. In case of doubt, or if the entry
+        // is not found, the regular read path takes care of it.
+        long stamp = writeCacheRotationLock.readLock();
+        try {
+            if (writeCache.hasEntry(ledgerId, entryId) || writeCacheBeingFlushed.hasEntry(ledgerId, entryId)) {
+                return null;
+            }
+        } finally {
+            writeCacheRotationLock.unlockRead(stamp);
+        }
+
+        if (readCache.hasEntry(ledgerId, entryId)) {
+            return null;
+        }
+
+        long entryLocation;
+        long locationIndexStartNano = MathUtils.nowInNano();
+        try {
+            entryLocation = entryLocationIndex.getLocation(ledgerId, entryId);
+            if (entryLocation == 0) {
+                return null;
+            }
+        } finally {
+            dbLedgerStorageStats.getReadFromLocationIndexTime().addLatency(
+                    MathUtils.elapsedNanos(locationIndexStartNano), TimeUnit.NANOSECONDS);
+        }
+
+        FileRegion region;
+        long entrySize;
+        long readEntryStartNano = MathUtils.nowInNano();
+        try {
+            region = entryLogger.readEntryRegion(ledgerId, entryId, entryLocation);
+            if (region != null) {
+                entrySize = region.count();
+            } else {
+                // The entry is too small to be worth a zero-copy transfer: load it in the read cache,
+                // where the regular read path will find it without another location index lookup
+                ByteBuf entry = entryLogger.readEntry(ledgerId, entryId, entryLocation);
+                try {
+                    readCache.put(ledgerId, entryId, entry);
+                    entrySize = entry.readableBytes();
+                } finally {
+                    ReferenceCountUtil.release(entry);
+                }
+            }
+        } finally {
+            long readEntryNanos = MathUtils.elapsedNanos(readEntryStartNano);
+            dbLedgerStorageStats.getReadFromEntryLogTime().addLatency(readEntryNanos, TimeUnit.NANOSECONDS);
+            gcThread.recordForegroundReadLatency(readEntryNanos);
+        }
+
+        if (region != null) {
+            dbLedgerStorageStats.getWriteCacheMissCounter().inc();
+            dbLedgerStorageStats.getReadCacheMissCounter().inc();
+            dbLedgerStorageStats.getReadZeroCopyCounter().inc();
+        }
+
+        if (prefetcher == null || !prefetcher.onRead(ledgerId, entryId, true)) {
+            fillReadAheadCache(ledgerId, entryId + 1, entryLocation + 4 /* size header */ + entrySize);
+        }
+
+        return region;
+    }
+
     private void fillReadAheadCache(long orginalLedgerId, long firstEntryId, long firstEntryLocation) {
         long readAheadStartNano = MathUtils.nowInNano();
         int count = 0;
@@ -791,6 +957,8 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             // Swap the write cache so that writes can continue to happen while the flush is
             // ongoing
             swapWriteCache();
+            // Wait for the entries inserted without the lock in the cache that was just rotated out
+            writeCacheBeingFlushed.seal();
 
             long sizeToFlush = writeCacheBeingFlushed.size();
             if (log.isDebugEnabled()) {
@@ -912,6 +1080,8 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
         entryLocationIndex.delete(ledgerId);
         ledgerIndex.delete(ledgerId);
+        closedLedgers.remove(ledgerId);
+        snapshotRecheckTimes.remove(ledgerId);
 
         for (int i = 0, size = ledgerDeletionListeners.size(); i < size; i++) {
             LedgerDeletionListener listener = ledgerDeletionListeners.get(i);
@@ -922,6 +1092,10 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         if (tli != null) {
             tli.close();
         }
+
+        if (prefetcher != null) {
+            prefetcher.removeLedger(ledgerId);
+        }
     }
 
     @Override
@@ -937,6 +1111,110 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         entryLocationIndex.updateLocations(locations);
     }
 
+    @Override
+    public void prepareEntryLogsCompaction() throws IOException {
+        if (compactionLookupLiveEntries) {
+            // Trigger a flush to have the locations of all the entries of the flushed entry logs in the index,
+            // once for all the entry logs compacted in the pass
+            flush();
+        }
+    }
+
+    /**
+     * Get the locations of the live entries of an entry log from the location index, so the compaction
+     * only reads the live entries instead of scanning the whole entry log.
+     */
+    @Override
+    public List<EntryLocation> getEntryLocationsInEntryLog(EntryLogMetadata entryLogMeta) throws IOException {
+        if (!compactionLookupLiveEntries) {
+            return null;
+        }
+
+        long entryLogId = entryLogMeta.getEntryLogId();
+        List<EntryLocation> locations = new ArrayList<>();
+        for (long ledgerId : entryLogMeta.getLedgersMap().keys()) {
+            entryLocationIndex.getLocationsInEntryLog(ledgerId, entryLogId, locations);
+        }
+        // Read the entries in the order of the entry log
+        locations.sort(Comparator.comparingLong(EntryLocation::getLocation));
+        return locations;
+    }
+
+    @Override
+    public void entryLogRemoved(long entryLogId) {
+        entryLocationIndex.removeEntryLog(entryLogId);
+    }
+
+    /**
+     * Copy the entry locations of the closed ledgers to memory-mapped snapshots, so the reads of the closed
+     * ledgers do not look up the location index db.
+     *
+     * <p>Each pass checks a bounded number of ledgers. The ledgers that cannot have a snapshot yet, because they
+     * are open or too small, are only checked again after a while, and the metadata of a closed ledger is only
+     * read once.
+     */
+    @Override
+    public void entryLogsCompacted() throws IOException {
+        if (!entryLocationIndex.isSnapshotsEnabled() || ledgerManager == null) {
+            return;
+        }
+
+        // Trigger a flush to have the locations of all the entries of the closed ledgers in the index
+        flush();
+
+        long now = System.currentTimeMillis();
+        int numChecks = 0;
+        int numSnapshots = 0;
+        for (long ledgerId : ledgerIndex.getActiveLedgersInRange(0, Long.MAX_VALUE)) {
+            if (Thread.currentThread().isInterrupted() || numChecks >= MAX_SNAPSHOT_LEDGER_CHECKS_PER_PASS
+                    || entryLocationIndex.isSnapshotsFull()) {
+                // the garbage collector is shutting down, or the remaining ledgers are left to the next passes
+                break;
+            }
+            if (entryLocationIndex.hasSnapshot(ledgerId) || snapshotRecheckTimes.get(ledgerId) > now
+                    || hasLimboState(ledgerId)) {
+                continue;
+            }
+            numChecks++;
+            if (!closedLedgers.contains(ledgerId)) {
+                long lastEntryId;
+                try {
+                    lastEntryId = entryLocationIndex.getLastEntryInLedger(ledgerId);
+                } catch (Bookie.NoEntryException e) {
+                    lastEntryId = -1;
+                }
+                // Only read the metadata of the ledgers large enough to have a snapshot
+                if (lastEntryId + 1 < entryLocationSnapshotMinEntries || !isLedgerClosed(ledgerId)) {
+                    snapshotRecheckTimes.put(ledgerId, now + SNAPSHOT_LEDGER_RECHECK_MILLIS);
+                    continue;
+                }
+                closedLedgers.add(ledgerId);
+            }
+
+            // A flush modifying the locations of the ledger while the snapshot is created discards it
+            if (entryLocationIndex.createSnapshot(ledgerId, entryLocationSnapshotMinEntries)) {
+                numSnapshots++;
+            } else {
+                snapshotRecheckTimes.put(ledgerId, now + SNAPSHOT_LEDGER_RECHECK_MILLIS);
+            }
+        }
+        if (numSnapshots > 0) {
+            log.info("Created entry location snapshots for {} closed ledgers", numSnapshots);
+        }
+    }
+
+    private boolean isLedgerClosed(long ledgerId) {
+        try {
+            return result(ledgerManager.readLedgerMetadata(ledgerId), ledgerMetadataTimeoutMillis,
+                    TimeUnit.MILLISECONDS).getValue().isClosed();
+        } catch (Exception e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Failed to read the metadata of ledger {}", ledgerId, e);
+            }
+            return false;
+        }
+    }
+
     @VisibleForTesting
     EntryLogger getEntryLogger() {
         return entryLogger;
@@ -33,7 +33,6 @@ import java.util.concurrent.locks.ReentrantLock;
 import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongHashMap;
-import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.LongPair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,11 +43,16 @@ import org.slf4j.LoggerFactory;
  * <p>The write cache will allocate the requested size from direct memory and it
  * will break it down into multiple segments.
  *
- * <p>The entries are appended in a common buffer and indexed though a hashmap,
- * until the cache is cleared.
+ * <p>The entries are appended in a common buffer and indexed though an off-heap
+ * {@link WriteCacheIndex}, until the cache is cleared.
  *
  * <p>There is the possibility to iterate through the stored entries in an ordered
- * way, by (ledgerId, entry).
+ * way, by (ledgerId, entry). The index keeps the entries of each ledger in insertion
+ * order, so that they don't need to be sorted again when iterating.
+ *
+ * <p>Optionally, once the cache usage goes above an admission threshold, each ledger is
+ * only allowed its fair share of the cache, so that a single heavy writer cannot take all
+ * the room left to the other ledgers. See {@link #isOverLedgerBudget(long, int)}.
  */
 public class WriteCache implements Closeable {
 
@@ -59,15 +63,9 @@ public class WriteCache implements Closeable {
         void accept(long ledgerId, long entryId, ByteBuf entry) throws IOException;
     }
 
-    private final ConcurrentLongLongPairHashMap index = ConcurrentLongLongPairHashMap.newBuilder()
-            .expectedItems(4096)
-            .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
-            .build();
+    static final int DEFAULT_MAX_SEGMENT_SIZE = 1 * 1024 * 1024 * 1024;
 
-    private final ConcurrentLongLongHashMap lastEntryMap = ConcurrentLongLongHashMap.newBuilder()
-            .expectedItems(4096)
-            .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
-            .build();
+    private final WriteCacheIndex index = new WriteCacheIndex();
 
     private final ByteBuf[] cacheSegments;
     private final int segmentsCount;
@@ -83,14 +81,32 @@ public class WriteCache implements Closeable {
 
     private final ConcurrentLongHashSet deletedLedgers = ConcurrentLongHashSet.newBuilder().build();
 
+    // The inserts in progress, and whether the cache is sealed for a flush, see seal(). A single counter,
+    // so that seal() reads an exact count and not a sum of cells read at different times
+    private final AtomicLong pendingPuts = new AtomicLong();
+    private volatile boolean sealed = false;
+
+    // Bytes used by each ledger, only tracked when the ledger budget is enabled
+    private final long ledgerBudgetThreshold;
+    private final ConcurrentLongLongHashMap ledgerUsage;
+
     private final ByteBufAllocator allocator;
 
     public WriteCache(ByteBufAllocator allocator, long maxCacheSize) {
         // Default maxSegmentSize set to 1Gb
-        this(allocator, maxCacheSize, 1 * 1024 * 1024 * 1024);
+        this(allocator, maxCacheSize, DEFAULT_MAX_SEGMENT_SIZE);
     }
 
     public WriteCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize) {
+        this(allocator, maxCacheSize, maxSegmentSize, 0L);
+    }
+
+    /**
+     * @param ledgerBudgetThreshold cache usage in bytes above which the ledgers are held to their
+     *                              fair share of the cache, or 0 to disable the ledger budget
+     */
+    public WriteCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize,
+                      long ledgerBudgetThreshold) {
         checkArgument(maxSegmentSize > 0);
 
         long alignedMaxSegmentSize = alignToPowerOfTwo(maxSegmentSize);
@@ -104,6 +120,9 @@ public class WriteCache implements Closeable {
 
         this.segmentsCount = 1 + (int) (maxCacheSize / maxSegmentSize);
 
+        this.ledgerBudgetThreshold = ledgerBudgetThreshold;
+        this.ledgerUsage = ledgerBudgetThreshold > 0 ? ConcurrentLongLongHashMap.newBuilder().build() : null;
+
         this.cacheSegments = new ByteBuf[segmentsCount];
 
         for (int i = 0; i < segmentsCount - 1; i++) {
@@ -120,8 +139,26 @@ public class WriteCache implements Closeable {
         cacheOffset.set(0L);
         cacheCount.reset();
         index.clear();
-        lastEntryMap.clear();
         deletedLedgers.clear();
+        if (ledgerUsage != null) {
+            ledgerUsage.clear();
+        }
+        sealed = false;
+    }
+
+    /**
+     * Stop accepting new entries, and wait for the inserts in progress to complete.
+     *
+     * <p>The entries can be inserted without holding a lock, so an insert started before the
+     * cache was rotated out can still be running when the cache starts being flushed. Once the
+     * cache is sealed, it can be iterated and cleared, and {@link #put(long, long, ByteBuf)}
+     * returns false until the cache is cleared.
+     */
+    public void seal() {
+        sealed = true;
+        while (pendingPuts.get() > 0) {
+            Thread.yield();
+        }
     }
 
     @Override
@@ -129,9 +166,21 @@ public class WriteCache implements Closeable {
         for (ByteBuf buf : cacheSegments) {
             buf.release();
         }
+        index.close();
     }
 
     public boolean put(long ledgerId, long entryId, ByteBuf entry) {
+        pendingPuts.incrementAndGet();
+        try {
+            // The sealed flag is read after the increment, and written by seal() before it reads the
+            // inserts in progress, so either the insert sees the cache sealed, or seal() waits for it
+            return !sealed && doPut(ledgerId, entryId, entry);
+        } finally {
+            pendingPuts.decrementAndGet();
+        }
+    }
+
+    private boolean doPut(long ledgerId, long entryId, ByteBuf entry) {
         int size = entry.readableBytes();
 
         // Align to 64 bytes so that different threads will not contend the same L1
@@ -162,22 +211,11 @@ public class WriteCache implements Closeable {
 
         cacheSegments[segmentIdx].setBytes(localOffset, entry, entry.readerIndex(), entry.readableBytes());
 
-        // Update last entryId for ledger. This logic is to handle writes for the same
-        // ledger coming out of order and from different thread, though in practice it
-        // should not happen and the compareAndSet should be always uncontended.
-        while (true) {
-            long currentLastEntryId = lastEntryMap.get(ledgerId);
-            if (currentLastEntryId > entryId) {
-                // A newer entry is already there
-                break;
-            }
-
-            if (lastEntryMap.compareAndSet(ledgerId, currentLastEntryId, entryId)) {
-                break;
-            }
-        }
-
+        // The index also keeps track of the last entryId of the ledger
         index.put(ledgerId, entryId, offset, size);
+        if (ledgerUsage != null) {
+            ledgerUsage.addAndGet(ledgerId, alignedSize);
+        }
         cacheCount.increment();
         cacheSize.addAndGet(size);
         return true;
@@ -199,12 +237,34 @@ public class WriteCache implements Closeable {
         return entry;
     }
 
+    /**
+     * Check whether an entry of the ledger should wait for the cache to be flushed, even if
+     * there is still room for it. Once the cache usage is above the ledger budget threshold,
+     * a ledger can only grow up to its fair share of the cache, the cache size divided by the
+     * number of ledgers in the cache. A ledger that writes alone can use the whole cache, and
+     * ledgers that have no entry in the cache yet are always admitted.
+     *
+     * @return true if the ledger already uses more than its share of the cache
+     */
+    public boolean isOverLedgerBudget(long ledgerId, int size) {
+        if (ledgerUsage == null || cacheOffset.get() + size <= ledgerBudgetThreshold) {
+            return false;
+        }
+
+        long usage = ledgerUsage.get(ledgerId);
+        if (usage <= 0) {
+            return false;
+        }
+        // The ledger has entries in the cache, so it is counted in the ledgers sharing the cache
+        return usage + align64(size) > maxCacheSize / Math.max(1, ledgerUsage.size());
+    }
+
     public boolean hasEntry(long ledgerId, long entryId) {
-        return index.get(ledgerId, entryId) != null;
+        return index.containsKey(ledgerId, entryId);
     }
 
     public ByteBuf getLastEntry(long ledgerId) {
-        long lastEntryId = lastEntryMap.get(ledgerId);
+        long lastEntryId = index.getLastEntryId(ledgerId);
         if (lastEntryId == -1) {
             // Ledger not found in write cache
             return null;
@@ -215,69 +275,42 @@ public class WriteCache implements Closeable {
 
     public void deleteLedger(long ledgerId) {
         deletedLedgers.add(ledgerId);
+        if (ledgerUsage != null) {
+            // A deleted ledger no longer takes a share of the cache from the other ledgers
+            ledgerUsage.remove(ledgerId);
+        }
     }
 
     public void forEach(EntryConsumer consumer) throws IOException {
-        sortedEntriesLock.lock();
+        forEachLock.lock();
 
         try {
-            int entriesToSort = (int) index.size();
-            int arrayLen = entriesToSort * 4;
-            if (sortedEntries == null || sortedEntries.length < arrayLen) {
-                sortedEntries = new long[(int) (arrayLen * 2)];
-            }
-
             long startTime = MathUtils.nowInNano();
 
-            sortedEntriesIdx = 0;
-            index.forEach((ledgerId, entryId, offset, length) -> {
-                if (deletedLedgers.contains(ledgerId)) {
-                    // Ignore deleted ledgers
-                    return;
-                }
-
-                sortedEntries[sortedEntriesIdx] = ledgerId;
-                sortedEntries[sortedEntriesIdx + 1] = entryId;
-                sortedEntries[sortedEntriesIdx + 2] = offset;
-                sortedEntries[sortedEntriesIdx + 3] = length;
-                sortedEntriesIdx += 4;
-            });
-
-            if (log.isDebugEnabled()) {
-                log.debug("iteration took {} ms", MathUtils.elapsedNanos(startTime) / 1e6);
-            }
-            startTime = MathUtils.nowInNano();
-
-            // Sort entries by (ledgerId, entryId) maintaining the 4 items groups
-            ArrayGroupSort.sort(sortedEntries, 0, sortedEntriesIdx);
-            if (log.isDebugEnabled()) {
-                log.debug("sorting {} ms", (MathUtils.elapsedNanos(startTime) / 1e6));
-            }
-            startTime = MathUtils.nowInNano();
-
             ByteBuf[] entrySegments = new ByteBuf[segmentsCount];
             for (int i = 0; i < segmentsCount; i++) {
                 entrySegments[i] = cacheSegments[i].slice(0, cacheSegments[i].capacity());
             }
 
-            for (int i = 0; i < sortedEntriesIdx; i += 4) {
-                long ledgerId = sortedEntries[i];
-                long entryId = sortedEntries[i + 1];
-                long offset = sortedEntries[i + 2];
-                long length = sortedEntries[i + 3];
+            // The index returns the entries already sorted by (ledgerId, entryId)
+            index.forEach((ledgerId, entryId, offset, length) -> {
+                if (deletedLedgers.contains(ledgerId)) {
+                    // Ignore deleted ledgers
+                    return;
+                }
 
                 int localOffset = (int) (offset & segmentOffsetMask);
                 int segmentIdx = (int) (offset >>> segmentOffsetBits);
                 ByteBuf entry = entrySegments[segmentIdx];
                 entry.setIndex(localOffset, localOffset + (int) length);
                 consumer.accept(ledgerId, entryId, entry);
-            }
+            });
 
             if (log.isDebugEnabled()) {
                 log.debug("entry log adding {} ms", MathUtils.elapsedNanos(startTime) / 1e6);
             }
         } finally {
-            sortedEntriesLock.unlock();
+            forEachLock.unlock();
         }
     }
 
@@ -303,9 +336,7 @@ public class WriteCache implements Closeable {
         return (long) Math.pow(2, 64 - Long.numberOfLeadingZeros(n - 1));
     }
 
-    private final ReentrantLock sortedEntriesLock = new ReentrantLock();
-    private long[] sortedEntries;
-    private int sortedEntriesIdx;
+    private final ReentrantLock forEachLock = new ReentrantLock();
 
     private static final Logger log = LoggerFactory.getLogger(WriteCache.class);
 }
@@ -0,0 +1,450 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.LongPair;
+
+/**
+ * Index of the entries stored in the {@link WriteCache}, from (ledgerId, entryId) to the
+ * (offset, length) of the entry in the cache.
+ *
+ * <p>The entries are kept off-heap in fixed size records, that are allocated in chunks and
+ * reused after the index is cleared. The records are found through an open-addressing hash
+ * table, split in sections that have their own lock and off-heap table, where each slot
+ * holds a part of the key hash and the record number.
+ *
+ * <p>Each record is also linked to the previous record of the same ledger, so that the
+ * entries of a ledger can be iterated in insertion order. Since the entries of a ledger
+ * are normally added in order, the index can be iterated by (ledgerId, entryId) only
+ * sorting the ledger ids, and the entries of the few ledgers that were not added in order.
+ */
+public class WriteCacheIndex implements Closeable {
+
+    /**
+     * Consumer of the entries of the index.
+     */
+    public interface EntryProcessor {
+        void accept(long ledgerId, long entryId, long offset, long length) throws IOException;
+    }
+
+    // Record layout: ledgerId, entryId, offset, length, next record of the ledger
+    private static final int RECORD_SIZE = 32;
+    private static final int LEDGER_ID = 0;
+    private static final int ENTRY_ID = 8;
+    private static final int OFFSET = 16;
+    private static final int LENGTH = 24;
+    private static final int NEXT = 28;
+
+    private static final int NO_RECORD = -1;
+
+    // 64K records per chunk
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private static final float MAP_FILL_FACTOR = 0.66f;
+
+    private final Section[] sections;
+    private final ConcurrentLongHashMap<LedgerEntries> ledgers;
+
+    private volatile ByteBuf[] chunks = new ByteBuf[0];
+    private final AtomicInteger recordsCount = new AtomicInteger();
+
+    // Used to sort the entries of the ledgers that were not added in order
+    private long[] sortBuffer = new long[0];
+
+    public WriteCacheIndex() {
+        this(2 * Runtime.getRuntime().availableProcessors(), 4096);
+    }
+
+    public WriteCacheIndex(int concurrencyLevel, int expectedItems) {
+        checkArgument(concurrencyLevel > 0);
+        int numSections = alignToPowerOfTwo(concurrencyLevel);
+        int sectionCapacity = alignToPowerOfTwo(Math.max(16, (int) (expectedItems / numSections / MAP_FILL_FACTOR)));
+
+        this.sections = new Section[numSections];
+        for (int i = 0; i < numSections; i++) {
+            sections[i] = new Section(sectionCapacity);
+        }
+        this.ledgers = ConcurrentLongHashMap.<LedgerEntries>newBuilder()
+                .expectedItems(256)
+                .concurrencyLevel(concurrencyLevel)
+                .build();
+    }
+
+    /**
+     * Add an entry to the index, or update its location if it was already there.
+     */
+    public void put(long ledgerId, long entryId, long offset, int length) {
+        long h = hash(ledgerId, entryId);
+        Section section = getSection(h);
+
+        int record;
+        long stamp = section.writeLock();
+        try {
+            record = section.find(h, ledgerId, entryId);
+            if (record != NO_RECORD) {
+                // Overwrite the location of the existing entry
+                ByteBuf chunk = chunk(record);
+                int base = recordOffset(record);
+                chunk.setLong(base + OFFSET, offset);
+                chunk.setInt(base + LENGTH, length);
+                return;
+            }
+
+            record = allocateRecord(ledgerId, entryId, offset, length);
+            section.insert(h, record);
+        } finally {
+            section.unlockWrite(stamp);
+        }
+
+        ledgers.computeIfAbsent(ledgerId, k -> new LedgerEntries()).append(record, entryId);
+    }
+
+    /**
+     * @return the (offset, length) of the entry, or null if the entry is not in the index
+     */
+    public LongPair get(long ledgerId, long entryId) {
+        long h = hash(ledgerId, entryId);
+        Section section = getSection(h);
+
+        long stamp = section.readLock();
+        try {
+            int record = section.find(h, ledgerId, entryId);
+            if (record == NO_RECORD) {
+                return null;
+            }
+
+            ByteBuf chunk = chunk(record);
+            int base = recordOffset(record);
+            return new LongPair(chunk.getLong(base + OFFSET), chunk.getInt(base + LENGTH));
+        } finally {
+            section.unlockRead(stamp);
+        }
+    }
+
+    public boolean containsKey(long ledgerId, long entryId) {
+        long h = hash(ledgerId, entryId);
+        Section section = getSection(h);
+
+        long stamp = section.readLock();
+        try {
+            return section.find(h, ledgerId, entryId) != NO_RECORD;
+        } finally {
+            section.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return the highest entry id of the ledger in the index, or -1 if the ledger is not in the index
+     */
+    public long getLastEntryId(long ledgerId) {
+        LedgerEntries entries = ledgers.get(ledgerId);
+        return entries != null ? entries.getLastEntryId() : -1;
+    }
+
+    public long size() {
+        return recordsCount.get();
+    }
+
+    /**
+     * Iterate over the entries of the index, sorted by (ledgerId, entryId).
+     *
+     * <p>The entries added while iterating may be skipped: each ledger is iterated up to the
+     * entries it had when the iteration reached it. This must not be called concurrently with
+     * another iteration, nor with {@link #clear()}.
+     */
+    public void forEach(EntryProcessor processor) throws IOException {
+        long[] ledgerIds = ledgers.keys().stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(ledgerIds);
+
+        for (long ledgerId : ledgerIds) {
+            LedgerEntries entries = ledgers.get(ledgerId);
+            int firstRecord;
+            int count;
+            boolean sorted;
+            synchronized (entries) {
+                firstRecord = entries.firstRecord;
+                count = entries.count;
+                sorted = entries.sorted;
+            }
+
+            if (sorted) {
+                int record = firstRecord;
+                for (int i = 0; i < count; i++) {
+                    if (i > 0) {
+                        record = chunk(record).getInt(recordOffset(record) + NEXT);
+                    }
+                    ByteBuf chunk = chunk(record);
+                    int base = recordOffset(record);
+                    processor.accept(ledgerId, chunk.getLong(base + ENTRY_ID), chunk.getLong(base + OFFSET),
+                            chunk.getInt(base + LENGTH));
+                }
+            } else {
+                forEachUnsorted(ledgerId, firstRecord, count, processor);
+            }
+        }
+    }
+
+    private void forEachUnsorted(long ledgerId, int firstRecord, int count, EntryProcessor processor)
+            throws IOException {
+        int len = count * 4;
+        if (sortBuffer.length < len) {
+            sortBuffer = new long[len * 2];
+        }
+
+        int idx = 0;
+        int record = firstRecord;
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                record = chunk(record).getInt(recordOffset(record) + NEXT);
+            }
+            ByteBuf chunk = chunk(record);
+            int base = recordOffset(record);
+            sortBuffer[idx] = ledgerId;
+            sortBuffer[idx + 1] = chunk.getLong(base + ENTRY_ID);
+            sortBuffer[idx + 2] = chunk.getLong(base + OFFSET);
+            sortBuffer[idx + 3] = chunk.getInt(base + LENGTH);
+            idx += 4;
+        }
+
+        ArrayGroupSort.sort(sortBuffer, 0, idx);
+        for (int i = 0; i < idx; i += 4) {
+            processor.accept(ledgerId, sortBuffer[i + 1], sortBuffer[i + 2], sortBuffer[i + 3]);
+        }
+    }
+
+    /**
+     * Remove all the entries. The memory is retained to be reused for the next entries.
+     *
+     * <p>This must not be called concurrently with other operations on the index.
+     */
+    public void clear() {
+        for (Section s : sections) {
+            long stamp = s.writeLock();
+            try {
+                s.clear();
+            } finally {
+                s.unlockWrite(stamp);
+            }
+        }
+        ledgers.clear();
+        recordsCount.set(0);
+    }
+
+    @Override
+    public void close() {
+        for (Section s : sections) {
+            s.table.release();
+        }
+        for (ByteBuf chunk : chunks) {
+            chunk.release();
+        }
+        chunks = new ByteBuf[0];
+    }
+
+    private int allocateRecord(long ledgerId, long entryId, long offset, int length) {
+        int record = recordsCount.getAndIncrement();
+        ByteBuf chunk = chunk(record);
+        int base = recordOffset(record);
+        chunk.setLong(base + LEDGER_ID, ledgerId);
+        chunk.setLong(base + ENTRY_ID, entryId);
+        chunk.setLong(base + OFFSET, offset);
+        chunk.setInt(base + LENGTH, length);
+        chunk.setInt(base + NEXT, NO_RECORD);
+        return record;
+    }
+
+    private ByteBuf chunk(int record) {
+        int chunkIdx = record >>> CHUNK_BITS;
+        ByteBuf[] currentChunks = chunks;
+        if (chunkIdx < currentChunks.length) {
+            return currentChunks[chunkIdx];
+        }
+        return addChunks(chunkIdx);
+    }
+
+    private synchronized ByteBuf addChunks(int chunkIdx) {
+        ByteBuf[] currentChunks = chunks;
+        if (chunkIdx >= currentChunks.length) {
+            // Publish a new copy of the array, so that it can be read without locking
+            ByteBuf[] newChunks = Arrays.copyOf(currentChunks, chunkIdx + 1);
+            for (int i = currentChunks.length; i < newChunks.length; i++) {
+                newChunks[i] = Unpooled.directBuffer(RECORD_SIZE << CHUNK_BITS, RECORD_SIZE << CHUNK_BITS);
+            }
+            chunks = newChunks;
+            currentChunks = newChunks;
+        }
+        return currentChunks[chunkIdx];
+    }
+
+    private static int recordOffset(int record) {
+        return (record & CHUNK_MASK) * RECORD_SIZE;
+    }
+
+    private Section getSection(long hash) {
+        // Use 32 msb out of long to get the section
+        return sections[(int) (hash >>> 32) & (sections.length - 1)];
+    }
+
+    /**
+     * Records of a ledger, linked in insertion order.
+     */
+    private final class LedgerEntries {
+        int firstRecord = NO_RECORD;
+        int lastRecord = NO_RECORD;
+        long lastAddedEntryId = -1;
+        long lastEntryId = -1;
+        int count;
+        // Whether the records were added in increasing entry id order
+        boolean sorted = true;
+
+        synchronized void append(int record, long entryId) {
+            if (entryId < lastAddedEntryId) {
+                sorted = false;
+            }
+            lastAddedEntryId = entryId;
+            lastEntryId = Math.max(lastEntryId, entryId);
+            count++;
+            if (firstRecord == NO_RECORD) {
+                firstRecord = record;
+            } else {
+                chunk(lastRecord).setInt(recordOffset(lastRecord) + NEXT, record);
+            }
+            lastRecord = record;
+        }
+
+        synchronized long getLastEntryId() {
+            return lastEntryId;
+        }
+    }
+
+    // A section is a portion of the hash table that is covered by a single lock
+    @SuppressWarnings("serial")
+    private final class Section extends StampedLock {
+        // Each slot has the 32 msb of the key hash and the record number + 1, 0 for empty slots
+        private ByteBuf table;
+        private int capacity;
+        private int size;
+        private int resizeThreshold;
+
+        Section(int capacity) {
+            this.capacity = capacity;
+            this.table = newTable(capacity);
+            this.resizeThreshold = (int) (capacity * MAP_FILL_FACTOR);
+        }
+
+        int find(long hash, long ledgerId, long entryId) {
+            long hashBits = hash >>> 32;
+            int bucket = (int) hash & (capacity - 1);
+            while (true) {
+                long slot = table.getLong(bucket * Long.BYTES);
+                if (slot == 0) {
+                    return NO_RECORD;
+                }
+
+                if ((slot >>> 32) == hashBits) {
+                    int record = (int) slot - 1;
+                    ByteBuf chunk = chunk(record);
+                    int base = recordOffset(record);
+                    if (chunk.getLong(base + LEDGER_ID) == ledgerId && chunk.getLong(base + ENTRY_ID) == entryId) {
+                        return record;
+                    }
+                }
+
+                bucket = (bucket + 1) & (capacity - 1);
+            }
+        }
+
+        void insert(long hash, int record) {
+            insert(table, capacity, hash, record);
+            if (++size > resizeThreshold) {
+                rehash(capacity * 2);
+            }
+        }
+
+        private void rehash(int newCapacity) {
+            ByteBuf newTable = newTable(newCapacity);
+            for (int i = 0; i < capacity; i++) {
+                long slot = table.getLong(i * Long.BYTES);
+                if (slot != 0) {
+                    int record = (int) slot - 1;
+                    ByteBuf chunk = chunk(record);
+                    int base = recordOffset(record);
+                    long h = hash(chunk.getLong(base + LEDGER_ID), chunk.getLong(base + ENTRY_ID));
+                    insert(newTable, newCapacity, h, record);
+                }
+            }
+
+            table.release();
+            table = newTable;
+            capacity = newCapacity;
+            resizeThreshold = (int) (capacity * MAP_FILL_FACTOR);
+        }
+
+        void clear() {
+            if (size > 0) {
+                table.setZero(0, capacity * Long.BYTES);
+                size = 0;
+            }
+        }
+
+        private void insert(ByteBuf table, int capacity, long hash, int record) {
+            int bucket = (int) hash & (capacity - 1);
+            while (table.getLong(bucket * Long.BYTES) != 0) {
+                bucket = (bucket + 1) & (capacity - 1);
+            }
+            table.setLong(bucket * Long.BYTES, ((hash >>> 32) << 32) | (record + 1));
+        }
+
+        private ByteBuf newTable(int capacity) {
+            ByteBuf newTable = Unpooled.directBuffer(capacity * Long.BYTES, capacity * Long.BYTES);
+            newTable.setZero(0, capacity * Long.BYTES);
+            return newTable;
+        }
+    }
+
+    private static final long HASH_MIXER = 0xc6a4a7935bd1e995L;
+    private static final int R = 47;
+
+    private static long hash(long key1, long key2) {
+        long hash = key1 * HASH_MIXER;
+        hash ^= hash >>> R;
+        hash *= HASH_MIXER;
+        hash += 31 + (key2 * HASH_MIXER);
+        hash ^= hash >>> R;
+        hash *= HASH_MIXER;
+        return hash;
+    }
+
+    private static int alignToPowerOfTwo(int n) {
+        return (int) Math.pow(2, 32 - Integer.numberOfLeadingZeros(n - 1));
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static org.apache.bookkeeper.client.BookKeeperClientStats.BOOKIE_LABEL;
+import static org.apache.bookkeeper.client.BookKeeperClientStats.CATEGORY_CLIENT;
+import static org.apache.bookkeeper.client.BookKeeperClientStats.CLIENT_SCOPE;
+import static org.apache.bookkeeper.client.BookKeeperClientStats.SPECULATIVE_READ_BUDGET_EXHAUSTED;
+import static org.apache.bookkeeper.client.BookKeeperClientStats.SPECULATIVE_READ_TIMEOUT_MICROS;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link SpeculativeRequestExecutionPolicy} which derives the speculative timeouts from the
+ * observed latency of the bookies.
+ *
+ * <p>The policy keeps the latency of the last requests completed by each bookie, and issues the
+ * first speculative request when the request to the bookie has been outstanding for longer than
+ * a percentile of that latency. Until enough requests completed on a bookie, and for the requests
+ * whose target is not known, {@code firstSpeculativeRequestTimeout} is used. The next speculative
+ * requests are issued in a backoff way, like {@link DefaultSpeculativeRequestExecutionPolicy}.
+ * All the timeouts are capped by {@code maxSpeculativeRequestTimeout}.
+ *
+ * <p>The speculative requests are limited to a percentage of the requests, so that they don't
+ * multiply the load of the cluster when all the bookies get slow.
+ */
+@StatsDoc(
+    name = CLIENT_SCOPE,
+    category = CATEGORY_CLIENT,
+    help = "Adaptive speculative read stats"
+)
+public class AdaptiveSpeculativeRequestExecutionPolicy implements SpeculativeRequestExecutionPolicy {
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveSpeculativeRequestExecutionPolicy.class);
+
+    // Number of latency samples kept for each bookie
+    private static final int WINDOW_SIZE = 1024;
+    // Number of samples between two computations of the percentile
+    private static final int RECOMPUTE_INTERVAL = 128;
+    // Number of samples needed before the percentile is used
+    private static final int MIN_SAMPLES = 32;
+    // Max number of speculative requests which can be issued in a burst
+    private static final long MAX_BUDGET_BURST = 100;
+    // Fixed point unit of the budget
+    private static final long BUDGET_UNIT = 1000;
+
+    final long firstSpeculativeRequestTimeoutMicros;
+    final long maxSpeculativeRequestTimeoutMicros;
+    final float backoffMultiplier;
+    final double percentile;
+    final long budgetPerRequest;
+
+    private final StatsLogger statsLogger;
+    private final ConcurrentHashMap<BookieId, BookieLatency> bookieLatencies = new ConcurrentHashMap<>();
+    // Available speculative requests, in BUDGET_UNIT
+    private final AtomicLong budget = new AtomicLong(MAX_BUDGET_BURST * BUDGET_UNIT);
+
+    @StatsDoc(
+        name = SPECULATIVE_READ_BUDGET_EXHAUSTED,
+        help = "The number of speculative reads not issued because the speculative read budget was exhausted"
+    )
+    private final Counter budgetExhaustedCounter;
+
+    /**
+     * @param firstSpeculativeRequestTimeout timeout in milliseconds used while the latency of a bookie is unknown
+     * @param maxSpeculativeRequestTimeout max timeout in milliseconds
+     * @param backoffMultiplier multiplier of the timeout between two speculative requests
+     * @param percentile percentile of the latency of a bookie used as first timeout, in (0, 100)
+     * @param budgetPercent max number of speculative requests, as a percentage of the requests
+     */
+    public AdaptiveSpeculativeRequestExecutionPolicy(int firstSpeculativeRequestTimeout,
+                                                     int maxSpeculativeRequestTimeout,
+                                                     float backoffMultiplier,
+                                                     double percentile,
+                                                     int budgetPercent,
+                                                     StatsLogger statsLogger) {
+        if (backoffMultiplier <= 0) {
+            throw new IllegalArgumentException("Invalid value provided for backoffMultiplier");
+        }
+        if (percentile <= 0 || percentile >= 100) {
+            throw new IllegalArgumentException("Invalid value provided for percentile : " + percentile);
+        }
+        if (budgetPercent < 0 || budgetPercent > 100) {
+            throw new IllegalArgumentException("Invalid value provided for budgetPercent : " + budgetPercent);
+        }
+        this.firstSpeculativeRequestTimeoutMicros = TimeUnit.MILLISECONDS.toMicros(firstSpeculativeRequestTimeout);
+        this.maxSpeculativeRequestTimeoutMicros = TimeUnit.MILLISECONDS.toMicros(
+                Math.max(maxSpeculativeRequestTimeout, firstSpeculativeRequestTimeout));
+        this.backoffMultiplier = backoffMultiplier;
+        this.percentile = percentile;
+        this.budgetPerRequest = budgetPercent * BUDGET_UNIT / 100;
+        this.statsLogger = statsLogger;
+        this.budgetExhaustedCounter = statsLogger.getCounter(SPECULATIVE_READ_BUDGET_EXHAUSTED);
+    }
+
+    @Override
+    public ScheduledFuture<?> initiateSpeculativeRequest(final ScheduledExecutorService scheduler,
+            final SpeculativeRequestExecutor requestExecutor) {
+        budget.updateAndGet(b -> Math.min(b + budgetPerRequest, MAX_BUDGET_BURST * BUDGET_UNIT));
+        return scheduleSpeculativeRead(scheduler, requestExecutor,
+                getFirstTimeoutMicros(requestExecutor.getLastRequestTarget()));
+    }
+
+    @Override
+    public void onRequestComplete(BookieId bookie, long latencyNanos) {
+        BookieLatency latency = bookieLatencies.get(bookie);
+        if (latency == null) {
+            latency = bookieLatencies.computeIfAbsent(bookie, BookieLatency::new);
+        }
+        latency.add(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    /**
+     * @return the timeout before the first speculative request, for a request sent to {@code bookie}
+     */
+    long getFirstTimeoutMicros(BookieId bookie) {
+        BookieLatency latency = bookie != null ? bookieLatencies.get(bookie) : null;
+        return latency != null ? latency.getTimeoutMicros() : firstSpeculativeRequestTimeoutMicros;
+    }
+
+    private boolean tryAcquireBudget() {
+        while (true) {
+            long available = budget.get();
+            if (available < BUDGET_UNIT) {
+                return false;
+            }
+            if (budget.compareAndSet(available, available - BUDGET_UNIT)) {
+                return true;
+            }
+        }
+    }
+
+    private ScheduledFuture<?> scheduleSpeculativeRead(final ScheduledExecutorService scheduler,
+                                                       final SpeculativeRequestExecutor requestExecutor,
+                                                       final long speculativeRequestTimeoutMicros) {
+        try {
+            return scheduler.schedule(() -> {
+                if (!tryAcquireBudget()) {
+                    budgetExhaustedCounter.inc();
+                    if (LOG.isTraceEnabled()) {
+                        LOG.trace("Speculative request budget exhausted, not issuing speculative request for {}",
+                                requestExecutor);
+                    }
+                    return;
+                }
+                ListenableFuture<Boolean> issueNextRequest = requestExecutor.issueSpeculativeRequest();
+                Futures.addCallback(issueNextRequest, new FutureCallback<Boolean>() {
+                    @Override
+                    public void onSuccess(Boolean issueNextRequest) {
+                        if (issueNextRequest) {
+                            scheduleSpeculativeRead(scheduler, requestExecutor,
+                                    Math.min(maxSpeculativeRequestTimeoutMicros,
+                                            Math.round((double) speculativeRequestTimeoutMicros * backoffMultiplier)));
+                        } else {
+                            // the request was not issued, give back the budget
+                            budget.updateAndGet(b -> Math.min(b + BUDGET_UNIT, MAX_BUDGET_BURST * BUDGET_UNIT));
+                            if (LOG.isTraceEnabled()) {
+                                LOG.trace("Stopped issuing speculative requests for {}, "
+                                    + "speculativeReadTimeout = {}us", requestExecutor,
+                                    speculativeRequestTimeoutMicros);
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Throwable thrown) {
+                        LOG.warn("Failed to issue speculative request for {}, speculativeReadTimeout = {}us : ",
+                                requestExecutor, speculativeRequestTimeoutMicros, thrown);
+                    }
+                }, directExecutor());
+            }, speculativeRequestTimeoutMicros, TimeUnit.MICROSECONDS);
+        } catch (RejectedExecutionException re) {
+            if (!scheduler.isShutdown()) {
+                LOG.warn("Failed to schedule speculative request for {}, speculativeReadTimeout = {}us : ",
+                        requestExecutor, speculativeRequestTimeoutMicros, re);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Latency of the last requests completed by a bookie.
+     */
+    private class BookieLatency {
+        private final long[] samples = new long[WINDOW_SIZE];
+        private final long[] sorted = new long[WINDOW_SIZE];
+        private long numSamples = 0;
+        private volatile long timeoutMicros;
+
+        BookieLatency(BookieId bookie) {
+            this.timeoutMicros = firstSpeculativeRequestTimeoutMicros;
+            statsLogger.scopeLabel(BOOKIE_LABEL, bookie.toString())
+                    .registerGauge(SPECULATIVE_READ_TIMEOUT_MICROS, new Gauge<Long>() {
+                        @Override
+                        public Long getDefaultValue() {
+                            return firstSpeculativeRequestTimeoutMicros;
+                        }
+
+                        @Override
+                        public Long getSample() {
+                            return timeoutMicros;
+                        }
+                    });
+        }
+
+        synchronized void add(long latencyMicros) {
+            samples[(int) (numSamples % WINDOW_SIZE)] = latencyMicros;
+            numSamples++;
+            if (numSamples >= MIN_SAMPLES
+                    && (numSamples % RECOMPUTE_INTERVAL == 0 || numSamples < RECOMPUTE_INTERVAL)) {
+                int count = (int) Math.min(numSamples, WINDOW_SIZE);
+                System.arraycopy(samples, 0, sorted, 0, count);
+                Arrays.sort(sorted, 0, count);
+                int idx = (int) Math.min(count - 1, Math.ceil(percentile / 100 * count) - 1);
+                // at least 1ms, the scheduler granularity
+                timeoutMicros = Math.min(maxSpeculativeRequestTimeoutMicros,
+                        Math.max(sorted[idx], TimeUnit.MILLISECONDS.toMicros(1)));
+            }
+        }
+
+        long getTimeoutMicros() {
+            return timeoutMicros;
+        }
+    }
+}
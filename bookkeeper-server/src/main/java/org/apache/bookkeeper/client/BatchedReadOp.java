@@ -0,0 +1,372 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.netty.buffer.ByteBuf;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.bookkeeper.client.BKException.BKDigestMatchException;
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.client.impl.LedgerEntriesImpl;
+import org.apache.bookkeeper.client.impl.LedgerEntryImpl;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookieProtocol;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.BatchedReadEntryCallback;
+import org.apache.bookkeeper.proto.checksum.DigestManager;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read operation that fetches a contiguous range of entries of a ledger with batched
+ * read requests, one round trip per batch instead of one per entry.
+ *
+ * <p>Each batch is sent to a single replica of the write set, the next replica is only
+ * tried if the previous one failed, or speculatively if the read speculative request policy
+ * is configured and the replica is slow to respond. The first response to a batch wins, the
+ * responses of the other replicas to a batch already read are dropped. Since a batch has to be served by a single bookie,
+ * this operation is only used for ledgers whose entries are all stored on every bookie of
+ * the ensemble (ensemble size equals write quorum size), and a batch never crosses an
+ * ensemble change.
+ *
+ * <p>A batch is only sent on a connection where the bookie has advertised the support of batched
+ * reads, otherwise the replica fails the batch with {@link BKException.Code#ProtocolVersionException}
+ * and the next replica is tried.
+ *
+ * <p>If {@code readFullRange} is false the operation completes after the first batch, which
+ * may contain fewer entries than requested if the bookie hit the size limit. Otherwise it
+ * keeps issuing batches until all the {@code maxCount} entries have been read.
+ */
+class BatchedReadOp implements BatchedReadEntryCallback, SpeculativeRequestExecutor, Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchedReadOp.class);
+
+    private final CompletableFuture<LedgerEntries> future;
+    private final List<LedgerEntry> entries;
+    final LedgerHandle lh;
+    final ClientContext clientCtx;
+
+    final long startEntryId;
+    final int maxCount;
+    final long maxSize;
+    final boolean readFullRange;
+    long requestTimeNanos;
+
+    final AtomicBoolean complete = new AtomicBoolean(false);
+    boolean allowFailFast = false;
+
+    // state of the batch in progress
+    int batchNo = 0;
+    long batchStartEntryId;
+    int batchCount;
+    List<BookieId> ensemble;
+    DistributionSchedule.WriteSet writeSet;
+    int nextReplicaIndexToReadFrom;
+    int outstandingRequests;
+    int firstError;
+    private ScheduledFuture<?> speculativeTask = null;
+
+    BatchedReadOp(LedgerHandle lh,
+                  ClientContext clientCtx,
+                  long startEntryId,
+                  int maxCount,
+                  long maxSize,
+                  boolean readFullRange) {
+        this.future = new CompletableFuture<>();
+        this.entries = new ArrayList<>(maxCount);
+        this.lh = lh;
+        this.clientCtx = clientCtx;
+        this.startEntryId = startEntryId;
+        this.maxCount = maxCount;
+        this.maxSize = maxSize;
+        this.readFullRange = readFullRange;
+    }
+
+    CompletableFuture<LedgerEntries> future() {
+        return future;
+    }
+
+    protected LedgerMetadata getLedgerMetadata() {
+        return lh.getLedgerMetadata();
+    }
+
+    void allowFailFastOnUnwritableChannel() {
+        allowFailFast = true;
+    }
+
+    synchronized void initiate() {
+        this.requestTimeNanos = MathUtils.nowInNano();
+        sendNextBatch(startEntryId);
+    }
+
+    @Override
+    public void run() {
+        initiate();
+    }
+
+    private void sendNextBatch(long entryId) {
+        long remaining = startEntryId + maxCount - entryId;
+        long nextEnsembleChange = LedgerMetadataUtils.getNextEnsembleChange(getLedgerMetadata(), entryId);
+        if (nextEnsembleChange > entryId) {
+            remaining = Math.min(remaining, nextEnsembleChange - entryId);
+        }
+        batchStartEntryId = entryId;
+        batchCount = (int) remaining;
+        ensemble = getLedgerMetadata().getEnsembleAt(entryId);
+        if (clientCtx.getConf().enableReorderReadSequence) {
+            writeSet = clientCtx.getPlacementPolicy()
+                .reorderReadSequence(
+                        ensemble,
+                        lh.getBookiesHealthInfo(),
+                        lh.getWriteSetForReadOperation(entryId));
+        } else {
+            writeSet = lh.getWriteSetForReadOperation(entryId);
+        }
+        batchNo++;
+        nextReplicaIndexToReadFrom = 0;
+        outstandingRequests = 0;
+        firstError = BKException.Code.OK;
+        sendToNextReplica();
+        if (!complete.get() && clientCtx.getConf().readSpeculativeRequestPolicy.isPresent()) {
+            speculativeTask = clientCtx.getConf().readSpeculativeRequestPolicy.get()
+                .initiateSpeculativeRequest(clientCtx.getScheduler(), this);
+        }
+    }
+
+    private BookieId sendToNextReplica() {
+        if (nextReplicaIndexToReadFrom >= writeSet.size()) {
+            // the batch has failed on all replicas
+            writeSet.recycle();
+            writeSet = null;
+            submitCallback(firstError);
+            return null;
+        }
+        int bookieIndex = writeSet.get(nextReplicaIndexToReadFrom);
+        nextReplicaIndexToReadFrom++;
+
+        if (lh.throttler != null) {
+            lh.throttler.acquire();
+        }
+        BookieId to = ensemble.get(bookieIndex);
+        outstandingRequests++;
+        clientCtx.getBookieClient().batchReadEntries(to, lh.ledgerId,
+                batchStartEntryId, batchCount, maxSize, this, new BatchReadContext(batchNo, bookieIndex, to),
+                BookieProtocol.FLAG_NONE, allowFailFast);
+        return to;
+    }
+
+    /**
+     * Send the batch in progress to the next replica speculatively, if there is one left.
+     *
+     * @return the bookie the batch was sent to, or null
+     */
+    synchronized BookieId maybeSendSpeculativeRead() {
+        if (complete.get() || writeSet == null || nextReplicaIndexToReadFrom >= writeSet.size()) {
+            return null;
+        }
+        clientCtx.getClientStats().getSpeculativeReadCounter().inc();
+        return sendToNextReplica();
+    }
+
+    @Override
+    public ListenableFuture<Boolean> issueSpeculativeRequest() {
+        return clientCtx.getMainWorkerPool().submitOrdered(lh.getId(), () -> {
+            BookieId to = maybeSendSpeculativeRead();
+            if (to != null && LOG.isDebugEnabled()) {
+                LOG.debug("Send speculative batch read of L{} E{} to {}", lh.ledgerId, batchStartEntryId, to);
+            }
+            return to != null;
+        });
+    }
+
+    @Override
+    public synchronized BookieId getLastRequestTarget() {
+        if (writeSet == null || nextReplicaIndexToReadFrom == 0) {
+            return null;
+        }
+        return ensemble.get(writeSet.get(nextReplicaIndexToReadFrom - 1));
+    }
+
+    private void cancelSpeculativeTask() {
+        if (speculativeTask != null) {
+            speculativeTask.cancel(true);
+            speculativeTask = null;
+        }
+    }
+
+    @Override
+    public synchronized void readEntriesComplete(int rc, long ledgerId, long startEntryId,
+                                                 ByteBufList bufList, Object ctx) {
+        final BatchReadContext rctx = (BatchReadContext) ctx;
+        if (complete.get() || rctx.batchNo != batchNo) {
+            // another replica already responded to this batch
+            return;
+        }
+        final int bookieIndex = rctx.bookieIndex;
+        final BookieId host = rctx.to;
+
+        if (rc == BKException.Code.OK && (bufList == null || bufList.size() == 0)) {
+            rc = BKException.Code.ReadException;
+        }
+        if (rc != BKException.Code.OK) {
+            logErrorAndReattemptRead(bookieIndex, host, "Error: " + BKException.getMessage(rc), rc);
+            return;
+        }
+
+        List<LedgerEntry> batch = new ArrayList<>(bufList.size());
+        for (int i = 0; i < bufList.size(); i++) {
+            long eId = startEntryId + i;
+            ByteBuf buffer = bufList.getBuffer(i).retain();
+            ByteBuf content;
+            try {
+                content = lh.macManager.verifyDigestAndReturnData(eId, buffer);
+            } catch (BKDigestMatchException e) {
+                buffer.release();
+                batch.forEach(LedgerEntry::close);
+                clientCtx.getClientStats().getReadOpDmCounter().inc();
+                logErrorAndReattemptRead(bookieIndex, host, "Mac mismatch", BKException.Code.DigestMatchException);
+                return;
+            }
+            LedgerEntryImpl entry = LedgerEntryImpl.create(lh.ledgerId, eId);
+            /*
+             * The length is a long and it is the last field of the metadata of an entry.
+             * Consequently, we have to subtract 8 from METADATA_LENGTH to get the length.
+             */
+            entry.setLength(buffer.getLong(DigestManager.METADATA_LENGTH - 8));
+            entry.setEntryBuf(content);
+            batch.add(entry);
+        }
+
+        if (clientCtx.getConf().readSpeculativeRequestPolicy.isPresent()) {
+            clientCtx.getConf().readSpeculativeRequestPolicy.get()
+                .onRequestComplete(host, MathUtils.elapsedNanos(rctx.sendTimeNanos));
+        }
+        // the replicas tried before the one that responded first were too slow
+        for (int i = 0; i < nextReplicaIndexToReadFrom - 1; i++) {
+            int slowBookieIndex = writeSet.get(i);
+            if (slowBookieIndex == bookieIndex) {
+                break;
+            }
+            clientCtx.getPlacementPolicy().registerSlowBookie(ensemble.get(slowBookieIndex), startEntryId);
+        }
+        cancelSpeculativeTask();
+        writeSet.recycle();
+        writeSet = null;
+        entries.addAll(batch);
+
+        long nextEntryId = startEntryId + batch.size();
+        if (readFullRange && nextEntryId < this.startEntryId + maxCount) {
+            sendNextBatch(nextEntryId);
+        } else {
+            submitCallback(BKException.Code.OK);
+        }
+    }
+
+    private void logErrorAndReattemptRead(int bookieIndex, BookieId host, String errMsg, int rc) {
+        if (BKException.Code.OK == firstError
+            || BKException.Code.NoSuchEntryException == firstError
+            || BKException.Code.NoSuchLedgerExistsException == firstError) {
+            firstError = rc;
+        } else if (BKException.Code.BookieHandleNotAvailableException == firstError
+                   && BKException.Code.NoSuchEntryException != rc
+                   && BKException.Code.NoSuchLedgerExistsException != rc) {
+            // if other exception rather than NoSuchEntryException or NoSuchLedgerExistsException is
+            // returned we need to update firstError to indicate that it might be a valid read but just
+            // failed.
+            firstError = rc;
+        }
+        outstandingRequests--;
+        if (BKException.Code.ProtocolVersionException == rc) {
+            // the bookie is not at fault, it doesn't support batched reads
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Batched reads not supported by bookie.  L{} E{} bookie: {}",
+                        lh.ledgerId, batchStartEntryId, host);
+            }
+            if (outstandingRequests == 0) {
+                sendToNextReplica();
+            }
+            return;
+        } else if (BKException.Code.NoSuchEntryException == rc
+            || BKException.Code.NoSuchLedgerExistsException == rc) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("No such entry found on bookie.  L{} E{} bookie: {}",
+                        lh.ledgerId, batchStartEntryId, host);
+            }
+        } else {
+            if (LOG.isInfoEnabled()) {
+                LOG.info("{} while batch reading L{} E{} from bookie: {}",
+                        errMsg, lh.ledgerId, batchStartEntryId, host);
+            }
+        }
+
+        lh.recordReadErrorOnBookie(bookieIndex);
+        // wait for the replicas already tried speculatively before trying the next one
+        if (outstandingRequests == 0) {
+            sendToNextReplica();
+        }
+    }
+
+    protected void submitCallback(int code) {
+        // ensure callback once
+        if (!complete.compareAndSet(false, true)) {
+            return;
+        }
+        cancelSpeculativeTask();
+
+        long latencyNanos = MathUtils.elapsedNanos(requestTimeNanos);
+        if (code != BKException.Code.OK) {
+            if (code != BKException.Code.ProtocolVersionException) {
+                LOG.error("Batch read of ledger entries failed: L{} E{}-E{}, first unread entry is {}, Error = '{}'",
+                        lh.getId(), startEntryId, startEntryId + maxCount - 1, batchStartEntryId,
+                        BKException.getMessage(code));
+            }
+            clientCtx.getClientStats().getReadOpLogger().registerFailedEvent(latencyNanos, TimeUnit.NANOSECONDS);
+            // release the entries
+            entries.forEach(LedgerEntry::close);
+            entries.clear();
+            future.completeExceptionally(BKException.create(code));
+        } else {
+            clientCtx.getClientStats().getReadOpLogger().registerSuccessfulEvent(latencyNanos, TimeUnit.NANOSECONDS);
+            future.complete(LedgerEntriesImpl.create(entries));
+        }
+    }
+
+    private static class BatchReadContext {
+        final int batchNo;
+        final int bookieIndex;
+        final BookieId to;
+        final long sendTimeNanos;
+
+        BatchReadContext(int batchNo, int bookieIndex, BookieId to) {
+            this.batchNo = batchNo;
+            this.bookieIndex = bookieIndex;
+            this.to = to;
+            this.sendTimeNanos = MathUtils.nowInNano();
+        }
+    }
+}
@@ -71,6 +71,7 @@ import org.apache.bookkeeper.conf.AbstractConfiguration;
 import org.apache.bookkeeper.conf.ClientConfiguration;
 import org.apache.bookkeeper.feature.FeatureProvider;
 import org.apache.bookkeeper.feature.SettableFeatureProvider;
+import org.apache.bookkeeper.meta.CachingLedgerManager;
 import org.apache.bookkeeper.meta.CleanupLedgerManager;
 import org.apache.bookkeeper.meta.LedgerIdGenerator;
 import org.apache.bookkeeper.meta.LedgerManager;
@@ -119,6 +120,10 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
     private final BookKeeperClientStats clientStats;
     private final double bookieQuarantineRatio;
 
+    // Entries cache shared by the ledger handles, null if disabled
+    private final ClientEntryCache entryCache;
+    private final LedgerRecoveryLimiter recoveryLimiter;
+
     // whether the event loop group is one we created, or is owned by whoever
     // instantiated us
     boolean ownEventLoopGroup = false;
@@ -130,6 +135,7 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
     final OrderedScheduler scheduler;
     final HashedWheelTimer requestTimer;
     final boolean ownTimer;
+    private final RequestTimer requestTimeouts;
     final FeatureProvider featureProvider;
     final ScheduledExecutorService bookieInfoScheduler;
 
@@ -420,7 +426,12 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
             this.featureProvider = featureProvider;
         }
 
-        this.internalConf = ClientInternalConf.fromConfigAndFeatureProvider(conf, this.featureProvider);
+        // initialize stats logger
+        this.statsLogger = rootStatsLogger.scope(BookKeeperClientStats.CLIENT_SCOPE);
+        this.clientStats = BookKeeperClientStats.newInstance(this.statsLogger);
+
+        this.internalConf = ClientInternalConf.fromConfigAndFeatureProvider(conf, this.featureProvider,
+                this.statsLogger);
 
         // initialize resources
         this.scheduler = OrderedScheduler.newSchedulerBuilder().numThreads(1).name("BookKeeperClientScheduler").build();
@@ -434,10 +445,6 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
                 .enableBusyWait(conf.isBusyWaitEnabled())
                 .build();
 
-        // initialize stats logger
-        this.statsLogger = rootStatsLogger.scope(BookKeeperClientStats.CLIENT_SCOPE);
-        this.clientStats = BookKeeperClientStats.newInstance(this.statsLogger);
-
         // initialize metadata driver
         try {
             String metadataServiceUriStr = conf.getMetadataServiceUri();
@@ -481,6 +488,13 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
                     .build();
         }
 
+        if (conf.getEntryCacheMaxSizeBytes() > 0) {
+            this.entryCache = new ClientEntryCache(this.allocator, conf.getEntryCacheMaxSizeBytes(), clientStats);
+        } else {
+            this.entryCache = null;
+        }
+        this.recoveryLimiter = new LedgerRecoveryLimiter(conf.getMaxConcurrentRecoveries());
+
 
         if (null == requestTimer) {
             this.requestTimer = new HashedWheelTimer(
@@ -492,6 +506,7 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
             this.requestTimer = requestTimer;
             this.ownTimer = false;
         }
+        this.requestTimeouts = new RequestTimer(this.requestTimer, clientStats);
 
         BookieAddressResolver bookieAddressResolver = conf.getBookieAddressResolverEnabled()
                 ? new DefaultBookieAddressResolver(metadataDriver.getRegistrationClient())
@@ -509,7 +524,7 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
 
         // initialize bookie client
         this.bookieClient = new BookieClientImpl(conf, this.eventLoopGroup, this.allocator, this.mainWorkerPool,
-                scheduler, rootStatsLogger, this.bookieWatcher.getBookieAddressResolver());
+                scheduler, this.requestTimeouts, rootStatsLogger, this.bookieWatcher.getBookieAddressResolver());
 
         if (conf.getDiskWeightBasedPlacementEnabled()) {
             LOG.info("Weighted ledger placement enabled");
@@ -533,7 +548,12 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
         } catch (MetadataException e) {
             throw new IOException("Failed to initialize ledger manager factory", e);
         }
-        this.ledgerManager = new CleanupLedgerManager(ledgerManagerFactory.newLedgerManager());
+        if (conf.getLedgerMetadataCacheMaxSize() > 0) {
+            this.ledgerManager = new CleanupLedgerManager(new CachingLedgerManager(
+                    ledgerManagerFactory.newLedgerManager(), conf.getLedgerMetadataCacheMaxSize(), clientStats));
+        } else {
+            this.ledgerManager = new CleanupLedgerManager(ledgerManagerFactory.newLedgerManager());
+        }
         this.ledgerIdGenerator = ledgerManagerFactory.newLedgerIdGenerator();
 
         this.bookieQuarantineRatio = conf.getBookieQuarantineRatio();
@@ -551,6 +571,7 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
         clientStats = BookKeeperClientStats.newInstance(statsLogger);
         scheduler = null;
         requestTimer = null;
+        requestTimeouts = null;
         metadataDriver = null;
         placementPolicy = null;
         ownTimer = false;
@@ -564,6 +585,8 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
         bookieInfoScheduler = null;
         bookieClient = null;
         allocator = UnpooledByteBufAllocator.DEFAULT;
+        entryCache = null;
+        recoveryLimiter = new LedgerRecoveryLimiter(0);
         bookieQuarantineRatio = 1.0;
     }
 
@@ -655,7 +678,11 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
 
     @VisibleForTesting
     LedgerManager getUnderlyingLedgerManager() {
-        return ((CleanupLedgerManager) ledgerManager).getUnderlying();
+        LedgerManager underlying = ((CleanupLedgerManager) ledgerManager).getUnderlying();
+        if (underlying instanceof CachingLedgerManager) {
+            return ((CachingLedgerManager) underlying).getUnderlying();
+        }
+        return underlying;
     }
 
     @VisibleForTesting
@@ -1472,6 +1499,13 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
             }
         }
 
+        if (entryCache != null) {
+            entryCache.close();
+        }
+
+        if (requestTimeouts != null) {
+            requestTimeouts.close();
+        }
         if (ownTimer) {
             requestTimer.stop();
         }
@@ -1649,6 +1683,21 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
                 return clientStats;
             }
 
+            @Override
+            public ClientEntryCache getEntryCache() {
+                return entryCache;
+            }
+
+            @Override
+            public LedgerRecoveryLimiter getRecoveryLimiter() {
+                return recoveryLimiter;
+            }
+
+            @Override
+            public RequestTimer getRequestTimer() {
+                return requestTimeouts;
+            }
+
             @Override
             public boolean isClientClosed() {
                 return BookKeeper.this.isClosed();
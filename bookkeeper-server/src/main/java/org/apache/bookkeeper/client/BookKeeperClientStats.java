@@ -43,6 +43,10 @@ public interface BookKeeperClientStats {
     String RECOVER_OP = "LEDGER_RECOVER";
     String LEDGER_RECOVER_READ_ENTRIES = "LEDGER_RECOVER_READ_ENTRIES";
     String LEDGER_RECOVER_ADD_ENTRIES = "LEDGER_RECOVER_ADD_ENTRIES";
+    String LEDGER_RECOVER_WAIT = "LEDGER_RECOVER_WAIT";
+    String LEDGER_RECOVER_FENCE = "LEDGER_RECOVER_FENCE";
+    String LEDGER_RECOVER_READ = "LEDGER_RECOVER_READ";
+    String LEDGER_RECOVER_CLOSE = "LEDGER_RECOVER_CLOSE";
     String LEDGER_ENSEMBLE_BOOKIE_DISTRIBUTION = "LEDGER_ENSEMBLE_BOOKIE_DISTRIBUTION";
 
     // Data Operations
@@ -63,8 +67,17 @@ public interface BookKeeperClientStats {
     String LAC_UPDATE_MISSES = "LAC_UPDATE_MISSES";
     String GET_BOOKIE_INFO_OP = "GET_BOOKIE_INFO";
     String SPECULATIVE_READ_COUNT = "SPECULATIVE_READ_COUNT";
+    String SPECULATIVE_READ_TIMEOUT_MICROS = "SPECULATIVE_READ_TIMEOUT_MICROS";
+    String SPECULATIVE_READ_BUDGET_EXHAUSTED = "SPECULATIVE_READ_BUDGET_EXHAUSTED";
     String READ_REQUESTS_REORDERED = "READ_REQUESTS_REORDERED";
     String GET_LIST_OF_ENTRIES_OF_LEDGER_OP = "GET_LIST_OF_ENTRIES_OF_LEDGER";
+    String ENTRY_CACHE_HITS = "ENTRY_CACHE_HITS";
+    String ENTRY_CACHE_MISSES = "ENTRY_CACHE_MISSES";
+    String ENTRY_CACHE_SIZE = "ENTRY_CACHE_SIZE";
+    String LEDGER_METADATA_CACHE_HITS = "LEDGER_METADATA_CACHE_HITS";
+    String LEDGER_METADATA_CACHE_MISSES = "LEDGER_METADATA_CACHE_MISSES";
+    String LEDGER_METADATA_CACHE_SIZE = "LEDGER_METADATA_CACHE_SIZE";
+    String REQUEST_TIMER_LAG = "REQUEST_TIMER_LAG";
 
     // per channel stats
     String CHANNEL_SCOPE = "per_channel_bookie_client";
@@ -118,6 +131,10 @@ public interface BookKeeperClientStats {
     OpStatsLogger getReadLacOpLogger();
     OpStatsLogger getRecoverAddCountLogger();
     OpStatsLogger getRecoverReadCountLogger();
+    OpStatsLogger getRecoverWaitOpLogger();
+    OpStatsLogger getRecoverFenceOpLogger();
+    OpStatsLogger getRecoverReadOpLogger();
+    OpStatsLogger getRecoverCloseOpLogger();
     Counter getReadOpDmCounter();
     Counter getAddOpUrCounter();
     Counter getSpeculativeReadCounter();
@@ -129,7 +146,14 @@ public interface BookKeeperClientStats {
     OpStatsLogger getWriteDelayedDueToNotEnoughFaultDomainsLatency();
     Counter getWriteDelayedDueToNotEnoughFaultDomains();
     Counter getWriteTimedOutDueToNotEnoughFaultDomains();
+    Counter getEntryCacheHitsCounter();
+    Counter getEntryCacheMissesCounter();
     void registerPendingAddsGauge(Gauge<Integer> gauge);
+    void registerEntryCacheSizeGauge(Gauge<Long> gauge);
+    Counter getLedgerMetadataCacheHitsCounter();
+    Counter getLedgerMetadataCacheMissesCounter();
+    void registerLedgerMetadataCacheSizeGauge(Gauge<Long> gauge);
+    void registerRequestTimerLagGauge(Gauge<Long> gauge);
 
     static BookKeeperClientStats newInstance(StatsLogger stats) {
         return new BookKeeperClientStatsImpl(stats);
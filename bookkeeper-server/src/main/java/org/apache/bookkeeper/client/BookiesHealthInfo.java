@@ -44,4 +44,14 @@ public interface BookiesHealthInfo {
      */
     long getBookiePendingRequests(BookieId bookieSocketAddress);
 
+    /**
+     * Returns the moving average of the read latency of a bookie.
+     *
+     * @param bookieSocketAddress
+     * @return read latency in nanoseconds, -1 if there is no recent estimate
+     */
+    default long getBookieReadLatencyNanos(BookieId bookieSocketAddress) {
+        return -1L;
+    }
+
 }
@@ -42,5 +42,17 @@ public interface ClientContext {
     OrderedExecutor getMainWorkerPool();
     OrderedScheduler getScheduler();
     BookKeeperClientStats getClientStats();
+    /**
+     * @return the entry cache shared by the ledger handles, or null if the cache is disabled
+     */
+    ClientEntryCache getEntryCache();
+    /**
+     * @return the limiter of the ledger recoveries run concurrently by the client
+     */
+    LedgerRecoveryLimiter getRecoveryLimiter();
+    /**
+     * @return the timer scheduling the timeouts of the operations of the client, or null if they are not timed out
+     */
+    RequestTimer getRequestTimer();
     boolean isClientClosed();
 }
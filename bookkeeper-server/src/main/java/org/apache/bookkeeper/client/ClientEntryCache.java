@@ -0,0 +1,244 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.bookkeeper.client.impl.LedgerEntryImpl;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.Gauge;
+
+/**
+ * Cache of ledger entries, shared by all the ledger handles of a client.
+ *
+ * <p>Entries up to the last add confirmed of a ledger never change, so readers of the same
+ * ledger can be served from the cache instead of going to the bookies. The cache is filled
+ * with the entries read from the bookies and with the entries added by the ledger handles
+ * of this client, once they are acknowledged.
+ *
+ * <p>The cache is split in segments, each with its own lock and its own LRU eviction. The
+ * entries are copied in direct buffers from the client allocator.
+ */
+class ClientEntryCache {
+
+    private static final int DEFAULT_SEGMENTS_COUNT = 16;
+
+    private final ByteBufAllocator allocator;
+    private final Segment[] segments;
+    private final long maxEntrySize;
+
+    private final Counter hitsCounter;
+    private final Counter missesCounter;
+
+    private volatile boolean closed = false;
+
+    ClientEntryCache(ByteBufAllocator allocator, long maxSize, BookKeeperClientStats clientStats) {
+        this(allocator, maxSize, DEFAULT_SEGMENTS_COUNT, clientStats);
+    }
+
+    ClientEntryCache(ByteBufAllocator allocator, long maxSize, int segmentsCount,
+                     BookKeeperClientStats clientStats) {
+        this.allocator = allocator;
+        this.segments = new Segment[segmentsCount];
+        for (int i = 0; i < segmentsCount; i++) {
+            segments[i] = new Segment(maxSize / segmentsCount);
+        }
+        this.maxEntrySize = maxSize / segmentsCount;
+
+        this.hitsCounter = clientStats.getEntryCacheHitsCounter();
+        this.missesCounter = clientStats.getEntryCacheMissesCounter();
+        clientStats.registerEntryCacheSizeGauge(new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return size();
+            }
+        });
+    }
+
+    /**
+     * Get the entries of a range from the cache, from the first entry of the range up to the first entry
+     * that is not in the cache. The entries after it are not looked up: they are read from the bookies
+     * along with the missing entry, so they are counted as misses and keep their place in the LRU order.
+     *
+     * @return the cached entries at the start of the range, to be closed by the caller
+     */
+    List<org.apache.bookkeeper.client.api.LedgerEntry> getRange(long ledgerId, long firstEntry, long lastEntry) {
+        List<org.apache.bookkeeper.client.api.LedgerEntry> entries = new ArrayList<>();
+        for (long entryId = firstEntry; entryId <= lastEntry; entryId++) {
+            LedgerEntryImpl entry = segment(ledgerId, entryId).get(new EntryKey(ledgerId, entryId));
+            if (entry == null) {
+                break;
+            }
+            entries.add(entry);
+        }
+        hitsCounter.addCount(entries.size());
+        missesCounter.addCount(lastEntry - firstEntry + 1 - entries.size());
+        return entries;
+    }
+
+    /**
+     * Add an entry to the cache. The caller keeps the ownership of the buffer, which is copied.
+     * Must only be called for entries up to the last add confirmed of the ledger.
+     *
+     * @param length the length of the ledger up to this entry
+     */
+    void put(long ledgerId, long entryId, long length, ByteBuf entry) {
+        int size = entry.readableBytes();
+        if (closed || size > maxEntrySize) {
+            return;
+        }
+
+        EntryKey key = new EntryKey(ledgerId, entryId);
+        Segment segment = segment(ledgerId, entryId);
+        if (segment.contains(key)) {
+            return;
+        }
+
+        ByteBuf copy = allocator.directBuffer(size, size);
+        copy.writeBytes(entry, entry.readerIndex(), size);
+        segment.put(key, new CachedEntry(length, copy));
+    }
+
+    /**
+     * @return the number of bytes of entries in the cache
+     */
+    long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    void close() {
+        closed = true;
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    private Segment segment(long ledgerId, long entryId) {
+        int hash = Long.hashCode(ledgerId * 31 + entryId);
+        return segments[(hash & Integer.MAX_VALUE) % segments.length];
+    }
+
+    private static final class EntryKey {
+        private final long ledgerId;
+        private final long entryId;
+
+        EntryKey(long ledgerId, long entryId) {
+            this.ledgerId = ledgerId;
+            this.entryId = entryId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof EntryKey)) {
+                return false;
+            }
+            EntryKey other = (EntryKey) o;
+            return ledgerId == other.ledgerId && entryId == other.entryId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(ledgerId * 31 + entryId);
+        }
+    }
+
+    private static final class CachedEntry {
+        private final long length;
+        private final ByteBuf data;
+
+        CachedEntry(long length, ByteBuf data) {
+            this.length = length;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Access ordered map of entries, evicting the least recently used ones above the max size.
+     */
+    private final class Segment {
+        private final long maxSize;
+        private final LinkedHashMap<EntryKey, CachedEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long size = 0;
+
+        Segment(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        synchronized LedgerEntryImpl get(EntryKey key) {
+            CachedEntry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            return LedgerEntryImpl.create(key.ledgerId, key.entryId, entry.length, entry.data.retainedDuplicate());
+        }
+
+        synchronized boolean contains(EntryKey key) {
+            return entries.containsKey(key);
+        }
+
+        synchronized void put(EntryKey key, CachedEntry entry) {
+            // The cache may have been closed, and this segment cleared, since the caller checked it
+            if (closed) {
+                entry.data.release();
+                return;
+            }
+
+            CachedEntry previous = entries.put(key, entry);
+            size += entry.data.readableBytes();
+            if (previous != null) {
+                size -= previous.data.readableBytes();
+                previous.data.release();
+            }
+
+            Iterator<Map.Entry<EntryKey, CachedEntry>> iterator = entries.entrySet().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                ByteBuf evicted = iterator.next().getValue().data;
+                iterator.remove();
+                size -= evicted.readableBytes();
+                evicted.release();
+            }
+        }
+
+        synchronized long size() {
+            return size;
+        }
+
+        synchronized void clear() {
+            entries.values().forEach(entry -> entry.data.release());
+            entries.clear();
+            size = 0;
+        }
+    }
+}
@@ -26,6 +26,8 @@ import org.apache.bookkeeper.conf.ClientConfiguration;
 import org.apache.bookkeeper.feature.Feature;
 import org.apache.bookkeeper.feature.FeatureProvider;
 import org.apache.bookkeeper.feature.SettableFeatureProvider;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.stats.StatsLogger;
 
 class ClientInternalConf {
     final Feature disableEnsembleChangeFeature;
@@ -40,7 +42,10 @@ class ClientInternalConf {
     final boolean enableParallelRecoveryRead;
     final boolean enableReorderReadSequence;
     final boolean enableStickyReads;
+    final boolean batchReadEnabled;
+    final int nettyMaxFrameSizeBytes;
     final int recoveryReadBatchSize;
+    final int recoveryReadWindowSize;
     final int throttleValue;
     final int bookieFailureHistoryExpirationMSec;
     final int maxAllowedEnsembleChanges;
@@ -59,15 +64,23 @@ class ClientInternalConf {
 
     static ClientInternalConf fromConfigAndFeatureProvider(ClientConfiguration conf,
                                                            FeatureProvider featureProvider) {
-        return new ClientInternalConf(conf, featureProvider);
+        return fromConfigAndFeatureProvider(conf, featureProvider, NullStatsLogger.INSTANCE);
+    }
+
+    static ClientInternalConf fromConfigAndFeatureProvider(ClientConfiguration conf,
+                                                           FeatureProvider featureProvider,
+                                                           StatsLogger statsLogger) {
+        return new ClientInternalConf(conf, featureProvider, statsLogger);
     }
 
     private ClientInternalConf(ClientConfiguration conf,
-                               FeatureProvider featureProvider) {
+                               FeatureProvider featureProvider,
+                               StatsLogger statsLogger) {
         this.explicitLacInterval = conf.getExplictLacInterval();
         this.enableReorderReadSequence = conf.isReorderReadSequenceEnabled();
         this.enableParallelRecoveryRead = conf.getEnableParallelRecoveryRead();
         this.recoveryReadBatchSize = conf.getRecoveryReadBatchSize();
+        this.recoveryReadWindowSize = Math.max(1, conf.getRecoveryReadWindowSize());
         this.waitForWriteSetMs = conf.getWaitTimeoutOnBackpressureMillis();
         this.addEntryQuorumTimeoutNanos = TimeUnit.SECONDS.toNanos(conf.getAddEntryQuorumTimeout());
         this.throttleValue = conf.getThrottleValue();
@@ -81,9 +94,20 @@ class ClientInternalConf {
         this.enableBookieFailureTracking = conf.getEnableBookieFailureTracking();
         this.useV2WireProtocol = conf.getUseV2WireProtocol();
         this.enableStickyReads = conf.isStickyReadsEnabled();
+        this.batchReadEnabled = conf.isBatchReadEnabled();
+        this.nettyMaxFrameSizeBytes = conf.getNettyMaxFrameSizeBytes();
         this.enforceMinNumFaultDomainsForWrite = conf.getEnforceMinNumFaultDomainsForWrite();
 
-        if (conf.getFirstSpeculativeReadTimeout() > 0) {
+        if (conf.getFirstSpeculativeReadTimeout() > 0 && conf.getSpeculativeReadTimeoutPercentile() > 0) {
+            this.readSpeculativeRequestPolicy =
+                    Optional.of(new AdaptiveSpeculativeRequestExecutionPolicy(
+                                        conf.getFirstSpeculativeReadTimeout(),
+                                        conf.getMaxSpeculativeReadTimeout(),
+                                        conf.getSpeculativeReadTimeoutBackoffMultiplier(),
+                                        conf.getSpeculativeReadTimeoutPercentile(),
+                                        conf.getSpeculativeReadBudgetPercent(),
+                                        statsLogger));
+        } else if (conf.getFirstSpeculativeReadTimeout() > 0) {
             this.readSpeculativeRequestPolicy =
                     Optional.of(new DefaultSpeculativeRequestExecutionPolicy(
                                         conf.getFirstSpeculativeReadTimeout(),
@@ -47,10 +47,10 @@ import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
 import org.apache.bookkeeper.client.AsyncCallback.AddCallback;
 import org.apache.bookkeeper.client.AsyncCallback.AddCallbackWithLatency;
 import org.apache.bookkeeper.client.AsyncCallback.CloseCallback;
@@ -71,6 +71,7 @@ import org.apache.bookkeeper.client.api.LedgerEntries;
 import org.apache.bookkeeper.client.api.LedgerMetadata;
 import org.apache.bookkeeper.client.api.WriteFlag;
 import org.apache.bookkeeper.client.api.WriteHandle;
+import org.apache.bookkeeper.client.impl.LedgerEntriesImpl;
 import org.apache.bookkeeper.client.impl.LedgerEntryImpl;
 import org.apache.bookkeeper.common.concurrent.FutureEventListener;
 import org.apache.bookkeeper.common.concurrent.FutureUtils;
@@ -100,7 +101,7 @@ public class LedgerHandle implements WriteHandle {
     final byte[] ledgerKey;
     private Versioned<LedgerMetadata> versionedMetadata;
     final long ledgerId;
-    long lastAddPushed;
+    volatile long lastAddPushed;
 
     private enum HandleState {
         OPEN,
@@ -134,7 +135,7 @@ public class LedgerHandle implements WriteHandle {
      */
     private int stickyBookieIndex;
 
-    long length;
+    volatile long length;
     final DigestManager macManager;
     final DistributionSchedule distributionSchedule;
     final RateLimiter throttler;
@@ -142,8 +143,6 @@ public class LedgerHandle implements WriteHandle {
     final BookiesHealthInfo bookiesHealthInfo;
     final EnumSet<WriteFlag> writeFlags;
 
-    ScheduledFuture<?> timeoutFuture = null;
-
     @VisibleForTesting
     final Map<Integer, BookieId> delayedWriteFailedBookies =
         new HashMap<Integer, BookieId>();
@@ -237,6 +236,11 @@ public class LedgerHandle implements WriteHandle {
             public long getBookiePendingRequests(BookieId bookieSocketAddress) {
                 return clientCtx.getBookieClient().getNumPendingRequests(bookieSocketAddress, ledgerId);
             }
+
+            @Override
+            public long getBookieReadLatencyNanos(BookieId bookieSocketAddress) {
+                return clientCtx.getBookieClient().getReadLatencyNanos(bookieSocketAddress);
+            }
         };
 
         ensembleChangeCounter = clientCtx.getClientStats().getEnsembleChangeCounter();
@@ -280,21 +284,10 @@ public class LedgerHandle implements WriteHandle {
         } else {
             explicitLacFlushPolicy = ExplicitLacFlushPolicy.VOID_EXPLICITLAC_FLUSH_POLICY;
         }
-
-        if (clientCtx.getConf().addEntryQuorumTimeoutNanos > 0) {
-            this.timeoutFuture = clientCtx.getScheduler().scheduleAtFixedRate(
-                    () -> monitorPendingAddOps(),
-                    clientCtx.getConf().timeoutMonitorIntervalSec,
-                    clientCtx.getConf().timeoutMonitorIntervalSec,
-                    TimeUnit.SECONDS);
-        }
     }
 
     private void tearDownWriteHandleState() {
         explicitLacFlushPolicy.stopExplicitLacFlush();
-        if (timeoutFuture != null) {
-            timeoutFuture.cancel(false);
-        }
     }
 
     /**
@@ -316,7 +309,7 @@ public class LedgerHandle implements WriteHandle {
      * {@inheritDoc}
      */
     @Override
-    public synchronized long getLastAddConfirmed() {
+    public long getLastAddConfirmed() {
         return lastAddConfirmed;
     }
 
@@ -328,7 +321,7 @@ public class LedgerHandle implements WriteHandle {
      * {@inheritDoc}
      */
     @Override
-    public synchronized long getLastAddPushed() {
+    public long getLastAddPushed() {
         return lastAddPushed;
     }
 
@@ -413,12 +406,12 @@ public class LedgerHandle implements WriteHandle {
     }
 
     /**
-     *  Add to the length of the ledger in bytes.
+     *  Add to the length of the ledger in bytes. Must be called holding the lock of the handle.
      *
      * @param delta
      * @return the length of the ledger after the addition
      */
-    synchronized long addToLength(long delta) {
+    long addToLength(long delta) {
         this.length += delta;
         return this.length;
     }
@@ -429,7 +422,7 @@ public class LedgerHandle implements WriteHandle {
      * @return the length of the ledger in bytes
      */
     @Override
-    public synchronized long getLength() {
+    public long getLength() {
         return this.length;
     }
 
@@ -753,9 +746,69 @@ public class LedgerHandle implements WriteHandle {
             return FutureUtils.exception(new BKReadException());
         }
 
+        if (lastEntry > firstEntry && lastEntry - firstEntry < Integer.MAX_VALUE && isBatchReadSupported(firstEntry)) {
+            return batchReadEntriesInternalAsync(firstEntry, (int) (lastEntry - firstEntry + 1),
+                    clientCtx.getConf().nettyMaxFrameSizeBytes, true);
+        }
         return readEntriesInternalAsync(firstEntry, lastEntry, false);
     }
 
+    /**
+     * Read a contiguous range of entries asynchronously, in a single round trip per bookie
+     * when batched reads are enabled.
+     *
+     * @param startEntry
+     *          id of first entry of sequence
+     * @param maxCount
+     *          maximum number of entries to read
+     * @param maxSize
+     *          maximum size in bytes of the entries to read
+     */
+    @Override
+    public CompletableFuture<LedgerEntries> batchReadAsync(long startEntry, int maxCount, long maxSize) {
+        // Little sanity check
+        if (startEntry < 0 || maxCount <= 0 || maxSize <= 0) {
+            LOG.error("IncorrectParameterException on ledgerId:{} startEntry:{} maxCount:{} maxSize:{}",
+                    ledgerId, startEntry, maxCount, maxSize);
+            return FutureUtils.exception(new BKIncorrectParameterException());
+        }
+
+        if (startEntry > lastAddConfirmed) {
+            LOG.error("BatchReadAsync exception on ledgerId:{} startEntry:{} lastAddConfirmed:{}",
+                    ledgerId, startEntry, lastAddConfirmed);
+            return FutureUtils.exception(new BKReadException());
+        }
+
+        int count = (int) Math.min(maxCount, lastAddConfirmed - startEntry + 1);
+        if (!isBatchReadSupported(startEntry)) {
+            return readEntriesInternalAsync(startEntry, startEntry + count - 1, false);
+        }
+        return batchReadEntriesInternalAsync(startEntry, count, maxSize, false);
+    }
+
+    /**
+     * Batched reads are sent to a single bookie, so they can only be used if every bookie
+     * of the ensemble stores all the entries of the ledger.
+     *
+     * <p>The bookies advertise the support of batched reads in their responses, so until a bookie of
+     * the ensemble has responded on its connection the entries are read one by one, rather than
+     * failing the batch on every replica before falling back to single reads.
+     */
+    private boolean isBatchReadSupported(long startEntry) {
+        LedgerMetadata metadata = getLedgerMetadata();
+        if (!clientCtx.getConf().batchReadEnabled
+            || !clientCtx.getConf().useV2WireProtocol
+            || metadata.getEnsembleSize() != metadata.getWriteQuorumSize()) {
+            return false;
+        }
+        for (BookieId bookie : metadata.getEnsembleAt(startEntry)) {
+            if (clientCtx.getBookieClient().isBatchReadSupported(bookie, ledgerId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Read a sequence of entries asynchronously, allowing to read after the LastAddConfirmed range.
      * <br>This is the same of
@@ -857,9 +910,167 @@ public class LedgerHandle implements WriteHandle {
         }
     }
 
+    CompletableFuture<LedgerEntries> batchReadEntriesInternalAsync(long startEntry,
+                                                                   int maxCount,
+                                                                   long maxSize,
+                                                                   boolean readFullRange) {
+        ClientEntryCache entryCache = clientCtx.getEntryCache();
+        if (entryCache == null || clientCtx.isClientClosed()) {
+            return batchReadEntriesFromBookiesAsync(startEntry, maxCount, maxSize, readFullRange);
+        }
+        // when the whole range is read, the size limit only bounds each batch
+        long totalMaxSize = readFullRange ? Long.MAX_VALUE : maxSize;
+        return readThroughEntryCache(entryCache, startEntry, startEntry + maxCount - 1, totalMaxSize,
+                (firstMissingEntry, sizeLeft) -> batchReadEntriesFromBookiesAsync(firstMissingEntry,
+                        (int) (startEntry + maxCount - firstMissingEntry), readFullRange ? maxSize : sizeLeft,
+                        readFullRange));
+    }
+
+    private CompletableFuture<LedgerEntries> batchReadEntriesFromBookiesAsync(long startEntry,
+                                                                              int maxCount,
+                                                                              long maxSize,
+                                                                              boolean readFullRange) {
+        BatchedReadOp op = new BatchedReadOp(this, clientCtx, startEntry, maxCount, maxSize, readFullRange);
+        if (clientCtx.isClientClosed()) {
+            op.future().completeExceptionally(BKException.create(ClientClosedException));
+            return op.future();
+        }
+        if (clientCtx.getConf().waitForWriteSetMs >= 0) {
+            DistributionSchedule.WriteSet ws = distributionSchedule.getWriteSet(startEntry);
+            try {
+                if (!waitForWritable(ws, ws.size() - 1, clientCtx.getConf().waitForWriteSetMs)) {
+                    op.allowFailFastOnUnwritableChannel();
+                }
+            } finally {
+                ws.recycle();
+            }
+        }
+
+        if (isHandleWritable()) {
+            // Ledger handle in read/write mode: submit to OSE for ordered execution.
+            executeOrdered(op);
+        } else {
+            // Read-only ledger handle: bypass OSE and execute read directly in client thread.
+            op.run();
+        }
+
+        // bookies that don't support batched reads, or a batch that failed on all the replicas,
+        // fall back to reading the entries one by one
+        CompletableFuture<LedgerEntries> result = new CompletableFuture<>();
+        op.future().whenComplete((entries, cause) -> {
+            if (cause == null) {
+                result.complete(entries);
+                return;
+            }
+            if (BKException.getExceptionCode(cause) == BKException.Code.ProtocolVersionException) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Batched reads not supported on ledgerId:{} startEntry:{}, falling back to single reads",
+                            ledgerId, startEntry);
+                }
+            } else {
+                LOG.warn("Batch read failed on ledgerId:{} startEntry:{} maxCount:{}, falling back to single reads",
+                        ledgerId, startEntry, maxCount, cause);
+            }
+            readEntriesInternalAsync(startEntry, startEntry + maxCount - 1, false)
+                .whenComplete((fallbackEntries, fallbackCause) -> {
+                    if (fallbackCause != null) {
+                        result.completeExceptionally(fallbackCause);
+                    } else {
+                        result.complete(fallbackEntries);
+                    }
+                });
+        });
+        return result;
+    }
+
     CompletableFuture<LedgerEntries> readEntriesInternalAsync(long firstEntry,
                                                               long lastEntry,
                                                               boolean isRecoveryRead) {
+        ClientEntryCache entryCache = clientCtx.getEntryCache();
+        if (entryCache == null || isRecoveryRead || lastEntry < firstEntry || clientCtx.isClientClosed()) {
+            return readEntriesFromBookiesAsync(firstEntry, lastEntry, isRecoveryRead);
+        }
+
+        return readThroughEntryCache(entryCache, firstEntry, lastEntry, Long.MAX_VALUE,
+                (firstMissingEntry, sizeLeft) -> readEntriesFromBookiesAsync(firstMissingEntry, lastEntry, false));
+    }
+
+    /**
+     * Read a range of entries, serving the entries at the start of the range that are in the entry cache, and
+     * reading the rest from the bookies. The entries read from the bookies are added to the cache.
+     *
+     * @param maxSize the maximum size in bytes of the entries returned, the entries read from the bookies are
+     *                bounded by the size left after the cached entries
+     * @param readFromBookies reads the entries from the first missing entry to the end of the range,
+     *                        within the size left
+     */
+    private CompletableFuture<LedgerEntries> readThroughEntryCache(
+            ClientEntryCache entryCache, long firstEntry, long lastEntry, long maxSize,
+            BiFunction<Long, Long, CompletableFuture<LedgerEntries>> readFromBookies) {
+        // the entries at the start of the range that are in the cache are not read again from the bookies
+        List<org.apache.bookkeeper.client.api.LedgerEntry> cachedEntries =
+                entryCache.getRange(ledgerId, firstEntry, lastEntry);
+        long cachedSize = 0;
+        int numCached = 0;
+        for (org.apache.bookkeeper.client.api.LedgerEntry entry : cachedEntries) {
+            // like a bookie, return at least one entry
+            if (numCached > 0 && cachedSize + entry.getEntryBuffer().readableBytes() > maxSize) {
+                break;
+            }
+            cachedSize += entry.getEntryBuffer().readableBytes();
+            numCached++;
+        }
+        if (numCached < cachedEntries.size()) {
+            List<org.apache.bookkeeper.client.api.LedgerEntry> overLimit =
+                    cachedEntries.subList(numCached, cachedEntries.size());
+            overLimit.forEach(org.apache.bookkeeper.client.api.LedgerEntry::close);
+            overLimit.clear();
+            return CompletableFuture.completedFuture(LedgerEntriesImpl.create(cachedEntries));
+        }
+        long firstMissingEntry = firstEntry + numCached;
+        if (firstMissingEntry > lastEntry || cachedSize >= maxSize) {
+            return CompletableFuture.completedFuture(LedgerEntriesImpl.create(cachedEntries));
+        }
+
+        // populate the cache before the entries are handed to the caller, who will release them
+        CompletableFuture<LedgerEntries> result = new CompletableFuture<>();
+        readFromBookies.apply(firstMissingEntry, maxSize - cachedSize).whenComplete((entries, cause) -> {
+            if (cause != null) {
+                cachedEntries.forEach(org.apache.bookkeeper.client.api.LedgerEntry::close);
+                result.completeExceptionally(cause);
+                return;
+            }
+            try {
+                long lac = getLastAddConfirmed();
+                for (org.apache.bookkeeper.client.api.LedgerEntry entry : entries) {
+                    if (entry.getEntryId() <= lac) {
+                        entryCache.put(ledgerId, entry.getEntryId(), entry.getLength(), entry.getEntryBuffer());
+                    }
+                }
+            } catch (Throwable t) {
+                // the cache is only an optimization, the entries are still returned
+                LOG.warn("Failed to add the entries {}-{} of ledger {} to the entry cache",
+                        firstMissingEntry, lastEntry, ledgerId, t);
+            }
+            if (cachedEntries.isEmpty()) {
+                result.complete(entries);
+                return;
+            }
+            List<org.apache.bookkeeper.client.api.LedgerEntry> allEntries =
+                    new ArrayList<>((int) (lastEntry - firstEntry + 1));
+            allEntries.addAll(cachedEntries);
+            for (org.apache.bookkeeper.client.api.LedgerEntry entry : entries) {
+                allEntries.add(LedgerEntryImpl.duplicate(entry));
+            }
+            entries.close();
+            result.complete(LedgerEntriesImpl.create(allEntries));
+        });
+        return result;
+    }
+
+    private CompletableFuture<LedgerEntries> readEntriesFromBookiesAsync(long firstEntry,
+                                                                         long lastEntry,
+                                                                         boolean isRecoveryRead) {
         PendingReadOp op = new PendingReadOp(this, clientCtx,
                                              firstEntry, lastEntry, isRecoveryRead);
         if (!clientCtx.isClientClosed()) {
@@ -1770,18 +1981,6 @@ public class LedgerHandle implements WriteHandle {
         asyncCloseInternal(NoopCloseCallback.instance, null, rc);
     }
 
-    private void monitorPendingAddOps() {
-        int timedOut = 0;
-        for (PendingAddOp op : pendingAddOps) {
-            if (op.maybeTimeout()) {
-                timedOut++;
-            }
-        }
-        if (timedOut > 0) {
-            LOG.info("Timed out {} add ops", timedOut);
-        }
-    }
-
     void errorOutPendingAdds(int rc) {
         errorOutPendingAdds(rc, drainPendingAddsAndAdjustLength());
     }
@@ -1803,6 +2002,8 @@ public class LedgerHandle implements WriteHandle {
     }
 
     void sendAddSuccessCallbacks() {
+        // Only called from the ordered executor thread of the ledger, which is the single consumer
+        // of the pending adds queue.
         // Start from the head of the queue and proceed while there are
         // entries that have had all their responses come back
         PendingAddOp pendingAddOp;
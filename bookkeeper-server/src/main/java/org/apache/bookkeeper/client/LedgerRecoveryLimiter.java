@@ -0,0 +1,89 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
+
+/**
+ * Limits the number of ledgers recovered concurrently by a client.
+ *
+ * <p>A recovery acquires a permit before fencing the ledger and releases it once the ledger is closed.
+ * When all the permits are taken, the recoveries wait, in order, for a running recovery to release its
+ * permit, instead of all fencing and reading their ledgers at once.
+ */
+class LedgerRecoveryLimiter {
+
+    private final int maxConcurrentRecoveries;
+
+    // guarded by this
+    private final Queue<CompletableFuture<Void>> waitingRecoveries = new ArrayDeque<>();
+    private int runningRecoveries = 0;
+
+    /**
+     * @param maxConcurrentRecoveries the max number of concurrent recoveries, unlimited if it is not positive
+     */
+    LedgerRecoveryLimiter(int maxConcurrentRecoveries) {
+        this.maxConcurrentRecoveries = maxConcurrentRecoveries;
+    }
+
+    /**
+     * Acquire a permit to recover a ledger.
+     *
+     * @return a future completed when the permit is acquired
+     */
+    CompletableFuture<Void> acquire() {
+        if (maxConcurrentRecoveries <= 0) {
+            return FutureUtils.Void();
+        }
+        synchronized (this) {
+            if (runningRecoveries < maxConcurrentRecoveries) {
+                runningRecoveries++;
+                return FutureUtils.Void();
+            }
+            CompletableFuture<Void> permit = new CompletableFuture<>();
+            waitingRecoveries.add(permit);
+            return permit;
+        }
+    }
+
+    /**
+     * Release a permit acquired with {@link #acquire()}. The permit is handed over to the oldest waiting
+     * recovery, if any, which is started by the calling thread.
+     */
+    void release() {
+        if (maxConcurrentRecoveries <= 0) {
+            return;
+        }
+        CompletableFuture<Void> permit;
+        synchronized (this) {
+            permit = waitingRecoveries.poll();
+            if (permit == null) {
+                runningRecoveries--;
+            }
+        }
+        if (permit != null) {
+            permit.complete(null);
+        }
+    }
+}
@@ -18,12 +18,18 @@
 package org.apache.bookkeeper.client;
 
 import com.google.common.annotations.VisibleForTesting;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import org.apache.bookkeeper.client.AsyncCallback.AddCallback;
 import org.apache.bookkeeper.client.api.LedgerMetadata;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadEntryListener;
 import org.apache.bookkeeper.proto.checksum.DigestManager.RecoveryData;
+import org.apache.bookkeeper.util.MathUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,6 +38,10 @@ import org.slf4j.LoggerFactory;
  * with entry-id of -1 (BookieProtocol.LAST_ADD_CONFIRMED) to all bookies. Then
  * starting from the last confirmed entry (from hints in the ledger entries),
  * it reads forward until it is not able to find a particular entry.
+ *
+ * <p>The entries are read in batches of {@link ClientInternalConf#recoveryReadBatchSize} entries, with up to
+ * {@link ClientInternalConf#recoveryReadWindowSize} batches read in parallel. The entries are written back
+ * in order: the entries read before the previous entries are kept until the previous entries are read.
  */
 class LedgerRecoveryOp implements ReadEntryListener, AddCallback {
 
@@ -43,8 +53,17 @@ class LedgerRecoveryOp implements ReadEntryListener, AddCallback {
 
     final AtomicLong readCount, writeCount;
     volatile boolean readDone;
-    volatile long startEntryToRead;
-    volatile long endEntryToRead;
+
+    // guarded by lh
+    private long nextEntryToRead;
+    private long nextEntryToAdd;
+    private long endOfLedger = Long.MAX_VALUE;
+    private int numPendingReads = 0;
+    private boolean addingEntries = false;
+    private final NavigableMap<Long, RecoveredEntry> readEntries = new TreeMap<>();
+
+    private final long startTimeNanos;
+    private volatile long readStartTimeNanos = -1L;
 
     // keep a copy of metadata for recovery.
     LedgerMetadata metadataForRecovery;
@@ -69,6 +88,30 @@ class LedgerRecoveryOp implements ReadEntryListener, AddCallback {
 
     }
 
+    /**
+     * A batch of entries read by a {@link RecoveryReadOp}. The entries of a batch are completed in order,
+     * so the id of the entries which are not found is known.
+     */
+    private static class RecoveryReadBatch {
+        final long lastEntryId;
+        long nextEntryId;
+
+        RecoveryReadBatch(long firstEntryId, long lastEntryId) {
+            this.nextEntryId = firstEntryId;
+            this.lastEntryId = lastEntryId;
+        }
+    }
+
+    private static class RecoveredEntry {
+        final byte[] data;
+        final long length;
+
+        RecoveredEntry(byte[] data, long length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
     public LedgerRecoveryOp(LedgerHandle lh, ClientContext clientCtx) {
         readCount = new AtomicLong(0);
         writeCount = new AtomicLong(0);
@@ -76,6 +119,7 @@ class LedgerRecoveryOp implements ReadEntryListener, AddCallback {
         this.promise = new CompletableFuture<>();
         this.lh = lh;
         this.clientCtx = clientCtx;
+        this.startTimeNanos = MathUtils.nowInNano();
     }
 
     /**
@@ -101,7 +145,10 @@ class LedgerRecoveryOp implements ReadEntryListener, AddCallback {
                 new ReadLastConfirmedOp.LastConfirmedDataCallback() {
                     @Override
                     public void readLastConfirmedDataComplete(int rc, RecoveryData data) {
+                        long fenceLatencyNanos = MathUtils.elapsedNanos(startTimeNanos);
                         if (rc == BKException.Code.OK) {
+                            clientCtx.getClientStats().getRecoverFenceOpLogger()
+                                .registerSuccessfulEvent(fenceLatencyNanos, TimeUnit.NANOSECONDS);
                             synchronized (lh) {
                                 /**
                                  The lowest an LAC can be for use in recovery is the first entry id
@@ -123,18 +170,23 @@ class LedgerRecoveryOp implements ReadEntryListener, AddCallback {
 
                                 lh.length = data.getLength();
                                 lh.pendingAddsSequenceHead = lh.lastAddConfirmed;
-                                startEntryToRead = endEntryToRead = lh.lastAddConfirmed;
+                                nextEntryToRead = nextEntryToAdd = lh.lastAddConfirmed + 1;
                             }
                             // keep a copy of ledger metadata before proceeding
                             // ledger recovery
                             metadataForRecovery = lh.getLedgerMetadata();
+                            readStartTimeNanos = MathUtils.nowInNano();
                             doRecoveryRead();
-                        } else if (rc == BKException.Code.TimeoutException) {
-                            submitCallback(rc);
-                        } else if (rc == BKException.Code.UnauthorizedAccessException) {
-                            submitCallback(rc);
                         } else {
-                            submitCallback(BKException.Code.ReadException);
+                            clientCtx.getClientStats().getRecoverFenceOpLogger()
+                                .registerFailedEvent(fenceLatencyNanos, TimeUnit.NANOSECONDS);
+                            if (rc == BKException.Code.TimeoutException) {
+                                submitCallback(rc);
+                            } else if (rc == BKException.Code.UnauthorizedAccessException) {
+                                submitCallback(rc);
+                            } else {
+                                submitCallback(BKException.Code.ReadException);
+                            }
                         }
                     }
                 });
@@ -150,29 +202,55 @@ class LedgerRecoveryOp implements ReadEntryListener, AddCallback {
     }
 
     private void submitCallback(int rc) {
+        long readLatencyNanos = readStartTimeNanos < 0 ? -1L : MathUtils.elapsedNanos(readStartTimeNanos);
         if (BKException.Code.OK == rc) {
+            if (!promise.complete(lh)) {
+                return;
+            }
             clientCtx.getClientStats().getRecoverAddCountLogger().registerSuccessfulValue(writeCount.get());
             clientCtx.getClientStats().getRecoverReadCountLogger().registerSuccessfulValue(readCount.get());
-            promise.complete(lh);
+            clientCtx.getClientStats().getRecoverReadOpLogger()
+                .registerSuccessfulEvent(readLatencyNanos, TimeUnit.NANOSECONDS);
         } else {
+            if (!promise.completeExceptionally(BKException.create(rc))) {
+                return;
+            }
             clientCtx.getClientStats().getRecoverAddCountLogger().registerFailedValue(writeCount.get());
             clientCtx.getClientStats().getRecoverReadCountLogger().registerFailedValue(readCount.get());
-            promise.completeExceptionally(BKException.create(rc));
+            if (readLatencyNanos >= 0) {
+                clientCtx.getClientStats().getRecoverReadOpLogger()
+                    .registerFailedEvent(readLatencyNanos, TimeUnit.NANOSECONDS);
+            }
         }
     }
 
     /**
-     * Try to read past the last confirmed.
+     * Try to read past the last confirmed, filling the read window.
      */
     private void doRecoveryRead() {
-        if (!promise.isDone()) {
-            startEntryToRead = endEntryToRead + 1;
-            endEntryToRead = endEntryToRead + clientCtx.getConf().recoveryReadBatchSize;
-            new RecoveryReadOp(lh, clientCtx, startEntryToRead, endEntryToRead, this, null)
-                .initiate();
+        List<RecoveryReadBatch> batches = new ArrayList<>();
+        synchronized (lh) {
+            while (!promise.isDone() && !readDone && numPendingReads < clientCtx.getConf().recoveryReadWindowSize) {
+                long lastEntryToRead = nextEntryToRead + clientCtx.getConf().recoveryReadBatchSize - 1;
+                batches.add(new RecoveryReadBatch(nextEntryToRead, lastEntryToRead));
+                nextEntryToRead = lastEntryToRead + 1;
+                numPendingReads++;
+            }
+        }
+        for (RecoveryReadBatch batch : batches) {
+            readBatch(batch.nextEntryId, batch.lastEntryId, batch);
         }
     }
 
+    /**
+     * Read a batch of entries of the read window. The entries are passed to
+     * {@link #onEntryComplete(int, LedgerHandle, LedgerEntry, Object)} in order, with the given context.
+     */
+    @VisibleForTesting
+    void readBatch(long firstEntryId, long lastEntryId, Object ctx) {
+        new RecoveryReadOp(lh, clientCtx, firstEntryId, lastEntryId, this, ctx).initiate();
+    }
+
     @Override
     public void onEntryComplete(int rc, LedgerHandle lh, LedgerEntry entry, Object ctx) {
         // notify entry listener on individual entries being read during ledger recovery.
@@ -181,56 +259,110 @@ class LedgerRecoveryOp implements ReadEntryListener, AddCallback {
             listener.onEntryComplete(rc, lh, entry, ctx);
         }
 
-        // we only trigger recovery add an entry when readDone == false && callbackDone == false
-        if (!promise.isDone() && !readDone && rc == BKException.Code.OK) {
-            readCount.incrementAndGet();
-            byte[] data = entry.getEntry();
+        RecoveryReadBatch batch = (RecoveryReadBatch) ctx;
+        long entryId = batch.nextEntryId++;
+        boolean batchDone = entryId == batch.lastEntryId;
+        synchronized (lh) {
+            if (batchDone) {
+                numPendingReads--;
+            }
+            if (promise.isDone()) {
+                return;
+            }
+            if (entryId >= endOfLedger) {
+                if (rc == BKException.Code.OK) {
+                    // we are here is because we successfully read an entry but readDone was already set to true.
+                    // this would happen on recovery a ledger than has gaps in the tail.
+                    LOG.warn("Successfully read entry {} for ledger {}, but readDone is already {}",
+                            entryId, lh.getId(), readDone);
+                }
+                // the entries after the end of the ledger are not recovered, whatever the result of their read
+                return;
+            }
+            if (rc == BKException.Code.OK) {
+                readEntries.put(entryId, new RecoveredEntry(entry.getEntry(), entry.getLength()));
+            } else if (rc == BKException.Code.NoSuchEntryException
+                    || rc == BKException.Code.NoSuchLedgerExistsException) {
+                // no entry found. stop recovery procedure but wait until recovery add finished.
+                endOfLedger = entryId;
+                readDone = true;
+                // the entries read after the missing entry are not recovered
+                readEntries.tailMap(entryId, false).clear();
+            }
+        }
 
-            /*
-             * We will add this entry again to make sure it is written to enough
-             * replicas. We subtract the length of the data itself, since it will
-             * be added again when processing the call to add it.
-             */
+        // otherwise, some other error, we can't handle
+        if (BKException.Code.OK != rc && BKException.Code.NoSuchEntryException != rc
+                && BKException.Code.NoSuchLedgerExistsException != rc) {
+            LOG.error("Failure {} while reading entry: {}, ledger: {} while recovering ledger",
+                      BKException.getMessage(rc), entryId, lh.getId());
+            submitCallback(rc);
+            return;
+        }
+
+        addReadEntries();
+        if (batchDone) {
+            // trigger next batch read
+            doRecoveryRead();
+        }
+    }
+
+    /**
+     * Add again the entries read in order. Only one thread adds the entries at a time, so they are added in
+     * order, but the lock of the ledger handle is not held while adding them.
+     */
+    private void addReadEntries() {
+        synchronized (lh) {
+            if (addingEntries) {
+                return;
+            }
+            addingEntries = true;
+        }
+        while (true) {
+            RecoveredEntry entry;
             synchronized (lh) {
-                lh.length = entry.getLength() - (long) data.length;
+                if (promise.isDone() || readEntries.isEmpty() || readEntries.firstKey() != nextEntryToAdd) {
+                    addingEntries = false;
+                    break;
+                }
+                entry = readEntries.pollFirstEntry().getValue();
+                /*
+                 * We will add this entry again to make sure it is written to enough
+                 * replicas. We subtract the length of the data itself, since it will
+                 * be added again when processing the call to add it.
+                 */
+                lh.length = entry.length - (long) entry.data.length;
                 // check whether entry id is expected, so we won't overwritten any entries by mistake
-                if (entry.getEntryId() != lh.lastAddPushed + 1) {
+                if (nextEntryToAdd != lh.lastAddPushed + 1) {
                     LOG.error("Unexpected to recovery add entry {} as entry {} for ledger {}.",
-                            entry.getEntryId(), (lh.lastAddPushed + 1), lh.getId());
-                    rc = BKException.Code.UnexpectedConditionException;
+                            nextEntryToAdd, (lh.lastAddPushed + 1), lh.getId());
+                    addingEntries = false;
+                    entry = null;
+                } else {
+                    nextEntryToAdd++;
+                    readCount.incrementAndGet();
                 }
             }
-            if (BKException.Code.OK == rc) {
-                lh.asyncRecoveryAddEntry(data, 0, data.length, this, null);
-                if (entry.getEntryId() == endEntryToRead) {
-                    // trigger next batch read
-                    doRecoveryRead();
-                }
+            if (entry == null) {
+                submitCallback(BKException.Code.UnexpectedConditionException);
                 return;
             }
+            lh.asyncRecoveryAddEntry(entry.data, 0, entry.data.length, this, null);
         }
+        checkRecoveryDone();
+    }
 
-        // no entry found. stop recovery procedure but wait until recovery add finished.
-        if (rc == BKException.Code.NoSuchEntryException || rc == BKException.Code.NoSuchLedgerExistsException) {
-            readDone = true;
-            if (readCount.get() == writeCount.get()) {
-                submitCallback(BKException.Code.OK);
-            }
-            return;
+    /**
+     * Complete the recovery once the end of the ledger is found and all the entries before it are added again.
+     */
+    private void checkRecoveryDone() {
+        boolean done;
+        synchronized (lh) {
+            done = readDone && nextEntryToAdd == endOfLedger && readCount.get() == writeCount.get();
         }
-
-        // otherwise, some other error, we can't handle
-        if (BKException.Code.OK != rc && !promise.isDone()) {
-            LOG.error("Failure {} while reading entries: ({} - {}), ledger: {} while recovering ledger",
-                      BKException.getMessage(rc), startEntryToRead, endEntryToRead, lh.getId());
-            submitCallback(rc);
-        } else if (BKException.Code.OK == rc) {
-            // we are here is because we successfully read an entry but readDone was already set to true.
-            // this would happen on recovery a ledger than has gaps in the tail.
-            LOG.warn("Successfully read entry {} for ledger {}, but readDone is already {}",
-                    entry.getEntryId(), lh.getId(), readDone);
+        if (done) {
+            submitCallback(BKException.Code.OK);
         }
-        return;
     }
 
     @Override
@@ -241,10 +373,8 @@ class LedgerRecoveryOp implements ReadEntryListener, AddCallback {
             submitCallback(rc);
             return;
         }
-        long numAdd = writeCount.incrementAndGet();
-        if (readDone && readCount.get() == numAdd) {
-            submitCallback(rc);
-        }
+        writeCount.incrementAndGet();
+        checkRecoveryDone();
     }
 
 }
@@ -23,18 +23,21 @@ import static org.apache.bookkeeper.proto.BookieProtocol.FLAG_NONE;
 import static org.apache.bookkeeper.proto.BookieProtocol.FLAG_RECOVERY_ADD;
 
 import com.google.common.collect.ImmutableMap;
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.netty.buffer.ByteBuf;
 import io.netty.util.Recycler;
 import io.netty.util.Recycler.Handle;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.ReferenceCounted;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import org.apache.bookkeeper.client.AsyncCallback.AddCallbackWithLatency;
 import org.apache.bookkeeper.client.api.WriteFlag;
 import org.apache.bookkeeper.net.BookieId;
@@ -50,13 +53,39 @@ import org.slf4j.LoggerFactory;
  * and placed at the same position in the ensemble. The pending adds are then
  * rereplicated.
  *
+ * <p>The responses of the bookies, the ensemble changes and the timeouts are all handled on the
+ * ordered executor thread of the ledger, so the ack set and the completion state are only accessed
+ * from that thread and need no lock. This relies on the bookie client completing every write request
+ * on that thread, including the requests failed before reaching a channel, e.g. when the bookie can't
+ * be connected to, rather than on the netty or the caller thread. The only state shared with the thread
+ * running {@link #initiate()}
+ * is the lifecycle of the operation, which is kept in an atomic state word to decide when the
+ * payload can be released and the operation recycled.
  *
+ * <p>The operation is its own add quorum timeout task on the {@link RequestTimer} of the client, so
+ * scheduling the timeout allocates nothing but the timeout, which is cancelled when the callback is
+ * triggered. A scheduled timeout is counted in the state word like a write request waiting for a
+ * response, so the operation is not recycled before the timeout is cancelled or has run.
  */
-class PendingAddOp implements WriteCallback {
+class PendingAddOp implements WriteCallback, TimerTask {
     private static final Logger LOG = LoggerFactory.getLogger(PendingAddOp.class);
 
+    // #initiate() has sent the write requests, or found the callback already triggered
+    private static final int STATE_HAS_RUN = 1 << 30;
+    // the callback of the add has been triggered
+    private static final int STATE_CALLBACK_TRIGGERED = 1 << 29;
+    // toSend has been released, the low bits count the write requests waiting for a response
+    private static final int STATE_TO_SEND_RELEASED = 1 << 28;
+    private static final int STATE_DONE = STATE_HAS_RUN | STATE_CALLBACK_TRIGGERED;
+    private static final int STATE_RECYCLABLE = STATE_DONE | STATE_TO_SEND_RELEASED;
+
+    private static final AtomicIntegerFieldUpdater<PendingAddOp> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(PendingAddOp.class, "state");
+
     ByteBuf payload;
-    ReferenceCounted toSend;
+    // Copy of the payload to add to the client entry cache once the entry is acknowledged
+    ByteBuf cachedPayload;
+    volatile ReferenceCounted toSend;
     AddCallbackWithLatency cb;
     Object ctx;
     long entryId;
@@ -69,19 +98,18 @@ class PendingAddOp implements WriteCallback {
     ClientContext clientCtx;
     boolean isRecoveryAdd = false;
     volatile long requestTimeNanos;
+    // the add quorum timeout scheduled on the request timer
+    volatile Timeout quorumTimeout;
     long qwcLatency; // Quorum Write Completion Latency after response from quorum bookies.
     Set<BookieId> addEntrySuccessBookies;
     long writeDelayedStartTime; // min fault domains completion latency after response from ack quorum bookies
 
     long currentLedgerLength;
-    int pendingWriteRequests;
-    boolean callbackTriggered;
-    boolean hasRun;
+    volatile int state;
     EnumSet<WriteFlag> writeFlags;
     boolean allowFailFast = false;
-    List<BookieId> ensemble;
+    volatile List<BookieId> ensemble;
 
-    @SuppressFBWarnings("IS2_INCONSISTENT_SYNC")
     static PendingAddOp create(LedgerHandle lh, ClientContext clientCtx,
                                List<BookieId> ensemble,
                                ByteBuf payload, EnumSet<WriteFlag> writeFlags,
@@ -100,9 +128,7 @@ class PendingAddOp implements WriteCallback {
         op.completed = false;
         op.ensemble = ensemble;
         op.ackSet = lh.getDistributionSchedule().getAckSet();
-        op.pendingWriteRequests = 0;
-        op.callbackTriggered = false;
-        op.hasRun = false;
+        op.state = 0;
         op.requestTimeNanos = Long.MAX_VALUE;
         op.allowFailFast = false;
         op.qwcLatency = 0;
@@ -145,23 +171,65 @@ class PendingAddOp implements WriteCallback {
     }
 
     private void sendWriteRequest(List<BookieId> ensemble, int bookieIndex) {
+        // count the request before sending it, as the response can come back before addEntry returns
+        STATE_UPDATER.incrementAndGet(this);
         int flags = isRecoveryAdd ? FLAG_RECOVERY_ADD | FLAG_HIGH_PRIORITY : FLAG_NONE;
 
         clientCtx.getBookieClient().addEntry(ensemble.get(bookieIndex),
                                              lh.ledgerId, lh.ledgerKey, entryId, toSend, this, bookieIndex,
                                              flags, allowFailFast, lh.writeFlags);
-        ++pendingWriteRequests;
     }
 
-    boolean maybeTimeout() {
-        if (MathUtils.elapsedNanos(requestTimeNanos) >= clientCtx.getConf().addEntryQuorumTimeoutNanos) {
-            timeoutQuorumWait();
-            return true;
+    private void scheduleQuorumTimeout(RequestTimer requestTimer) {
+        STATE_UPDATER.incrementAndGet(this);
+        Timeout timeout = requestTimer.newTimeout(this, clientCtx.getConf().addEntryQuorumTimeoutNanos,
+                TimeUnit.NANOSECONDS);
+        if (timeout == null) {
+            releaseQuorumTimeout();
+            return;
+        }
+        quorumTimeout = timeout;
+        if (isCallbackTriggered()) {
+            // the callback was triggered before the timeout was set
+            cancelQuorumTimeout();
+        }
+    }
+
+    private void cancelQuorumTimeout() {
+        Timeout timeout = quorumTimeout;
+        // only one thread cancels the timeout, the other threads and the timer see it cancelled
+        if (timeout != null && timeout.cancel()) {
+            releaseQuorumTimeout();
+        }
+    }
+
+    private void releaseQuorumTimeout() {
+        int newState = STATE_UPDATER.decrementAndGet(this);
+        onStateChanged(newState + 1, newState);
+    }
+
+    @Override
+    public void run(Timeout timeout) {
+        // the timeout is handled on the ordered executor thread, which handles the responses of the add
+        try {
+            lh.executeOrdered(this::quorumTimeoutExpired);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Failed to time out the add of entry {} of ledger {}", entryId, lh.getId(), e);
+            releaseQuorumTimeout();
+        }
+    }
+
+    private void quorumTimeoutExpired() {
+        try {
+            if (!isCallbackTriggered()) {
+                timeoutQuorumWait();
+            }
+        } finally {
+            releaseQuorumTimeout();
         }
-        return false;
     }
 
-    synchronized void timeoutQuorumWait() {
+    void timeoutQuorumWait() {
         if (completed) {
             return;
         }
@@ -176,7 +244,7 @@ class PendingAddOp implements WriteCallback {
         lh.handleUnrecoverableErrorDuringAdd(BKException.Code.AddEntryQuorumTimeoutException);
     }
 
-    synchronized void unsetSuccessAndSendWriteRequest(List<BookieId> ensemble, int bookieIndex) {
+    void unsetSuccessAndSendWriteRequest(List<BookieId> ensemble, int bookieIndex) {
         // update the ensemble
         this.ensemble = ensemble;
 
@@ -205,7 +273,7 @@ class PendingAddOp implements WriteCallback {
             return;
         }
 
-        if (callbackTriggered) {
+        if (isCallbackTriggered()) {
             return;
         }
 
@@ -228,13 +296,12 @@ class PendingAddOp implements WriteCallback {
     /**
      * Initiate the add operation.
      */
-    public synchronized void initiate() {
-        hasRun = true;
-        if (callbackTriggered) {
+    public void initiate() {
+        if (isCallbackTriggered()) {
             // this should only be true if the request was failed due
             // to another request ahead in the pending queue,
             // so we can just ignore this request
-            maybeRecycle();
+            setStateFlag(STATE_HAS_RUN);
             return;
         }
 
@@ -242,6 +309,16 @@ class PendingAddOp implements WriteCallback {
         checkNotNull(lh);
         checkNotNull(lh.macManager);
 
+        RequestTimer requestTimer = clientCtx.getRequestTimer();
+        if (clientCtx.getConf().addEntryQuorumTimeoutNanos > 0 && requestTimer != null) {
+            scheduleQuorumTimeout(requestTimer);
+        }
+
+        if (clientCtx.getEntryCache() != null && !isRecoveryAdd
+                && !lh.writeFlags.contains(WriteFlag.DEFERRED_SYNC)) {
+            cachedPayload = payload.retainedDuplicate();
+        }
+
         int flags = isRecoveryAdd ? FLAG_RECOVERY_ADD | FLAG_HIGH_PRIORITY : FLAG_NONE;
         this.toSend = lh.macManager.computeDigestAndPackageForSending(
                 entryId, lh.lastAddConfirmed, currentLedgerLength,
@@ -253,17 +330,27 @@ class PendingAddOp implements WriteCallback {
         // because of delayed write errors
         lh.maybeHandleDelayedWriteBookieFailure();
 
-        // Iterate over set and trigger the sendWriteRequests
+        // Iterate over set and trigger the sendWriteRequests. An ensemble change racing with this loop
+        // resends to the replaced bookies once it sees toSend, so the ensemble is read after setting it.
+        List<BookieId> ensemble = this.ensemble;
         for (int i = 0; i < lh.distributionSchedule.getWriteQuorumSize(); i++) {
             sendWriteRequest(ensemble, lh.distributionSchedule.getWriteSetBookieIndex(entryId, i));
         }
+        setStateFlag(STATE_HAS_RUN);
     }
 
     @Override
-    public synchronized void writeComplete(int rc, long ledgerId, long entryId, BookieId addr, Object ctx) {
-        int bookieIndex = (Integer) ctx;
-        --pendingWriteRequests;
+    public void writeComplete(int rc, long ledgerId, long entryId, BookieId addr, Object ctx) {
+        try {
+            handleWriteComplete(rc, ledgerId, entryId, addr, (Integer) ctx);
+        } finally {
+            // the op may be recycled once its last pending write request completed
+            int newState = STATE_UPDATER.decrementAndGet(this);
+            onStateChanged(newState + 1, newState);
+        }
+    }
 
+    private void handleWriteComplete(int rc, long ledgerId, long entryId, BookieId addr, int bookieIndex) {
         if (!ensemble.get(bookieIndex).equals(addr)) {
             // ensemble has already changed, failure of this addr is immaterial
             if (LOG.isDebugEnabled()) {
@@ -307,7 +394,6 @@ class PendingAddOp implements WriteCallback {
             sendAddSuccessCallbacks();
             // I am already finished, ignore incoming responses.
             // otherwise, we might hit the following error handling logic, which might cause bad things.
-            maybeRecycle();
             return;
         }
 
@@ -390,11 +476,12 @@ class PendingAddOp implements WriteCallback {
         lh.sendAddSuccessCallbacks();
     }
 
-    synchronized void submitCallback(final int rc) {
+    void submitCallback(final int rc) {
         if (LOG.isDebugEnabled()) {
             LOG.debug("Submit callback (lid:{}, eid: {}). rc:{}", lh.getId(), entryId, rc);
         }
 
+        cancelQuorumTimeout();
         long latencyNanos = MathUtils.elapsedNanos(requestTimeNanos);
         if (rc != BKException.Code.OK) {
             clientCtx.getClientStats().getAddOpLogger().registerFailedEvent(latencyNanos, TimeUnit.NANOSECONDS);
@@ -402,11 +489,28 @@ class PendingAddOp implements WriteCallback {
                       lh.getId(), entryId);
         } else {
             clientCtx.getClientStats().getAddOpLogger().registerSuccessfulEvent(latencyNanos, TimeUnit.NANOSECONDS);
+            if (cachedPayload != null) {
+                clientCtx.getEntryCache().put(lh.ledgerId, entryId, currentLedgerLength, cachedPayload);
+            }
+        }
+        if (cachedPayload != null) {
+            cachedPayload.release();
+            cachedPayload = null;
         }
         cb.addCompleteWithLatency(rc, lh, entryId, qwcLatency, ctx);
-        callbackTriggered = true;
+        setStateFlag(STATE_CALLBACK_TRIGGERED);
+    }
 
-        maybeRecycle();
+    private boolean isCallbackTriggered() {
+        return (state & STATE_CALLBACK_TRIGGERED) != 0;
+    }
+
+    private void setStateFlag(int flag) {
+        int oldState;
+        do {
+            oldState = state;
+        } while (!STATE_UPDATER.compareAndSet(this, oldState, oldState | flag));
+        onStateChanged(oldState, oldState | flag);
     }
 
     @Override
@@ -444,7 +548,7 @@ class PendingAddOp implements WriteCallback {
     }
 
 
-    private synchronized void maybeRecycle() {
+    private void onStateChanged(int oldState, int newState) {
         /**
          * We have opportunity to recycle two objects here.
          * PendingAddOp#toSend and LedgerHandle#pendingAddOp
@@ -460,27 +564,29 @@ class PendingAddOp implements WriteCallback {
          *    - After safeRun finished by the executor
          * BookieClient takes and releases on this buffer immediately after sending the data.
          *
-         * The object can only be recycled after the above conditions are met
-         * otherwise we could end up recycling twice and all
-         * joy that goes along with that.
+         * Each condition is a transition of the state word, so a single thread sees the transition
+         * meeting them, otherwise we could end up recycling twice and all joy that goes along with that.
+         * The op is recycled only after toSend is released, as releasing it reads the field.
          */
-        if (hasRun && callbackTriggered) {
+        if ((oldState & STATE_DONE) != STATE_DONE && (newState & STATE_DONE) == STATE_DONE) {
             ReferenceCountUtil.release(toSend);
-            toSend = null;
-        }
-        // only recycle a pending add op after it has been run.
-        if (hasRun && toSend == null && pendingWriteRequests == 0) {
+            setStateFlag(STATE_TO_SEND_RELEASED);
+        } else if (newState == STATE_RECYCLABLE && oldState != newState) {
             recyclePendAddOpObject();
         }
     }
 
-    public synchronized void recyclePendAddOpObject() {
+    public void recyclePendAddOpObject() {
         entryId = LedgerHandle.INVALID_ENTRY_ID;
         currentLedgerLength = -1;
         if (payload != null) {
             ReferenceCountUtil.release(payload);
             payload = null;
         }
+        if (cachedPayload != null) {
+            ReferenceCountUtil.release(cachedPayload);
+            cachedPayload = null;
+        }
         cb = null;
         ctx = null;
         ensemble = null;
@@ -488,11 +594,11 @@ class PendingAddOp implements WriteCallback {
         ackSet = null;
         lh = null;
         clientCtx = null;
+        quorumTimeout = null;
         isRecoveryAdd = false;
         completed = false;
-        pendingWriteRequests = 0;
-        callbackTriggered = false;
-        hasRun = false;
+        toSend = null;
+        state = 0;
         allowFailFast = false;
         writeFlags = null;
         addEntrySuccessBookies.clear();
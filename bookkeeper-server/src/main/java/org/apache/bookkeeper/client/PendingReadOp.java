@@ -389,6 +389,14 @@ class PendingReadOp implements ReadEntryCallback, Runnable {
             sendNextRead();
         }
 
+        @Override
+        public synchronized BookieId getLastRequestTarget() {
+            if (nextReplicaIndexToReadFrom == 0) {
+                return null;
+            }
+            return ensemble.get(writeSet.get(nextReplicaIndexToReadFrom - 1));
+        }
+
         synchronized BookieId sendNextRead() {
             if (nextReplicaIndexToReadFrom >= getLedgerMetadata().getWriteQuorumSize()) {
                 // we are done, the read has failed from all replicas, just fail the
@@ -547,12 +555,14 @@ class PendingReadOp implements ReadEntryCallback, Runnable {
         final int bookieIndex;
         final BookieId to;
         final LedgerEntryRequest entry;
+        final long sendTimeNanos;
         long lac = LedgerHandle.INVALID_ENTRY_ID;
 
         ReadContext(int bookieIndex, BookieId to, LedgerEntryRequest entry) {
             this.bookieIndex = bookieIndex;
             this.to = to;
             this.entry = entry;
+            this.sendTimeNanos = MathUtils.nowInNano();
         }
 
         @Override
@@ -597,6 +607,10 @@ class PendingReadOp implements ReadEntryCallback, Runnable {
 
         heardFromHosts.add(rctx.to);
         heardFromHostsBitSet.set(rctx.bookieIndex, true);
+        if (clientCtx.getConf().readSpeculativeRequestPolicy.isPresent()) {
+            clientCtx.getConf().readSpeculativeRequestPolicy.get()
+                .onRequestComplete(rctx.to, MathUtils.elapsedNanos(rctx.sendTimeNanos));
+        }
 
         buffer.retain();
         // if entry has completed don't handle twice
@@ -113,6 +113,7 @@ public class RackawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
     protected boolean enforceDurability = false;
     protected int stabilizePeriodSeconds = 0;
     protected int reorderThresholdPendingRequests = 0;
+    protected boolean reorderReadsLatencyAware = false;
     // looks like these only assigned in the same thread as constructor, immediately after constructor;
     // no need to make volatile
     protected StatsLogger statsLogger = null;
@@ -292,6 +293,7 @@ public class RackawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
                     return -1L;
                 }
             });
+        reorderReadsLatencyAware = conf.isReorderReadLatencyAware();
         return initialize(
                 dnsResolver,
                 timer,
@@ -801,9 +803,10 @@ public class RackawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
 
     @Override
     public void registerSlowBookie(BookieId bookieSocketAddress, long entryId) {
-        if (reorderThresholdPendingRequests <= 0) {
+        if (reorderThresholdPendingRequests <= 0 && !reorderReadsLatencyAware) {
             // only put bookies on slowBookies list if reorderThresholdPendingRequests is *not* set (0);
             // otherwise, rely on reordering of reads based on reorderThresholdPendingRequests
+            // or on the read latency
             slowBookies.put(bookieSocketAddress, entryId);
         }
     }
@@ -821,6 +824,16 @@ public class RackawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
             ensemble, writeSet, writeSetWithRegion, bookiesHealthInfo, false, "", writeSet.size());
     }
 
+    /**
+     * Score of a bookie for the latency aware read ordering, the lower the better. As in C3,
+     * the number of pending requests is penalized cubically, so that the reads move away from
+     * a bookie before its queue builds up.
+     */
+    static double readLatencyScore(long latencyNanos, long pendingRequests) {
+        double queueSize = 1 + pendingRequests;
+        return Math.max(latencyNanos, 1) * queueSize * queueSize * queueSize;
+    }
+
     /**
      * This function orders the read sequence with a given region. For region-unaware policies (e.g.
      * RackAware), we pass in false for regionAware and an empty myRegion. When this happens, any
@@ -880,7 +893,42 @@ public class RackawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
         }
 
         boolean reordered = false;
-        if (reorderThresholdPendingRequests > 0) {
+        if (reorderReadsLatencyAware) {
+            // move the bookie with the best latency score to the first place. Bookies without a
+            // recent latency estimate (-1, also returned by the bookie clients that don't track it)
+            // are assumed to be as fast as the average of the write set. Without any estimate, the
+            // bookies are only ordered by pending requests.
+            long[] latencies = new long[writeSet.size()];
+            long latencySum = 0;
+            int latencyCount = 0;
+            for (int i = 0; i < writeSet.size(); i++) {
+                latencies[i] = bookiesHealthInfo.getBookieReadLatencyNanos(ensemble.get(writeSet.get(i)));
+                if (latencies[i] >= 0) {
+                    latencySum += latencies[i];
+                    latencyCount++;
+                }
+            }
+            long defaultLatency = latencyCount > 0 ? latencySum / latencyCount : 1L;
+
+            int bestBookieIdx = -1;
+            double bestScore = Double.MAX_VALUE;
+            for (int i = 0; i < writeSet.size(); i++) {
+                double score = readLatencyScore(latencies[i] >= 0 ? latencies[i] : defaultLatency,
+                        bookiesHealthInfo.getBookiePendingRequests(ensemble.get(writeSet.get(i))));
+                if (score < bestScore) {
+                    bestScore = score;
+                    bestBookieIdx = i;
+                }
+            }
+            if (bestBookieIdx > 0) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("read set reordered from {} to {} (score {})",
+                            ensemble.get(writeSet.get(0)), ensemble.get(writeSet.get(bestBookieIdx)), bestScore);
+                }
+                writeSet.moveAndShift(bestBookieIdx, 0);
+                reordered = true;
+            }
+        } else if (reorderThresholdPendingRequests > 0) {
             // if there are no slow or unavailable bookies, capture each bookie's number of
             // pending request to reorder requests based on a threshold of pending requests
 
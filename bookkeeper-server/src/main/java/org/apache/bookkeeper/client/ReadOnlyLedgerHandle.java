@@ -31,17 +31,20 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.client.AsyncCallback.AddCallback;
 import org.apache.bookkeeper.client.AsyncCallback.CloseCallback;
 import org.apache.bookkeeper.client.AsyncCallback.ReadCallback;
 import org.apache.bookkeeper.client.AsyncCallback.ReadLastConfirmedCallback;
 import org.apache.bookkeeper.client.api.LedgerMetadata;
 import org.apache.bookkeeper.client.api.WriteFlag;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
 import org.apache.bookkeeper.net.BookieId;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GenericCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.LedgerMetadataListener;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadEntryListener;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.TimedGenericCallback;
+import org.apache.bookkeeper.util.MathUtils;
 import org.apache.bookkeeper.versioning.Version;
 import org.apache.bookkeeper.versioning.Versioned;
 import org.slf4j.Logger;
@@ -269,13 +272,26 @@ class ReadOnlyLedgerHandle extends LedgerHandle implements LedgerMetadataListene
             // to IN_RECOVERY, even if the ledger is already closed
             needsUpdate = (metadata) -> metadata.getState() != LedgerMetadata.State.IN_RECOVERY;
         }
-        new MetadataUpdateLoop(
-                clientCtx.getLedgerManager(), getId(),
-                this::getVersionedLedgerMetadata,
-                needsUpdate,
-                (metadata) -> LedgerMetadataBuilder.from(metadata).withInRecoveryState().build(),
-                this::setLedgerMetadata)
-            .run()
+        final MetadataUpdateLoop.NeedsUpdatePredicate needsRecovery = needsUpdate;
+        // wait for the recoveries running concurrently to complete before fencing the ledger. A ledger which
+        // is already closed has nothing to recover, so it doesn't wait. The state of a ledger never goes back
+        // from closed, so it can be checked on the current metadata.
+        final LedgerRecoveryLimiter recoveryLimiter = clientCtx.getRecoveryLimiter();
+        final boolean alreadyClosed = !forceRecovery && getLedgerMetadata().isClosed();
+        final long waitStartNanos = MathUtils.nowInNano();
+        CompletableFuture<Void> permit = alreadyClosed ? FutureUtils.Void() : recoveryLimiter.acquire();
+        permit
+            .thenCompose((ignore) -> {
+                    clientCtx.getClientStats().getRecoverWaitOpLogger()
+                        .registerSuccessfulEvent(MathUtils.elapsedNanos(waitStartNanos), TimeUnit.NANOSECONDS);
+                    return new MetadataUpdateLoop(
+                            clientCtx.getLedgerManager(), getId(),
+                            this::getVersionedLedgerMetadata,
+                            needsRecovery,
+                            (metadata) -> LedgerMetadataBuilder.from(metadata).withInRecoveryState().build(),
+                            this::setLedgerMetadata)
+                        .run();
+            })
             .thenCompose((metadata) -> {
                     if (metadata.getValue().isClosed()) {
                         return CompletableFuture.completedFuture(ReadOnlyLedgerHandle.this);
@@ -285,8 +301,23 @@ class ReadOnlyLedgerHandle extends LedgerHandle implements LedgerMetadataListene
                             .initiate();
                     }
             })
-            .thenCompose((ignore) -> closeRecovered())
+            .thenCompose((ignore) -> {
+                    final long closeStartNanos = MathUtils.nowInNano();
+                    return closeRecovered().whenComplete((metadata, ex) -> {
+                            long latencyNanos = MathUtils.elapsedNanos(closeStartNanos);
+                            if (ex != null) {
+                                clientCtx.getClientStats().getRecoverCloseOpLogger()
+                                    .registerFailedEvent(latencyNanos, TimeUnit.NANOSECONDS);
+                            } else {
+                                clientCtx.getClientStats().getRecoverCloseOpLogger()
+                                    .registerSuccessfulEvent(latencyNanos, TimeUnit.NANOSECONDS);
+                            }
+                    });
+            })
             .whenComplete((ignore, ex) -> {
+                    if (!alreadyClosed) {
+                        recoveryLimiter.release();
+                    }
                     if (ex != null) {
                         cb.operationComplete(
                                 BKException.getExceptionCode(ex, BKException.Code.UnexpectedConditionException), null);
@@ -0,0 +1,182 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Timer shared by the operations of a client to schedule their timeouts.
+ *
+ * <p>The timeouts are scheduled on the hashed wheel timer of the client, so scheduling and cancelling a timeout
+ * is O(1), and only the timeouts of the elapsed ticks are visited. The tasks are given to the timer as they are,
+ * so an operation implementing {@link TimerTask} schedules its timeout without allocating anything but the
+ * timeout itself. The operations cancel their timeout when they complete. The tasks run on the timer thread, so
+ * they should only hand off the timeout to the thread of the operation.
+ *
+ * <p>A probe task measures how late the timer runs its tasks after their deadline, reported by the
+ * {@link BookKeeperClientStats#REQUEST_TIMER_LAG} gauge, to detect a timer thread falling behind.
+ */
+public class RequestTimer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequestTimer.class);
+
+    @VisibleForTesting
+    static final long LAG_PROBE_INTERVAL_MS = 1000;
+
+    private final Timer timer;
+    private final LagProbe lagProbe = new LagProbe();
+    private volatile boolean closed = false;
+
+    public RequestTimer(Timer timer, BookKeeperClientStats clientStats) {
+        this.timer = timer;
+        clientStats.registerRequestTimerLagGauge(new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return getLagMillis();
+            }
+        });
+        lagProbe.schedule();
+    }
+
+    /**
+     * Schedule a task to run once after the delay.
+     *
+     * @return the handle of the timeout, to cancel it, or null if the timer is stopped
+     */
+    public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+        try {
+            return timer.newTimeout(task, delay, unit);
+        } catch (IllegalStateException | RejectedExecutionException e) {
+            // the timer is stopped when the client is closed
+            LOG.debug("Failed to schedule a timeout, the timer is stopped", e);
+            return null;
+        }
+    }
+
+    /**
+     * Schedule a task to run at a fixed interval, until it is cancelled.
+     *
+     * @return the handle of the task, to cancel it
+     */
+    public Periodic schedulePeriodic(Runnable task, long interval, TimeUnit unit) {
+        Periodic periodic = new Periodic(task, unit.toNanos(interval));
+        periodic.schedule();
+        return periodic;
+    }
+
+    /**
+     * @return how late the timer ran the last probe task after its deadline, in milliseconds
+     */
+    public long getLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lagProbe.lagNanos);
+    }
+
+    /**
+     * Stop the probe of the timer lag. The timeouts already scheduled are left to their owners.
+     */
+    public void close() {
+        closed = true;
+        lagProbe.cancel();
+    }
+
+    /**
+     * A task rescheduled on the timer after each run.
+     */
+    public final class Periodic implements TimerTask {
+        private final Runnable task;
+        private final long intervalNanos;
+        private volatile Timeout timeout;
+        private volatile boolean cancelled = false;
+
+        private Periodic(Runnable task, long intervalNanos) {
+            this.task = task;
+            this.intervalNanos = intervalNanos;
+        }
+
+        private void schedule() {
+            timeout = newTimeout(this, intervalNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void run(Timeout t) {
+            if (cancelled) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Throwable e) {
+                LOG.error("Unexpected exception in a periodic timer task", e);
+            }
+            if (!cancelled) {
+                schedule();
+            }
+        }
+
+        public void cancel() {
+            cancelled = true;
+            Timeout t = timeout;
+            if (t != null) {
+                t.cancel();
+            }
+        }
+    }
+
+    private final class LagProbe implements TimerTask {
+        private final long intervalNanos = TimeUnit.MILLISECONDS.toNanos(LAG_PROBE_INTERVAL_MS);
+        private volatile long lagNanos = 0;
+        private volatile Timeout timeout;
+        private long deadlineNanos;
+
+        void schedule() {
+            deadlineNanos = MathUtils.nowInNano() + intervalNanos;
+            timeout = newTimeout(this, intervalNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void run(Timeout t) {
+            lagNanos = Math.max(0L, MathUtils.nowInNano() - deadlineNanos);
+            if (!closed) {
+                schedule();
+            }
+        }
+
+        void cancel() {
+            Timeout t = timeout;
+            if (t != null) {
+                t.cancel();
+            }
+        }
+    }
+}
@@ -22,6 +22,7 @@ package org.apache.bookkeeper.client;
 
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import org.apache.bookkeeper.net.BookieId;
 
 /**
  * Define a policy for speculative request execution.
@@ -42,4 +43,14 @@ public interface SpeculativeRequestExecutionPolicy {
      */
     ScheduledFuture<?> initiateSpeculativeRequest(ScheduledExecutorService scheduler,
             SpeculativeRequestExecutor requestExecutor);
+
+    /**
+     * Notify the policy that a request to a bookie completed, for policies adapting to the
+     * latency of the bookies.
+     *
+     * @param bookie the bookie the request was sent to
+     * @param latencyNanos the latency of the request
+     */
+    default void onRequestComplete(BookieId bookie, long latencyNanos) {
+    }
 }
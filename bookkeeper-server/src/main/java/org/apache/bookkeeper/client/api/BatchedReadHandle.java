@@ -0,0 +1,124 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client.api;
+
+import org.apache.bookkeeper.client.impl.BatchedReadHandleImpl;
+import org.apache.bookkeeper.common.annotation.InterfaceAudience.Public;
+import org.apache.bookkeeper.common.annotation.InterfaceStability.Unstable;
+
+/**
+ * Provide read access to the records of a ledger written by a {@link BatchingWriteHandle}.
+ *
+ * <p>Each entry of such a ledger contains a batch of records. A record is identified by its position,
+ * which combines the id of its entry and its index in the entry (see {@link #position(long, int)}).
+ * The positions are ordered like the records were appended, and all the methods of this handle take and
+ * return positions in place of entry ids: the entries returned by the reads are the records, with their
+ * position as entry id.
+ *
+ * <p>The last add confirmed returned by this handle is the highest position which can belong to the last
+ * add confirmed entry, as the number of records of an entry is only known once it is read.
+ *
+ * <p>The ledgers written by a {@link BatchingWriteHandle} are marked with the
+ * {@link #BATCHED_ENTRIES_METADATA_KEY} custom metadata. The entries of the other ledgers are exposed as a
+ * single record.
+ *
+ * @since 4.16
+ */
+@Public
+@Unstable
+public interface BatchedReadHandle extends ReadHandle {
+
+    /**
+     * Number of bits of the position used by the index of the record in its entry.
+     */
+    int INDEX_BITS = 16;
+
+    /**
+     * Max number of records in an entry.
+     */
+    int MAX_RECORDS_PER_ENTRY = 1 << INDEX_BITS;
+
+    /**
+     * Key of the custom metadata marking the ledgers whose entries are batches of records.
+     */
+    String BATCHED_ENTRIES_METADATA_KEY = "bookkeeper.batched-entries";
+
+    /**
+     * Check whether the entries of a ledger are batches of records.
+     *
+     * @param metadata the metadata of the ledger
+     * @return true if the ledger was created to be written by a {@link BatchingWriteHandle}
+     */
+    static boolean hasBatchedEntries(LedgerMetadata metadata) {
+        return metadata.getCustomMetadata().containsKey(BATCHED_ENTRIES_METADATA_KEY);
+    }
+
+    /**
+     * Create a view of the records of a ledger.
+     *
+     * @param handle the handle to read the entries of the ledger
+     * @return the view of the records of the ledger
+     */
+    static BatchedReadHandle of(ReadHandle handle) {
+        return new BatchedReadHandleImpl(handle);
+    }
+
+    /**
+     * Get the position of a record.
+     *
+     * @param entryId the id of the entry containing the record
+     * @param index the index of the record in the entry
+     * @return the position of the record
+     */
+    static long position(long entryId, int index) {
+        return (entryId << INDEX_BITS) | index;
+    }
+
+    /**
+     * Get the id of the entry containing a record.
+     *
+     * @param position the position of the record
+     * @return the entry id
+     */
+    static long getEntryId(long position) {
+        return position >> INDEX_BITS;
+    }
+
+    /**
+     * Get the index of a record in its entry.
+     *
+     * @param position the position of the record
+     * @return the index of the record in the entry
+     */
+    static int getIndex(long position) {
+        return (int) (position & (MAX_RECORDS_PER_ENTRY - 1));
+    }
+
+    /**
+     * Get the highest position of the records which can be contained in an entry.
+     *
+     * @param entryId the id of the entry, or -1
+     * @return the highest position, or -1 if the entry id is -1
+     */
+    static long lastPosition(long entryId) {
+        return entryId < 0 ? entryId : position(entryId, MAX_RECORDS_PER_ENTRY - 1);
+    }
+}
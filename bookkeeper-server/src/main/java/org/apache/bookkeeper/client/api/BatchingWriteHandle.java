@@ -0,0 +1,104 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client.api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.impl.BatchingWriteHandleImpl;
+import org.apache.bookkeeper.common.annotation.InterfaceAudience.Public;
+import org.apache.bookkeeper.common.annotation.InterfaceStability.Unstable;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
+
+/**
+ * Provide write access to a ledger, batching the appended records in entries.
+ *
+ * <p>The records appended to this handle are buffered, and written in a single entry, with an index of
+ * the records, when their size reaches the max batch size, when the oldest buffered record has waited
+ * for the max batch delay, or when the handle is flushed. This saves the per entry cost of the small
+ * records (digest, write requests to the bookies and index entries in the bookies).
+ *
+ * <p>The appends return the position of the record rather than the id of an entry, see
+ * {@link BatchedReadHandle}. The records can be read by this handle, or by a {@link BatchedReadHandle}
+ * opened on the ledger by the readers.
+ *
+ * @since 4.16
+ */
+@Public
+@Unstable
+public interface BatchingWriteHandle extends WriteHandle, BatchedReadHandle {
+
+    /**
+     * Version of the format of the batched entries, stored in the custom metadata of the ledger.
+     */
+    String BATCH_FORMAT_VERSION = "1";
+
+    /**
+     * Add the marker of the ledgers written by a {@link BatchingWriteHandle} to the custom metadata of a
+     * ledger, to be passed to {@link CreateBuilder#withCustomMetadata(Map)}.
+     *
+     * @param customMetadata the other custom metadata of the ledger
+     * @return a copy of the custom metadata, with the marker
+     */
+    static Map<String, byte[]> withBatchedEntries(Map<String, byte[]> customMetadata) {
+        Map<String, byte[]> metadata = new HashMap<>(customMetadata);
+        metadata.put(BATCHED_ENTRIES_METADATA_KEY, BATCH_FORMAT_VERSION.getBytes(StandardCharsets.UTF_8));
+        return metadata;
+    }
+
+    /**
+     * Create a handle batching the records appended to a ledger.
+     *
+     * <p>The ledger must have been created with the custom metadata returned by
+     * {@link #withBatchedEntries(Map)}, so that the readers know that its entries are batches.
+     * The handle takes the ownership of {@code handle}, which must not be used directly anymore.
+     *
+     * @param handle the handle to write the entries to
+     * @param maxBatchSize the max size in bytes of the records of an entry
+     * @param maxBatchDelay the max time a record waits for other records before its entry is written
+     * @param unit the unit of {@code maxBatchDelay}
+     * @param scheduler the scheduler used to write the entries after {@code maxBatchDelay}
+     * @return the batching handle
+     */
+    static BatchingWriteHandle of(WriteHandle handle, int maxBatchSize, long maxBatchDelay, TimeUnit unit,
+                                  ScheduledExecutorService scheduler) {
+        return new BatchingWriteHandleImpl(handle, maxBatchSize, unit.toNanos(maxBatchDelay), scheduler);
+    }
+
+    /**
+     * Write the buffered records asynchronously, without waiting for the max batch delay.
+     *
+     * @return an handle to the result, completed when all the records appended so far are written
+     */
+    CompletableFuture<Void> flushAsync();
+
+    /**
+     * Write the buffered records synchronously, without waiting for the max batch delay.
+     *
+     * @see #flushAsync()
+     */
+    default void flush() throws BKException, InterruptedException {
+        FutureUtils.<Void, BKException>result(flushAsync(), BKException.HANDLER);
+    }
+}
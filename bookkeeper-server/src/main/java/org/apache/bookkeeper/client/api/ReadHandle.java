@@ -59,6 +59,47 @@ public interface ReadHandle extends Handle {
                                                               BKException.HANDLER);
     }
 
+    /**
+     * Read a contiguous range of entries asynchronously, in as few round trips as possible.
+     *
+     * <p>At most {@code maxCount} entries are returned, starting at {@code startEntry} and never
+     * after the LastAddConfirmed. Fewer entries may be returned if the entries don't fit in
+     * {@code maxSize} bytes, but at least one entry is always returned.
+     *
+     * <p>The default implementation reads the entries with {@link #readAsync(long, long)}.
+     *
+     * @param startEntry
+     *          id of first entry of sequence
+     * @param maxCount
+     *          maximum number of entries to read
+     * @param maxSize
+     *          maximum size in bytes of the entries to read
+     * @return an handle to the result of the operation
+     * @since 4.16
+     */
+    default CompletableFuture<LedgerEntries> batchReadAsync(long startEntry, int maxCount, long maxSize) {
+        long lastEntry = Math.min(startEntry + maxCount - 1, getLastAddConfirmed());
+        return readAsync(startEntry, lastEntry);
+    }
+
+    /**
+     * Read a contiguous range of entries synchronously.
+     *
+     * @param startEntry
+     *          id of first entry of sequence
+     * @param maxCount
+     *          maximum number of entries to read
+     * @param maxSize
+     *          maximum size in bytes of the entries to read
+     * @return the result of the operation
+     * @see #batchReadAsync(long, int, long)
+     */
+    default LedgerEntries batchRead(long startEntry, int maxCount, long maxSize)
+            throws BKException, InterruptedException {
+        return FutureUtils.<LedgerEntries, BKException>result(batchReadAsync(startEntry, maxCount, maxSize),
+                                                              BKException.HANDLER);
+    }
+
     /**
      * Read a sequence of entries asynchronously, allowing to read after the LastAddConfirmed range.
      * <br>This is the same of
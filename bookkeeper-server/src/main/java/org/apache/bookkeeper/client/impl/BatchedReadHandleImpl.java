@@ -0,0 +1,323 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client.impl;
+
+import static org.apache.bookkeeper.client.api.BatchedReadHandle.getEntryId;
+import static org.apache.bookkeeper.client.api.BatchedReadHandle.getIndex;
+import static org.apache.bookkeeper.client.api.BatchedReadHandle.lastPosition;
+import static org.apache.bookkeeper.client.api.BatchedReadHandle.position;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.BatchedReadHandle;
+import org.apache.bookkeeper.client.api.LastConfirmedAndEntry;
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
+
+/**
+ * Implementation of {@link BatchedReadHandle}, reading the entries with a {@link ReadHandle} and splitting
+ * them in records.
+ *
+ * <p>Whether the entries of the ledger are batches is known from its custom metadata, see
+ * {@link BatchedReadHandle#hasBatchedEntries(LedgerMetadata)}. A batched entry starts with a header: the
+ * number of records and the size of each record, followed by the records.
+ */
+public class BatchedReadHandleImpl implements BatchedReadHandle {
+
+    private static final int HEADER_SIZE = Integer.BYTES;
+
+    private final ReadHandle handle;
+    private final boolean batched;
+
+    public BatchedReadHandleImpl(ReadHandle handle) {
+        this.handle = handle;
+        this.batched = BatchedReadHandle.hasBatchedEntries(handle.getLedgerMetadata());
+    }
+
+    /**
+     * @return the size of the header of an entry containing {@code numRecords} records
+     */
+    static int headerSize(int numRecords) {
+        return HEADER_SIZE + numRecords * Integer.BYTES;
+    }
+
+    /**
+     * Write the records in a batched entry. The ownership of the records is transferred to this method.
+     */
+    static ByteBuf encode(ByteBufAllocator allocator, List<ByteBuf> records) {
+        int size = headerSize(records.size());
+        for (ByteBuf record : records) {
+            size += record.readableBytes();
+        }
+        ByteBuf entry = allocator.buffer(size, size);
+        entry.writeInt(records.size());
+        for (ByteBuf record : records) {
+            entry.writeInt(record.readableBytes());
+        }
+        for (ByteBuf record : records) {
+            entry.writeBytes(record, record.readerIndex(), record.readableBytes());
+            record.release();
+        }
+        return entry;
+    }
+
+    /**
+     * Split a batched entry in records. The records are slices of the entry, which are not retained.
+     *
+     * @throws IllegalArgumentException if the entry is not a valid batch
+     */
+    static List<ByteBuf> decode(ByteBuf entry) {
+        int readerIndex = entry.readerIndex();
+        int size = entry.readableBytes();
+        int numRecords = size >= HEADER_SIZE ? entry.getInt(readerIndex) : -1;
+        if (numRecords <= 0 || numRecords > MAX_RECORDS_PER_ENTRY || headerSize(numRecords) > size) {
+            throw new IllegalArgumentException("Invalid batch header, size: " + size + ", records: " + numRecords);
+        }
+
+        List<ByteBuf> records = new ArrayList<>(numRecords);
+        int offset = readerIndex + headerSize(numRecords);
+        for (int i = 0; i < numRecords; i++) {
+            int recordSize = entry.getInt(readerIndex + HEADER_SIZE + i * Integer.BYTES);
+            if (recordSize < 0 || offset + recordSize > readerIndex + size) {
+                throw new IllegalArgumentException("Invalid size of record " + i + ": " + recordSize);
+            }
+            records.add(entry.slice(offset, recordSize));
+            offset += recordSize;
+        }
+        if (offset != readerIndex + size) {
+            throw new IllegalArgumentException("Invalid batch, " + (readerIndex + size - offset)
+                    + " bytes after the records");
+        }
+        return records;
+    }
+
+    /**
+     * @return the records of an entry of the ledger
+     */
+    private List<ByteBuf> records(ByteBuf entry) {
+        return batched ? decode(entry) : Collections.singletonList(entry.slice());
+    }
+
+    @Override
+    public CompletableFuture<LedgerEntries> readAsync(long firstPosition, long lastPosition) {
+        return handle.readAsync(getEntryId(firstPosition), getEntryId(lastPosition))
+                .thenCompose(entries -> toRecords(entries, firstPosition, lastPosition, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public CompletableFuture<LedgerEntries> readUnconfirmedAsync(long firstPosition, long lastPosition) {
+        return handle.readUnconfirmedAsync(getEntryId(firstPosition), getEntryId(lastPosition))
+                .thenCompose(entries -> toRecords(entries, firstPosition, lastPosition, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public CompletableFuture<LedgerEntries> batchReadAsync(long startPosition, int maxCount, long maxSize) {
+        long startEntryId = getEntryId(startPosition);
+        return handle.batchReadAsync(startEntryId, maxCount, maxSize).thenCompose(entries -> {
+            LedgerEntries records = splitEntries(entries, startPosition, Long.MAX_VALUE, maxCount);
+            if (records != null) {
+                return FutureUtils.value(records);
+            } else if (startEntryId < handle.getLastAddConfirmed()) {
+                // the start position is after the last record of its entry
+                return batchReadAsync(position(startEntryId + 1, 0), maxCount, maxSize);
+            } else {
+                return noSuchRecord();
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Long> readLastAddConfirmedAsync() {
+        return handle.readLastAddConfirmedAsync().thenApply(BatchedReadHandle::lastPosition);
+    }
+
+    @Override
+    public CompletableFuture<Long> tryReadLastAddConfirmedAsync() {
+        return handle.tryReadLastAddConfirmedAsync().thenApply(BatchedReadHandle::lastPosition);
+    }
+
+    @Override
+    public long getLastAddConfirmed() {
+        return lastPosition(handle.getLastAddConfirmed());
+    }
+
+    @Override
+    public long getLength() {
+        return handle.getLength();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return handle.isClosed();
+    }
+
+    @Override
+    public CompletableFuture<LastConfirmedAndEntry> readLastAddConfirmedAndEntryAsync(long position,
+                                                                                      long timeOutInMillis,
+                                                                                      boolean parallel) {
+        return handle.readLastAddConfirmedAndEntryAsync(getEntryId(position), timeOutInMillis, parallel)
+                .thenApply(lacAndEntry -> {
+                    try {
+                        LedgerEntry record = null;
+                        if (lacAndEntry.hasEntry() && lacAndEntry.getEntry().getEntryId() == getEntryId(position)) {
+                            List<ByteBuf> records = records(lacAndEntry.getEntry().getEntryBuffer());
+                            if (getIndex(position) < records.size()) {
+                                ByteBuf data = records.get(getIndex(position));
+                                record = LedgerEntryImpl.create(getId(), position, data.readableBytes(),
+                                        data.retainedSlice());
+                            }
+                        }
+                        return new RecordAndLastConfirmed(lastPosition(lacAndEntry.getLastAddConfirmed()), record);
+                    } finally {
+                        lacAndEntry.close();
+                    }
+                });
+    }
+
+    @Override
+    public long getId() {
+        return handle.getId();
+    }
+
+    @Override
+    public CompletableFuture<Void> closeAsync() {
+        return handle.closeAsync();
+    }
+
+    @Override
+    public LedgerMetadata getLedgerMetadata() {
+        return handle.getLedgerMetadata();
+    }
+
+    private CompletableFuture<LedgerEntries> toRecords(LedgerEntries entries, long firstPosition,
+                                                      long lastPosition, int maxCount) {
+        LedgerEntries records = splitEntries(entries, firstPosition, lastPosition, maxCount);
+        return records != null ? FutureUtils.value(records) : noSuchRecord();
+    }
+
+    private static CompletableFuture<LedgerEntries> noSuchRecord() {
+        return FutureUtils.exception(BKException.create(BKException.Code.NoSuchEntryException));
+    }
+
+    /**
+     * @return the records of the entries between the positions, or null if there are none. The entries are closed.
+     */
+    private LedgerEntries splitEntries(LedgerEntries entries, long firstPosition, long lastPosition, int maxCount) {
+        try {
+            List<LedgerEntry> records = new ArrayList<>();
+            for (LedgerEntry entry : entries) {
+                List<ByteBuf> entryRecords = records(entry.getEntryBuffer());
+                for (int i = 0; i < entryRecords.size() && records.size() < maxCount; i++) {
+                    long position = position(entry.getEntryId(), i);
+                    if (position >= firstPosition && position <= lastPosition) {
+                        ByteBuf data = entryRecords.get(i);
+                        records.add(LedgerEntryImpl.create(getId(), position, data.readableBytes(),
+                                data.retainedSlice()));
+                    }
+                }
+            }
+            return records.isEmpty() ? null : new Records(records);
+        } finally {
+            entries.close();
+        }
+    }
+
+    /**
+     * Records read from the entries. The positions are not contiguous, so they are searched.
+     */
+    private static class Records implements LedgerEntries {
+        private final List<LedgerEntry> records;
+
+        Records(List<LedgerEntry> records) {
+            this.records = records;
+        }
+
+        @Override
+        public LedgerEntry getEntry(long position) {
+            int low = 0;
+            int high = records.size() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                long midPosition = records.get(mid).getEntryId();
+                if (midPosition < position) {
+                    low = mid + 1;
+                } else if (midPosition > position) {
+                    high = mid - 1;
+                } else {
+                    return records.get(mid);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Iterator<LedgerEntry> iterator() {
+            return records.iterator();
+        }
+
+        @Override
+        public void close() {
+            records.forEach(LedgerEntry::close);
+            records.clear();
+        }
+    }
+
+    private static class RecordAndLastConfirmed implements LastConfirmedAndEntry {
+        private final long lastAddConfirmed;
+        private final LedgerEntry record;
+
+        RecordAndLastConfirmed(long lastAddConfirmed, LedgerEntry record) {
+            this.lastAddConfirmed = lastAddConfirmed;
+            this.record = record;
+        }
+
+        @Override
+        public long getLastAddConfirmed() {
+            return lastAddConfirmed;
+        }
+
+        @Override
+        public boolean hasEntry() {
+            return record != null;
+        }
+
+        @Override
+        public LedgerEntry getEntry() {
+            return record;
+        }
+
+        @Override
+        public void close() {
+            if (record != null) {
+                record.close();
+            }
+        }
+    }
+}
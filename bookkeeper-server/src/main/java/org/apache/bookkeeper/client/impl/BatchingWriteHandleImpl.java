@@ -0,0 +1,166 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.apache.bookkeeper.client.api.BatchedReadHandle.lastPosition;
+import static org.apache.bookkeeper.client.api.BatchedReadHandle.position;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.BatchedReadHandle;
+import org.apache.bookkeeper.client.api.BatchingWriteHandle;
+import org.apache.bookkeeper.client.api.WriteHandle;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
+
+/**
+ * Implementation of {@link BatchingWriteHandle}.
+ *
+ * <p>The records are buffered until the batch is full or the max batch delay has elapsed, then written in a
+ * single entry with {@link WriteHandle#appendAsync(ByteBuf)}. The entries are appended under the lock of
+ * the handle, so they are written in the order the records were appended.
+ */
+public class BatchingWriteHandleImpl extends BatchedReadHandleImpl implements BatchingWriteHandle {
+
+    private final WriteHandle handle;
+    private final int maxBatchSize;
+    private final long maxBatchDelayNanos;
+    private final ScheduledExecutorService scheduler;
+    private final ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+
+    private List<ByteBuf> records = new ArrayList<>();
+    private List<CompletableFuture<Long>> recordFutures = new ArrayList<>();
+    private int batchSize = 0;
+    // incremented each time a batch is written, to ignore the flush tasks of the previous batches
+    private long batchSequence = 0;
+    private ScheduledFuture<?> flushTask = null;
+    private CompletableFuture<Void> lastBatchFuture = FutureUtils.Void();
+    private boolean closed = false;
+
+    public BatchingWriteHandleImpl(WriteHandle handle, int maxBatchSize, long maxBatchDelayNanos,
+                                   ScheduledExecutorService scheduler) {
+        super(handle);
+        checkArgument(BatchedReadHandle.hasBatchedEntries(handle.getLedgerMetadata()),
+                "ledger %s was not created with the batched entries custom metadata", handle.getId());
+        checkArgument(maxBatchSize > 0, "maxBatchSize should be positive : %s", maxBatchSize);
+        checkArgument(maxBatchDelayNanos > 0, "maxBatchDelay should be positive : %s", maxBatchDelayNanos);
+        this.handle = handle;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelayNanos = maxBatchDelayNanos;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public CompletableFuture<Long> appendAsync(ByteBuf data) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed) {
+                data.release();
+                return FutureUtils.exception(BKException.create(BKException.Code.LedgerClosedException));
+            }
+
+            int recordSize = data.readableBytes() + Integer.BYTES;
+            if (!records.isEmpty() && batchSize + recordSize > maxBatchSize) {
+                writeBatch();
+            }
+            records.add(data);
+            recordFutures.add(future);
+            batchSize += recordSize;
+
+            if (batchSize >= maxBatchSize || records.size() == MAX_RECORDS_PER_ENTRY) {
+                writeBatch();
+            } else if (records.size() == 1) {
+                final long sequence = batchSequence;
+                flushTask = scheduler.schedule(() -> {
+                    synchronized (BatchingWriteHandleImpl.this) {
+                        if (sequence == batchSequence) {
+                            writeBatch();
+                        }
+                    }
+                }, maxBatchDelayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        return future;
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> flushAsync() {
+        writeBatch();
+        return lastBatchFuture;
+    }
+
+    private void writeBatch() {
+        if (records.isEmpty()) {
+            return;
+        }
+        List<CompletableFuture<Long>> futures = recordFutures;
+        ByteBuf entry = encode(allocator, records);
+        records = new ArrayList<>();
+        recordFutures = new ArrayList<>();
+        batchSize = 0;
+        batchSequence++;
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+
+        // the records are completed before the flush
+        lastBatchFuture = handle.appendAsync(entry).whenComplete((entryId, cause) -> {
+            for (int i = 0; i < futures.size(); i++) {
+                if (cause != null) {
+                    futures.get(i).completeExceptionally(cause);
+                } else {
+                    futures.get(i).complete(position(entryId, i));
+                }
+            }
+        }).thenApply(entryId -> null);
+    }
+
+    @Override
+    public long getLastAddPushed() {
+        return lastPosition(handle.getLastAddPushed());
+    }
+
+    @Override
+    public CompletableFuture<Void> force() {
+        return flushAsync().thenCompose(ignored -> handle.force());
+    }
+
+    @Override
+    public CompletableFuture<Void> closeAsync() {
+        CompletableFuture<Void> lastBatch;
+        synchronized (this) {
+            writeBatch();
+            closed = true;
+            lastBatch = lastBatchFuture;
+        }
+        // closing the ledger fails the pending appends, so it waits for the last batch. The records of a
+        // failed batch already got the error, the ledger is closed anyway.
+        return lastBatch.exceptionally(cause -> null).thenCompose(ignored -> handle.closeAsync());
+    }
+}
@@ -114,6 +114,27 @@ public class BookKeeperClientStatsImpl implements BookKeeperClientStats {
         help = "the distribution of entries read in ledger recovery requests"
     )
     private final OpStatsLogger recoverReadEntriesStats;
+    @StatsDoc(
+        name = LEDGER_RECOVER_WAIT,
+        help = "time spent by ledger recoveries waiting for the recoveries running concurrently to complete"
+    )
+    private final OpStatsLogger recoverWaitOpLogger;
+    @StatsDoc(
+        name = LEDGER_RECOVER_FENCE,
+        help = "operation stats of fencing ledgers and reading their last add confirmed in ledger recoveries"
+    )
+    private final OpStatsLogger recoverFenceOpLogger;
+    @StatsDoc(
+        name = LEDGER_RECOVER_READ,
+        help = "operation stats of reading and writing back the entries after the last add confirmed"
+            + " in ledger recoveries"
+    )
+    private final OpStatsLogger recoverReadOpLogger;
+    @StatsDoc(
+        name = LEDGER_RECOVER_CLOSE,
+        help = "operation stats of closing the metadata of the recovered ledgers"
+    )
+    private final OpStatsLogger recoverCloseOpLogger;
 
     @StatsDoc(
         name = ENSEMBLE_CHANGES,
@@ -140,6 +161,26 @@ public class BookKeeperClientStatsImpl implements BookKeeperClientStats {
         help = "The number of speculative read requests"
     )
     private final Counter speculativeReadCounter;
+    @StatsDoc(
+        name = ENTRY_CACHE_HITS,
+        help = "The number of entries read from the client entry cache"
+    )
+    private final Counter entryCacheHitsCounter;
+    @StatsDoc(
+        name = ENTRY_CACHE_MISSES,
+        help = "The number of entries looked up and not found in the client entry cache"
+    )
+    private final Counter entryCacheMissesCounter;
+    @StatsDoc(
+        name = LEDGER_METADATA_CACHE_HITS,
+        help = "The number of ledger metadata reads served from the client ledger metadata cache"
+    )
+    private final Counter ledgerMetadataCacheHitsCounter;
+    @StatsDoc(
+        name = LEDGER_METADATA_CACHE_MISSES,
+        help = "The number of ledger metadata reads not found in the client ledger metadata cache"
+    )
+    private final Counter ledgerMetadataCacheMissesCounter;
 
     @StatsDoc(
         name = WRITE_DELAYED_DUE_TO_NOT_ENOUGH_FAULT_DOMAINS_LATENCY,
@@ -177,6 +218,10 @@ public class BookKeeperClientStatsImpl implements BookKeeperClientStats {
         this.readLacOpLogger = stats.getOpStatsLogger(READ_LAC_OP);
         this.recoverAddEntriesStats = stats.getOpStatsLogger(LEDGER_RECOVER_ADD_ENTRIES);
         this.recoverReadEntriesStats = stats.getOpStatsLogger(LEDGER_RECOVER_READ_ENTRIES);
+        this.recoverWaitOpLogger = stats.getOpStatsLogger(LEDGER_RECOVER_WAIT);
+        this.recoverFenceOpLogger = stats.getOpStatsLogger(LEDGER_RECOVER_FENCE);
+        this.recoverReadOpLogger = stats.getOpStatsLogger(LEDGER_RECOVER_READ);
+        this.recoverCloseOpLogger = stats.getOpStatsLogger(LEDGER_RECOVER_CLOSE);
 
         this.ensembleChangeCounter = stats.getCounter(ENSEMBLE_CHANGES);
         this.lacUpdateHitsCounter = stats.getCounter(LAC_UPDATE_HITS);
@@ -184,6 +229,10 @@ public class BookKeeperClientStatsImpl implements BookKeeperClientStats {
         this.clientChannelWriteWaitStats = stats.getOpStatsLogger(CLIENT_CHANNEL_WRITE_WAIT);
 
         speculativeReadCounter = stats.getCounter(SPECULATIVE_READ_COUNT);
+        this.entryCacheHitsCounter = stats.getCounter(ENTRY_CACHE_HITS);
+        this.entryCacheMissesCounter = stats.getCounter(ENTRY_CACHE_MISSES);
+        this.ledgerMetadataCacheHitsCounter = stats.getCounter(LEDGER_METADATA_CACHE_HITS);
+        this.ledgerMetadataCacheMissesCounter = stats.getCounter(LEDGER_METADATA_CACHE_MISSES);
 
         this.writeDelayedDueToNotEnoughFaultDomainsLatency =
                 stats.getOpStatsLogger(WRITE_DELAYED_DUE_TO_NOT_ENOUGH_FAULT_DOMAINS_LATENCY);
@@ -245,6 +294,22 @@ public class BookKeeperClientStatsImpl implements BookKeeperClientStats {
         return recoverReadEntriesStats;
     }
     @Override
+    public OpStatsLogger getRecoverWaitOpLogger() {
+        return recoverWaitOpLogger;
+    }
+    @Override
+    public OpStatsLogger getRecoverFenceOpLogger() {
+        return recoverFenceOpLogger;
+    }
+    @Override
+    public OpStatsLogger getRecoverReadOpLogger() {
+        return recoverReadOpLogger;
+    }
+    @Override
+    public OpStatsLogger getRecoverCloseOpLogger() {
+        return recoverCloseOpLogger;
+    }
+    @Override
     public Counter getReadOpDmCounter() {
         return readOpDmCounter;
     }
@@ -289,7 +354,35 @@ public class BookKeeperClientStatsImpl implements BookKeeperClientStats {
         return writeTimedOutDueToNotEnoughFaultDomains;
     }
     @Override
+    public Counter getEntryCacheHitsCounter() {
+        return entryCacheHitsCounter;
+    }
+    @Override
+    public Counter getEntryCacheMissesCounter() {
+        return entryCacheMissesCounter;
+    }
+    @Override
     public void registerPendingAddsGauge(Gauge<Integer> gauge) {
         stats.registerGauge(PENDING_ADDS, gauge);
     }
+    @Override
+    public void registerEntryCacheSizeGauge(Gauge<Long> gauge) {
+        stats.registerGauge(ENTRY_CACHE_SIZE, gauge);
+    }
+    @Override
+    public Counter getLedgerMetadataCacheHitsCounter() {
+        return ledgerMetadataCacheHitsCounter;
+    }
+    @Override
+    public Counter getLedgerMetadataCacheMissesCounter() {
+        return ledgerMetadataCacheMissesCounter;
+    }
+    @Override
+    public void registerLedgerMetadataCacheSizeGauge(Gauge<Long> gauge) {
+        stats.registerGauge(LEDGER_METADATA_CACHE_SIZE, gauge);
+    }
+    @Override
+    public void registerRequestTimerLagGauge(Gauge<Long> gauge) {
+        stats.registerGauge(REQUEST_TIMER_LAG, gauge);
+    }
 }
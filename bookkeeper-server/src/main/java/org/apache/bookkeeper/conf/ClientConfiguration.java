@@ -98,6 +98,7 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
     protected static final String CLIENT_TCP_USER_TIMEOUT_MILLIS = "clientTcpUserTimeoutMillis";
     protected static final String NUM_CHANNELS_PER_BOOKIE = "numChannelsPerBookie";
     protected static final String USE_V2_WIRE_PROTOCOL = "useV2WireProtocol";
+    protected static final String MULTI_ADD_ENABLED = "multiAddEnabled";
     protected static final String NETTY_USE_POOLED_BUFFERS = "nettyUsePooledBuffers";
 
     // Read Parameters
@@ -107,14 +108,21 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
     protected static final String MAX_SPECULATIVE_READ_TIMEOUT = "maxSpeculativeReadTimeout";
     protected static final String SPECULATIVE_READ_TIMEOUT_BACKOFF_MULTIPLIER =
         "speculativeReadTimeoutBackoffMultiplier";
+    protected static final String SPECULATIVE_READ_TIMEOUT_PERCENTILE = "speculativeReadTimeoutPercentile";
+    protected static final String SPECULATIVE_READ_BUDGET_PERCENT = "speculativeReadBudgetPercent";
     protected static final String FIRST_SPECULATIVE_READ_LAC_TIMEOUT = "firstSpeculativeReadLACTimeout";
     protected static final String MAX_SPECULATIVE_READ_LAC_TIMEOUT = "maxSpeculativeReadLACTimeout";
     protected static final String SPECULATIVE_READ_LAC_TIMEOUT_BACKOFF_MULTIPLIER =
         "speculativeReadLACTimeoutBackoffMultiplier";
     protected static final String ENABLE_PARALLEL_RECOVERY_READ = "enableParallelRecoveryRead";
     protected static final String RECOVERY_READ_BATCH_SIZE = "recoveryReadBatchSize";
+    protected static final String RECOVERY_READ_WINDOW_SIZE = "recoveryReadWindowSize";
+    protected static final String MAX_CONCURRENT_RECOVERIES = "maxConcurrentRecoveries";
     protected static final String REORDER_READ_SEQUENCE_ENABLED = "reorderReadSequenceEnabled";
     protected static final String STICKY_READS_ENABLED = "stickyReadSEnabled";
+    protected static final String BATCH_READ_ENABLED = "batchReadEnabled";
+    protected static final String ENTRY_CACHE_MAX_SIZE_BYTES = "entryCacheMaxSizeBytes";
+    protected static final String LEDGER_METADATA_CACHE_MAX_SIZE = "ledgerMetadataCacheMaxSize";
     // Add Parameters
     protected static final String OPPORTUNISTIC_STRIPING = "opportunisticStriping";
     protected static final String DELAY_ENSEMBLE_CHANGE = "delayEnsembleChange";
@@ -158,6 +166,7 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
     public static final String ENSEMBLE_PLACEMENT_POLICY = "ensemblePlacementPolicy";
     protected static final String NETWORK_TOPOLOGY_STABILIZE_PERIOD_SECONDS = "networkTopologyStabilizePeriodSeconds";
     protected static final String READ_REORDER_THRESHOLD_PENDING_REQUESTS = "readReorderThresholdPendingRequests";
+    protected static final String READ_REORDER_LATENCY_AWARE = "readReorderLatencyAware";
     protected static final String ENSEMBLE_PLACEMENT_POLICY_ORDER_SLOW_BOOKIES =
         "ensemblePlacementPolicyOrderSlowBookies";
     protected static final String BOOKIE_ADDRESS_RESOLVER_ENABLED = "bookieAddressResolverEnabled";
@@ -595,6 +604,33 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return this;
     }
 
+    /**
+     * If multi add requests are enabled or not.
+     *
+     * @return true if multi add requests are enabled, otherwise false.
+     */
+    public boolean isMultiAddEnabled() {
+        return getBoolean(MULTI_ADD_ENABLED, false);
+    }
+
+    /**
+     * Enable/disable multi add requests.
+     *
+     * <p>If this flag is enabled, the adds sent to a bookie while the connection to the bookie is busy are
+     * coalesced in a single multi add request, possibly for different ledgers, instead of being sent in
+     * one request each, and the bookie acknowledges them in a single response. This saves the per request
+     * overhead on the client and the bookie at high add rates. Multi add requests require the v2 wire
+     * protocol ({@link #setUseV2WireProtocol(boolean)}). They are only sent to the bookies which advertise
+     * their support in their responses, the adds to the other bookies are sent one by one.
+     *
+     * @param enabled the flag to enable/disable multi add requests.
+     * @return client configuration instance.
+     */
+    public ClientConfiguration setMultiAddEnabled(boolean enabled) {
+        setProperty(MULTI_ADD_ENABLED, enabled);
+        return this;
+    }
+
     /**
      * Get the socket read timeout. This is the number of
      * seconds we wait without hearing a response from a bookie
@@ -711,12 +747,14 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
 
     /**
      * Set the interval between successive executions of the operation timeout monitor. The value in seconds.
-     * Every X seconds, all outstanding add and read operations are checked to see if they have been running
-     * for longer than their configured timeout. Any that have been will be errored out.
+     * Every X seconds, all outstanding add and read requests to the bookies are checked to see if they have been
+     * running for longer than their configured timeout. Any that have been will be errored out. The
+     * {@link #getAddEntryQuorumTimeout} of the add operations is scheduled on the request timer of the client
+     * instead, see {@link #setTimeoutTimerTickDurationMs(long)}.
      *
      * <p>This timeout should be set to a value which is a fraction of the values of
-     * {@link #getAddEntryQuorumTimeout}, {@link #getAddEntryTimeout} and {@link #getReadEntryTimeout},
-     * so that these timeouts run in a timely fashion.
+     * {@link #getAddEntryTimeout} and {@link #getReadEntryTimeout}, so that these timeouts run in a timely
+     * fashion.
      *
      * @param timeoutInterval The timeout monitor interval, in seconds
      * @return client configuration
@@ -1037,6 +1075,60 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return this;
     }
 
+    /**
+     * Get the percentile of the bookie read latency used as speculative read timeout.
+     *
+     * @return the percentile of the bookie read latency used as speculative read timeout,
+     *         0 if the speculative read timeouts are not adaptive.
+     */
+    public double getSpeculativeReadTimeoutPercentile() {
+        return getDouble(SPECULATIVE_READ_TIMEOUT_PERCENTILE, 0);
+    }
+
+    /**
+     * Set the percentile of the bookie read latency used as speculative read timeout.
+     *
+     * <p>If set, the first speculative read of an entry is sent when the read to the first
+     * bookie has been outstanding for longer than this percentile of the latency of the last
+     * reads completed by that bookie, e.g. 95. The first speculative read timeout is used
+     * until enough reads completed on a bookie, and the next speculative reads are still
+     * issued with the backoff multiplier, up to the max speculative read timeout. The number
+     * of speculative reads is capped by {@link #setSpeculativeReadBudgetPercent(int)}. The
+     * default is 0, which uses the first speculative read timeout for every read.
+     *
+     * @param percentile
+     *          percentile of the bookie read latency, in (0, 100), or 0 to disable.
+     * @return client configuration.
+     */
+    public ClientConfiguration setSpeculativeReadTimeoutPercentile(double percentile) {
+        setProperty(SPECULATIVE_READ_TIMEOUT_PERCENTILE, percentile);
+        return this;
+    }
+
+    /**
+     * Get the max number of speculative reads, as a percentage of the reads.
+     *
+     * @return the max number of speculative reads, as a percentage of the reads.
+     */
+    public int getSpeculativeReadBudgetPercent() {
+        return getInt(SPECULATIVE_READ_BUDGET_PERCENT, 10);
+    }
+
+    /**
+     * Set the max number of speculative reads, as a percentage of the reads, so that the
+     * speculative reads don't multiply the load of the cluster when all the bookies get slow.
+     * Only used when the speculative read timeouts are adaptive, see
+     * {@link #setSpeculativeReadTimeoutPercentile(double)}. The default is 10.
+     *
+     * @param budgetPercent
+     *          max number of speculative reads, as a percentage of the reads.
+     * @return client configuration.
+     */
+    public ClientConfiguration setSpeculativeReadBudgetPercent(int budgetPercent) {
+        setProperty(SPECULATIVE_READ_BUDGET_PERCENT, budgetPercent);
+        return this;
+    }
+
     /**
      * Get the period of time after which the first speculative read last add confirmed and entry
      * should be triggered.
@@ -1139,6 +1231,59 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return this;
     }
 
+    /**
+     * Get the number of recovery read batches read in parallel when recovering a ledger.
+     *
+     * @return recovery read window size.
+     * @see #setRecoveryReadWindowSize(int)
+     */
+    public int getRecoveryReadWindowSize() {
+        return getInt(RECOVERY_READ_WINDOW_SIZE, 1);
+    }
+
+    /**
+     * Set the number of recovery read batches read in parallel when recovering a ledger.
+     *
+     * <p>With a window of 1, the next batch of {@link #getRecoveryReadBatchSize()} entries is read once the
+     * previous batch has been read. With a larger window, the next batches are read while the entries of
+     * the previous batches are read and written back, which shortens the recovery of the ledgers with a
+     * long unconfirmed tail.
+     *
+     * @param windowSize
+     *          recovery read window size.
+     * @return client configuration.
+     */
+    public ClientConfiguration setRecoveryReadWindowSize(int windowSize) {
+        setProperty(RECOVERY_READ_WINDOW_SIZE, windowSize);
+        return this;
+    }
+
+    /**
+     * Get the max number of ledgers recovered concurrently by the client.
+     *
+     * @return max concurrent recoveries.
+     * @see #setMaxConcurrentRecoveries(int)
+     */
+    public int getMaxConcurrentRecoveries() {
+        return getInt(MAX_CONCURRENT_RECOVERIES, 0);
+    }
+
+    /**
+     * Set the max number of ledgers recovered concurrently by the client.
+     *
+     * <p>When more ledgers are opened with recovery, for example when a client takes over the ledgers of
+     * a failed client, the recoveries wait for the running recoveries to complete, so they don't overload
+     * the bookies. If it is less than or equal to 0, the number of concurrent recoveries is not limited.
+     *
+     * @param maxConcurrentRecoveries
+     *          max concurrent recoveries.
+     * @return client configuration.
+     */
+    public ClientConfiguration setMaxConcurrentRecoveries(int maxConcurrentRecoveries) {
+        setProperty(MAX_CONCURRENT_RECOVERIES, maxConcurrentRecoveries);
+        return this;
+    }
+
     /**
      * If reorder read sequence enabled or not.
      *
@@ -1197,6 +1342,87 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return this;
     }
 
+    /**
+     * If batched reads are enabled or not.
+     *
+     * @return true if batched reads are enabled, otherwise false.
+     */
+    public boolean isBatchReadEnabled() {
+        return getBoolean(BATCH_READ_ENABLED, false);
+    }
+
+    /**
+     * Enable/disable batched reads.
+     *
+     * <p>If this flag is enabled, range reads on ledgers which are not striped
+     * (ensemble size equals write quorum size) are sent to the bookies as batched
+     * read requests, which return a contiguous range of entries in a single response
+     * instead of one response per entry. Batched reads require the v2 wire protocol
+     * ({@link #setUseV2WireProtocol(boolean)}); if a batched read fails, the client
+     * falls back to reading the entries one by one. A bookie advertises the support of
+     * batched reads in its responses, so they are only sent to a bookie once it has
+     * answered another request on the connection, and never to older bookies.
+     *
+     * @param enabled the flag to enable/disable batched reads.
+     * @return client configuration instance.
+     */
+    public ClientConfiguration setBatchReadEnabled(boolean enabled) {
+        setProperty(BATCH_READ_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get the max size of the client entry cache, in bytes.
+     *
+     * @return the max size of the client entry cache, 0 if the cache is disabled.
+     */
+    public long getEntryCacheMaxSizeBytes() {
+        return getLong(ENTRY_CACHE_MAX_SIZE_BYTES, 0L);
+    }
+
+    /**
+     * Set the max size of the client entry cache, in bytes.
+     *
+     * <p>The entry cache is shared by all the ledger handles of the client. It keeps the entries
+     * added by the client and the entries read from the bookies, up to the last add confirmed of
+     * their ledger, so that multiple readers tailing the same ledger only read each entry once
+     * from the bookies. The least recently used entries are evicted when the cache is full. The
+     * cache is disabled when the size is 0, which is the default.
+     *
+     * @param maxSizeBytes the max size of the entry cache, in bytes.
+     * @return client configuration instance.
+     */
+    public ClientConfiguration setEntryCacheMaxSizeBytes(long maxSizeBytes) {
+        setProperty(ENTRY_CACHE_MAX_SIZE_BYTES, maxSizeBytes);
+        return this;
+    }
+
+    /**
+     * Get the max number of closed ledgers, and of open ledgers, whose metadata is cached by the client.
+     *
+     * @return the max size of the ledger metadata cache, 0 if the cache is disabled.
+     */
+    public long getLedgerMetadataCacheMaxSize() {
+        return getLong(LEDGER_METADATA_CACHE_MAX_SIZE, 0L);
+    }
+
+    /**
+     * Set the max number of closed ledgers, and of open ledgers, whose metadata is cached by the client.
+     *
+     * <p>The ledger metadata cache saves the reads of the metadata store when the same ledgers are opened
+     * repeatedly. The metadata of the cached ledgers is watched and updated while it is cached. Up to
+     * {@code maxSize} closed ledgers and up to {@code maxSize} open ledgers are cached, the least recently
+     * used ledgers are evicted when they are exceeded. The cache is disabled when the size is 0, which is the
+     * default.
+     *
+     * @param maxSize the max number of closed ledgers, and of open ledgers, in the ledger metadata cache.
+     * @return client configuration instance.
+     */
+    public ClientConfiguration setLedgerMetadataCacheMaxSize(long maxSize) {
+        setProperty(LEDGER_METADATA_CACHE_MAX_SIZE, maxSize);
+        return this;
+    }
+
     /**
      * Get Ensemble Placement Policy Class.
      *
@@ -1245,6 +1471,33 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return this;
     }
 
+    /**
+     * Whether reads are sent first to the replica with the best latency score.
+     *
+     * @return true if the latency aware read ordering is enabled, otherwise false.
+     */
+    public boolean isReorderReadLatencyAware() {
+        return getBoolean(READ_REORDER_LATENCY_AWARE, false);
+    }
+
+    /**
+     * Enable/disable the latency aware read ordering.
+     *
+     * <p>If enabled, the client keeps a moving average of the read latency of each bookie
+     * and sends the first read of an entry to the replica in the write set with the lowest
+     * score, computed from that latency and from the number of requests pending on the
+     * bookie. A slow but healthy bookie then stops getting the first attempt of the reads.
+     * When enabled, {@link #setReorderThresholdPendingRequests(int)} is not used to reorder
+     * the reads. Only applies to the rack aware and region aware placement policies.
+     *
+     * @param enabled the flag to enable/disable the latency aware read ordering.
+     * @return client configuration instance.
+     */
+    public ClientConfiguration setReorderReadLatencyAware(boolean enabled) {
+        setProperty(READ_REORDER_LATENCY_AWARE, enabled);
+        return this;
+    }
+
     /**
      * Get the network topology stabilize period in seconds. if it is zero, this feature is turned off.
      *
@@ -105,6 +105,9 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String COMPACTION_RATE = "compactionRate";
     protected static final String COMPACTION_RATE_BY_ENTRIES = "compactionRateByEntries";
     protected static final String COMPACTION_RATE_BY_BYTES = "compactionRateByBytes";
+    protected static final String COMPACTION_MAX_CONCURRENT_ENTRY_LOGS = "compactionMaxConcurrentEntryLogs";
+    protected static final String COMPACTION_FOREGROUND_LATENCY_TARGET_MILLIS =
+            "compactionForegroundLatencyTargetMillis";
 
     // Gc Parameters
     protected static final String GC_WAIT_TIME = "gcWaitTime";
@@ -142,6 +145,9 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String JOURNAL_BUFFERED_WRITES_THRESHOLD = "journalBufferedWritesThreshold";
     protected static final String JOURNAL_BUFFERED_ENTRIES_THRESHOLD = "journalBufferedEntriesThreshold";
     protected static final String JOURNAL_FLUSH_WHEN_QUEUE_EMPTY = "journalFlushWhenQueueEmpty";
+    protected static final String JOURNAL_ADAPTIVE_GROUP_COMMIT_ENABLED = "journalAdaptiveGroupCommitEnabled";
+    protected static final String JOURNAL_ADAPTIVE_GROUP_COMMIT_TARGET_LATENCY_MSEC =
+            "journalAdaptiveGroupCommitTargetLatencyMSec";
     protected static final String JOURNAL_REMOVE_FROM_PAGE_CACHE = "journalRemoveFromPageCache";
     protected static final String JOURNAL_PRE_ALLOC_SIZE = "journalPreAllocSizeMB";
     protected static final String JOURNAL_WRITE_BUFFER_SIZE = "journalWriteBufferSizeKB";
@@ -153,6 +159,8 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String JOURNAL_PAGECACHE_FLUSH_INTERVAL_MSEC = "journalPageCacheFlushIntervalMSec";
     protected static final String JOURNAL_CHANNEL_PROVIDER = "journalChannelProvider";
     protected static final String JOURNAL_REUSE_FILES = "journalReuseFiles";
+    protected static final String JOURNAL_DIRECT_IO_ENABLED = "journalDirectIoEnabled";
+    protected static final String JOURNAL_IO_URING_QUEUE_DEPTH = "journalIoUringQueueDepth";
     // backpressure control
     protected static final String MAX_ADDS_IN_PROGRESS_LIMIT = "maxAddsInProgressLimit";
     protected static final String MAX_READS_IN_PROGRESS_LIMIT = "maxReadsInProgressLimit";
@@ -229,6 +237,8 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String NUM_LONG_POLL_WORKER_THREADS = "numLongPollWorkerThreads";
     protected static final String NUM_HIGH_PRIORITY_WORKER_THREADS = "numHighPriorityWorkerThreads";
     protected static final String READ_WORKER_THREADS_THROTTLING_ENABLED = "readWorkerThreadsThrottlingEnabled";
+    protected static final String ZERO_COPY_READ_ENABLED = "zeroCopyReadEnabled";
+    protected static final String ZERO_COPY_READ_MIN_ENTRY_SIZE = "zeroCopyReadMinEntrySize";
 
     // Long poll parameters
     protected static final String REQUEST_TIMER_TICK_DURATION_MILLISEC = "requestTimerTickDurationMs";
@@ -320,6 +330,12 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String ENTRY_LOG_PER_LEDGER_COUNTER_LIMITS_MULT_FACTOR =
             "entryLogPerLedgerCounterLimitsMultFactor";
 
+    /*
+     * config specifying the number of buckets the ledgers are spread over,
+     * each bucket having its own active entrylog.
+     */
+    protected static final String ENTRY_LOG_BUCKETS = "entryLogBuckets";
+
     // Perform local consistency check on bookie startup
     protected static final String LOCAL_CONSISTENCY_CHECK_ON_STARTUP = "localConsistencyCheckOnStartup";
 
@@ -1021,6 +1037,49 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Whether the journal files are written with direct I/O, bypassing the page cache.
+     *
+     * @return true if journal direct I/O is enabled
+     */
+    public boolean getJournalDirectIoEnabled() {
+        return this.getBoolean(JOURNAL_DIRECT_IO_ENABLED, false);
+    }
+
+    /**
+     * Enable or disable writing the journal files with direct I/O.
+     *
+     * @param enabled
+     *          whether to write the journal files with direct I/O
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalDirectIoEnabled(boolean enabled) {
+        setProperty(JOURNAL_DIRECT_IO_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get the queue depth of the io_uring instance used to write the journal files with direct I/O.
+     * 0 means that io_uring is not used, and the writes are issued with pwrite.
+     *
+     * @return the io_uring queue depth
+     */
+    public int getJournalIoUringQueueDepth() {
+        return this.getInt(JOURNAL_IO_URING_QUEUE_DEPTH, 0);
+    }
+
+    /**
+     * Set the queue depth of the io_uring instance used to write the journal files with direct I/O.
+     *
+     * @param queueDepth
+     *          the io_uring queue depth, 0 to not use io_uring
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalIoUringQueueDepth(int queueDepth) {
+        setProperty(JOURNAL_IO_URING_QUEUE_DEPTH, queueDepth);
+        return this;
+    }
+
     /**
      * Get max number of adds in progress. 0 == unlimited.
      *
@@ -2024,6 +2083,52 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return getBoolean(READ_WORKER_THREADS_THROTTLING_ENABLED, true);
     }
 
+    /**
+     * Enable the zero-copy read path. Entries that are read from the entry log files are
+     * transferred by the kernel from the file to the socket, without being copied in the
+     * bookie memory. This only applies to the v2 protocol reads, on connections without TLS,
+     * and with the DbLedgerStorage.
+     *
+     * @param enabled
+     *          whether to serve the entry log reads with zero-copy transfers
+     * @return server configuration
+     */
+    public ServerConfiguration setZeroCopyReadEnabled(boolean enabled) {
+        setProperty(ZERO_COPY_READ_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Whether the zero-copy read path is enabled.
+     *
+     * @return true if the entry log reads are served with zero-copy transfers
+     */
+    public boolean isZeroCopyReadEnabled() {
+        return getBoolean(ZERO_COPY_READ_ENABLED, false);
+    }
+
+    /**
+     * Set the min size of the entries that are served with zero-copy transfers. Smaller
+     * entries are read in memory, where the copy costs less than the file transfer setup.
+     *
+     * @param size
+     *          min entry size in bytes
+     * @return server configuration
+     */
+    public ServerConfiguration setZeroCopyReadMinEntrySize(int size) {
+        setProperty(ZERO_COPY_READ_MIN_ENTRY_SIZE, size);
+        return this;
+    }
+
+    /**
+     * Get the min size of the entries that are served with zero-copy transfers.
+     *
+     * @return min entry size in bytes
+     */
+    public int getZeroCopyReadMinEntrySize() {
+        return getInt(ZERO_COPY_READ_MIN_ENTRY_SIZE, 16 * 1024);
+    }
+
 
 
     /**
@@ -2416,6 +2521,52 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return getBoolean(JOURNAL_FLUSH_WHEN_QUEUE_EMPTY, false);
     }
 
+    /**
+     * Whether the journal group commit parameters are picked at runtime based on the arrival
+     * rate of the entries and on the write and fsync latencies, instead of using fixed values.
+     * When enabled, {@link #getJournalMaxGroupWaitMSec()}, {@link #getJournalBufferedWritesThreshold()}
+     * and {@link #getJournalBufferedEntriesThreshold()} are used as upper bounds.
+     *
+     * @return true if the adaptive group commit is enabled
+     */
+    public boolean getJournalAdaptiveGroupCommitEnabled() {
+        return getBoolean(JOURNAL_ADAPTIVE_GROUP_COMMIT_ENABLED, false);
+    }
+
+    /**
+     * Enable or disable the adaptive journal group commit.
+     *
+     * @param enabled
+     *          whether to enable the adaptive group commit
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalAdaptiveGroupCommitEnabled(boolean enabled) {
+        setProperty(JOURNAL_ADAPTIVE_GROUP_COMMIT_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * The journal add latency that the adaptive group commit tries to stay under, at the
+     * tail of the distribution. Default is 5ms.
+     *
+     * @return target add latency in milliseconds
+     */
+    public long getJournalAdaptiveGroupCommitTargetLatencyMSec() {
+        return getLong(JOURNAL_ADAPTIVE_GROUP_COMMIT_TARGET_LATENCY_MSEC, 5);
+    }
+
+    /**
+     * Set the journal add latency that the adaptive group commit tries to stay under.
+     *
+     * @param targetLatencyMSec
+     *          target add latency in milliseconds
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalAdaptiveGroupCommitTargetLatencyMSec(long targetLatencyMSec) {
+        setProperty(JOURNAL_ADAPTIVE_GROUP_COMMIT_TARGET_LATENCY_MSEC, targetLatencyMSec);
+        return this;
+    }
+
     /**
      * Set whether the bookie is able to go into read-only mode.
      * If this is set to false, the bookie will shutdown on encountering
@@ -2964,6 +3115,60 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get the maximum number of entry logs compacted concurrently by the garbage collector of a ledger storage.
+     * Default is 1.
+     *
+     * @return the maximum number of entry logs compacted concurrently
+     */
+    public int getCompactionMaxConcurrentEntryLogs() {
+        return getInt(COMPACTION_MAX_CONCURRENT_ENTRY_LOGS, 1);
+    }
+
+    /**
+     * Set the maximum number of entry logs compacted concurrently by the garbage collector of a ledger storage.
+     *
+     * <p>The DbLedgerStorage runs a garbage collector per ledger directory, so this bounds the number of
+     * compactions per disk. The concurrent compactions share the compaction rate of the garbage collector.
+     * The transactional compaction of the default entry logger writes to a single compaction log, so it always
+     * compacts one entry log at a time.
+     *
+     * @param maxConcurrentEntryLogs maximum number of entry logs compacted concurrently
+     *
+     * @return ServerConfiguration
+     */
+    public ServerConfiguration setCompactionMaxConcurrentEntryLogs(int maxConcurrentEntryLogs) {
+        setProperty(COMPACTION_MAX_CONCURRENT_ENTRY_LOGS, maxConcurrentEntryLogs);
+        return this;
+    }
+
+    /**
+     * Get the target latency of the foreground reads of the entry logs, above which the compaction backs off.
+     * Default is 0, the compaction rate is not adjusted.
+     *
+     * @return the foreground read latency target, in milliseconds
+     */
+    public long getCompactionForegroundLatencyTargetMillis() {
+        return getLong(COMPACTION_FOREGROUND_LATENCY_TARGET_MILLIS, 0L);
+    }
+
+    /**
+     * Set the target latency of the foreground reads of the entry logs, above which the compaction backs off.
+     *
+     * <p>The compaction rate is halved every second the average latency of the reads of the entry logs of the
+     * ledger storage is above the target, down to a tenth of the configured rate, and is increased back to the
+     * configured rate when the latency is below the target. Both the DbLedgerStorage and the interleaved ledger
+     * storages, including SortedLedgerStorage, record the latency of their entry log reads.
+     *
+     * @param latencyTargetMillis the foreground read latency target, in milliseconds, or 0 to disable it
+     *
+     * @return ServerConfiguration
+     */
+    public ServerConfiguration setCompactionForegroundLatencyTargetMillis(long latencyTargetMillis) {
+        setProperty(COMPACTION_FOREGROUND_LATENCY_TARGET_MILLIS, latencyTargetMillis);
+        return this;
+    }
+
     /**
      * Should we remove pages from page cache after force write.
      *
@@ -3172,6 +3377,12 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
             throw new ConfigurationException(
                     "When entryLogPerLedger is enabled , it is unnecessary to use transactional compaction");
         }
+        if (getEntryLogBuckets() < 1) {
+            throw new ConfigurationException("Invalid entryLogBuckets : " + getEntryLogBuckets());
+        }
+        if (isEntryLogPerLedgerEnabled() && getEntryLogBuckets() > 1) {
+            throw new ConfigurationException("entryLogBuckets can not be used when entryLogPerLedger is enabled");
+        }
         if ((getJournalFormatVersionToWrite() >= 6) ^ (getFileInfoFormatVersionToWrite() >= 1)) {
             throw new ConfigurationException("For persisiting explicitLac, journalFormatVersionToWrite should be >= 6"
                     + "and FileInfoFormatVersionToWrite should be >= 1");
@@ -3902,6 +4113,27 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /*
+     * get the number of buckets the ledgers are spread over, each bucket
+     * having its own active entrylog. The entries of a ledger are always
+     * written to the entrylog of the same bucket, chosen from the ledger id,
+     * so each entrylog interleaves the entries of N times fewer ledgers. With
+     * a single bucket, the entries of all the ledgers are written to the same
+     * active entrylog.
+     */
+    public int getEntryLogBuckets() {
+        return this.getInt(ENTRY_LOG_BUCKETS, 1);
+    }
+
+    /*
+     * sets the number of buckets the ledgers are spread over, each bucket
+     * having its own active entrylog.
+     */
+    public ServerConfiguration setEntryLogBuckets(int entryLogBuckets) {
+        this.setProperty(ENTRY_LOG_BUCKETS, Integer.toString(entryLogBuckets));
+        return this;
+    }
+
     /**
      * True if a local consistency check should be performed on startup.
      */
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.meta;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeperClientStats;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.LedgerMetadataListener;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.Processor;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.versioning.Version;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.apache.zookeeper.AsyncCallback;
+
+/**
+ * A ledger manager caching the metadata of the ledgers read by the client.
+ *
+ * <p>The metadata of the cached ledgers is watched with a ledger metadata listener, so the cached metadata
+ * is updated when it changes, e.g. when an open ledger is closed or when the re-replication replaces a failed
+ * bookie of a closed ledger, and invalidated when the ledger is deleted. The metadata written or removed
+ * through this ledger manager updates or invalidates the cached metadata, and the cached metadata is
+ * invalidated when a write fails with a version conflict, so the retries read the latest metadata. The
+ * underlying ledger manager reads the metadata of a ledger when it starts watching it, so a miss costs two
+ * reads of the metadata store, but the next opens of the ledger do not read it while it is cached.
+ *
+ * <p>The closed ledgers and the open ledgers are cached in separate caches of the same max size, so the
+ * churn of the open ledgers does not evict the closed ledgers, which are the ones read repeatedly. The least
+ * recently used ledgers of each cache are evicted when it reaches its max size.
+ */
+@Slf4j
+public class CachingLedgerManager implements LedgerManager {
+
+    private static class CachedMetadata {
+        final Versioned<LedgerMetadata> metadata;
+
+        CachedMetadata(Versioned<LedgerMetadata> metadata) {
+            this.metadata = metadata;
+        }
+    }
+
+    private final LedgerManager underlying;
+    private final Cache<Long, CachedMetadata> closedLedgers;
+    private final Cache<Long, CachedMetadata> openLedgers;
+    private final ConcurrentMap<Long, CompletableFuture<Versioned<LedgerMetadata>>> pendingReads =
+        new ConcurrentHashMap<>();
+    // a listener per ledger, the etcd ledger manager watches a single ledger per listener
+    private final ConcurrentMap<Long, LedgerMetadataListener> watches = new ConcurrentHashMap<>();
+    private final Counter hitsCounter;
+    private final Counter missesCounter;
+
+    public CachingLedgerManager(LedgerManager underlying, long maxSize, BookKeeperClientStats clientStats) {
+        this.underlying = underlying;
+        this.closedLedgers = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .removalListener(this::onMetadataRemoved)
+                .build();
+        this.openLedgers = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .removalListener(this::onMetadataRemoved)
+                .build();
+        this.hitsCounter = clientStats.getLedgerMetadataCacheHitsCounter();
+        this.missesCounter = clientStats.getLedgerMetadataCacheMissesCounter();
+        clientStats.registerLedgerMetadataCacheSizeGauge(new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return closedLedgers.size() + openLedgers.size();
+            }
+        });
+    }
+
+    @VisibleForTesting
+    public LedgerManager getUnderlying() {
+        return underlying;
+    }
+
+    @VisibleForTesting
+    Versioned<LedgerMetadata> getCachedMetadata(long ledgerId) {
+        CachedMetadata cached = getCached(ledgerId);
+        return cached == null ? null : cached.metadata;
+    }
+
+    private CachedMetadata getCached(long ledgerId) {
+        CachedMetadata cached = closedLedgers.getIfPresent(ledgerId);
+        return cached != null ? cached : openLedgers.getIfPresent(ledgerId);
+    }
+
+    private boolean isCached(long ledgerId) {
+        return closedLedgers.asMap().containsKey(ledgerId) || openLedgers.asMap().containsKey(ledgerId);
+    }
+
+    private static boolean isNewer(Versioned<LedgerMetadata> metadata, CachedMetadata cached) {
+        return cached == null
+            || metadata.getVersion().compare(cached.metadata.getVersion()) == Version.Occurred.AFTER;
+    }
+
+    /**
+     * Cache the metadata of a ledger, unless a newer version is already cached. The ledger is moved to the
+     * closed ledgers when it is closed, and its metadata is watched while it is cached.
+     */
+    private void cacheMetadata(long ledgerId, Versioned<LedgerMetadata> metadata) {
+        boolean closed = metadata.getValue().isClosed();
+        Cache<Long, CachedMetadata> target = closed ? closedLedgers : openLedgers;
+        Cache<Long, CachedMetadata> other = closed ? openLedgers : closedLedgers;
+        boolean[] moved = new boolean[1];
+        target.asMap().compute(ledgerId, (id, existing) -> {
+            CachedMetadata inOther = other.getIfPresent(id);
+            if (!isNewer(metadata, existing) || !isNewer(metadata, inOther)) {
+                return existing;
+            }
+            moved[0] = inOther != null;
+            return new CachedMetadata(metadata);
+        });
+        if (moved[0]) {
+            // the ledger is still cached, so its listener is kept
+            other.invalidate(ledgerId);
+        }
+        LedgerMetadataListener listener = this::onMetadataChanged;
+        if (isCached(ledgerId) && watches.putIfAbsent(ledgerId, listener) == null) {
+            underlying.registerLedgerMetadataListener(ledgerId, listener);
+            if (!isCached(ledgerId) && watches.remove(ledgerId, listener)) {
+                // evicted before the listener was registered
+                underlying.unregisterLedgerMetadataListener(ledgerId, listener);
+            }
+        }
+    }
+
+    private void invalidate(long ledgerId) {
+        closedLedgers.invalidate(ledgerId);
+        openLedgers.invalidate(ledgerId);
+    }
+
+    private void onMetadataChanged(long ledgerId, Versioned<LedgerMetadata> metadata) {
+        if (metadata == null) {
+            // the ledger is deleted, the listener is notified while the underlying ledger manager iterates its
+            // listeners and drops them, so it must not be unregistered here
+            watches.remove(ledgerId);
+            invalidate(ledgerId);
+        } else if (isCached(ledgerId)) {
+            cacheMetadata(ledgerId, metadata);
+        }
+    }
+
+    private void onMetadataRemoved(RemovalNotification<Long, CachedMetadata> notification) {
+        long ledgerId = notification.getKey();
+        if (notification.getCause() != RemovalCause.REPLACED && !isCached(ledgerId)) {
+            LedgerMetadataListener listener = watches.remove(ledgerId);
+            if (listener != null) {
+                underlying.unregisterLedgerMetadataListener(ledgerId, listener);
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<Versioned<LedgerMetadata>> createLedgerMetadata(long ledgerId, LedgerMetadata metadata) {
+        return underlying.createLedgerMetadata(ledgerId, metadata);
+    }
+
+    @Override
+    public CompletableFuture<Void> removeLedgerMetadata(long ledgerId, Version version) {
+        invalidate(ledgerId);
+        return underlying.removeLedgerMetadata(ledgerId, version)
+            .whenComplete((result, exception) -> invalidate(ledgerId));
+    }
+
+    @Override
+    public CompletableFuture<Versioned<LedgerMetadata>> readLedgerMetadata(long ledgerId) {
+        CachedMetadata cached = getCached(ledgerId);
+        if (cached != null) {
+            hitsCounter.inc();
+            return FutureUtils.value(cached.metadata);
+        }
+        missesCounter.inc();
+        // the concurrent reads of the same ledger share a single read of the underlying ledger manager
+        CompletableFuture<Versioned<LedgerMetadata>> pendingRead = pendingReads.computeIfAbsent(ledgerId,
+                (id) -> underlying.readLedgerMetadata(ledgerId).whenComplete((metadata, exception) -> {
+                    if (exception == null) {
+                        cacheMetadata(ledgerId, metadata);
+                    }
+                }));
+        pendingRead.whenComplete((metadata, exception) -> pendingReads.remove(ledgerId, pendingRead));
+        return pendingRead.thenApply((metadata) -> metadata);
+    }
+
+    @Override
+    public CompletableFuture<Versioned<LedgerMetadata>> writeLedgerMetadata(long ledgerId, LedgerMetadata metadata,
+                                                                            Version currentVersion) {
+        return underlying.writeLedgerMetadata(ledgerId, metadata, currentVersion)
+            .whenComplete((written, exception) -> {
+                if (exception == null) {
+                    cacheMetadata(ledgerId, written);
+                } else if (BKException.getExceptionCode(exception) == BKException.Code.MetadataVersionException) {
+                    // the cached metadata may be stale, the next read has to get the latest metadata
+                    invalidate(ledgerId);
+                }
+            });
+    }
+
+    @Override
+    public void registerLedgerMetadataListener(long ledgerId, LedgerMetadataListener listener) {
+        underlying.registerLedgerMetadataListener(ledgerId, listener);
+    }
+
+    @Override
+    public void unregisterLedgerMetadataListener(long ledgerId, LedgerMetadataListener listener) {
+        underlying.unregisterLedgerMetadataListener(ledgerId, listener);
+    }
+
+    @Override
+    public void asyncProcessLedgers(Processor<Long> processor, AsyncCallback.VoidCallback finalCb,
+                                    Object context, int successRc, int failureRc) {
+        underlying.asyncProcessLedgers(processor, finalCb, context, successRc, failureRc);
+    }
+
+    @Override
+    public LedgerRangeIterator getLedgerRanges(long zkOpTimeOutMs) {
+        return underlying.getLedgerRanges(zkOpTimeOutMs);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closedLedgers.invalidateAll();
+        openLedgers.invalidateAll();
+        underlying.close();
+    }
+}
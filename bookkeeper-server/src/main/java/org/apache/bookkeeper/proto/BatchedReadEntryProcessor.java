@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.proto;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.proto.BookieProtocol.BatchedReadRequest;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processes a {@link BatchedReadRequest}: reads up to {@code maxCount} contiguous entries
+ * starting at the requested entry and sends them back in a single response frame.
+ *
+ * <p>The read stops at the first entry that is missing, or before the response would exceed
+ * the size limit requested by the client (capped by the bookie frame size). Only a failure
+ * on the first entry is reported as an error, otherwise the entries read so far are returned.
+ */
+class BatchedReadEntryProcessor extends PacketProcessorBase<BatchedReadRequest> {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchedReadEntryProcessor.class);
+
+    /**
+     * Size of the response header: frame size, packet header, error code, ledger id,
+     * start entry id and entry count.
+     */
+    static final int BATCH_RESPONSE_HEADERS_SIZE = 4 + 4 + 4 + 8 + 8 + 4;
+
+    /**
+     * Per entry overhead in the response: the entry length.
+     */
+    static final int BATCH_RESPONSE_ENTRY_OVERHEAD = 4;
+
+    private boolean throttleReadResponses;
+    private long maxFrameSize;
+
+    public static BatchedReadEntryProcessor create(BatchedReadRequest request,
+                                                   BookieRequestHandler requestHandler,
+                                                   BookieRequestProcessor requestProcessor,
+                                                   boolean throttleReadResponses,
+                                                   long maxFrameSize) {
+        BatchedReadEntryProcessor rep = RECYCLER.get();
+        rep.init(request, requestHandler, requestProcessor);
+        rep.throttleReadResponses = throttleReadResponses;
+        rep.maxFrameSize = maxFrameSize;
+        requestProcessor.onReadRequestStart(requestHandler.ctx().channel());
+        return rep;
+    }
+
+    @Override
+    protected void processPacket() {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Received new batched read request: {}", request);
+        }
+        if (!requestHandler.ctx().channel().isOpen()) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Dropping batched read request for closed channel: {}", requestHandler.ctx().channel());
+            }
+            requestProcessor.onReadRequestFinish();
+            recycle();
+            return;
+        }
+        int errorCode = BookieProtocol.EOK;
+        long startTimeNanos = MathUtils.nowInNano();
+        ByteBufList data = null;
+        try {
+            if (request.getMaxCount() <= 0) {
+                throw new IllegalArgumentException("Invalid max count " + request.getMaxCount());
+            }
+            data = readEntries();
+        } catch (Bookie.NoLedgerException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Error reading {}", request, e);
+            }
+            errorCode = BookieProtocol.ENOLEDGER;
+        } catch (Bookie.NoEntryException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Error reading {}", request, e);
+            }
+            errorCode = BookieProtocol.ENOENTRY;
+        } catch (IOException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Error reading {}", request, e);
+            }
+            errorCode = BookieProtocol.EIO;
+        } catch (BookieException.DataUnknownException e) {
+            LOG.error("Ledger {} is in an unknown state", request.getLedgerId(), e);
+            errorCode = BookieProtocol.EUNKNOWNLEDGERSTATE;
+        } catch (BookieException e) {
+            LOG.error("Unauthorized access to ledger {}", request.getLedgerId(), e);
+            errorCode = BookieProtocol.EUA;
+        } catch (Throwable t) {
+            LOG.error("Unexpected exception reading at {}:{} : {}", request.getLedgerId(), request.getEntryId(),
+                      t.getMessage(), t);
+            errorCode = BookieProtocol.EBADREQ;
+        }
+
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Batched read entries rc = {} for {}", errorCode, request);
+        }
+        sendResponse(data, errorCode, startTimeNanos);
+    }
+
+    private ByteBufList readEntries() throws IOException, BookieException {
+        long maxResponseSize = Math.min(request.getMaxSize(), maxFrameSize);
+        long responseSize = BATCH_RESPONSE_HEADERS_SIZE;
+        // the first entry is always returned, the client can't make progress otherwise
+        ByteBuf first = requestProcessor.getBookie().readEntry(request.getLedgerId(), request.getEntryId());
+        responseSize += BATCH_RESPONSE_ENTRY_OVERHEAD + first.readableBytes();
+        ByteBufList data = ByteBufList.get(first);
+        for (int i = 1; i < request.getMaxCount(); i++) {
+            ByteBuf entry;
+            try {
+                entry = requestProcessor.getBookie().readEntry(request.getLedgerId(), request.getEntryId() + i);
+            } catch (IOException | BookieException e) {
+                // return the contiguous range read so far, the client will retry from the failed entry
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Stopping batched read {} at entry {}", request, request.getEntryId() + i, e);
+                }
+                break;
+            }
+            responseSize += BATCH_RESPONSE_ENTRY_OVERHEAD + entry.readableBytes();
+            if (responseSize > maxResponseSize) {
+                entry.release();
+                break;
+            }
+            data.add(entry);
+        }
+        return data;
+    }
+
+    private void sendResponse(ByteBufList data, int errorCode, long startTimeNanos) {
+        final RequestStats stats = requestProcessor.getRequestStats();
+        final OpStatsLogger logger = stats.getBatchReadEntryStats();
+        BookieProtocol.Response response;
+        if (errorCode == BookieProtocol.EOK) {
+            logger.registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            response = ResponseBuilder.buildBatchedReadResponse(data, request);
+        } else {
+            if (data != null) {
+                data.release();
+            }
+            logger.registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            response = ResponseBuilder.buildErrorResponse(errorCode, request);
+        }
+
+        sendReadReqResponse(errorCode, response, stats.getBatchReadRequestStats(), throttleReadResponses);
+        recycle();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BatchedReadEntry(%d, %d, %d)",
+                request.getLedgerId(), request.getEntryId(), request.getMaxCount());
+    }
+
+    private void recycle() {
+        request.recycle();
+        super.reset();
+        this.recyclerHandle.recycle(this);
+    }
+
+    private final Recycler.Handle<BatchedReadEntryProcessor> recyclerHandle;
+
+    private BatchedReadEntryProcessor(Recycler.Handle<BatchedReadEntryProcessor> recyclerHandle) {
+        this.recyclerHandle = recyclerHandle;
+    }
+
+    private static final Recycler<BatchedReadEntryProcessor> RECYCLER =
+            new Recycler<BatchedReadEntryProcessor>() {
+        @Override
+        protected BatchedReadEntryProcessor newObject(Recycler.Handle<BatchedReadEntryProcessor> handle) {
+            return new BatchedReadEntryProcessor(handle);
+        }
+    };
+}
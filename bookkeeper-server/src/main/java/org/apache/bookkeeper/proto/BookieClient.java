@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import org.apache.bookkeeper.client.api.WriteFlag;
 import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.BatchedReadEntryCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ForceLedgerCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GetBookieInfoCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadEntryCallback;
@@ -69,6 +70,20 @@ public interface BookieClient {
      */
     boolean isWritable(BookieId address, long ledgerId);
 
+    /**
+     * Check whether the bookie at {@code address} has advertised the support of
+     * {@link #batchReadEntries batched reads} on the channel used for a ledger with {@code ledgerId}.
+     * The support is only known once the bookie has responded to a request on that channel, until then
+     * the entries should be read one by one.
+     *
+     * @param address the address of the bookie
+     * @param ledgerId the ledger we wish to send a request to
+     * @return true if a batched read can be sent to the bookie
+     */
+    default boolean isBatchReadSupported(BookieId address, long ledgerId) {
+        return false;
+    }
+
     /**
      * Get the number of outstanding requests on the channel used to connect
      * to a bookie at {@code address} for a ledger with {@code ledgerId}.
@@ -84,6 +99,17 @@ public interface BookieClient {
      */
     long getNumPendingRequests(BookieId address, long ledgerId);
 
+    /**
+     * Get the moving average of the latency of the reads sent to a bookie,
+     * used to order the read requests between the replicas of an entry.
+     *
+     * @param address the address of the bookie
+     * @return the read latency in nanoseconds, or -1 if there is no recent estimate
+     */
+    default long getReadLatencyNanos(BookieId address) {
+        return -1L;
+    }
+
     /**
      * Send a force request to the server. When complete all entries which have
      * been written for {@code ledgerId} to this bookie will be persisted on disk.
@@ -130,7 +156,7 @@ public interface BookieClient {
      * @param ledgerId the ledger to which we wish to add the entry
      * @param entryId the id of the entry we wish to add
      * @param toSend a buffer containing the entry and its digest
-     * @param cb the callback notified when the request completes
+     * @param cb the callback notified when the request completes, on the ordered executor thread of the ledger
      * @param ctx a context object passed to the callback on completion
      * @param options a bit mask of flags from BookieProtocol.FLAG_*
      *                {@link org.apache.bookkeeper.proto.BookieProtocol}
@@ -180,6 +206,28 @@ public interface BookieClient {
                    ReadEntryCallback cb, Object ctx, int flags, byte[] masterKey,
                    boolean allowFastFail);
 
+    /**
+     * Read a contiguous range of entries from bookie at address {@code address} in a single
+     * round trip. The bookie returns at most {@code maxCount} entries and stops before the
+     * response exceeds {@code maxSize} bytes, so fewer entries than requested may be returned.
+     *
+     * <p>Batched reads are only supported by the v2 wire protocol.
+     *
+     * @param address address of the bookie to read from
+     * @param ledgerId id of the ledger the entries belong to
+     * @param startEntryId id of the first entry to read
+     * @param maxCount maximum number of entries to read
+     * @param maxSize maximum size in bytes of the response
+     * @param cb the callback notified when the request completes
+     * @param ctx a context object passed to the callback on completion
+     * @param flags a bit mask of flags from BookieProtocol.FLAG_*
+     *              {@link org.apache.bookkeeper.proto.BookieProtocol}
+     * @param allowFastFail fail the read immediately if the channel is non-writable
+     *                      {@link #isWritable(BookieId,long)}
+     */
+    void batchReadEntries(BookieId address, long ledgerId, long startEntryId, int maxCount, long maxSize,
+                          BatchedReadEntryCallback cb, Object ctx, int flags, boolean allowFastFail);
+
     /**
      * Send a long poll request to bookie, waiting for the last add confirmed
      * to be updated. The client can also request that the full entry is returned
@@ -49,11 +49,13 @@ import org.apache.bookkeeper.auth.AuthProviderFactoryFactory;
 import org.apache.bookkeeper.auth.ClientAuthProvider;
 import org.apache.bookkeeper.client.BKException;
 import org.apache.bookkeeper.client.BookieInfoReader.BookieInfo;
+import org.apache.bookkeeper.client.RequestTimer;
 import org.apache.bookkeeper.client.api.WriteFlag;
 import org.apache.bookkeeper.common.util.OrderedExecutor;
 import org.apache.bookkeeper.conf.ClientConfiguration;
 import org.apache.bookkeeper.net.BookieId;
 import org.apache.bookkeeper.net.BookieSocketAddress;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.BatchedReadEntryCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ForceLedgerCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.FutureGetListOfEntriesOfLedger;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GenericCallback;
@@ -81,6 +83,7 @@ public class BookieClientImpl implements BookieClient, PerChannelBookieClientFac
     private final OrderedExecutor executor;
     private final ScheduledExecutorService scheduler;
     private final ScheduledFuture<?> timeoutFuture;
+    private final RequestTimer.Periodic timeoutTask;
 
     private final EventLoopGroup eventLoopGroup;
     private final ByteBufAllocator allocator;
@@ -105,6 +108,18 @@ public class BookieClientImpl implements BookieClient, PerChannelBookieClientFac
                             ByteBufAllocator allocator,
                             OrderedExecutor executor, ScheduledExecutorService scheduler,
                             StatsLogger statsLogger, BookieAddressResolver bookieAddressResolver) throws IOException {
+        this(conf, eventLoopGroup, allocator, executor, scheduler, null, statsLogger, bookieAddressResolver);
+    }
+
+    /**
+     * Create a bookie client checking the timeouts of the requests on the request timer of the client,
+     * or on the scheduler if {@code requestTimer} is null.
+     */
+    public BookieClientImpl(ClientConfiguration conf, EventLoopGroup eventLoopGroup,
+                            ByteBufAllocator allocator,
+                            OrderedExecutor executor, ScheduledExecutorService scheduler,
+                            RequestTimer requestTimer,
+                            StatsLogger statsLogger, BookieAddressResolver bookieAddressResolver) throws IOException {
         this.conf = conf;
         this.v3Conf = new ClientConfiguration(conf);
         this.v3Conf.setUseV2WireProtocol(false);
@@ -123,14 +138,24 @@ public class BookieClientImpl implements BookieClient, PerChannelBookieClientFac
         this.bookieErrorThresholdPerInterval = conf.getBookieErrorThresholdPerInterval();
 
         this.scheduler = scheduler;
-        if (conf.getAddEntryTimeout() > 0 || conf.getReadEntryTimeout() > 0) {
+        if (conf.getAddEntryTimeout() <= 0 && conf.getReadEntryTimeout() <= 0) {
+            this.timeoutFuture = null;
+            this.timeoutTask = null;
+        } else if (requestTimer != null) {
+            // the check only visits the elapsed ticks of the timeout wheels of the channels, and hands off the
+            // callbacks of the timed out requests to the ordered executor, so it can run on the timer thread
+            this.timeoutFuture = null;
+            this.timeoutTask = requestTimer.schedulePeriodic(
+                    () -> monitorPendingOperations(),
+                    conf.getTimeoutMonitorIntervalSec(),
+                    TimeUnit.SECONDS);
+        } else {
             this.timeoutFuture = this.scheduler.scheduleAtFixedRate(
                     () -> monitorPendingOperations(),
                     conf.getTimeoutMonitorIntervalSec(),
                     conf.getTimeoutMonitorIntervalSec(),
                     TimeUnit.SECONDS);
-        } else {
-            this.timeoutFuture = null;
+            this.timeoutTask = null;
         }
     }
 
@@ -167,6 +192,12 @@ public class BookieClientImpl implements BookieClient, PerChannelBookieClientFac
         return pcbcPool == null || pcbcPool.isWritable(key);
     }
 
+    @Override
+    public boolean isBatchReadSupported(BookieId address, long ledgerId) {
+        final PerChannelBookieClientPool pcbcPool = lookupClient(address);
+        return pcbcPool != null && pcbcPool.isBatchReadSupported(ledgerId);
+    }
+
     @Override
     public long getNumPendingRequests(BookieId address, long ledgerId) {
         PerChannelBookieClientPool pcbcPool = lookupClient(address);
@@ -179,6 +210,12 @@ public class BookieClientImpl implements BookieClient, PerChannelBookieClientFac
         }
     }
 
+    @Override
+    public long getReadLatencyNanos(BookieId address) {
+        PerChannelBookieClientPool pcbcPool = lookupClient(address);
+        return pcbcPool == null ? -1L : pcbcPool.getReadLatencyNanos();
+    }
+
     @Override
     public PerChannelBookieClient create(BookieId address, PerChannelBookieClientPool pcbcPool,
             SecurityHandlerFactory shFactory, boolean forceUseV3) throws SecurityException {
@@ -281,7 +318,12 @@ public class BookieClientImpl implements BookieClient, PerChannelBookieClientFac
                              final BookieId addr,
                              final WriteCallback cb,
                              final Object ctx) {
-        cb.writeComplete(rc, ledgerId, entryId, addr, ctx);
+        // complete on the ordered executor thread of the ledger, which handles the other responses of the add
+        try {
+            executor.executeOrdered(ledgerId, () -> cb.writeComplete(rc, ledgerId, entryId, addr, ctx));
+        } catch (RejectedExecutionException ree) {
+            cb.writeComplete(getRc(BKException.Code.InterruptedException), ledgerId, entryId, addr, ctx);
+        }
     }
 
     @Override
@@ -353,6 +395,19 @@ public class BookieClientImpl implements BookieClient, PerChannelBookieClientFac
         }
     }
 
+    private void completeBatchRead(final int rc,
+                                   final long ledgerId,
+                                   final long startEntryId,
+                                   final BatchedReadEntryCallback cb,
+                                   final Object ctx) {
+        try {
+            executor.executeOrdered(ledgerId, () -> cb.readEntriesComplete(rc, ledgerId, startEntryId, null, ctx));
+        } catch (RejectedExecutionException ree) {
+            cb.readEntriesComplete(getRc(BKException.Code.InterruptedException),
+                                   ledgerId, startEntryId, null, ctx);
+        }
+    }
+
     private static class ChannelReadyForAddEntryCallback
         implements GenericCallback<PerChannelBookieClient> {
         private final Handle<ChannelReadyForAddEntryCallback> recyclerHandle;
@@ -489,6 +544,25 @@ public class BookieClientImpl implements BookieClient, PerChannelBookieClientFac
         }, ledgerId);
     }
 
+    @Override
+    public void batchReadEntries(final BookieId addr, final long ledgerId, final long startEntryId,
+                                 final int maxCount, final long maxSize, final BatchedReadEntryCallback cb,
+                                 final Object ctx, final int flags, final boolean allowFastFail) {
+        final PerChannelBookieClientPool client = lookupClient(addr);
+        if (client == null) {
+            cb.readEntriesComplete(getRc(BKException.Code.BookieHandleNotAvailableException),
+                                   ledgerId, startEntryId, null, ctx);
+            return;
+        }
+
+        client.obtain((rc, pcbc) -> {
+            if (rc != BKException.Code.OK) {
+                completeBatchRead(rc, ledgerId, startEntryId, cb, ctx);
+            } else {
+                pcbc.batchReadEntries(ledgerId, startEntryId, maxCount, maxSize, cb, ctx, flags, allowFastFail);
+            }
+        }, ledgerId);
+    }
 
     @Override
     public void readEntryWaitForLACUpdate(final BookieId addr,
@@ -564,6 +638,9 @@ public class BookieClientImpl implements BookieClient, PerChannelBookieClientFac
             if (timeoutFuture != null) {
                 timeoutFuture.cancel(false);
             }
+            if (timeoutTask != null) {
+                timeoutTask.cancel();
+            }
         } finally {
             closeLock.writeLock().unlock();
         }
@@ -36,6 +36,8 @@ import io.netty.channel.ChannelPromise;
 import io.netty.util.ReferenceCountUtil;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.bookkeeper.proto.BookieProtocol.PacketHeader;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.Response;
@@ -87,6 +89,12 @@ public class BookieProtoEncoding {
      * An encoder/decoder for the Bookkeeper protocol before version 3.
      */
     public static class RequestEnDeCoderPreV3 implements EnDecoder {
+        /**
+         * The size of the headers of a multi add request, without its frame size: the packet header and the
+         * number of adds.
+         */
+        static final int MULTI_ADD_HEADERS_SIZE = 4 + 4;
+
         final ExtensionRegistry extensionRegistry;
 
         //This empty master key is used when an empty password is provided which is the hash of an empty string
@@ -128,6 +136,23 @@ public class BookieProtoEncoding {
                 }
                 r.recycle();
                 return buf;
+            } else if (r instanceof BookieProtocol.BatchedReadRequest) {
+                BookieProtocol.BatchedReadRequest brr = (BookieProtocol.BatchedReadRequest) r;
+                int totalHeaderSize = 4 // for request type
+                    + 8 // for ledgerId
+                    + 8 // for start entryId
+                    + 4 // for max count
+                    + 8; // for max size
+
+                ByteBuf buf = allocator.buffer(totalHeaderSize + 4 /* frame size */);
+                buf.writeInt(totalHeaderSize);
+                buf.writeInt(PacketHeader.toInt(r.getProtocolVersion(), r.getOpCode(), r.getFlags()));
+                buf.writeLong(r.getLedgerId());
+                buf.writeLong(r.getEntryId());
+                buf.writeInt(brr.getMaxCount());
+                buf.writeLong(brr.getMaxSize());
+                r.recycle();
+                return buf;
             } else if (r instanceof BookieProtocol.AuthRequest) {
                 BookkeeperProtocol.AuthMessage am = ((BookieProtocol.AuthRequest) r).getAuthMessage();
                 int totalHeaderSize = 4; // for request type
@@ -156,18 +181,30 @@ public class BookieProtoEncoding {
             long entryId = BookieProtocol.INVALID_ENTRY_ID;
 
             switch (opCode) {
-            case BookieProtocol.ADDENTRY: {
-                byte[] masterKey = readMasterKey(packet);
-
-                // Read ledger and entry id without advancing the reader index
-                ledgerId = packet.getLong(packet.readerIndex());
-                entryId = packet.getLong(packet.readerIndex() + 8);
-                // mark the reader index so that any resets will return to the
-                // start of the payload
-                packet.markReaderIndex();
-                return BookieProtocol.ParsedAddRequest.create(
-                        version, ledgerId, entryId, flags,
-                        masterKey, packet);
+            case BookieProtocol.ADDENTRY:
+                return decodeAddRequest(version, flags, packet);
+            case BookieProtocol.MULTI_ADD_ENTRY: {
+                int numAdds = packet.readInt();
+                if (numAdds <= 0) {
+                    throw new IllegalStateException("Received multi add request with " + numAdds + " adds");
+                }
+                List<BookieProtocol.ParsedAddRequest> adds = new ArrayList<>(numAdds);
+                try {
+                    for (int i = 0; i < numAdds; i++) {
+                        int addSize = packet.readInt();
+                        ByteBuf add = packet.readSlice(addSize);
+                        int addHeader = add.readInt();
+                        adds.add(decodeAddRequest(PacketHeader.getVersion(addHeader),
+                                PacketHeader.getFlags(addHeader), add));
+                    }
+                } catch (Throwable t) {
+                    for (BookieProtocol.ParsedAddRequest add : adds) {
+                        add.release();
+                        add.recycle();
+                    }
+                    throw t;
+                }
+                return new BookieProtocol.MultiAddRequest(version, adds);
             }
 
             case BookieProtocol.READENTRY:
@@ -181,6 +218,12 @@ public class BookieProtoEncoding {
                 } else {
                     return BookieProtocol.ReadRequest.create(version, ledgerId, entryId, flags, null);
                 }
+            case BookieProtocol.BATCH_READ_ENTRY:
+                ledgerId = packet.readLong();
+                entryId = packet.readLong();
+                int maxCount = packet.readInt();
+                long maxSize = packet.readLong();
+                return BookieProtocol.BatchedReadRequest.create(version, ledgerId, entryId, maxCount, maxSize, flags);
             case BookieProtocol.AUTH:
                 BookkeeperProtocol.AuthMessage.Builder builder = BookkeeperProtocol.AuthMessage.newBuilder();
                 builder.mergeFrom(new ByteBufInputStream(packet), extensionRegistry);
@@ -191,6 +234,65 @@ public class BookieProtoEncoding {
             }
         }
 
+        /**
+         * Encode a multi add request carrying the given add requests, as encoded by the client: each one is a
+         * {@link ByteBuf} or a {@link ByteBufList} starting with its frame size, so they are chained as they are
+         * after the headers. The multi add request owns the add requests, which are released if the encoding
+         * fails.
+         */
+        static ByteBufList encodeMultiAddRequest(List<?> addRequests, ByteBufAllocator allocator) {
+            ByteBufList request = null;
+            int numEncodedAdds = 0;
+            try {
+                int frameSize = MULTI_ADD_HEADERS_SIZE;
+                for (Object add : addRequests) {
+                    frameSize += add instanceof ByteBuf
+                            ? ((ByteBuf) add).readableBytes() : ((ByteBufList) add).readableBytes();
+                }
+                ByteBuf header = allocator.buffer(4 + MULTI_ADD_HEADERS_SIZE, 4 + MULTI_ADD_HEADERS_SIZE);
+                header.writeInt(frameSize);
+                header.writeInt(PacketHeader.toInt(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+                        BookieProtocol.MULTI_ADD_ENTRY, BookieProtocol.FLAG_NONE));
+                header.writeInt(addRequests.size());
+                request = ByteBufList.get(header);
+                for (Object add : addRequests) {
+                    if (add instanceof ByteBuf) {
+                        request.add((ByteBuf) add);
+                    } else {
+                        ByteBufList addRequest = (ByteBufList) add;
+                        for (int i = 0; i < addRequest.size(); i++) {
+                            request.add(addRequest.getBuffer(i).retain());
+                        }
+                        addRequest.release();
+                    }
+                    numEncodedAdds++;
+                }
+                return request;
+            } catch (Throwable t) {
+                if (request != null) {
+                    request.release();
+                }
+                for (int i = numEncodedAdds; i < addRequests.size(); i++) {
+                    ReferenceCountUtil.safeRelease(addRequests.get(i));
+                }
+                throw t;
+            }
+        }
+
+        private static BookieProtocol.ParsedAddRequest decodeAddRequest(byte version, short flags, ByteBuf packet) {
+            byte[] masterKey = readMasterKey(packet);
+
+            // Read ledger and entry id without advancing the reader index
+            long ledgerId = packet.getLong(packet.readerIndex());
+            long entryId = packet.getLong(packet.readerIndex() + 8);
+            // mark the reader index so that any resets will return to the
+            // start of the payload
+            packet.markReaderIndex();
+            return BookieProtocol.ParsedAddRequest.create(
+                    version, ledgerId, entryId, flags,
+                    masterKey, packet);
+        }
+
         private static byte[] readMasterKey(ByteBuf packet) {
             byte[] masterKey = null;
 
@@ -241,17 +343,10 @@ public class BookieProtoEncoding {
                 if (msg instanceof BookieProtocol.ReadResponse) {
                     BookieProtocol.ReadResponse rr = (BookieProtocol.ReadResponse) r;
                     int payloadSize = rr.getData().readableBytes();
-                    int responseSize = RESPONSE_HEADERS_SIZE + payloadSize;
                     boolean isSmallEntry = payloadSize < SMALL_ENTRY_SIZE_THRESHOLD;
 
-                    int bufferSize = 4 /* frame size */ + RESPONSE_HEADERS_SIZE
-                            + (isSmallEntry ? payloadSize : 0);
-                    ByteBuf buf = allocator.buffer(bufferSize);
-                    buf.writeInt(responseSize);
-                    buf.writeInt(PacketHeader.toInt(r.getProtocolVersion(), r.getOpCode(), (short) 0));
-                    buf.writeInt(r.getErrorCode());
-                    buf.writeLong(r.getLedgerId());
-                    buf.writeLong(r.getEntryId());
+                    ByteBuf buf = encodeReadResponseHeaders(rr, payloadSize, isSmallEntry ? payloadSize : 0,
+                            allocator);
 
                     if (isSmallEntry) {
                         buf.writeBytes(rr.getData());
@@ -260,14 +355,57 @@ public class BookieProtoEncoding {
                     } else {
                         return ByteBufList.get(buf, rr.getData());
                     }
+                } else if (msg instanceof BookieProtocol.BatchedReadResponse) {
+                    BookieProtocol.BatchedReadResponse brr = (BookieProtocol.BatchedReadResponse) r;
+                    ByteBufList data = brr.getData();
+                    int numEntries = data.size();
+                    int headersSize = RESPONSE_HEADERS_SIZE;
+                    if (r.getErrorCode() == BookieProtocol.EOK) {
+                        headersSize += 4 /* entry count */ + 4 * numEntries /* entry lengths */;
+                    }
+                    int payloadSize = data.readableBytes();
+                    boolean isSmallBatch = payloadSize < SMALL_ENTRY_SIZE_THRESHOLD;
+
+                    int bufferSize = 4 /* frame size */ + headersSize + (isSmallBatch ? payloadSize : 0);
+                    ByteBuf buf = allocator.buffer(bufferSize);
+                    buf.writeInt(headersSize + payloadSize);
+                    buf.writeInt(PacketHeader.toInt(r.getProtocolVersion(), r.getOpCode(),
+                            BookieProtocol.RESPONSE_FLAGS));
+                    buf.writeInt(r.getErrorCode());
+                    buf.writeLong(r.getLedgerId());
+                    buf.writeLong(r.getEntryId());
+                    if (r.getErrorCode() == BookieProtocol.EOK) {
+                        buf.writeInt(numEntries);
+                        for (int i = 0; i < numEntries; i++) {
+                            buf.writeInt(data.getBuffer(i).readableBytes());
+                        }
+                    }
+
+                    if (isSmallBatch) {
+                        for (int i = 0; i < numEntries; i++) {
+                            buf.writeBytes(data.getBuffer(i), data.getBuffer(i).readerIndex(),
+                                    data.getBuffer(i).readableBytes());
+                        }
+                        brr.release();
+                        return buf;
+                    } else {
+                        data.prepend(buf);
+                        return data;
+                    }
                 } else if (msg instanceof BookieProtocol.AddResponse) {
                     ByteBuf buf = allocator.buffer(RESPONSE_HEADERS_SIZE + 4 /* frame size */);
                     buf.writeInt(RESPONSE_HEADERS_SIZE);
-                    buf.writeInt(PacketHeader.toInt(r.getProtocolVersion(), r.getOpCode(), (short) 0));
+                    buf.writeInt(PacketHeader.toInt(r.getProtocolVersion(), r.getOpCode(),
+                            BookieProtocol.RESPONSE_FLAGS));
                     buf.writeInt(r.getErrorCode());
                     buf.writeLong(r.getLedgerId());
                     buf.writeLong(r.getEntryId());
                     return buf;
+                } else if (msg instanceof BookieProtocol.MultiAddResponse) {
+                    BookieProtocol.MultiAddResponse mar = (BookieProtocol.MultiAddResponse) r;
+                    ByteBuf buf = allocator.buffer(multiAddResponseSize(mar.getNumAdds()) + 4 /* frame size */);
+                    serializeMultiAddResponseInto(mar, buf);
+                    return buf;
                 } else if (msg instanceof BookieProtocol.AuthResponse) {
                     BookkeeperProtocol.AuthMessage am = ((BookieProtocol.AuthResponse) r).getAuthMessage();
                     int payloadSize = 4 + am.getSerializedSize();
@@ -275,7 +413,8 @@ public class BookieProtoEncoding {
 
                     ByteBuf buf = allocator.buffer(bufferSize);
                     buf.writeInt(payloadSize);
-                    buf.writeInt(PacketHeader.toInt(r.getProtocolVersion(), r.getOpCode(), (short) 0));
+                    buf.writeInt(PacketHeader.toInt(r.getProtocolVersion(), r.getOpCode(),
+                            BookieProtocol.RESPONSE_FLAGS));
                     buf.writeBytes(am.toByteArray());
                     return buf;
                 } else {
@@ -286,13 +425,37 @@ public class BookieProtoEncoding {
                 r.recycle();
             }
         }
+
+        /**
+         * Encode the frame size and headers of a read response carrying {@code payloadSize} bytes,
+         * in a buffer with room for {@code extraCapacity} more bytes.
+         */
+        static ByteBuf encodeReadResponseHeaders(BookieProtocol.ReadResponse r, int payloadSize,
+                                                 int extraCapacity, ByteBufAllocator allocator) {
+            ByteBuf buf = allocator.buffer(4 /* frame size */ + RESPONSE_HEADERS_SIZE + extraCapacity);
+            buf.writeInt(RESPONSE_HEADERS_SIZE + payloadSize);
+            buf.writeInt(PacketHeader.toInt(r.getProtocolVersion(), r.getOpCode(),
+                    BookieProtocol.RESPONSE_FLAGS));
+            buf.writeInt(r.getErrorCode());
+            buf.writeLong(r.getLedgerId());
+            buf.writeLong(r.getEntryId());
+            return buf;
+        }
+
         @Override
         public Object decode(ByteBuf buffer)
                 throws Exception {
+            int packetHeader = buffer.readInt();
+            BookieProtocol.Response response = decodeResponse(packetHeader, buffer);
+            response.flags = PacketHeader.getFlags(packetHeader);
+            return response;
+        }
+
+        private BookieProtocol.Response decodeResponse(int packetHeader, ByteBuf buffer)
+                throws Exception {
             int rc;
             long ledgerId, entryId;
 
-            int packetHeader = buffer.readInt();
             byte version = PacketHeader.getVersion(packetHeader);
             byte opCode = PacketHeader.getOpCode(packetHeader);
 
@@ -309,6 +472,34 @@ public class BookieProtoEncoding {
 
                 return new BookieProtocol.ReadResponse(
                         version, rc, ledgerId, entryId, buffer.retainedSlice());
+            case BookieProtocol.BATCH_READ_ENTRY:
+                rc = buffer.readInt();
+                ledgerId = buffer.readLong();
+                entryId = buffer.readLong();
+
+                ByteBufList data = ByteBufList.get();
+                if (rc == BookieProtocol.EOK) {
+                    int numEntries = buffer.readInt();
+                    int[] lengths = new int[numEntries];
+                    for (int i = 0; i < numEntries; i++) {
+                        lengths[i] = buffer.readInt();
+                    }
+                    for (int i = 0; i < numEntries; i++) {
+                        data.add(buffer.retainedSlice(buffer.readerIndex(), lengths[i]));
+                        buffer.skipBytes(lengths[i]);
+                    }
+                }
+                return new BookieProtocol.BatchedReadResponse(version, rc, ledgerId, entryId, data);
+            case BookieProtocol.MULTI_ADD_ENTRY:
+                int numAdds = buffer.readInt();
+                BookieProtocol.MultiAddResponse response = new BookieProtocol.MultiAddResponse(version, numAdds);
+                for (int i = 0; i < numAdds; i++) {
+                    rc = buffer.readInt();
+                    ledgerId = buffer.readLong();
+                    entryId = buffer.readLong();
+                    response.setAddResult(i, rc, ledgerId, entryId);
+                }
+                return response;
             case BookieProtocol.AUTH:
                 ByteBufInputStream bufStream = new ByteBufInputStream(buffer);
                 BookkeeperProtocol.AuthMessage.Builder builder = BookkeeperProtocol.AuthMessage.newBuilder();
@@ -322,11 +513,34 @@ public class BookieProtoEncoding {
 
         public static void serializeAddResponseInto(int rc, BookieProtocol.ParsedAddRequest req, ByteBuf buf) {
             buf.writeInt(RESPONSE_HEADERS_SIZE); // Frame size
-            buf.writeInt(PacketHeader.toInt(req.getProtocolVersion(), req.getOpCode(), (short) 0));
+            buf.writeInt(PacketHeader.toInt(req.getProtocolVersion(), req.getOpCode(),
+                    BookieProtocol.RESPONSE_FLAGS));
             buf.writeInt(rc); // rc-code
             buf.writeLong(req.getLedgerId());
             buf.writeLong(req.getEntryId());
         }
+
+        /**
+         * @return the size of a multi add response, without the frame size
+         */
+        static int multiAddResponseSize(int numAdds) {
+            return 4 // for response type
+                + 4 // for the number of adds
+                + numAdds * (4 + 8 + 8); // for the rc, ledgerId and entryId of each add
+        }
+
+        public static void serializeMultiAddResponseInto(BookieProtocol.MultiAddResponse response, ByteBuf buf) {
+            int numAdds = response.getNumAdds();
+            buf.writeInt(multiAddResponseSize(numAdds)); // Frame size
+            buf.writeInt(PacketHeader.toInt(response.getProtocolVersion(), response.getOpCode(),
+                    BookieProtocol.RESPONSE_FLAGS));
+            buf.writeInt(numAdds);
+            for (int i = 0; i < numAdds; i++) {
+                buf.writeInt(response.getErrorCode(i));
+                buf.writeLong(response.getLedgerId(i));
+                buf.writeLong(response.getEntryId(i));
+            }
+        }
     }
 
     /**
@@ -502,6 +716,12 @@ public class BookieProtoEncoding {
 
             if (msg instanceof ByteBuf) {
                 ctx.write(msg, promise);
+            } else if (msg instanceof BookieProtocol.FileRegionReadResponse) {
+                // The headers go first, then the kernel transfers the entry from the entry log file
+                BookieProtocol.FileRegionReadResponse rr = (BookieProtocol.FileRegionReadResponse) msg;
+                ctx.write(ResponseEnDeCoderPreV3.encodeReadResponseHeaders(rr, (int) rr.getRegion().count(), 0,
+                        ctx.alloc()), ctx.voidPromise());
+                ctx.write(rr.getRegion(), promise);
             } else if (msg instanceof BookkeeperProtocol.Response) {
                 ctx.write(repV3.encode(msg, ctx.alloc()), promise);
             } else if (msg instanceof BookieProtocol.Response) {
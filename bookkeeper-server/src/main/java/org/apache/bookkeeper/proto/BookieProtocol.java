@@ -22,11 +22,14 @@ package org.apache.bookkeeper.proto;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
 import io.netty.util.Recycler;
 import io.netty.util.Recycler.Handle;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.ReferenceCounted;
+import java.util.List;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.AuthMessage;
+import org.apache.bookkeeper.util.ByteBufList;
 
 /**
  * The packets of the Bookie protocol all have a 4-byte integer indicating the
@@ -133,6 +136,27 @@ public interface BookieProtocol {
     byte WRITE_LAC = 5;
     byte GET_BOOKIE_INFO = 6;
 
+    /**
+     * The Batch read entry request payload will be the ledger number, the first entry
+     * number to read, the maximum number of entries to return (4-byte integer) and the
+     * maximum size in bytes of the response (8-byte integer). The response payload will be
+     * a 4-byte error code, the 8-byte ledger number and 8-byte first entry number, followed,
+     * if the error code is EOK, by a 4-byte entry count, one 4-byte length per entry and the
+     * entries themselves. The bookie stops at the first missing entry, so the entries in a
+     * response are always contiguous.
+     */
+    byte BATCH_READ_ENTRY = 7;
+
+    /**
+     * The Multi add entry request payload will be a 4-byte count of adds, followed by the adds,
+     * each one being a complete Add entry packet prefixed by its 4-byte length, exactly as it would
+     * be framed on its own. The adds can be for different ledgers. The response payload will be a
+     * 4-byte count of adds, followed by the 4-byte error code, the 8-byte ledger number and the
+     * 8-byte entry number of each add, in no particular order. The response is sent once all the
+     * adds of the request are completed.
+     */
+    byte MULTI_ADD_ENTRY = 8;
+
     /**
      * The error code that indicates success.
      */
@@ -189,6 +213,26 @@ public interface BookieProtocol {
     short FLAG_RECOVERY_ADD = 0x0002;
     short FLAG_HIGH_PRIORITY = 0x0004;
 
+    /**
+     * Set by the bookie in the header of all its responses, to advertise that it supports
+     * {@link #BATCH_READ_ENTRY} requests. A bookie that doesn't know an op code closes the
+     * connection, failing all the other requests in flight on it, so the client only sends
+     * batched reads on a connection once it has received a response with this flag.
+     */
+    short FLAG_BATCH_READ_SUPPORTED = 0x0100;
+
+    /**
+     * Set by the bookie in the header of all its responses, to advertise that it supports
+     * {@link #MULTI_ADD_ENTRY} requests. Like the batched reads, the client only sends multi adds on a
+     * connection once it has received a response with this flag.
+     */
+    short FLAG_MULTI_ADD_SUPPORTED = 0x0200;
+
+    /**
+     * The flags of the header of the responses sent by the bookie.
+     */
+    short RESPONSE_FLAGS = FLAG_BATCH_READ_SUPPORTED | FLAG_MULTI_ADD_SUPPORTED;
+
     /**
      * A Bookie request object.
      */
@@ -305,6 +349,29 @@ public interface BookieProtocol {
         }
     }
 
+    /**
+     * A request adding several entries, possibly to different ledgers, on the bookie side.
+     */
+    class MultiAddRequest extends Request {
+        final List<ParsedAddRequest> adds;
+
+        MultiAddRequest(byte protocolVersion, List<ParsedAddRequest> adds) {
+            // the first add identifies the request in the logs
+            init(protocolVersion, MULTI_ADD_ENTRY, adds.get(0).getLedgerId(), adds.get(0).getEntryId(),
+                    FLAG_NONE, null);
+            this.adds = adds;
+        }
+
+        List<ParsedAddRequest> getAdds() {
+            return adds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Op(%d)[Ledger:%d,Entry:%d,NumAdds:%d]", opCode, ledgerId, entryId, adds.size());
+        }
+    }
+
     /**
      * A Request that reads data.
      */
@@ -348,6 +415,64 @@ public interface BookieProtocol {
         }
     }
 
+    /**
+     * A Request that reads a contiguous range of entries in a single round trip.
+     */
+    class BatchedReadRequest extends Request {
+        int maxCount;
+        long maxSize;
+
+        static BatchedReadRequest create(byte protocolVersion, long ledgerId, long startEntryId,
+                                         int maxCount, long maxSize, short flags) {
+            BatchedReadRequest read = RECYCLER.get();
+            read.protocolVersion = protocolVersion;
+            read.opCode = BATCH_READ_ENTRY;
+            read.ledgerId = ledgerId;
+            read.entryId = startEntryId;
+            read.maxCount = maxCount;
+            read.maxSize = maxSize;
+            read.flags = flags;
+            read.masterKey = null;
+            return read;
+        }
+
+        int getMaxCount() {
+            return maxCount;
+        }
+
+        long getMaxSize() {
+            return maxSize;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Op(%d)[Ledger:%d,StartEntry:%d,MaxCount:%d,MaxSize:%d]",
+                    opCode, ledgerId, entryId, maxCount, maxSize);
+        }
+
+        private final Handle<BatchedReadRequest> recyclerHandle;
+
+        private BatchedReadRequest(Handle<BatchedReadRequest> recyclerHandle) {
+            this.recyclerHandle = recyclerHandle;
+        }
+
+        private static final Recycler<BatchedReadRequest> RECYCLER = new Recycler<BatchedReadRequest>() {
+            @Override
+            protected BatchedReadRequest newObject(Handle<BatchedReadRequest> handle) {
+                return new BatchedReadRequest(handle);
+            }
+        };
+
+        @Override
+        public void recycle() {
+            ledgerId = -1;
+            entryId = -1;
+            maxCount = 0;
+            maxSize = 0;
+            recyclerHandle.recycle(this);
+        }
+    }
+
     /**
      * An authentication request.
      */
@@ -373,6 +498,7 @@ public interface BookieProtocol {
         int errorCode;
         long ledgerId;
         long entryId;
+        short flags;
 
         protected void init(byte protocolVersion, byte opCode,
                            int errorCode, long ledgerId, long entryId) {
@@ -381,6 +507,7 @@ public interface BookieProtocol {
             this.errorCode = errorCode;
             this.ledgerId = ledgerId;
             this.entryId = entryId;
+            this.flags = FLAG_NONE;
         }
 
         byte getProtocolVersion() {
@@ -403,6 +530,21 @@ public interface BookieProtocol {
             return errorCode;
         }
 
+        /**
+         * @return the flags of the header of the response, as received by the client
+         */
+        short getFlags() {
+            return flags;
+        }
+
+        boolean isBatchReadSupported() {
+            return (flags & FLAG_BATCH_READ_SUPPORTED) == FLAG_BATCH_READ_SUPPORTED;
+        }
+
+        boolean isMultiAddSupported() {
+            return (flags & FLAG_MULTI_ADD_SUPPORTED) == FLAG_MULTI_ADD_SUPPORTED;
+        }
+
         @Override
         public String toString() {
             return String.format("Op(%d)[Ledger:%d,Entry:%d,errorCode=%d]",
@@ -479,6 +621,126 @@ public interface BookieProtocol {
         }
     }
 
+    /**
+     * A read response where the entry is transferred straight from its entry log file.
+     */
+    class FileRegionReadResponse extends ReadResponse {
+        final FileRegion region;
+
+        FileRegionReadResponse(byte protocolVersion, long ledgerId, long entryId, FileRegion region) {
+            super(protocolVersion, EOK, ledgerId, entryId);
+            this.region = region;
+        }
+
+        @Override
+        boolean hasData() {
+            return region.count() > 0;
+        }
+
+        FileRegion getRegion() {
+            return region;
+        }
+
+        @Override
+        public int refCnt() {
+            return region.refCnt();
+        }
+
+        @Override
+        public ReferenceCounted retain() {
+            region.retain();
+            return this;
+        }
+
+        @Override
+        public ReferenceCounted retain(int increment) {
+            region.retain(increment);
+            return this;
+        }
+
+        @Override
+        public ReferenceCounted touch() {
+            region.touch();
+            return this;
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            region.touch(hint);
+            return this;
+        }
+
+        @Override
+        public boolean release() {
+            return region.release();
+        }
+
+        @Override
+        public boolean release(int decrement) {
+            return region.release(decrement);
+        }
+    }
+
+    /**
+     * A response carrying a contiguous range of entries, starting at {@link #getEntryId()}.
+     */
+    class BatchedReadResponse extends Response implements ReferenceCounted {
+        final ByteBufList data;
+
+        BatchedReadResponse(byte protocolVersion, int errorCode, long ledgerId, long startEntryId) {
+            this(protocolVersion, errorCode, ledgerId, startEntryId, ByteBufList.get());
+        }
+
+        BatchedReadResponse(byte protocolVersion, int errorCode, long ledgerId, long startEntryId,
+                            ByteBufList data) {
+            init(protocolVersion, BATCH_READ_ENTRY, errorCode, ledgerId, startEntryId);
+            this.data = data;
+        }
+
+        ByteBufList getData() {
+            return data;
+        }
+
+        @Override
+        public int refCnt() {
+            return data.refCnt();
+        }
+
+        @Override
+        public ReferenceCounted retain() {
+            data.retain();
+            return this;
+        }
+
+        @Override
+        public ReferenceCounted retain(int increment) {
+            data.retain(increment);
+            return this;
+        }
+
+        @Override
+        public ReferenceCounted touch() {
+            data.touch();
+            return this;
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            data.touch(hint);
+            return this;
+        }
+
+        @Override
+        public boolean release() {
+            return data.release();
+        }
+
+        @Override
+        public boolean release(int decrement) {
+            return data.release(decrement);
+        }
+    }
+
     /**
      * A response that adds data.
      */
@@ -507,6 +769,49 @@ public interface BookieProtocol {
         }
     }
 
+    /**
+     * A response with the results of the adds of a {@link MultiAddRequest}.
+     */
+    class MultiAddResponse extends Response {
+        final int[] errorCodes;
+        final long[] ledgerIds;
+        final long[] entryIds;
+
+        MultiAddResponse(byte protocolVersion, int numAdds) {
+            init(protocolVersion, MULTI_ADD_ENTRY, EOK, -1, INVALID_ENTRY_ID);
+            this.errorCodes = new int[numAdds];
+            this.ledgerIds = new long[numAdds];
+            this.entryIds = new long[numAdds];
+        }
+
+        int getNumAdds() {
+            return errorCodes.length;
+        }
+
+        void setAddResult(int index, int errorCode, long ledgerId, long entryId) {
+            errorCodes[index] = errorCode;
+            ledgerIds[index] = ledgerId;
+            entryIds[index] = entryId;
+        }
+
+        int getErrorCode(int index) {
+            return errorCodes[index];
+        }
+
+        long getLedgerId(int index) {
+            return ledgerIds[index];
+        }
+
+        long getEntryId(int index) {
+            return entryIds[index];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Op(%d)[NumAdds:%d]", opCode, errorCodes.length);
+        }
+    }
+
     /**
      * An error response.
      */
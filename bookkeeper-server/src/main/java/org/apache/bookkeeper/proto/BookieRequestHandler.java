@@ -97,6 +97,13 @@ public class BookieRequestHandler extends ChannelInboundHandlerAdapter {
         BookieProtoEncoding.ResponseEnDeCoderPreV3.serializeAddResponseInto(rc, req, pendingSendResponses);
     }
 
+    public synchronized void prepareSendResponseV2(BookieProtocol.MultiAddResponse response) {
+        if (pendingSendResponses == null) {
+            pendingSendResponses = ctx().alloc().directBuffer(maxPendingResponsesSize);
+        }
+        BookieProtoEncoding.ResponseEnDeCoderPreV3.serializeMultiAddResponseInto(response, pendingSendResponses);
+    }
+
     public synchronized void flushPendingResponse() {
         if (pendingSendResponses != null) {
             maxPendingResponsesSize = (int) Math.max(
@@ -30,7 +30,9 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.ByteString;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
+import io.netty.channel.epoll.EpollSocketChannel;
 import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.util.HashedWheelTimer;
 import io.netty.util.concurrent.Future;
@@ -128,6 +130,7 @@ public class BookieRequestProcessor implements RequestProcessor {
     private final ByteBufAllocator allocator;
 
     private final boolean throttleReadResponses;
+    private final boolean zeroCopyReadEnabled;
 
     public BookieRequestProcessor(ServerConfiguration serverCfg, Bookie bookie, StatsLogger statsLogger,
                                   SecurityHandlerFactory shFactory, ByteBufAllocator allocator,
@@ -139,6 +142,7 @@ public class BookieRequestProcessor implements RequestProcessor {
         this.preserveMdcForTaskExecution = serverCfg.getPreserveMdcForTaskExecution();
         this.bookie = bookie;
         this.throttleReadResponses = serverCfg.isReadWorkerThreadsThrottlingEnabled();
+        this.zeroCopyReadEnabled = serverCfg.isZeroCopyReadEnabled();
         this.readThreadPool = createExecutor(
                 this.serverCfg.getNumReadWorkerThreads(),
                 "BookieReadThreadPool",
@@ -373,10 +377,18 @@ public class BookieRequestProcessor implements RequestProcessor {
                     checkArgument(r instanceof BookieProtocol.ParsedAddRequest);
                     processAddRequest((BookieProtocol.ParsedAddRequest) r, requestHandler);
                     break;
+                case BookieProtocol.MULTI_ADD_ENTRY:
+                    checkArgument(r instanceof BookieProtocol.MultiAddRequest);
+                    processMultiAddRequest((BookieProtocol.MultiAddRequest) r, requestHandler);
+                    break;
                 case BookieProtocol.READENTRY:
                     checkArgument(r instanceof BookieProtocol.ReadRequest);
                     processReadRequest((BookieProtocol.ReadRequest) r, requestHandler);
                     break;
+                case BookieProtocol.BATCH_READ_ENTRY:
+                    checkArgument(r instanceof BookieProtocol.BatchedReadRequest);
+                    processBatchedReadRequest((BookieProtocol.BatchedReadRequest) r, requestHandler);
+                    break;
                 case BookieProtocol.AUTH:
                     LOG.info("Ignoring auth operation from client {}",
                             requestHandler.ctx().channel().remoteAddress());
@@ -663,6 +675,30 @@ public class BookieRequestProcessor implements RequestProcessor {
         }
     }
 
+    private void processMultiAddRequest(final BookieProtocol.MultiAddRequest r,
+                                        final BookieRequestHandler requestHandler) {
+        MultiWriteEntryProcessor write = new MultiWriteEntryProcessor(r, requestHandler, this);
+
+        if (null == writeThreadPool || !write.isVersionCompatible()) {
+            write.run();
+            return;
+        }
+
+        // the adds of each ledger are executed on the thread of the ledger, like single adds
+        for (MultiWriteEntryProcessor.LedgerAdds adds : write.getAddsByLedger()) {
+            try {
+                writeThreadPool.executeOrdered(adds.ledgerId, () -> write.processAdds(adds));
+            } catch (RejectedExecutionException e) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Failed to process request to add {} entries to ledger {}. Too many pending requests",
+                            adds.adds.size(), adds.ledgerId);
+                }
+                getRequestStats().getAddEntryRejectedCounter().addCount(adds.adds.size());
+                write.failAdds(adds, BookieProtocol.ETOOMANYREQUESTS);
+            }
+        }
+    }
+
     private void processReadRequest(final BookieProtocol.ReadRequest r, final BookieRequestHandler requestHandler) {
         ExecutorService fenceThreadPool =
                 null == highPriorityThreadPool ? null : highPriorityThreadPool.chooseThread(requestHandler.ctx());
@@ -699,6 +735,49 @@ public class BookieRequestProcessor implements RequestProcessor {
         }
     }
 
+    private void processBatchedReadRequest(final BookieProtocol.BatchedReadRequest r,
+                                           final BookieRequestHandler requestHandler) {
+        BatchedReadEntryProcessor read = BatchedReadEntryProcessor.create(r, requestHandler,
+                this, throttleReadResponses, serverCfg.getNettyMaxFrameSizeBytes());
+
+        final OrderedExecutor threadPool;
+        if (r.isHighPriority()) {
+            threadPool = highPriorityThreadPool;
+        } else {
+            threadPool = readThreadPool;
+        }
+
+        if (null == threadPool) {
+            read.run();
+        } else {
+            try {
+                threadPool.executeOrdered(r.getLedgerId(), read);
+            } catch (RejectedExecutionException e) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Failed to process request to batch read entries at {}:{}. Too many pending requests",
+                            r.ledgerId, r.entryId);
+                }
+                getRequestStats().getReadEntryRejectedCounter().inc();
+                read.sendResponse(
+                    BookieProtocol.ETOOMANYREQUESTS,
+                    ResponseBuilder.buildErrorResponse(BookieProtocol.ETOOMANYREQUESTS, r),
+                    requestStats.getBatchReadRequestStats());
+                onReadRequestFinish();
+            }
+        }
+    }
+
+    /**
+     * Whether entries can be sent on the channel with zero-copy file transfers: the bytes must
+     * reach the socket untouched, so TLS connections are excluded, and the transport must be
+     * able to send file regions.
+     */
+    boolean isZeroCopyReadSupported(Channel channel) {
+        return zeroCopyReadEnabled
+                && (channel instanceof EpollSocketChannel || channel instanceof NioSocketChannel)
+                && channel.pipeline().get(SslHandler.class) == null;
+    }
+
     public long getWaitTimeoutOnBackpressureMillis() {
         return waitTimeoutOnBackpressureMillis;
     }
@@ -0,0 +1,435 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
+import org.apache.bookkeeper.util.MathUtils;
+
+/**
+ * Registry of the completions of the requests in flight on a channel.
+ *
+ * <p>The completions of the v2 requests are keyed by the ledger id, entry id and operation type of the request,
+ * and the completions of the v3 requests by their txn id. The keys are stored in the completions themselves, and
+ * the completions in open hash tables with linear probing, split in sections guarded by their own lock, so no
+ * object is allocated to register, look up or remove a completion. The completions of the duplicate v2 requests
+ * (e.g. the same entry read twice) are chained behind the first completion of their key, and completed in order.
+ *
+ * <p>Each section also links its completions in a timeout wheel, by deadline, so the check of the timeouts only
+ * visits the completions whose deadline may have passed, instead of all the completions in flight.
+ *
+ * @param <T> the type of the completions
+ */
+class CompletionRegistry<T extends CompletionRegistry.Completion> {
+
+    private static final int V3_REQUEST = -1;
+
+    @VisibleForTesting
+    static final int NUM_SECTIONS = 16;
+    @VisibleForTesting
+    static final int INITIAL_SECTION_CAPACITY = 16;
+    private static final float FILL_FACTOR = 0.66f;
+
+    @VisibleForTesting
+    static final int WHEEL_SIZE = 64;
+    @VisibleForTesting
+    static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * A completion which can be registered. A completion is registered at most once at a time.
+     */
+    abstract static class Completion {
+        // the key, for the v3 requests key1 is the txn id
+        private long key1;
+        private long key2;
+        private int keyType;
+        private long keyHash;
+
+        private long deadlineNanos;
+        // the slot of the timeout wheel the completion is linked in
+        private int wheelIndex;
+        // the next completion with the same key
+        private Completion nextWithSameKey;
+        // the completions of the same tick of the timeout wheel
+        private Completion prevInTick;
+        private Completion nextInTick;
+
+        @Override
+        public String toString() {
+            return keyType == V3_REQUEST
+                    ? String.format("TxnId(%d)", key1)
+                    : String.format("%d:%d %s", key1, key2, OperationType.forNumber(keyType));
+        }
+    }
+
+    private final Section[] sections;
+
+    CompletionRegistry() {
+        long nowTick = tick(MathUtils.nowInNano());
+        this.sections = new Section[NUM_SECTIONS];
+        for (int i = 0; i < NUM_SECTIONS; i++) {
+            sections[i] = new Section(nowTick);
+        }
+    }
+
+    /**
+     * Register the completion of a v2 request.
+     */
+    void putV2(T completion, OperationType operationType, long ledgerId, long entryId, long deadlineNanos) {
+        put(completion, ledgerId, entryId, operationType.getNumber(), deadlineNanos);
+    }
+
+    /**
+     * Register the completion of a v3 request.
+     */
+    void putV3(T completion, long txnId, long deadlineNanos) {
+        put(completion, txnId, 0L, V3_REQUEST, deadlineNanos);
+    }
+
+    private void put(Completion completion, long key1, long key2, int keyType, long deadlineNanos) {
+        long h = hash(key1, key2, keyType);
+        completion.key1 = key1;
+        completion.key2 = key2;
+        completion.keyType = keyType;
+        completion.keyHash = h;
+        completion.deadlineNanos = deadlineNanos;
+        getSection(h).put(completion);
+    }
+
+    /**
+     * Remove the first registered completion of a v2 request.
+     *
+     * @return the completion, or null if there is none
+     */
+    T removeV2(OperationType operationType, long ledgerId, long entryId) {
+        return remove(ledgerId, entryId, operationType.getNumber());
+    }
+
+    /**
+     * Remove the completion of a v3 request.
+     *
+     * @return the completion, or null if there is none
+     */
+    T removeV3(long txnId) {
+        return remove(txnId, 0L, V3_REQUEST);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T remove(long key1, long key2, int keyType) {
+        long h = hash(key1, key2, keyType);
+        return (T) getSection(h).remove(key1, key2, keyType, (int) h);
+    }
+
+    /**
+     * Remove a completion.
+     *
+     * @return true if the completion was registered
+     */
+    boolean remove(T completion) {
+        return getSection(((Completion) completion).keyHash).remove(completion);
+    }
+
+    /**
+     * @return true if the completion is registered
+     */
+    boolean contains(T completion) {
+        return getSection(((Completion) completion).keyHash).contains(completion);
+    }
+
+    /**
+     * Remove all the completions.
+     *
+     * @return the removed completions
+     */
+    List<T> removeAll() {
+        List<T> removed = new ArrayList<>();
+        for (Section s : sections) {
+            s.removeAll(removed);
+        }
+        return removed;
+    }
+
+    /**
+     * Remove the completions whose deadline has passed.
+     *
+     * @return the removed completions
+     */
+    List<T> removeExpired(long nowNanos) {
+        List<T> expired = new ArrayList<>();
+        for (Section s : sections) {
+            s.removeExpired(nowNanos, expired);
+        }
+        return expired;
+    }
+
+    /**
+     * @return the number of registered completions
+     */
+    int size() {
+        int size = 0;
+        for (Section s : sections) {
+            size += s.size;
+        }
+        return size;
+    }
+
+    private Section getSection(long hash) {
+        return sections[(int) (hash >>> 32) & (NUM_SECTIONS - 1)];
+    }
+
+    @VisibleForTesting
+    static long hash(long key1, long key2, int keyType) {
+        long h = (key1 * 31 + key2) * 31 + keyType;
+        // murmur3 finalizer
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long tick(long nanos) {
+        return Math.floorDiv(nanos, TICK_NANOS);
+    }
+
+    private static boolean hasKey(Completion c, long key1, long key2, int keyType) {
+        return c.key1 == key1 && c.key2 == key2 && c.keyType == keyType;
+    }
+
+    private static final class Section {
+        // the first completion of each key
+        private Completion[] table = new Completion[INITIAL_SECTION_CAPACITY];
+        private int numKeys = 0;
+        private volatile int size = 0;
+
+        // the first completion of each tick, indexed by tick modulo the wheel size
+        private final Completion[] wheel = new Completion[WHEEL_SIZE];
+        private long lastExpiredTick;
+
+        Section(long nowTick) {
+            this.lastExpiredTick = nowTick - 1;
+        }
+
+        synchronized void put(Completion completion) {
+            int mask = table.length - 1;
+            int bucket = (int) completion.keyHash & mask;
+            Completion head;
+            while ((head = table[bucket]) != null) {
+                if (hasKey(head, completion.key1, completion.key2, completion.keyType)) {
+                    break;
+                }
+                bucket = (bucket + 1) & mask;
+            }
+
+            if (head == null) {
+                table[bucket] = completion;
+                if (++numKeys > table.length * FILL_FACTOR) {
+                    rehash(table.length * 2);
+                }
+            } else {
+                while (head.nextWithSameKey != null) {
+                    head = head.nextWithSameKey;
+                }
+                head.nextWithSameKey = completion;
+            }
+            link(completion);
+            size++;
+        }
+
+        synchronized Completion remove(long key1, long key2, int keyType, int keyHash) {
+            int bucket = find(key1, key2, keyType, keyHash);
+            if (bucket < 0) {
+                return null;
+            }
+            Completion head = table[bucket];
+            removeHead(bucket, head);
+            return head;
+        }
+
+        synchronized boolean remove(Completion completion) {
+            int bucket = find(completion.key1, completion.key2, completion.keyType, (int) completion.keyHash);
+            if (bucket < 0) {
+                return false;
+            }
+            Completion head = table[bucket];
+            if (head == completion) {
+                removeHead(bucket, head);
+                return true;
+            }
+            for (Completion prev = head; prev.nextWithSameKey != null; prev = prev.nextWithSameKey) {
+                if (prev.nextWithSameKey == completion) {
+                    prev.nextWithSameKey = completion.nextWithSameKey;
+                    completion.nextWithSameKey = null;
+                    unlink(completion);
+                    size--;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized boolean contains(Completion completion) {
+            int bucket = find(completion.key1, completion.key2, completion.keyType, (int) completion.keyHash);
+            if (bucket >= 0) {
+                for (Completion c = table[bucket]; c != null; c = c.nextWithSameKey) {
+                    if (c == completion) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized <T> void removeAll(List<T> removed) {
+            for (int i = 0; i < table.length; i++) {
+                Completion c = table[i];
+                while (c != null) {
+                    Completion next = c.nextWithSameKey;
+                    c.nextWithSameKey = null;
+                    c.prevInTick = null;
+                    c.nextInTick = null;
+                    removed.add((T) c);
+                    c = next;
+                }
+                table[i] = null;
+            }
+            Arrays.fill(wheel, null);
+            numKeys = 0;
+            size = 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized <T> void removeExpired(long nowNanos, List<T> expired) {
+            if (size == 0) {
+                lastExpiredTick = tick(nowNanos) - 1;
+                return;
+            }
+            long nowTick = tick(nowNanos);
+            long firstTick = Math.max(lastExpiredTick + 1, nowTick - WHEEL_SIZE + 1);
+            for (long t = firstTick; t <= nowTick; t++) {
+                Completion c = wheel[(int) (t & (WHEEL_SIZE - 1))];
+                while (c != null) {
+                    Completion next = c.nextInTick;
+                    // the tick may also hold the completions of the next rounds of the wheel
+                    if (c.deadlineNanos - nowNanos <= 0 && remove(c)) {
+                        expired.add((T) c);
+                    }
+                    c = next;
+                }
+            }
+            // the current tick is not over, so it is checked again next time
+            lastExpiredTick = nowTick - 1;
+        }
+
+        private int find(long key1, long key2, int keyType, int keyHash) {
+            int mask = table.length - 1;
+            int bucket = keyHash & mask;
+            Completion c;
+            while ((c = table[bucket]) != null) {
+                if (hasKey(c, key1, key2, keyType)) {
+                    return bucket;
+                }
+                bucket = (bucket + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void removeHead(int bucket, Completion head) {
+            Completion next = head.nextWithSameKey;
+            if (next != null) {
+                table[bucket] = next;
+                head.nextWithSameKey = null;
+            } else {
+                removeBucket(bucket);
+                numKeys--;
+            }
+            unlink(head);
+            size--;
+        }
+
+        private void removeBucket(int bucket) {
+            // shift back the following keys of the probe sequence, so there is no need for tombstones
+            int mask = table.length - 1;
+            int free = bucket;
+            int next = bucket;
+            Completion c;
+            while ((c = table[next = (next + 1) & mask]) != null) {
+                int home = (int) c.keyHash & mask;
+                if (((next - home) & mask) >= ((next - free) & mask)) {
+                    table[free] = c;
+                    free = next;
+                }
+            }
+            table[free] = null;
+        }
+
+        private void rehash(int newCapacity) {
+            Completion[] oldTable = table;
+            int mask = newCapacity - 1;
+            table = new Completion[newCapacity];
+            for (Completion c : oldTable) {
+                if (c != null) {
+                    int bucket = (int) c.keyHash & mask;
+                    while (table[bucket] != null) {
+                        bucket = (bucket + 1) & mask;
+                    }
+                    table[bucket] = c;
+                }
+            }
+        }
+
+        private void link(Completion completion) {
+            // a deadline in a tick that was already checked is linked in the next tick to check, rather than
+            // waiting for a lap of the wheel
+            long tick = Math.max(tick(completion.deadlineNanos), lastExpiredTick + 1);
+            int index = (int) (tick & (WHEEL_SIZE - 1));
+            completion.wheelIndex = index;
+            Completion first = wheel[index];
+            completion.prevInTick = null;
+            completion.nextInTick = first;
+            if (first != null) {
+                first.prevInTick = completion;
+            }
+            wheel[index] = completion;
+        }
+
+        private void unlink(Completion completion) {
+            Completion prev = completion.prevInTick;
+            Completion next = completion.nextInTick;
+            if (prev != null) {
+                prev.nextInTick = next;
+            } else {
+                wheel[completion.wheelIndex] = next;
+            }
+            if (next != null) {
+                next.prevInTick = prev;
+            }
+            completion.prevInTick = null;
+            completion.nextInTick = null;
+        }
+    }
+}
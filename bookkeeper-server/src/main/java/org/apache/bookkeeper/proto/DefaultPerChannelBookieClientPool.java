@@ -125,6 +125,11 @@ class DefaultPerChannelBookieClientPool implements PerChannelBookieClientPool,
         return getClient(key).isWritable();
     }
 
+    @Override
+    public boolean isBatchReadSupported(long key) {
+        return getClient(key).isBatchReadSupported();
+    }
+
     @Override
     public void checkTimeoutOnPendingOperations() {
         for (int i = 0; i < clients.length; i++) {
@@ -173,4 +178,27 @@ class DefaultPerChannelBookieClientPool implements PerChannelBookieClientPool,
         }
         return numPending;
     }
+
+    @Override
+    public long getReadLatencyNanos() {
+        long sum = 0;
+        int count = 0;
+        for (PerChannelBookieClient pcbc : clients) {
+            long latency = pcbc.getReadLatencyNanos();
+            if (latency >= 0) {
+                sum += latency;
+                count++;
+            }
+        }
+        if (clients != clientsV3Enforced) {
+            for (PerChannelBookieClient pcbc : clientsV3Enforced) {
+                long latency = pcbc.getReadLatencyNanos();
+                if (latency >= 0) {
+                    sum += latency;
+                    count++;
+                }
+            }
+        }
+        return count > 0 ? sum / count : -1L;
+    }
 }
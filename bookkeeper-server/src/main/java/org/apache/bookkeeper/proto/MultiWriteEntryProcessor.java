@@ -0,0 +1,206 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookieProtocol.MultiAddRequest;
+import org.apache.bookkeeper.proto.BookieProtocol.MultiAddResponse;
+import org.apache.bookkeeper.proto.BookieProtocol.ParsedAddRequest;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processes a {@link MultiAddRequest}: the entries are added like the entries of single add requests, and the
+ * results of the adds of each ledger are sent back in a {@link MultiAddResponse} once they are all completed.
+ *
+ * <p>The adds of each ledger are processed together, in order, on the write thread of the ledger, so the
+ * entries of a ledger are journaled in the same order as when they are sent in single add requests. Each
+ * ledger gets its own response, so a slow ledger does not hold back the acknowledgements of the other ledgers
+ * of the request. The responses are buffered in the request handler like the add responses, and flushed with
+ * them after the journal flush.
+ */
+class MultiWriteEntryProcessor extends PacketProcessorBase<MultiAddRequest> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MultiWriteEntryProcessor.class);
+
+    /**
+     * The adds of a ledger, acknowledged together.
+     */
+    class LedgerAdds implements WriteCallback {
+        final long ledgerId;
+        final List<ParsedAddRequest> adds;
+        // guarded by this
+        private final MultiAddResponse response;
+        private int numCompletedAdds = 0;
+
+        LedgerAdds(List<ParsedAddRequest> adds) {
+            this.ledgerId = adds.get(0).getLedgerId();
+            this.adds = adds;
+            this.response = new MultiAddResponse(request.getProtocolVersion(), adds.size());
+        }
+
+        @Override
+        public void writeComplete(int rc, long ledgerId, long entryId, BookieId addr, Object ctx) {
+            // the latency of the entries includes the time the request waited for the write thread
+            if (BookieProtocol.EOK == rc) {
+                requestProcessor.getRequestStats().getAddEntryStats()
+                    .registerSuccessfulEvent(MathUtils.elapsedNanos(enqueueNanos), TimeUnit.NANOSECONDS);
+            } else {
+                requestProcessor.getRequestStats().getAddEntryStats()
+                    .registerFailedEvent(MathUtils.elapsedNanos(enqueueNanos), TimeUnit.NANOSECONDS);
+            }
+            // the response is flushed by the journal
+            addComplete(rc, ledgerId, entryId, false);
+        }
+
+        void addComplete(int rc, long ledgerId, long entryId, boolean flush) {
+            boolean allAddsCompleted;
+            synchronized (this) {
+                response.setAddResult(numCompletedAdds++, rc, ledgerId, entryId);
+                allAddsCompleted = numCompletedAdds == response.getNumAdds();
+            }
+
+            if (BookieProtocol.EOK == rc) {
+                requestProcessor.getRequestStats().getAddRequestStats()
+                        .registerSuccessfulEvent(MathUtils.elapsedNanos(enqueueNanos), TimeUnit.NANOSECONDS);
+            } else {
+                requestProcessor.getRequestStats().getAddRequestStats()
+                        .registerFailedEvent(MathUtils.elapsedNanos(enqueueNanos), TimeUnit.NANOSECONDS);
+            }
+            requestProcessor.onAddRequestFinish();
+
+            if (allAddsCompleted) {
+                requestHandler.prepareSendResponseV2(response);
+                if (flush) {
+                    requestHandler.flushPendingResponse();
+                }
+            }
+        }
+    }
+
+    private final List<LedgerAdds> addsByLedger;
+
+    MultiWriteEntryProcessor(MultiAddRequest request, BookieRequestHandler requestHandler,
+                             BookieRequestProcessor requestProcessor) {
+        init(request, requestHandler, requestProcessor);
+        for (int i = 0; i < request.getAdds().size(); i++) {
+            requestProcessor.onAddRequestStart(requestHandler.ctx().channel());
+        }
+        this.addsByLedger = groupAddsByLedger(request.getAdds());
+    }
+
+    private List<LedgerAdds> groupAddsByLedger(List<ParsedAddRequest> adds) {
+        long firstLedgerId = adds.get(0).getLedgerId();
+        boolean singleLedger = true;
+        for (int i = 1; i < adds.size() && singleLedger; i++) {
+            singleLedger = adds.get(i).getLedgerId() == firstLedgerId;
+        }
+        if (singleLedger) {
+            return Collections.singletonList(new LedgerAdds(adds));
+        }
+
+        Map<Long, List<ParsedAddRequest>> addsByLedger = new LinkedHashMap<>();
+        for (ParsedAddRequest add : adds) {
+            addsByLedger.computeIfAbsent(add.getLedgerId(), ledgerId -> new ArrayList<>()).add(add);
+        }
+        List<LedgerAdds> ledgerAdds = new ArrayList<>(addsByLedger.size());
+        for (List<ParsedAddRequest> addsOfLedger : addsByLedger.values()) {
+            ledgerAdds.add(new LedgerAdds(addsOfLedger));
+        }
+        return ledgerAdds;
+    }
+
+    /**
+     * @return the adds of the request, grouped by ledger
+     */
+    List<LedgerAdds> getAddsByLedger() {
+        return addsByLedger;
+    }
+
+    @Override
+    public void run() {
+        if (!isVersionCompatible()) {
+            for (LedgerAdds ledgerAdds : addsByLedger) {
+                failAdds(ledgerAdds, BookieProtocol.EBADVERSION);
+            }
+            return;
+        }
+        processPacket();
+    }
+
+    @Override
+    protected void processPacket() {
+        for (LedgerAdds ledgerAdds : addsByLedger) {
+            processAdds(ledgerAdds);
+        }
+    }
+
+    /**
+     * Add the entries of a ledger.
+     */
+    void processAdds(LedgerAdds ledgerAdds) {
+        requestProcessor.getRequestStats().getWriteThreadQueuedLatency()
+                .registerSuccessfulEvent(MathUtils.elapsedNanos(enqueueNanos), TimeUnit.NANOSECONDS);
+
+        if (requestProcessor.getBookie().isReadOnly()) {
+            LOG.warn("BookieServer is running in readonly mode,"
+                    + " so rejecting the request from the client!");
+            failAdds(ledgerAdds, BookieProtocol.EREADONLY);
+            return;
+        }
+
+        for (ParsedAddRequest add : ledgerAdds.adds) {
+            long startTimeNanos = MathUtils.nowInNano();
+            int rc = WriteEntryProcessor.addEntry(add, ledgerAdds, requestHandler, requestProcessor);
+            if (rc != BookieProtocol.EOK) {
+                requestProcessor.getRequestStats().getAddEntryStats()
+                        .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+                ledgerAdds.addComplete(rc, add.getLedgerId(), add.getEntryId(), true);
+            }
+            add.recycle();
+        }
+    }
+
+    /**
+     * Fail the adds of a ledger, without writing their entries.
+     */
+    void failAdds(LedgerAdds ledgerAdds, int rc) {
+        for (ParsedAddRequest add : ledgerAdds.adds) {
+            ledgerAdds.addComplete(rc, add.getLedgerId(), add.getEntryId(), true);
+            add.release();
+            add.recycle();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MultiWriteEntry(%d, %d, %d)",
+                request.getLedgerId(), request.getEntryId(), request.getAdds().size());
+    }
+}
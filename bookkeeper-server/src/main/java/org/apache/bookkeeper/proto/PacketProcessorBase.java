@@ -174,7 +174,7 @@ abstract class PacketProcessorBase<T extends Request> implements Runnable {
 
     @Override
     public void run() {
-        if (request instanceof BookieProtocol.ReadRequest) {
+        if (request instanceof BookieProtocol.ReadRequest || request instanceof BookieProtocol.BatchedReadRequest) {
             requestProcessor.getRequestStats().getReadEntrySchedulingDelayStats()
                     .registerSuccessfulEvent(MathUtils.elapsedNanos(enqueueNanos), TimeUnit.NANOSECONDS);
         }
@@ -187,7 +187,8 @@ abstract class PacketProcessorBase<T extends Request> implements Runnable {
             sendResponse(BookieProtocol.EBADVERSION,
                          ResponseBuilder.buildErrorResponse(BookieProtocol.EBADVERSION, request),
                          requestProcessor.getRequestStats().getReadRequestStats());
-            if (request instanceof BookieProtocol.ReadRequest) {
+            if (request instanceof BookieProtocol.ReadRequest
+                    || request instanceof BookieProtocol.BatchedReadRequest) {
                 requestProcessor.onReadRequestFinish();
             }
             if (request instanceof BookieProtocol.ParsedAddRequest) {
@@ -19,7 +19,9 @@
 package org.apache.bookkeeper.proto;
 
 import static org.apache.bookkeeper.client.LedgerHandle.INVALID_ENTRY_ID;
+import static org.apache.bookkeeper.proto.BookieProtoEncoding.RequestEnDeCoderPreV3.MULTI_ADD_HEADERS_SIZE;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.collect.Sets;
 import com.google.protobuf.ByteString;
@@ -79,15 +81,16 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Optional;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.function.BiPredicate;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLPeerUnverifiedException;
 import lombok.SneakyThrows;
@@ -102,6 +105,7 @@ import org.apache.bookkeeper.common.util.OrderedExecutor;
 import org.apache.bookkeeper.conf.ClientConfiguration;
 import org.apache.bookkeeper.net.BookieId;
 import org.apache.bookkeeper.net.BookieSocketAddress;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.BatchedReadEntryCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ForceLedgerCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GenericCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GetBookieInfoCallback;
@@ -144,8 +148,6 @@ import org.apache.bookkeeper.util.AvailabilityOfEntriesOfLedger;
 import org.apache.bookkeeper.util.ByteBufList;
 import org.apache.bookkeeper.util.MathUtils;
 import org.apache.bookkeeper.util.StringUtils;
-import org.apache.bookkeeper.util.collections.ConcurrentOpenHashMap;
-import org.apache.bookkeeper.util.collections.SynchronizedHashMultiMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -174,6 +176,12 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                         BKException.Code.WriteOnReadOnlyBookieException));
     private static final int DEFAULT_HIGH_PRIORITY_VALUE = 100; // We may add finer grained priority later.
     private static final AtomicLong txnIdGenerator = new AtomicLong(0);
+    // Weight of the last sample in the read latency moving average
+    private static final double READ_LATENCY_EWMA_ALPHA = 0.1;
+
+    // The read latency estimate is discarded when no read completed for this long, so that a bookie
+    // which was avoided because it was slow gets probed again
+    private static final long READ_LATENCY_EXPIRATION_NANOS = TimeUnit.SECONDS.toNanos(30);
 
     final BookieId bookieId;
     final BookieAddressResolver bookieAddressResolver;
@@ -186,13 +194,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     final long getBookieInfoTimeoutNanos;
     final int startTLSTimeout;
 
-    private final ConcurrentOpenHashMap<CompletionKey, CompletionValue> completionObjects =
-            ConcurrentOpenHashMap.<CompletionKey, CompletionValue>newBuilder().build();
-
-    // Map that hold duplicated read requests. The idea is to only use this map (synchronized) when there is a duplicate
-    // read request for the same ledgerId/entryId
-    private final SynchronizedHashMultiMap<CompletionKey, CompletionValue> completionObjectsV2Conflicts =
-        new SynchronizedHashMultiMap<>();
+    private final CompletionRegistry<CompletionValue> completionObjects = new CompletionRegistry<>();
 
     private final StatsLogger statsLogger;
     @StatsDoc(
@@ -315,8 +317,18 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     private final Counter failedTlsHandshakeCounter;
 
     private final boolean useV2WireProtocol;
+    private final boolean useMultiAdd;
     private final boolean preserveMdcForTaskExecution;
 
+    // Set once a response of the bookie on the current connection advertised the support of batched reads
+    private volatile boolean batchReadSupported = false;
+    // Set once a response of the bookie on the current connection advertised the support of multi adds
+    private volatile boolean multiAddSupported = false;
+
+    // Adds waiting to be written in a multi add request by the event loop of the channel
+    private final Queue<PendingAdd> pendingAdds = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean pendingAddsScheduled = new AtomicBoolean(false);
+
     /**
      * The following member variables do not need to be concurrent, or volatile
      * because they are always updated under a lock.
@@ -350,6 +362,10 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     private volatile boolean isWritable = true;
     private long lastBookieUnavailableLogTimestamp = 0;
 
+    // Moving average of the read latency, -1 when there is no estimate
+    private final AtomicLong readLatencyNanos = new AtomicLong(-1L);
+    private volatile long lastReadLatencySampleNanos = 0;
+
     public PerChannelBookieClient(OrderedExecutor executor, EventLoopGroup eventLoopGroup,
                                   BookieId addr, BookieAddressResolver bookieAddressResolver) throws SecurityException {
         this(new ClientConfiguration(), executor, eventLoopGroup, addr, NullStatsLogger.INSTANCE, null, null,
@@ -402,6 +418,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         this.getBookieInfoTimeoutNanos = TimeUnit.SECONDS.toNanos(conf.getBookieInfoTimeout());
         this.startTLSTimeout = conf.getStartTLSTimeout();
         this.useV2WireProtocol = conf.getUseV2WireProtocol();
+        this.useMultiAdd = useV2WireProtocol && conf.isMultiAddEnabled();
         this.preserveMdcForTaskExecution = conf.getPreserveMdcForTaskExecution();
 
         this.authProviderFactory = authProviderFactory;
@@ -529,6 +546,25 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         return completionObjects.size();
     }
 
+    /**
+     * @return the moving average of the read latency on this channel, in nanoseconds,
+     *         or -1 if no read completed recently
+     */
+    protected long getReadLatencyNanos() {
+        if (MathUtils.elapsedNanos(lastReadLatencySampleNanos) > READ_LATENCY_EXPIRATION_NANOS) {
+            return -1L;
+        }
+        return readLatencyNanos.get();
+    }
+
+    private void recordReadLatency(long latencyNanos) {
+        long now = MathUtils.nowInNano();
+        boolean expired = now - lastReadLatencySampleNanos > READ_LATENCY_EXPIRATION_NANOS;
+        lastReadLatencySampleNanos = now;
+        readLatencyNanos.updateAndGet(avg -> avg < 0 || expired ? latencyNanos
+                : avg + (long) (READ_LATENCY_EWMA_ALPHA * (latencyNanos - avg)));
+    }
+
     protected ChannelFuture connect() {
         final long startTime = MathUtils.nowInNano();
         if (LOG.isDebugEnabled()) {
@@ -687,12 +723,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     void writeLac(final long ledgerId, final byte[] masterKey, final long lac, ByteBufList toSend, WriteLacCallback cb,
             Object ctx) {
         final long txnId = getTxnId();
-        final CompletionKey completionKey = new V3CompletionKey(txnId,
-                                                                OperationType.WRITE_LAC);
-        // writeLac is mostly like addEntry hence uses addEntryTimeout
-        completionObjects.put(completionKey,
-                              new WriteLacCompletion(completionKey, cb,
-                                                     ctx, ledgerId));
+        final CompletionValue completion = new WriteLacCompletion(cb, ctx, ledgerId);
+        putV3Completion(txnId, completion);
 
         // Build the request
         BKPacketHeader.Builder headerBuilder = BKPacketHeader.newBuilder()
@@ -717,7 +749,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                 .setHeader(headerBuilder)
                 .setWriteLacRequest(writeLacBuilder)
                 .build();
-        writeAndFlush(channel, completionKey, writeLacRequest);
+        writeAndFlush(channel, completion, writeLacRequest);
     }
 
     void forceLedger(final long ledgerId, ForceLedgerCallback cb, Object ctx) {
@@ -729,12 +761,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                 return;
         }
         final long txnId = getTxnId();
-        final CompletionKey completionKey = new V3CompletionKey(txnId,
-                                                                OperationType.FORCE_LEDGER);
-        // force is mostly like addEntry hence uses addEntryTimeout
-        completionObjects.put(completionKey,
-                              new ForceLedgerCompletion(completionKey, cb,
-                                                     ctx, ledgerId));
+        final CompletionValue completion = new ForceLedgerCompletion(cb, ctx, ledgerId);
+        putV3Completion(txnId, completion);
 
         // Build the request
         BKPacketHeader.Builder headerBuilder = BKPacketHeader.newBuilder()
@@ -748,7 +776,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                 .setHeader(headerBuilder)
                 .setForceLedgerRequest(writeLacBuilder)
                 .build();
-        writeAndFlush(channel, completionKey, forceLedgerRequest);
+        writeAndFlush(channel, completion, forceLedgerRequest);
     }
 
     /**
@@ -775,14 +803,14 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     void addEntry(final long ledgerId, byte[] masterKey, final long entryId, ReferenceCounted toSend, WriteCallback cb,
                   Object ctx, final int options, boolean allowFastFail, final EnumSet<WriteFlag> writeFlags) {
         Object request = null;
-        CompletionKey completionKey = null;
+        long txnId = -1L;
         if (useV2WireProtocol) {
             if (writeFlags.contains(WriteFlag.DEFERRED_SYNC)) {
                 LOG.error("invalid writeflags {} for v2 protocol", writeFlags);
-                cb.writeComplete(BKException.Code.IllegalOpException, ledgerId, entryId, bookieId, ctx);
+                executor.executeOrdered(ledgerId, () ->
+                        cb.writeComplete(BKException.Code.IllegalOpException, ledgerId, entryId, bookieId, ctx));
                 return;
             }
-            completionKey = acquireV2Key(ledgerId, entryId, OperationType.ADD_ENTRY);
 
             if (toSend instanceof ByteBuf) {
                 request = ((ByteBuf) toSend).retainedDuplicate();
@@ -790,8 +818,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                 request = ByteBufList.clone((ByteBufList) toSend);
             }
         } else {
-            final long txnId = getTxnId();
-            completionKey = new V3CompletionKey(txnId, OperationType.ADD_ENTRY);
+            txnId = getTxnId();
 
             // Build the request and calculate the total size to be included in the packet.
             BKPacketHeader.Builder headerBuilder = BKPacketHeader.newBuilder()
@@ -836,32 +863,150 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                     .build();
         }
 
-        putCompletionKeyValue(completionKey,
-                              acquireAddCompletion(completionKey,
-                                                   cb, ctx, ledgerId, entryId));
+        final CompletionValue completion = acquireAddCompletion(cb, ctx, ledgerId, entryId);
+        if (useV2WireProtocol) {
+            putV2Completion(OperationType.ADD_ENTRY, ledgerId, entryId, completion);
+        } else {
+            putV3Completion(txnId, completion);
+        }
         final Channel c = channel;
         if (c == null) {
             // usually checked in writeAndFlush, but we have extra check
             // because we need to release toSend.
-            errorOut(completionKey);
+            errorOut(completion);
             ReferenceCountUtil.release(toSend);
             return;
+        } else if (useMultiAdd && multiAddSupported && options == BookieProtocol.FLAG_NONE) {
+            queueAdd(c, completion, request, allowFastFail);
         } else {
             // addEntry times out on backpressure
-            writeAndFlush(c, completionKey, request, allowFastFail);
+            writeAndFlush(c, completion, request, allowFastFail);
+        }
+    }
+
+    /**
+     * Queue an add request to be written by the event loop of the channel. The adds queued until the event
+     * loop runs the write task are written in a single multi add request.
+     */
+    private void queueAdd(Channel c, CompletionValue completion, Object request, boolean allowFastFail) {
+        if (!checkWritable(c, completion, request, allowFastFail)) {
+            return;
+        }
+
+        int size = request instanceof ByteBuf
+                ? ((ByteBuf) request).readableBytes() : ((ByteBufList) request).readableBytes();
+        pendingAdds.add(new PendingAdd(completion, request, size, allowFastFail));
+        if (pendingAddsScheduled.compareAndSet(false, true)) {
+            try {
+                c.eventLoop().execute(this::writePendingAdds);
+            } catch (RejectedExecutionException e) {
+                // the event loop is shut down, the writes will fail
+                writePendingAdds();
+            }
+        }
+    }
+
+    private void writePendingAdds() {
+        // the adds queued from now on are written by the next write task
+        pendingAddsScheduled.set(false);
+
+        final Channel c = channel;
+        List<PendingAdd> adds = new ArrayList<>();
+        int frameSize = MULTI_ADD_HEADERS_SIZE;
+        PendingAdd add;
+        while ((add = pendingAdds.poll()) != null) {
+            if (!adds.isEmpty() && frameSize + add.size > maxFrameSize) {
+                writeAdds(c, adds);
+                adds = new ArrayList<>();
+                frameSize = MULTI_ADD_HEADERS_SIZE;
+            }
+            adds.add(add);
+            frameSize += add.size;
+        }
+        if (!adds.isEmpty()) {
+            writeAdds(c, adds);
+        }
+    }
+
+    private void writeAdds(Channel c, List<PendingAdd> adds) {
+        if (adds.size() == 1 || !multiAddSupported) {
+            // no need for a multi add request, or the bookie of the new connection doesn't support them
+            for (PendingAdd add : adds) {
+                writeAndFlush(c, add.completion, add.request, add.allowFastFail);
+            }
+            return;
+        }
+        if (c == null) {
+            LOG.warn("Multi add of {} entries failed: channel == null", adds.size());
+            for (PendingAdd add : adds) {
+                errorOut(add.completion);
+                ReferenceCountUtil.release(add.request);
+            }
+            return;
+        }
+
+        ByteBufList request = null;
+        try {
+            List<Object> addRequests = new ArrayList<>(adds.size());
+            for (PendingAdd add : adds) {
+                addRequests.add(add.request);
+            }
+            request = BookieProtoEncoding.RequestEnDeCoderPreV3.encodeMultiAddRequest(addRequests, allocator);
+
+            final long startTime = MathUtils.nowInNano();
+
+            ChannelPromise promise = c.newPromise().addListener(future -> {
+                if (future.isSuccess()) {
+                    nettyOpLogger.registerSuccessfulEvent(MathUtils.elapsedNanos(startTime), TimeUnit.NANOSECONDS);
+                    for (PendingAdd add : adds) {
+                        if (completionObjects.contains(add.completion)) {
+                            add.completion.setOutstanding();
+                        }
+                    }
+                } else {
+                    nettyOpLogger.registerFailedEvent(MathUtils.elapsedNanos(startTime), TimeUnit.NANOSECONDS);
+                }
+            });
+            c.writeAndFlush(request, promise);
+        } catch (Throwable e) {
+            LOG.warn("Multi add of {} entries failed", adds.size(), e);
+            // the add requests are released with the multi add request, unless the channel already released it
+            if (request != null && request.refCnt() > 0) {
+                ReferenceCountUtil.safeRelease(request);
+            }
+            for (PendingAdd add : adds) {
+                errorOut(add.completion);
+            }
+        }
+    }
+
+    /**
+     * An add request waiting to be written in a multi add request.
+     */
+    private static class PendingAdd {
+        final CompletionValue completion;
+        final Object request;
+        final int size;
+        final boolean allowFastFail;
+
+        PendingAdd(CompletionValue completion, Object request, int size, boolean allowFastFail) {
+            this.completion = completion;
+            this.request = request;
+            this.size = size;
+            this.allowFastFail = allowFastFail;
         }
     }
 
     public void readLac(final long ledgerId, ReadLacCallback cb, Object ctx) {
         Object request = null;
-        CompletionKey completionKey = null;
+        final CompletionValue completion = new ReadLacCompletion(cb, ctx, ledgerId);
         if (useV2WireProtocol) {
             request = BookieProtocol.ReadRequest.create(BookieProtocol.CURRENT_PROTOCOL_VERSION,
                                                      ledgerId, 0, (short) 0, null);
-            completionKey = acquireV2Key(ledgerId, 0, OperationType.READ_LAC);
+            putV2Completion(OperationType.READ_LAC, ledgerId, 0, completion);
         } else {
             final long txnId = getTxnId();
-            completionKey = new V3CompletionKey(txnId, OperationType.READ_LAC);
+            putV3Completion(txnId, completion);
 
             // Build the request and calculate the total size to be included in the packet.
             BKPacketHeader.Builder headerBuilder = BKPacketHeader.newBuilder()
@@ -875,16 +1020,13 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                     .setReadLacRequest(readLacBuilder)
                     .build();
         }
-        putCompletionKeyValue(completionKey,
-                              new ReadLacCompletion(completionKey, cb,
-                                                    ctx, ledgerId));
-        writeAndFlush(channel, completionKey, request);
+        writeAndFlush(channel, completion, request);
     }
 
     public void getListOfEntriesOfLedger(final long ledgerId, GetListOfEntriesOfLedgerCallback cb) {
         final long txnId = getTxnId();
-        final CompletionKey completionKey = new V3CompletionKey(txnId, OperationType.GET_LIST_OF_ENTRIES_OF_LEDGER);
-        completionObjects.put(completionKey, new GetListOfEntriesOfLedgerCompletion(completionKey, cb, ledgerId));
+        final CompletionValue completion = new GetListOfEntriesOfLedgerCompletion(cb, ledgerId);
+        putV3Completion(txnId, completion);
 
         // Build the request.
         BKPacketHeader.Builder headerBuilder = BKPacketHeader.newBuilder().setVersion(ProtocolVersion.VERSION_THREE)
@@ -896,7 +1038,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         final Request getListOfEntriesOfLedgerRequest = Request.newBuilder().setHeader(headerBuilder)
                 .setGetListOfEntriesOfLedgerRequest(getListOfEntriesOfLedgerRequestBuilder).build();
 
-        writeAndFlush(channel, completionKey, getListOfEntriesOfLedgerRequest);
+        writeAndFlush(channel, completion, getListOfEntriesOfLedgerRequest);
     }
 
     /**
@@ -938,14 +1080,12 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                                    byte[] masterKey,
                                    boolean allowFastFail) {
         Object request = null;
-        CompletionKey completionKey = null;
+        long txnId = -1L;
         if (useV2WireProtocol) {
             request = BookieProtocol.ReadRequest.create(BookieProtocol.CURRENT_PROTOCOL_VERSION,
                     ledgerId, entryId, (short) flags, masterKey);
-            completionKey = acquireV2Key(ledgerId, entryId, OperationType.READ_ENTRY);
         } else {
-            final long txnId = getTxnId();
-            completionKey = new V3CompletionKey(txnId, OperationType.READ_ENTRY);
+            txnId = getTxnId();
 
             // Build the request and calculate the total size to be included in the packet.
             BKPacketHeader.Builder headerBuilder = BKPacketHeader.newBuilder()
@@ -1001,18 +1141,64 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                     .build();
         }
 
-        ReadCompletion readCompletion = new ReadCompletion(completionKey, cb, ctx, ledgerId, entryId);
-        putCompletionKeyValue(completionKey, readCompletion);
+        ReadCompletion readCompletion = new ReadCompletion(cb, ctx, ledgerId, entryId);
+        if (useV2WireProtocol) {
+            putV2Completion(OperationType.READ_ENTRY, ledgerId, entryId, readCompletion);
+        } else {
+            putV3Completion(txnId, readCompletion);
+        }
+
+        writeAndFlush(channel, readCompletion, request, allowFastFail);
+    }
+
+    /**
+     * Batched Reads, only supported by the v2 wire protocol.
+     *
+     * <p>The read fails with {@link BKException.Code#ProtocolVersionException}, without being sent, until
+     * a response of the bookie on the current connection has advertised the support of batched reads.
+     */
+    public void batchReadEntries(final long ledgerId,
+                                 final long startEntryId,
+                                 final int maxCount,
+                                 final long maxSize,
+                                 BatchedReadEntryCallback cb,
+                                 Object ctx,
+                                 int flags,
+                                 boolean allowFastFail) {
+        if (!useV2WireProtocol) {
+            LOG.error("Batched reads are only supported by the v2 wire protocol, ledger {} entry {}",
+                    ledgerId, startEntryId);
+            executor.executeOrdered(ledgerId, () -> cb.readEntriesComplete(
+                    BKException.Code.IllegalOpException, ledgerId, startEntryId, null, ctx));
+            return;
+        }
+        if (!batchReadSupported) {
+            // a bookie that doesn't know the op code would close the connection
+            executor.executeOrdered(ledgerId, () -> cb.readEntriesComplete(
+                    BKException.Code.ProtocolVersionException, ledgerId, startEntryId, null, ctx));
+            return;
+        }
+        Object request = BookieProtocol.BatchedReadRequest.create(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+                ledgerId, startEntryId, maxCount, maxSize, (short) flags);
+        BatchedReadCompletion readCompletion =
+                new BatchedReadCompletion(cb, ctx, ledgerId, startEntryId);
+        putV2Completion(OperationType.RANGE_READ_ENTRY, ledgerId, startEntryId, readCompletion);
+
+        writeAndFlush(channel, readCompletion, request, allowFastFail);
+    }
 
-        writeAndFlush(channel, completionKey, request, allowFastFail);
+    /**
+     * @return true if a response of the bookie on the current connection has advertised the support of batched
+     *         reads
+     */
+    boolean isBatchReadSupported() {
+        return batchReadSupported;
     }
 
     public void getBookieInfo(final long requested, GetBookieInfoCallback cb, Object ctx) {
         final long txnId = getTxnId();
-        final CompletionKey completionKey = new V3CompletionKey(txnId, OperationType.GET_BOOKIE_INFO);
-        completionObjects.put(completionKey,
-                              new GetBookieInfoCompletion(
-                                      completionKey, cb, ctx));
+        final CompletionValue completion = new GetBookieInfoCompletion(cb, ctx);
+        putV3Completion(txnId, completion);
 
         // Build the request and calculate the total size to be included in the packet.
         BKPacketHeader.Builder headerBuilder = BKPacketHeader.newBuilder()
@@ -1028,18 +1214,17 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                 .setGetBookieInfoRequest(getBookieInfoBuilder)
                 .build();
 
-        writeAndFlush(channel, completionKey, getBookieInfoRequest);
+        writeAndFlush(channel, completion, getBookieInfoRequest);
     }
 
-    private static final BiPredicate<CompletionKey, CompletionValue> timeoutCheck = (key, value) -> {
-        return value.maybeTimeout();
-    };
-
     public void checkTimeoutOnPendingOperations() {
-        int timedOutOperations = completionObjects.removeIf(timeoutCheck);
-
-        timedOutOperations += completionObjectsV2Conflicts.removeIf(timeoutCheck);
+        // only the completions of the elapsed ticks of the timeout wheel are checked
+        List<CompletionValue> timedOut = completionObjects.removeExpired(MathUtils.nowInNano());
+        for (CompletionValue completion : timedOut) {
+            completion.timeout();
+        }
 
+        int timedOutOperations = timedOut.size();
         if (timedOutOperations > 0) {
             LOG.info("Timed-out {} operations to channel {} for {}",
                      timedOutOperations, channel, bookieId);
@@ -1124,32 +1309,22 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     }
 
     private void writeAndFlush(final Channel channel,
-                               final CompletionKey key,
+                               final CompletionValue completion,
                                final Object request) {
-        writeAndFlush(channel, key, request, false);
+        writeAndFlush(channel, completion, request, false);
     }
 
     private void writeAndFlush(final Channel channel,
-                           final CompletionKey key,
+                           final CompletionValue completion,
                            final Object request,
                            final boolean allowFastFail) {
         if (channel == null) {
             LOG.warn("Operation {} failed: channel == null", StringUtils.requestToString(request));
-            errorOut(key);
+            errorOut(completion);
             return;
         }
 
-        final boolean isChannelWritable = channel.isWritable();
-        if (isWritable != isChannelWritable) {
-            // isWritable is volatile so simple "isWritable = channel.isWritable()" would be slower
-            isWritable = isChannelWritable;
-        }
-
-        if (allowFastFail && !isWritable) {
-            LOG.warn("Operation {} failed: TooManyRequestsException",
-                    StringUtils.requestToString(request));
-
-            errorOut(key, BKException.Code.TooManyRequestsException);
+        if (!checkWritable(channel, completion, request, allowFastFail)) {
             return;
         }
 
@@ -1159,8 +1334,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
             ChannelPromise promise = channel.newPromise().addListener(future -> {
                 if (future.isSuccess()) {
                     nettyOpLogger.registerSuccessfulEvent(MathUtils.elapsedNanos(startTime), TimeUnit.NANOSECONDS);
-                    CompletionValue completion = completionObjects.get(key);
-                    if (completion != null) {
+                    if (completionObjects.contains(completion)) {
                         completion.setOutstanding();
                     }
                 } else {
@@ -1170,33 +1344,48 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
             channel.writeAndFlush(request, promise);
         } catch (Throwable e) {
             LOG.warn("Operation {} failed", StringUtils.requestToString(request), e);
-            errorOut(key);
+            errorOut(completion);
+        }
+    }
+
+    /**
+     * @return false if the request failed fast, because the channel is not writable
+     */
+    private boolean checkWritable(final Channel channel,
+                                  final CompletionValue completion,
+                                  final Object request,
+                                  final boolean allowFastFail) {
+        final boolean isChannelWritable = channel.isWritable();
+        if (isWritable != isChannelWritable) {
+            // isWritable is volatile so simple "isWritable = channel.isWritable()" would be slower
+            isWritable = isChannelWritable;
+        }
+
+        if (allowFastFail && !isWritable) {
+            LOG.warn("Operation {} failed: TooManyRequestsException",
+                    StringUtils.requestToString(request));
+
+            errorOut(completion, BKException.Code.TooManyRequestsException);
+            return false;
         }
+        return true;
     }
 
-    void errorOut(final CompletionKey key) {
+    void errorOut(final CompletionValue completion) {
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Removing completion key: {}", key);
+            LOG.debug("Removing completion key: {}", completion);
         }
-        CompletionValue completion = completionObjects.remove(key);
-        if (completion != null) {
+        if (completionObjects.remove(completion)) {
             completion.errorOut();
-        } else {
-            // If there's no completion object here, try in the multimap
-            completionObjectsV2Conflicts.removeAny(key).ifPresent(c -> c.errorOut());
         }
     }
 
-    void errorOut(final CompletionKey key, final int rc) {
+    void errorOut(final CompletionValue completion, final int rc) {
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Removing completion key: {}", key);
+            LOG.debug("Removing completion key: {}", completion);
         }
-        CompletionValue completion = completionObjects.remove(key);
-        if (completion != null) {
+        if (completionObjects.remove(completion)) {
             completion.errorOut(rc);
-        } else {
-            // If there's no completion object here, try in the multimap
-            completionObjectsV2Conflicts.removeAny(key).ifPresent(c -> c.errorOut(rc));
         }
     }
 
@@ -1225,13 +1414,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
      */
 
     void errorOutOutstandingEntries(int rc) {
-        Optional<CompletionKey> multikey = completionObjectsV2Conflicts.getAnyKey();
-        while (multikey.isPresent()) {
-            multikey.ifPresent(k -> errorOut(k, rc));
-            multikey = completionObjectsV2Conflicts.getAnyKey();
-        }
-        for (CompletionKey key : completionObjects.keys()) {
-            errorOut(key, rc);
+        for (CompletionValue completion : completionObjects.removeAll()) {
+            completion.errorOut(rc);
         }
     }
 
@@ -1263,6 +1447,9 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
             if (this.channel == ctx.channel()
                 && state != ConnectionState.CLOSED) {
                 state = ConnectionState.DISCONNECTED;
+                // the bookie may be restarted with another version before the next connection
+                batchReadSupported = false;
+                multiAddSupported = false;
             }
         }
 
@@ -1339,7 +1526,22 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
 
-        if (msg instanceof BookieProtocol.Response) {
+        if (msg instanceof BookieProtocol.Response && !batchReadSupported
+                && ((BookieProtocol.Response) msg).isBatchReadSupported()) {
+            batchReadSupported = true;
+        }
+        if (msg instanceof BookieProtocol.Response && !multiAddSupported
+                && ((BookieProtocol.Response) msg).isMultiAddSupported()) {
+            multiAddSupported = true;
+        }
+
+        if (msg instanceof BookieProtocol.MultiAddResponse) {
+            BookieProtocol.MultiAddResponse response = (BookieProtocol.MultiAddResponse) msg;
+            for (int i = 0; i < response.getNumAdds(); i++) {
+                readV2Response(BookieProtocol.AddResponse.create(response.getProtocolVersion(),
+                        response.getErrorCode(i), response.getLedgerId(i), response.getEntryId(i)));
+            }
+        } else if (msg instanceof BookieProtocol.Response) {
             BookieProtocol.Response response = (BookieProtocol.Response) msg;
             readV2Response(response);
         } else if (msg instanceof Response) {
@@ -1354,9 +1556,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         OperationType operationType = getOperationType(response.getOpCode());
         StatusCode status = getStatusCodeFromErrorCode(response.errorCode);
 
-        CompletionKey key = acquireV2Key(response.ledgerId, response.entryId, operationType);
-        CompletionValue completionValue = getCompletionValue(key);
-        key.release();
+        CompletionValue completionValue = completionObjects.removeV2(operationType, response.ledgerId,
+                response.entryId);
 
         if (null == completionValue) {
             // Unexpected response, so log it. The txnId should have been present.
@@ -1436,6 +1637,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                 return OperationType.WRITE_LAC;
             case BookieProtocol.GET_BOOKIE_INFO:
                 return OperationType.GET_BOOKIE_INFO;
+            case BookieProtocol.BATCH_READ_ENTRY:
+                return OperationType.RANGE_READ_ENTRY;
             default:
                 throw new IllegalArgumentException("Invalid operation type " + opCode);
         }
@@ -1471,8 +1674,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     private void readV3Response(final Response response) {
         final BKPacketHeader header = response.getHeader();
 
-        final CompletionKey key = newCompletionKey(header.getTxnId(), header.getOperation());
-        final CompletionValue completionValue = completionObjects.get(key);
+        // removed before the response is handled, so it can not time out concurrently
+        final CompletionValue completionValue = completionObjects.removeV3(header.getTxnId());
 
         if (null == completionValue) {
             // Unexpected response, so log it. The txnId should have been present.
@@ -1497,8 +1700,6 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                 }
             });
         }
-
-        completionObjects.remove(key);
     }
 
     void initTLSHandshake() {
@@ -1593,7 +1794,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
      */
 
     // visible for testing
-    abstract class CompletionValue {
+    abstract class CompletionValue extends CompletionRegistry.Completion {
         private final OpStatsLogger opLogger;
         private final OpStatsLogger timeoutOpLogger;
         private final String operationName;
@@ -1635,15 +1836,17 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
             }
         }
 
-        boolean maybeTimeout() {
-            if (MathUtils.elapsedNanos(startTime) >= readEntryTimeoutNanos) {
-                timeout();
-                return true;
-            } else {
-                return false;
+        void logReadLatency(int rc) {
+            // timeouts are counted, so that a bookie which stopped responding is avoided
+            if (rc == BKException.Code.OK || rc == BKException.Code.TimeoutException) {
+                recordReadLatency(latency());
             }
         }
 
+        long getTimeoutNanos() {
+            return readEntryTimeoutNanos;
+        }
+
         void timeout() {
             errorOut(BKException.Code.TimeoutException);
             timeoutOpLogger.registerSuccessfulEvent(latency(),
@@ -1709,8 +1912,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     class WriteLacCompletion extends CompletionValue {
         final WriteLacCallback cb;
 
-        public WriteLacCompletion(final CompletionKey key,
-                                  final WriteLacCallback originalCallback,
+        public WriteLacCompletion(final WriteLacCallback originalCallback,
                                   final Object originalCtx,
                                   final long ledgerId) {
             super("WriteLAC",
@@ -1724,7 +1926,6 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                         logOpResult(rc);
                         originalCallback.writeLacComplete(rc, ledgerId,
                                                           addr, originalCtx);
-                        key.release();
                     }
                 };
         }
@@ -1758,8 +1959,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     class ForceLedgerCompletion extends CompletionValue {
         final ForceLedgerCallback cb;
 
-        public ForceLedgerCompletion(final CompletionKey key,
-                                  final ForceLedgerCallback originalCallback,
+        public ForceLedgerCompletion(final ForceLedgerCallback originalCallback,
                                   final Object originalCtx,
                                   final long ledgerId) {
             super("ForceLedger",
@@ -1773,7 +1973,6 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                         logOpResult(rc);
                         originalCallback.forceLedgerComplete(rc, ledgerId,
                                                           addr, originalCtx);
-                        key.release();
                     }
                 };
         }
@@ -1808,8 +2007,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     class ReadLacCompletion extends CompletionValue {
         final ReadLacCallback cb;
 
-        public ReadLacCompletion(final CompletionKey key,
-                                 ReadLacCallback originalCallback,
+        public ReadLacCompletion(ReadLacCallback originalCallback,
                                  final Object ctx, final long ledgerId) {
             super("ReadLAC", ctx, ledgerId, BookieProtocol.LAST_ADD_CONFIRMED,
                   readLacOpLogger, readLacTimeoutOpLogger);
@@ -1822,7 +2020,6 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                         logOpResult(rc);
                         originalCallback.readLacComplete(
                                 rc, ledgerId, lacBuffer, lastEntryBuffer, ctx);
-                        key.release();
                     }
                 };
         }
@@ -1868,8 +2065,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     class ReadCompletion extends CompletionValue {
         final ReadEntryCallback cb;
 
-        public ReadCompletion(final CompletionKey key,
-                              final ReadEntryCallback originalCallback,
+        public ReadCompletion(final ReadEntryCallback originalCallback,
                               final Object originalCtx,
                               long ledgerId, final long entryId) {
             super("Read", originalCtx, ledgerId, entryId,
@@ -1881,10 +2077,10 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                                                   long entryId, ByteBuf buffer,
                                                   Object ctx) {
                         logOpResult(rc);
+                        logReadLatency(rc);
                         originalCallback.readEntryComplete(rc,
                                                            ledgerId, entryId,
                                                            buffer, originalCtx);
-                        key.release();
                     }
                 };
         }
@@ -1967,17 +2163,78 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         }
     }
 
+    class BatchedReadCompletion extends CompletionValue {
+        final BatchedReadEntryCallback cb;
+
+        public BatchedReadCompletion(final BatchedReadEntryCallback originalCallback,
+                                     final Object originalCtx,
+                                     long ledgerId, final long startEntryId) {
+            super("BatchedRead", originalCtx, ledgerId, startEntryId,
+                  readEntryOpLogger, readTimeoutOpLogger);
+
+            this.cb = new BatchedReadEntryCallback() {
+                    @Override
+                    public void readEntriesComplete(int rc, long ledgerId, long startEntryId,
+                                                    ByteBufList bufList, Object ctx) {
+                        logOpResult(rc);
+                        logReadLatency(rc);
+                        originalCallback.readEntriesComplete(rc, ledgerId, startEntryId,
+                                                             bufList, originalCtx);
+                    }
+                };
+        }
+
+        @Override
+        public void errorOut() {
+            errorOut(BKException.Code.BookieHandleNotAvailableException);
+        }
+
+        @Override
+        public void errorOut(final int rc) {
+            errorOutAndRunCallback(
+                    () -> cb.readEntriesComplete(rc, ledgerId, entryId, null, ctx));
+        }
+
+        @Override
+        public void setOutstanding() {
+            readEntryOutstanding.inc();
+        }
+
+        @Override
+        public void handleV2Response(long ledgerId, long startEntryId,
+                                     StatusCode status,
+                                     BookieProtocol.Response response) {
+            readEntryOutstanding.dec();
+            if (!(response instanceof BookieProtocol.BatchedReadResponse)) {
+                return;
+            }
+            ByteBufList data = ((BookieProtocol.BatchedReadResponse) response).getData();
+            if (LOG.isDebugEnabled()) {
+                logResponse(status, "ledger", ledgerId, "startEntry", startEntryId,
+                        "numEntries", data.size(), "length", data.readableBytes());
+            }
+
+            int rc = convertStatus(status, BKException.Code.ReadException);
+            cb.readEntriesComplete(rc, ledgerId, startEntryId, data, ctx);
+        }
+
+        @Override
+        public void handleV3Response(BookkeeperProtocol.Response response) {
+            // batched reads are never sent with the v3 protocol
+            LOG.warn("Unhandled V3 response {} for batched read", response);
+        }
+    }
+
     class StartTLSCompletion extends CompletionValue {
         final StartTLSCallback cb;
 
-        public StartTLSCompletion(final CompletionKey key) {
+        public StartTLSCompletion() {
             super("StartTLS", null, -1, -1,
                   startTLSOpLogger, startTLSTimeoutOpLogger);
             this.cb = new StartTLSCallback() {
                 @Override
                 public void startTLSComplete(int rc, Object ctx) {
                     logOpResult(rc);
-                    key.release();
                 }
             };
         }
@@ -2022,8 +2279,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     class GetBookieInfoCompletion extends CompletionValue {
         final GetBookieInfoCallback cb;
 
-        public GetBookieInfoCompletion(final CompletionKey key,
-                                       final GetBookieInfoCallback origCallback,
+        public GetBookieInfoCompletion(final GetBookieInfoCallback origCallback,
                                        final Object origCtx) {
             super("GetBookieInfo", origCtx, 0L, 0L,
                   getBookieInfoOpLogger, getBookieInfoTimeoutOpLogger);
@@ -2033,19 +2289,13 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                                                   Object ctx) {
                     logOpResult(rc);
                     origCallback.getBookieInfoComplete(rc, bInfo, origCtx);
-                    key.release();
                 }
             };
         }
 
         @Override
-        boolean maybeTimeout() {
-            if (MathUtils.elapsedNanos(startTime) >= getBookieInfoTimeoutNanos) {
-                timeout();
-                return true;
-            } else {
-                return false;
-            }
+        long getTimeoutNanos() {
+            return getBookieInfoTimeoutNanos;
         }
 
         @Override
@@ -2082,8 +2332,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     class GetListOfEntriesOfLedgerCompletion extends CompletionValue {
         final GetListOfEntriesOfLedgerCallback cb;
 
-        public GetListOfEntriesOfLedgerCompletion(final CompletionKey key,
-                final GetListOfEntriesOfLedgerCallback origCallback, final long ledgerId) {
+        public GetListOfEntriesOfLedgerCompletion(final GetListOfEntriesOfLedgerCallback origCallback,
+                                                  final long ledgerId) {
             super("GetListOfEntriesOfLedger", null, ledgerId, 0L, getListOfEntriesOfLedgerCompletionOpLogger,
                     getListOfEntriesOfLedgerCompletionTimeoutOpLogger);
             this.cb = new GetListOfEntriesOfLedgerCallback() {
@@ -2092,7 +2342,6 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                         AvailabilityOfEntriesOfLedger availabilityOfEntriesOfLedger) {
                     logOpResult(rc);
                     origCallback.getListOfEntriesOfLedgerComplete(rc, ledgerId, availabilityOfEntriesOfLedger);
-                    key.release();
                 }
             };
         }
@@ -2141,12 +2390,11 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
             }
         };
 
-    AddCompletion acquireAddCompletion(final CompletionKey key,
-                                       final WriteCallback originalCallback,
+    AddCompletion acquireAddCompletion(final WriteCallback originalCallback,
                                        final Object originalCtx,
                                        final long ledgerId, final long entryId) {
         AddCompletion completion = addCompletionRecycler.get();
-        completion.reset(key, originalCallback, originalCtx, ledgerId, entryId);
+        completion.reset(originalCallback, originalCtx, ledgerId, entryId);
         return completion;
     }
 
@@ -2154,7 +2402,6 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     class AddCompletion extends CompletionValue implements WriteCallback {
         final Recycler.Handle<AddCompletion> handle;
 
-        CompletionKey key = null;
         WriteCallback originalCallback = null;
 
         AddCompletion(Recycler.Handle<AddCompletion> handle) {
@@ -2162,11 +2409,9 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
             this.handle = handle;
         }
 
-        void reset(final CompletionKey key,
-                   final WriteCallback originalCallback,
+        void reset(final WriteCallback originalCallback,
                    final Object originalCtx,
                    final long ledgerId, final long entryId) {
-            this.key = key;
             this.originalCallback = originalCallback;
             this.ctx = originalCtx;
             this.ledgerId = ledgerId;
@@ -2180,18 +2425,12 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                                   Object ctx) {
             logOpResult(rc);
             originalCallback.writeComplete(rc, ledgerId, entryId, addr, ctx);
-            key.release();
             handle.recycle(this);
         }
 
         @Override
-        boolean maybeTimeout() {
-            if (MathUtils.elapsedNanos(startTime) >= addEntryTimeoutNanos) {
-                timeout();
-                return true;
-            } else {
-                return false;
-            }
+        long getTimeoutNanos() {
+            return addEntryTimeoutNanos;
         }
 
         @Override
@@ -2240,51 +2479,6 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         }
     }
 
-    // visable for testing
-    CompletionKey newCompletionKey(long txnId, OperationType operationType) {
-        return new V3CompletionKey(txnId, operationType);
-    }
-
-    class V3CompletionKey extends CompletionKey {
-
-        public V3CompletionKey(long txnId, OperationType operationType) {
-            super(txnId, operationType);
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (!(obj instanceof V3CompletionKey)) {
-                return false;
-            }
-            V3CompletionKey that = (V3CompletionKey) obj;
-            return this.txnId == that.txnId && this.operationType == that.operationType;
-        }
-
-        @Override
-        public int hashCode() {
-            return ((int) txnId);
-        }
-
-        @Override
-        public String toString() {
-            return String.format("TxnId(%d), OperationType(%s)", txnId, operationType);
-        }
-
-    }
-
-    abstract class CompletionKey {
-        final long txnId;
-        OperationType operationType;
-
-        CompletionKey(long txnId,
-                      OperationType operationType) {
-            this.txnId = txnId;
-            this.operationType = operationType;
-        }
-
-        public void release() {}
-    }
-
     /**
      * Note : Helper functions follow
      */
@@ -2318,85 +2512,20 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         }
     }
 
-    private void putCompletionKeyValue(CompletionKey key, CompletionValue value) {
-        CompletionValue existingValue = completionObjects.putIfAbsent(key, value);
-        if (existingValue != null) { // will only happen for V2 keys, as V3 have unique txnid
-            // There's a pending read request on same ledger/entry. Use the multimap to track all of them
-            completionObjectsV2Conflicts.put(key, value);
-        }
+    private void putV2Completion(OperationType operationType, long ledgerId, long entryId,
+                                 CompletionValue completion) {
+        completionObjects.putV2(completion, operationType, ledgerId, entryId,
+                completion.startTime + completion.getTimeoutNanos());
     }
 
-    private CompletionValue getCompletionValue(CompletionKey key) {
-        CompletionValue completionValue = completionObjects.remove(key);
-        if (completionValue == null) {
-            // If there's no completion object here, try in the multimap
-            completionValue = completionObjectsV2Conflicts.removeAny(key).orElse(null);
-        }
-        return completionValue;
+    private void putV3Completion(long txnId, CompletionValue completion) {
+        completionObjects.putV3(completion, txnId, completion.startTime + completion.getTimeoutNanos());
     }
 
     private long getTxnId() {
         return txnIdGenerator.incrementAndGet();
     }
 
-    private final Recycler<V2CompletionKey> v2KeyRecycler = new Recycler<V2CompletionKey>() {
-            @Override
-            protected V2CompletionKey newObject(
-                    Recycler.Handle<V2CompletionKey> handle) {
-                return new V2CompletionKey(handle);
-            }
-        };
-
-    V2CompletionKey acquireV2Key(long ledgerId, long entryId,
-                             OperationType operationType) {
-        V2CompletionKey key = v2KeyRecycler.get();
-        key.reset(ledgerId, entryId, operationType);
-        return key;
-    }
-
-    private class V2CompletionKey extends CompletionKey {
-        private final Handle<V2CompletionKey> recyclerHandle;
-        long ledgerId;
-        long entryId;
-
-        private V2CompletionKey(Handle<V2CompletionKey> handle) {
-            super(-1, null);
-            this.recyclerHandle = handle;
-        }
-
-        void reset(long ledgerId, long entryId, OperationType operationType) {
-            this.ledgerId = ledgerId;
-            this.entryId = entryId;
-            this.operationType = operationType;
-        }
-
-        @Override
-        public boolean equals(Object object) {
-            if (!(object instanceof V2CompletionKey)) {
-                return  false;
-            }
-            V2CompletionKey that = (V2CompletionKey) object;
-            return this.entryId == that.entryId
-                && this.ledgerId == that.ledgerId
-                && this.operationType == that.operationType;
-        }
-
-        @Override
-        public int hashCode() {
-            return Long.hashCode(ledgerId) * 31 + Long.hashCode(entryId);
-        }
-
-        @Override
-        public String toString() {
-            return String.format("%d:%d %s", ledgerId, entryId, operationType);
-        }
-
-        @Override
-        public void release() {
-            recyclerHandle.recycle(this);
-        }
-    }
-
     Request.Builder withRequestContext(Request.Builder builder) {
         if (preserveMdcForTaskExecution) {
             return appendRequestContext(builder);
@@ -2563,9 +2692,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         LOG.info("Initializing TLS to {}", channel);
         assert state == ConnectionState.CONNECTING;
         final long txnId = getTxnId();
-        final CompletionKey completionKey = new V3CompletionKey(txnId, OperationType.START_TLS);
-        completionObjects.put(completionKey,
-                              new StartTLSCompletion(completionKey));
+        final CompletionValue completion = new StartTLSCompletion();
+        putV3Completion(txnId, completion);
         BookkeeperProtocol.Request.Builder h = withRequestContext(BookkeeperProtocol.Request.newBuilder());
         BKPacketHeader.Builder headerBuilder = BKPacketHeader.newBuilder()
                 .setVersion(ProtocolVersion.VERSION_THREE)
@@ -2574,7 +2702,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         h.setHeader(headerBuilder.build());
         h.setStartTLSRequest(BookkeeperProtocol.StartTLSRequest.newBuilder().build());
         state = ConnectionState.START_TLS;
-        writeAndFlush(channel, completionKey, h.build());
+        writeAndFlush(channel, completion, h.build());
     }
 
     private void failTLS(int rc) {
@@ -61,6 +61,16 @@ public interface PerChannelBookieClientPool {
         return true;
     }
 
+    /**
+     * Whether the bookie has advertised the support of batched reads on the channel of the key.
+     *
+     * @param key
+     * @return true if a batched read can be sent on the channel
+     */
+    default boolean isBatchReadSupported(long key) {
+        return false;
+    }
+
     /**
      * record any read/write error on {@link PerChannelBookieClientPool}.
      */
@@ -92,4 +102,12 @@ public interface PerChannelBookieClientPool {
      * Get the number of pending completion requests in the channel.
      */
     long getNumPendingCompletionRequests();
+
+    /**
+     * Get the moving average of the read latency of the channels, in nanoseconds,
+     * or -1 if there is no recent estimate.
+     */
+    default long getReadLatencyNanos() {
+        return -1L;
+    }
 }
@@ -18,6 +18,7 @@
 package org.apache.bookkeeper.proto;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
 import io.netty.util.Recycler;
 import io.netty.util.ReferenceCountUtil;
 import java.io.IOException;
@@ -84,6 +85,14 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
                     throw BookieException.create(BookieException.Code.UnauthorizedAccessException);
                 }
             }
+            if (fenceResult == null && requestProcessor.isZeroCopyReadSupported(requestHandler.ctx().channel())) {
+                FileRegion region = requestProcessor.getBookie().readEntryRegion(request.getLedgerId(),
+                        request.getEntryId());
+                if (region != null) {
+                    sendZeroCopyResponse(region, startTimeNanos);
+                    return;
+                }
+            }
             data = requestProcessor.getBookie().readEntry(request.getLedgerId(), request.getEntryId());
             if (LOG.isDebugEnabled()) {
                 LOG.debug("##### Read entry ##### {} -- ref-count: {}", data.readableBytes(), data.refCnt());
@@ -144,6 +153,15 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
         recycle();
     }
 
+    private void sendZeroCopyResponse(FileRegion region, long startTimeNanos) {
+        final RequestStats stats = requestProcessor.getRequestStats();
+        stats.getReadEntryStats().registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos),
+                TimeUnit.NANOSECONDS);
+        sendReadReqResponse(BookieProtocol.EOK, ResponseBuilder.buildReadResponse(region, request),
+                stats.getReadRequestStats(), throttleReadResponses);
+        recycle();
+    }
+
     private void sendFenceResponse(Boolean result, ByteBuf data, long startTimeNanos) {
         final int retCode = result != null && result ? BookieProtocol.EOK : BookieProtocol.EIO;
         sendResponse(data, retCode, startTimeNanos);
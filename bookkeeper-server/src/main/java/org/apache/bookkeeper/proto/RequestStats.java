@@ -25,6 +25,8 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY_BLOCK
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY_IN_PROGRESS;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY_REJECTED;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY_REQUEST;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BATCH_READ_ENTRY;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BATCH_READ_ENTRY_REQUEST;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CHANNEL_WRITE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.FORCE_LEDGER;
@@ -118,6 +120,17 @@ public class RequestStats {
         parent = READ_ENTRY_REQUEST
     )
     final OpStatsLogger readEntryStats;
+    @StatsDoc(
+        name = BATCH_READ_ENTRY_REQUEST,
+        help = "request stats of BatchReadEntry on a bookie"
+    )
+    final OpStatsLogger batchReadRequestStats;
+    @StatsDoc(
+        name = BATCH_READ_ENTRY,
+        help = "operation stats of BatchReadEntry on a bookie",
+        parent = BATCH_READ_ENTRY_REQUEST
+    )
+    final OpStatsLogger batchReadEntryStats;
     @StatsDoc(
             name = READ_ENTRY_REJECTED,
             help = "Counter for rejected reads on a bookie",
@@ -257,6 +270,8 @@ public class RequestStats {
         this.forceLedgerStats = statsLogger.getOpStatsLogger(FORCE_LEDGER);
         this.forceLedgerRequestStats = statsLogger.getOpStatsLogger(FORCE_LEDGER_REQUEST);
         this.readRequestStats = statsLogger.getOpStatsLogger(READ_ENTRY_REQUEST);
+        this.batchReadRequestStats = statsLogger.getOpStatsLogger(BATCH_READ_ENTRY_REQUEST);
+        this.batchReadEntryStats = statsLogger.getOpStatsLogger(BATCH_READ_ENTRY);
         this.fenceReadEntryStats = statsLogger.getOpStatsLogger(READ_ENTRY_FENCE_READ);
         this.fenceReadRequestStats = statsLogger.getOpStatsLogger(READ_ENTRY_FENCE_REQUEST);
         this.fenceReadWaitStats = statsLogger.getOpStatsLogger(READ_ENTRY_FENCE_WAIT);
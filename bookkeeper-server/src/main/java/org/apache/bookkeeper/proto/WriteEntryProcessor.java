@@ -69,14 +69,33 @@ class WriteEntryProcessor extends PacketProcessorBase<ParsedAddRequest> implemen
         }
 
         startTimeNanos = MathUtils.nowInNano();
+        int rc = addEntry(request, this, requestHandler, requestProcessor);
+
+        if (rc != BookieProtocol.EOK) {
+            requestProcessor.getRequestStats().getAddEntryStats()
+                .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            sendWriteReqResponse(rc,
+                         ResponseBuilder.buildErrorResponse(rc, request),
+                         requestProcessor.getRequestStats().getAddRequestStats());
+            request.recycle();
+        }
+    }
+
+    /**
+     * Add the entry of a request to the bookie.
+     *
+     * @return {@link BookieProtocol#EOK} if the entry was submitted to the bookie, in which case {@code cb} is
+     *         called once it is written, otherwise the error code of the failure.
+     */
+    static int addEntry(ParsedAddRequest request, WriteCallback cb, Object ctx,
+                        BookieRequestProcessor requestProcessor) {
         int rc = BookieProtocol.EOK;
         ByteBuf addData = request.getData();
         try {
             if (request.isRecoveryAdd()) {
-                requestProcessor.getBookie().recoveryAddEntry(addData, this, requestHandler, request.getMasterKey());
+                requestProcessor.getBookie().recoveryAddEntry(addData, cb, ctx, request.getMasterKey());
             } else {
-                requestProcessor.getBookie().addEntry(addData, false, this,
-                        requestHandler, request.getMasterKey());
+                requestProcessor.getBookie().addEntry(addData, false, cb, ctx, request.getMasterKey());
             }
         } catch (OperationRejectedException e) {
             requestProcessor.getRequestStats().getAddEntryRejectedCounter().inc();
@@ -101,15 +120,7 @@ class WriteEntryProcessor extends PacketProcessorBase<ParsedAddRequest> implemen
             // some bad request which cause unexpected exception
             rc = BookieProtocol.EBADREQ;
         }
-
-        if (rc != BookieProtocol.EOK) {
-            requestProcessor.getRequestStats().getAddEntryStats()
-                .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
-            sendWriteReqResponse(rc,
-                         ResponseBuilder.buildErrorResponse(rc, request),
-                         requestProcessor.getRequestStats().getAddRequestStats());
-            request.recycle();
-        }
+        return rc;
     }
 
     @Override
@@ -43,8 +43,21 @@ import org.slf4j.LoggerFactory;
  *           "lastMajorCompactionTime" : 1544578144944,
  *           "lastMinorCompactionTime" : 1544578144944,
  *           "majorCompactionCounter" : 1,
- *           "minorCompactionCounter" : 0
+ *           "minorCompactionCounter" : 0,
+ *           "ledgerDirs" : [ "/data/bookkeeper/ledgers/current" ],
+ *           "entryLogUsageBuckets" : [ 2, 0, 1, 0, 3, 0, 0, 1, 4, 12 ],
+ *           "minorCompactionReclaimableBytes" : 2936012800,
+ *           "majorCompactionReclaimableBytes" : 4508876800,
+ *           "minorCompactionTimeEstimateMillis" : 10485,
+ *           "majorCompactionTimeEstimateMillis" : 47185,
+ *           "reclaimedSpaceViaCompaction" : 5368709120,
+ *           "compactionBytesRead" : 6442450944,
+ *           "compactionBytesWritten" : 1073741824,
+ *           "compactionWriteAmplification" : 0.2
  *         } ]
+ *
+ * <p>The usage of the entry logs and the compaction estimates are those of the ledger dirs of each garbage
+ * collector thread, so DbLedgerStorage reports them per ledger dir.
  */
 public class GCDetailsService implements HttpEndpointService {
 
@@ -0,0 +1,117 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.conf.TestBKConfiguration;
+import org.apache.bookkeeper.util.MathUtils;
+import org.junit.Test;
+
+/**
+ * Tests the adjustment of the rate of the compaction {@link AbstractLogCompactor.Throttler} to the latency of
+ * the foreground reads.
+ */
+public class CompactionThrottlerTest {
+
+    private static final int MAX_RATE = 1000;
+    private static final long LATENCY_TARGET_MILLIS = 10;
+    private static final double DELTA = 0.001;
+
+    private final AbstractLogCompactor.Throttler throttler;
+    private long nowNanos;
+
+    public CompactionThrottlerTest() {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setIsThrottleByBytes(false);
+        conf.setCompactionRateByEntries(MAX_RATE);
+        conf.setCompactionForegroundLatencyTargetMillis(LATENCY_TARGET_MILLIS);
+        throttler = new AbstractLogCompactor.Throttler(conf);
+        nowNanos = MathUtils.nowInNano();
+    }
+
+    private void recordLatencyMillis(long latencyMillis) {
+        throttler.recordForegroundLatency(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+    }
+
+    private double adjustAfterInterval() {
+        nowNanos += TimeUnit.SECONDS.toNanos(1);
+        throttler.maybeAdjustRate(nowNanos);
+        return throttler.getRate();
+    }
+
+    @Test
+    public void testRateHalvedDownToFloor() {
+        assertEquals(MAX_RATE, throttler.getRate(), DELTA);
+        double[] expectedRates = {500, 250, 125, 100, 100};
+        for (double expectedRate : expectedRates) {
+            recordLatencyMillis(2 * LATENCY_TARGET_MILLIS);
+            assertEquals(expectedRate, adjustAfterInterval(), DELTA);
+        }
+    }
+
+    @Test
+    public void testRateRecoversUpToConfiguredRate() {
+        for (int i = 0; i < 4; i++) {
+            recordLatencyMillis(2 * LATENCY_TARGET_MILLIS);
+            adjustAfterInterval();
+        }
+        assertEquals(MAX_RATE / 10, throttler.getRate(), DELTA);
+
+        // the rate increases by a tenth of the configured rate per interval without reads over the target
+        for (int i = 2; i <= 10; i++) {
+            if (i % 2 == 0) {
+                recordLatencyMillis(LATENCY_TARGET_MILLIS / 2);
+            }
+            assertEquals(i * MAX_RATE / 10, adjustAfterInterval(), DELTA);
+        }
+        assertEquals(MAX_RATE, adjustAfterInterval(), DELTA);
+    }
+
+    @Test
+    public void testAverageLatencyOfInterval() {
+        // the average of the interval is over the target
+        recordLatencyMillis(1);
+        recordLatencyMillis(1);
+        recordLatencyMillis(3 * LATENCY_TARGET_MILLIS);
+        assertEquals(MAX_RATE / 2, adjustAfterInterval(), DELTA);
+
+        // the latencies are reset on each adjustment
+        recordLatencyMillis(1);
+        assertEquals(MAX_RATE / 2 + MAX_RATE / 10, adjustAfterInterval(), DELTA);
+    }
+
+    @Test
+    public void testRateAdjustedOncePerInterval() {
+        recordLatencyMillis(2 * LATENCY_TARGET_MILLIS);
+        nowNanos += TimeUnit.MILLISECONDS.toNanos(500);
+        throttler.maybeAdjustRate(nowNanos);
+        assertEquals(MAX_RATE, throttler.getRate(), DELTA);
+
+        // the latencies of the interval are kept until the rate is adjusted
+        assertEquals(MAX_RATE / 2, adjustAfterInterval(), DELTA);
+        recordLatencyMillis(2 * LATENCY_TARGET_MILLIS);
+        throttler.maybeAdjustRate(nowNanos + TimeUnit.MILLISECONDS.toNanos(999));
+        assertEquals(MAX_RATE / 2, throttler.getRate(), DELTA);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.bookie.DefaultEntryLogger.UNASSIGNED_LEDGERID;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.conf.TestBKConfiguration;
+import org.apache.bookkeeper.helper.TmpDirs;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the zero-copy reads of the entries of the {@link DefaultEntryLogger}.
+ */
+public class DefaultEntryLoggerZeroCopyTest {
+
+    private static final int MIN_ZERO_COPY_SIZE = 1024;
+    private static final long LEDGER_ID = 1L;
+
+    private final TmpDirs tmpDirs = new TmpDirs();
+    private ServerConfiguration conf;
+    private LedgerDirsManager ledgerDirsManager;
+    private DefaultEntryLogger entryLogger;
+
+    @Before
+    public void setup() throws Exception {
+        File rootDir = tmpDirs.createNew("zeroCopy", "test");
+        conf = TestBKConfiguration.newServerConfiguration();
+        conf.setLedgerDirNames(new String[] {rootDir.getPath()});
+        conf.setZeroCopyReadMinEntrySize(MIN_ZERO_COPY_SIZE);
+        conf.setEntryLogFilePreAllocationEnabled(false);
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(rootDir));
+        ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        entryLogger = new DefaultEntryLogger(conf, ledgerDirsManager);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        entryLogger.close();
+        tmpDirs.cleanup();
+    }
+
+    private static ByteBuf entry(long entryId, int size) {
+        ByteBuf entry = Unpooled.buffer(size);
+        entry.writeLong(LEDGER_ID);
+        entry.writeLong(entryId);
+        while (entry.isWritable()) {
+            entry.writeByte((int) (entryId + entry.writerIndex()));
+        }
+        return entry;
+    }
+
+    private static byte[] transfer(FileRegion region) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel target = Channels.newChannel(out);
+        while (region.transferred() < region.count()) {
+            region.transferTo(target, region.transferred());
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] bytes(ByteBuf buf) {
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.getBytes(buf.readerIndex(), bytes);
+        return bytes;
+    }
+
+    /**
+     * Add an entry to an entry log that is rolled and flushed, so that the whole entry is in the file.
+     */
+    private long addFlushedEntry(long entryId, int size) throws IOException {
+        long location = entryLogger.addEntry(LEDGER_ID, entry(entryId, size));
+        ((EntryLogManagerBase) entryLogger.getEntryLogManager()).createNewLog(UNASSIGNED_LEDGERID);
+        entryLogger.flush();
+        return location;
+    }
+
+    @Test
+    public void testSmallEntryReadInMemory() throws Exception {
+        long location = addFlushedEntry(0, MIN_ZERO_COPY_SIZE - 1);
+        assertNull(entryLogger.readEntryRegion(LEDGER_ID, 0, location));
+        assertTrue(entryLogger.logid2RegionChannel.isEmpty());
+    }
+
+    @Test
+    public void testRegionOfEntry() throws Exception {
+        long location = addFlushedEntry(0, 4 * MIN_ZERO_COPY_SIZE);
+        FileRegion region = entryLogger.readEntryRegion(LEDGER_ID, 0, location);
+        assertNotNull(region);
+        try {
+            assertEquals(4 * MIN_ZERO_COPY_SIZE, region.count());
+            assertArrayEquals(bytes(entry(0, 4 * MIN_ZERO_COPY_SIZE)), transfer(region));
+        } finally {
+            region.release();
+        }
+
+        // the entry is checked against the expected ledger and entry ids
+        try {
+            entryLogger.readEntryRegion(LEDGER_ID, 1, location);
+            fail("the region of another entry should not be returned");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testEntryInWriteBufferReadInMemory() throws Exception {
+        long location = entryLogger.addEntry(LEDGER_ID, entry(0, 4 * MIN_ZERO_COPY_SIZE));
+        assertNull(entryLogger.readEntryRegion(LEDGER_ID, 0, location));
+        // the channel is shared by the next reads of the entry log
+        assertEquals(1, entryLogger.logid2RegionChannel.size());
+        assertEquals(1, entryLogger.logid2RegionChannel.get(location >>> 32).refCnt());
+    }
+
+    @Test
+    public void testRegionValidAfterLogRemoved() throws Exception {
+        long location = addFlushedEntry(0, 4 * MIN_ZERO_COPY_SIZE);
+        long logId = location >>> 32;
+        FileRegion region = entryLogger.readEntryRegion(LEDGER_ID, 0, location);
+        DefaultEntryLogger.RegionChannel channel = entryLogger.logid2RegionChannel.get(logId);
+        assertEquals(2, channel.refCnt());
+
+        assertTrue(entryLogger.removeEntryLog(logId));
+        assertFalse(entryLogger.logExists(logId));
+        assertTrue(entryLogger.logid2RegionChannel.isEmpty());
+        assertEquals(1, channel.refCnt());
+
+        // the file stays open until the region is released
+        assertArrayEquals(bytes(entry(0, 4 * MIN_ZERO_COPY_SIZE)), transfer(region));
+        region.release();
+        assertEquals(0, channel.refCnt());
+    }
+
+    @Test
+    public void testLogRemovedWhileChannelOpened() throws Exception {
+        AtomicBoolean removeLog = new AtomicBoolean(true);
+        entryLogger.close();
+        entryLogger = new DefaultEntryLogger(conf, ledgerDirsManager) {
+            @Override
+            void regionChannelOpened(long entryLogId) {
+                // the log is removed before the channel is added to the map
+                if (removeLog.getAndSet(false)) {
+                    assertTrue(removeEntryLog(entryLogId));
+                }
+            }
+        };
+        long location = addFlushedEntry(0, 4 * MIN_ZERO_COPY_SIZE);
+
+        assertNull(entryLogger.readEntryRegion(LEDGER_ID, 0, location));
+        assertFalse(removeLog.get());
+        // the channel of the removed log is not kept open
+        assertTrue(entryLogger.logid2RegionChannel.isEmpty());
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.bookkeeper.common.util.nativeio.IoUring;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOImpl;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the data written through the {@link DirectBufferedChannel} reads back from the file.
+ * The tests are skipped where the file system of the temporary folder does not support O_DIRECT.
+ */
+public class DirectBufferedChannelTest {
+
+    private static final int CAPACITY = 2 * DirectBufferedChannel.ALIGNMENT;
+    private static final int ALIGNMENT = DirectBufferedChannel.ALIGNMENT;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private final ByteBufAllocator allocator = UnpooledByteBufAllocator.DEFAULT;
+    private final NativeIO nativeIO = new NativeIOImpl();
+    private final byte[] data = new byte[5 * ALIGNMENT + 1234];
+    private File file;
+    private IoUring ioUring;
+
+    @Before
+    public void setup() throws Exception {
+        new Random(0).nextBytes(data);
+        file = tmpDir.newFile("journal");
+        try {
+            newChannel(null, false).close();
+        } catch (IOException | LinkageError e) {
+            Assume.assumeNoException("O_DIRECT is not available", e);
+        }
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (ioUring != null) {
+            ioUring.close();
+        }
+    }
+
+    private DirectBufferedChannel newChannel(IoUring ring, boolean linkSync) throws IOException {
+        return newChannel(0, ring, linkSync);
+    }
+
+    private DirectBufferedChannel newChannel(long position, IoUring ring, boolean linkSync) throws IOException {
+        FileChannel fc = new RandomAccessFile(file, "rw").getChannel();
+        fc.position(position);
+        try {
+            return new DirectBufferedChannel(allocator, file, fc, CAPACITY, nativeIO, ring, linkSync);
+        } catch (IOException | RuntimeException | LinkageError e) {
+            fc.close();
+            throw e;
+        }
+    }
+
+    private IoUring newIoUring() {
+        try {
+            ioUring = new IoUring(nativeIO, 16, "direct-buffered-channel-test");
+        } catch (Throwable t) {
+            Assume.assumeNoException("io_uring is not available", t);
+        }
+        return ioUring;
+    }
+
+    /**
+     * Write the data from {@code from} to {@code to} in chunks, which do not line up with the blocks.
+     */
+    private void write(BufferedChannel channel, int from, int to) throws IOException {
+        for (int offset = from; offset < to; offset += 1000) {
+            ByteBuf chunk = Unpooled.wrappedBuffer(data, offset, Math.min(1000, to - offset));
+            channel.write(chunk);
+            chunk.release();
+        }
+    }
+
+    private void verifyFile(int length) throws IOException {
+        byte[] content = Files.readAllBytes(file.toPath());
+        // the last block is padded with zeros
+        assertEquals((length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT, content.length);
+        assertArrayEquals(Arrays.copyOf(data, length), Arrays.copyOf(content, length));
+        for (int i = length; i < content.length; i++) {
+            assertEquals(0, content[i]);
+        }
+    }
+
+    private void verifyRead(BufferedChannel channel, int length) throws IOException {
+        ByteBuf dest = Unpooled.buffer(length);
+        try {
+            assertEquals(length, channel.read(dest, 0, length));
+            assertEquals(Unpooled.wrappedBuffer(data, 0, length), dest);
+        } finally {
+            dest.release();
+        }
+    }
+
+    private void testRoundTrip(IoUring ring, boolean linkSync) throws Exception {
+        try (DirectBufferedChannel channel = newChannel(ring, linkSync)) {
+            write(channel, 0, data.length);
+            assertEquals(data.length, channel.position());
+            // the complete blocks were written when the buffer filled up, the tail is still in the buffer
+            verifyRead(channel, data.length);
+
+            channel.flush();
+            assertEquals(data.length / ALIGNMENT * ALIGNMENT, channel.forceWrite(false));
+            verifyFile(data.length);
+            verifyRead(channel, data.length);
+        }
+        verifyFile(data.length);
+    }
+
+    @Test
+    public void testRoundTripPwrite() throws Exception {
+        testRoundTrip(null, false);
+    }
+
+    @Test
+    public void testRoundTripIoUring() throws Exception {
+        testRoundTrip(newIoUring(), false);
+    }
+
+    @Test
+    public void testRoundTripIoUringLinkedSync() throws Exception {
+        testRoundTrip(newIoUring(), true);
+    }
+
+    @Test
+    public void testFlushIncompleteBlock() throws Exception {
+        try (DirectBufferedChannel channel = newChannel(null, false)) {
+            write(channel, 0, 100);
+            channel.flush();
+            verifyFile(100);
+            long writes = channel.getNumWriteSyscalls();
+
+            // nothing new to write
+            channel.flush();
+            assertEquals(writes, channel.getNumWriteSyscalls());
+
+            // the padding of the incomplete block is overwritten by the next flush
+            write(channel, 100, 300);
+            channel.flush();
+            assertEquals(writes + 1, channel.getNumWriteSyscalls());
+            verifyFile(300);
+
+            // the incomplete block is kept in the buffer until it is complete
+            write(channel, 300, ALIGNMENT + 300);
+            channel.flush();
+            verifyFile(ALIGNMENT + 300);
+            assertEquals(ALIGNMENT, channel.forceWrite(false));
+            verifyRead(channel, ALIGNMENT + 300);
+        }
+    }
+
+    @Test
+    public void testReopenAtUnalignedPosition() throws Exception {
+        int firstLength = ALIGNMENT + 904;
+        try (DirectBufferedChannel channel = newChannel(null, false)) {
+            write(channel, 0, firstLength);
+            channel.flush();
+        }
+        verifyFile(firstLength);
+
+        // the bytes of the last block already in the file are loaded, and written again with the new ones
+        try (DirectBufferedChannel channel = newChannel(firstLength, null, false)) {
+            assertEquals(firstLength, channel.position());
+            write(channel, firstLength, data.length);
+            channel.flush();
+            verifyRead(channel, data.length);
+        }
+        verifyFile(data.length);
+    }
+
+    @Test
+    public void testForceWriteWaitsForLinkedSync() throws Exception {
+        try (DirectBufferedChannel channel = newChannel(newIoUring(), true)) {
+            write(channel, 0, 3 * ALIGNMENT);
+            channel.flush();
+            long syncs = channel.getNumSyncSyscalls();
+            // the sync was submitted along with the write, the force write only waits for it
+            assertEquals(3 * ALIGNMENT, channel.forceWrite(false));
+            assertEquals(syncs, channel.getNumSyncSyscalls());
+
+            // syncing the metadata still goes through the file channel
+            assertEquals(3 * ALIGNMENT, channel.forceWrite(true));
+            assertTrue(channel.getNumSyncSyscalls() > syncs);
+        }
+        verifyFile(3 * ALIGNMENT);
+    }
+}
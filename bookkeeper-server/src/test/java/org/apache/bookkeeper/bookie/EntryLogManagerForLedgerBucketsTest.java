@@ -0,0 +1,184 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.conf.TestBKConfiguration;
+import org.apache.bookkeeper.helper.TmpDirs;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the active entry logs of the buckets of the {@link EntryLogManagerForLedgerBuckets}.
+ */
+public class EntryLogManagerForLedgerBucketsTest {
+
+    private static final int NUM_BUCKETS = 4;
+    private static final int ENTRY_SIZE = 1024;
+    private static final long LOG_SIZE_LIMIT = 16 * ENTRY_SIZE;
+
+    private final TmpDirs tmpDirs = new TmpDirs();
+    private File[] ledgerDirs;
+    private LedgerDirsManager ledgerDirsManager;
+    private DefaultEntryLogger entryLogger;
+    private EntryLogManagerForLedgerBuckets entryLogManager;
+
+    @Before
+    public void setup() throws Exception {
+        File[] rootDirs = {tmpDirs.createNew("bucketLogs", "dir0"), tmpDirs.createNew("bucketLogs", "dir1")};
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setLedgerDirNames(new String[] {rootDirs[0].getPath(), rootDirs[1].getPath()});
+        conf.setEntryLogBuckets(NUM_BUCKETS);
+        conf.setEntryLogSizeLimit(LOG_SIZE_LIMIT);
+        conf.setEntryLogFilePreAllocationEnabled(false);
+
+        ledgerDirs = BookieImpl.getCurrentDirectories(rootDirs);
+        for (File dir : ledgerDirs) {
+            BookieImpl.checkDirectoryStructure(dir);
+        }
+        ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        entryLogger = new DefaultEntryLogger(conf, ledgerDirsManager);
+        entryLogManager = (EntryLogManagerForLedgerBuckets) entryLogger.getEntryLogManager();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        entryLogger.close();
+        tmpDirs.cleanup();
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        entry.writeZero(ENTRY_SIZE - 16);
+        return entry;
+    }
+
+    private long addEntry(long ledgerId, long entryId, boolean rollLog) throws Exception {
+        return entryLogManager.addEntry(ledgerId, entry(ledgerId, entryId), rollLog) >>> 32;
+    }
+
+    private long activeLogId(long ledgerId) {
+        return entryLogManager.getCurrentLogForLedger(ledgerId).getLogId();
+    }
+
+    @Test
+    public void testLedgersOfBucketShareEntryLog() throws Exception {
+        Set<Long> logIds = new HashSet<>();
+        for (long ledgerId = 0; ledgerId < NUM_BUCKETS; ledgerId++) {
+            long logId = addEntry(ledgerId, 0, true);
+            assertEquals(logId, addEntry(ledgerId + NUM_BUCKETS, 0, true));
+            assertTrue(logIds.add(logId));
+        }
+        // the buckets are spread over the ledger dirs
+        Set<File> dirs = new HashSet<>();
+        for (long ledgerId = 0; ledgerId < NUM_BUCKETS; ledgerId++) {
+            dirs.add(entryLogManager.getCurrentLogForLedger(ledgerId).getLogFile().getParentFile());
+        }
+        assertEquals(ledgerDirs.length, dirs.size());
+    }
+
+    @Test
+    public void testEntryLogRolledPerBucket() throws Exception {
+        long otherLogId = addEntry(2, 0, true);
+        long logId = addEntry(1, 0, true);
+        long entryId = 1;
+        while (addEntry(1, entryId, true) == logId) {
+            entryId++;
+        }
+        assertEquals((LOG_SIZE_LIMIT - DefaultEntryLogger.LOGFILE_HEADER_SIZE) / (ENTRY_SIZE + 4), entryId);
+        assertNotEquals(logId, activeLogId(1));
+        assertEquals(activeLogId(1), activeLogId(1 + NUM_BUCKETS));
+
+        // the other buckets keep their active entry log
+        assertEquals(otherLogId, activeLogId(2));
+        assertEquals(otherLogId, addEntry(2, 1, true));
+        assertEquals(1, entryLogManager.getRotatedLogChannels().size());
+    }
+
+    @Test
+    public void testDiskFullRollsEntryLogsOfDisk() throws Exception {
+        for (long ledgerId = 0; ledgerId < NUM_BUCKETS; ledgerId++) {
+            addEntry(ledgerId, 0, true);
+        }
+        File fullDir = entryLogManager.getCurrentLogForLedger(0).getLogFile().getParentFile();
+        long[] logIds = new long[NUM_BUCKETS];
+        for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+            logIds[bucket] = activeLogId(bucket);
+        }
+
+        ledgerDirsManager.addToFilledDirs(fullDir);
+        for (long ledgerId = 0; ledgerId < NUM_BUCKETS; ledgerId++) {
+            boolean inFullDir = entryLogManager.getCurrentLogForLedger(ledgerId).getLogFile().getParentFile()
+                    .equals(fullDir);
+            long logId = addEntry(ledgerId, 1, true);
+            if (inFullDir) {
+                // the bucket moved to a new entry log in a writable dir
+                assertNotEquals(logIds[(int) ledgerId], logId);
+                assertNotEquals(fullDir,
+                        entryLogManager.getCurrentLogForLedger(ledgerId).getLogFile().getParentFile());
+            } else {
+                assertEquals(logIds[(int) ledgerId], logId);
+            }
+            // the entry log is rolled once
+            assertEquals(logId, addEntry(ledgerId, 2, true));
+        }
+    }
+
+    @Test
+    public void testCommitEntryMemTableFlushRollsFullBuckets() throws Exception {
+        // the buckets without active entry log are skipped
+        assertFalse(entryLogManager.commitEntryMemTableFlush());
+        for (long ledgerId = 0; ledgerId < NUM_BUCKETS; ledgerId++) {
+            assertNull(entryLogManager.getCurrentLogForLedger(ledgerId));
+        }
+
+        // the memtable flush does not roll the entry logs, they go over the size limit
+        long logId = addEntry(1, 0, false);
+        for (long entryId = 1; entryId <= LOG_SIZE_LIMIT / ENTRY_SIZE; entryId++) {
+            assertEquals(logId, addEntry(1, entryId, false));
+        }
+        long otherLogId = addEntry(2, 0, false);
+
+        assertTrue(entryLogManager.commitEntryMemTableFlush());
+        assertNotEquals(logId, activeLogId(1));
+        assertEquals(otherLogId, activeLogId(2));
+        assertNull(entryLogManager.getCurrentLogForLedger(3));
+        assertEquals(1, entryLogManager.getRotatedLogChannels().size());
+        assertEquals(logId, entryLogManager.getRotatedLogChannels().get(0).getLogId());
+        assertFalse(entryLogManager.commitEntryMemTableFlush());
+    }
+}
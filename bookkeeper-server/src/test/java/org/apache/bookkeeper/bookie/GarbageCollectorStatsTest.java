@@ -0,0 +1,215 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COMPACTION_READ_BYTES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COMPACTION_WRITTEN_BYTES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ENTRY_LOG_USAGE_COUNT;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MAJOR_COMPACTION_RECLAIMABLE_BYTES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MAJOR_COMPACTION_RECLAIM_TIME_ESTIMATE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MINOR_COMPACTION_RECLAIMABLE_BYTES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MINOR_COMPACTION_RECLAIM_TIME_ESTIMATE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.RECLAIMED_COMPACTION_SPACE_BYTES;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.common.util.JsonUtil;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.conf.TestBKConfiguration;
+import org.apache.bookkeeper.http.HttpServer;
+import org.apache.bookkeeper.http.service.HttpServiceRequest;
+import org.apache.bookkeeper.http.service.HttpServiceResponse;
+import org.apache.bookkeeper.proto.BookieServer;
+import org.apache.bookkeeper.server.http.service.GCDetailsService;
+import org.apache.bookkeeper.test.TestStatsProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the entry log usage and the compaction efficiency reported by the {@link GarbageCollectorThread}.
+ */
+public class GarbageCollectorStatsTest {
+
+    private static final int COMPACTION_RATE_BYTES = 1_000_000;
+    private static final long ENTRY_LOG_SIZE = 1_000_000;
+    private static final int ENTRY_SIZE = 100;
+    private static final String LEDGER_DIR = "/data/ledgers";
+
+    private final TestStatsProvider statsProvider = new TestStatsProvider();
+    private final EntryLogger entryLogger = mock(EntryLogger.class);
+    private final CompactableLedgerStorage ledgerStorage = mock(CompactableLedgerStorage.class);
+    private final LedgerDirsManager ledgerDirsManager = mock(LedgerDirsManager.class);
+
+    private GarbageCollectorThread gcThread;
+
+    @Before
+    public void setup() throws Exception {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setMinorCompactionThreshold(0.2);
+        conf.setMajorCompactionThreshold(0.5);
+        conf.setIsThrottleByBytes(true);
+        conf.setCompactionRateByBytes(COMPACTION_RATE_BYTES);
+        conf.setUseTransactionalCompaction(false);
+
+        when(ledgerDirsManager.getAllLedgerDirs()).thenReturn(Collections.singletonList(new File(LEDGER_DIR)));
+        when(ledgerStorage.ledgerExists(anyLong())).thenReturn(true);
+        // the entry log 0 has two live entries
+        when(ledgerStorage.getEntryLocationsInEntryLog(any())).thenReturn(Arrays.asList(
+                new EntryLocation(1, 0, 1000), new EntryLocation(1, 1, 2000)));
+        when(entryLogger.readEntry(anyLong(), anyLong(), anyLong())).thenAnswer(inv -> {
+            ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+            entry.writeLong(inv.getArgument(0));
+            entry.writeLong(inv.getArgument(1));
+            entry.writeZero(ENTRY_SIZE - 16);
+            return entry;
+        });
+
+        gcThread = new GarbageCollectorThread(conf, null, ledgerDirsManager, ledgerStorage, entryLogger,
+                statsProvider.getStatsLogger(""), Executors.newSingleThreadScheduledExecutor());
+        // entry logs used at 10%, 35% and 95%
+        addEntryLog(0, 100_000);
+        addEntryLog(1, 350_000);
+        addEntryLog(2, 950_000);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        gcThread.shutdown();
+    }
+
+    private void addEntryLog(long entryLogId, long remainingSize) throws Exception {
+        EntryLogMetadata meta = new EntryLogMetadata(entryLogId);
+        meta.addLedgerSize(1, remainingSize);
+        meta.addLedgerSize(2, ENTRY_LOG_SIZE - remainingSize);
+        meta.removeLedgerIf(ledgerId -> ledgerId == 2);
+        gcThread.getEntryLogMetaMap().put(entryLogId, meta);
+    }
+
+    private long gauge(String name) {
+        return statsProvider.getGauge(name).getSample().longValue();
+    }
+
+    private long usageGauge(int bucket) {
+        return gauge("usage_" + (bucket + 1) * 10 + "%." + ENTRY_LOG_USAGE_COUNT);
+    }
+
+    @Test
+    public void testEntryLogUsageGauges() throws Exception {
+        // nothing is reported before the first pass over the entry logs
+        for (int bucket = 0; bucket < 10; bucket++) {
+            assertEquals(0, usageGauge(bucket));
+        }
+        assertEquals(0, gauge(MINOR_COMPACTION_RECLAIMABLE_BYTES));
+        assertEquals(0, gauge(MAJOR_COMPACTION_RECLAIM_TIME_ESTIMATE));
+
+        gcThread.doGcEntryLogs();
+        int[] expectedBuckets = {1, 0, 0, 1, 0, 0, 0, 0, 0, 1};
+        for (int bucket = 0; bucket < 10; bucket++) {
+            assertEquals("bucket " + bucket, expectedBuckets[bucket], usageGauge(bucket));
+        }
+        // a minor compaction rewrites the entry log 0, a major one the entry logs 0 and 1
+        assertEquals(900_000, gauge(MINOR_COMPACTION_RECLAIMABLE_BYTES));
+        assertEquals(900_000 + 650_000, gauge(MAJOR_COMPACTION_RECLAIMABLE_BYTES));
+        // the live bytes to rewrite at the compaction rate
+        assertEquals(100, gauge(MINOR_COMPACTION_RECLAIM_TIME_ESTIMATE));
+        assertEquals(450, gauge(MAJOR_COMPACTION_RECLAIM_TIME_ESTIMATE));
+    }
+
+    @Test
+    public void testTimeEstimateUnknownWhenThrottledByEntries() throws Exception {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setIsThrottleByBytes(false);
+        TestStatsProvider entriesStatsProvider = new TestStatsProvider();
+        GarbageCollectorThread entriesGcThread = new GarbageCollectorThread(conf, null, ledgerDirsManager,
+                ledgerStorage, entryLogger, entriesStatsProvider.getStatsLogger(""),
+                Executors.newSingleThreadScheduledExecutor());
+        try {
+            entriesGcThread.doGcEntryLogs();
+            assertEquals(-1, entriesStatsProvider.getGauge(MINOR_COMPACTION_RECLAIM_TIME_ESTIMATE)
+                    .getSample().longValue());
+            assertEquals(-1, entriesGcThread.getGarbageCollectionStatus().getMajorCompactionTimeEstimateMillis());
+        } finally {
+            entriesGcThread.shutdown();
+        }
+    }
+
+    @Test
+    public void testCompactionBytes() throws Exception {
+        gcThread.doCompactEntryLogs(0.2, 0);
+
+        // the two live entries of the entry log 0 are read and rewritten, with their size header
+        long entryBytes = 2 * (ENTRY_SIZE + 4);
+        assertEquals(entryBytes, statsProvider.getCounter(COMPACTION_READ_BYTES).get().longValue());
+        assertEquals(entryBytes, statsProvider.getCounter(COMPACTION_WRITTEN_BYTES).get().longValue());
+        assertEquals(900_000, statsProvider.getCounter(RECLAIMED_COMPACTION_SPACE_BYTES).get().longValue());
+
+        GarbageCollectionStatus status = gcThread.getGarbageCollectionStatus();
+        assertEquals(entryBytes, status.getCompactionBytesRead());
+        assertEquals(entryBytes, status.getCompactionBytesWritten());
+        assertEquals(900_000, status.getReclaimedSpaceViaCompaction());
+        assertEquals((double) entryBytes / 900_000, status.getCompactionWriteAmplification(), 1e-9);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGcDetailsOutput() throws Exception {
+        gcThread.doGcEntryLogs();
+        GarbageCollectionStatus status = gcThread.getGarbageCollectionStatus();
+        assertEquals(Collections.singletonList(LEDGER_DIR), status.getLedgerDirs());
+        assertArrayEquals(new int[] {1, 0, 0, 1, 0, 0, 0, 0, 0, 1}, status.getEntryLogUsageBuckets());
+
+        BookieServer bookieServer = mock(BookieServer.class);
+        Bookie bookie = mock(Bookie.class);
+        LedgerStorage storage = mock(LedgerStorage.class);
+        when(bookieServer.getBookie()).thenReturn(bookie);
+        when(bookie.getLedgerStorage()).thenReturn(storage);
+        when(storage.getGarbageCollectionStatus()).thenReturn(Collections.singletonList(status));
+
+        GCDetailsService service = new GCDetailsService(TestBKConfiguration.newServerConfiguration(), bookieServer);
+        HttpServiceResponse response = service.handle(new HttpServiceRequest(null, HttpServer.Method.GET, null));
+        assertEquals(HttpServer.StatusCode.OK.getValue(), response.getStatusCode());
+
+        List<Map<String, Object>> details = JsonUtil.fromJson(response.getBody(), List.class);
+        assertEquals(1, details.size());
+        Map<String, Object> detail = details.get(0);
+        assertEquals(Collections.singletonList(LEDGER_DIR), detail.get("ledgerDirs"));
+        assertEquals(Arrays.asList(1, 0, 0, 1, 0, 0, 0, 0, 0, 1), detail.get("entryLogUsageBuckets"));
+        assertEquals(900_000, ((Number) detail.get("minorCompactionReclaimableBytes")).longValue());
+        assertEquals(1_550_000, ((Number) detail.get("majorCompactionReclaimableBytes")).longValue());
+        assertEquals(100, ((Number) detail.get("minorCompactionTimeEstimateMillis")).longValue());
+        assertEquals(450, ((Number) detail.get("majorCompactionTimeEstimateMillis")).longValue());
+        assertEquals(0, ((Number) detail.get("compactionBytesWritten")).longValue());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.bookie.BookieException.EntryLogMetadataMapException;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.conf.TestBKConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the concurrent compaction of the entry logs by the {@link GarbageCollectorThread} and its shutdown.
+ */
+public class GarbageCollectorThreadTest {
+
+    private static final int MAX_CONCURRENT_COMPACTIONS = 3;
+    private static final int NUM_ENTRY_LOGS = 2 * MAX_CONCURRENT_COMPACTIONS;
+
+    private final EntryLogger entryLogger = mock(EntryLogger.class);
+    private final CompactableLedgerStorage ledgerStorage = mock(CompactableLedgerStorage.class);
+
+    // the compactions block until the test lets them complete
+    private final Semaphore compactionsStarted = new Semaphore(0);
+    private final CountDownLatch completeCompactions = new CountDownLatch(1);
+    private final AtomicInteger numCompacting = new AtomicInteger();
+    private final AtomicInteger maxCompacting = new AtomicInteger();
+
+    private GarbageCollectorThread gcThread;
+
+    @Before
+    public void setup() throws Exception {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setCompactionMaxConcurrentEntryLogs(MAX_CONCURRENT_COMPACTIONS);
+        conf.setUseTransactionalCompaction(false);
+
+        when(entryLogger.removeEntryLog(anyLong())).thenReturn(true);
+        when(ledgerStorage.getEntryLocationsInEntryLog(any())).thenAnswer(invocation -> {
+            maxCompacting.accumulateAndGet(numCompacting.incrementAndGet(), Math::max);
+            compactionsStarted.release();
+            try {
+                completeCompactions.await();
+            } finally {
+                numCompacting.decrementAndGet();
+            }
+            return Collections.emptyList();
+        });
+
+        gcThread = new GarbageCollectorThread(conf, null, mock(LedgerDirsManager.class), ledgerStorage,
+                entryLogger, NullStatsLogger.INSTANCE, Executors.newSingleThreadScheduledExecutor());
+        for (long entryLogId = 0; entryLogId < NUM_ENTRY_LOGS; entryLogId++) {
+            // a tenth of each entry log is used
+            EntryLogMetadata meta = new EntryLogMetadata(entryLogId);
+            meta.addLedgerSize(1, 100);
+            meta.addLedgerSize(2, 900);
+            meta.removeLedgerIf(ledgerId -> ledgerId == 2);
+            gcThread.getEntryLogMetaMap().put(entryLogId, meta);
+        }
+    }
+
+    @After
+    public void teardown() throws Exception {
+        completeCompactions.countDown();
+        gcThread.shutdown();
+    }
+
+    private CompletableFuture<Void> startCompaction() {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                gcThread.doCompactEntryLogs(0.5, 0);
+            } catch (EntryLogMetadataMapException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    @Test
+    public void testConcurrentCompactionsLimited() throws Exception {
+        CompletableFuture<Void> compaction = startCompaction();
+        assertTrue(compactionsStarted.tryAcquire(MAX_CONCURRENT_COMPACTIONS, 10, TimeUnit.SECONDS));
+        // no more entry logs are compacted until a compactor is idle
+        assertFalse(compactionsStarted.tryAcquire(200, TimeUnit.MILLISECONDS));
+        assertEquals(MAX_CONCURRENT_COMPACTIONS, gcThread.numCompactingEntryLogs.get());
+
+        completeCompactions.countDown();
+        compaction.get(10, TimeUnit.SECONDS);
+        assertEquals(MAX_CONCURRENT_COMPACTIONS, maxCompacting.get());
+        assertEquals(0, gcThread.numCompactingEntryLogs.get());
+        for (long entryLogId = 0; entryLogId < NUM_ENTRY_LOGS; entryLogId++) {
+            verify(entryLogger).removeEntryLog(entryLogId);
+            assertFalse(gcThread.getEntryLogMetaMap().containsKey(entryLogId));
+        }
+        verify(ledgerStorage).entryLogsCompacted();
+    }
+
+    @Test
+    public void testShutdownWaitsForCompactionsInProgress() throws Exception {
+        CompletableFuture<Void> compaction = startCompaction();
+        assertTrue(compactionsStarted.tryAcquire(MAX_CONCURRENT_COMPACTIONS, 10, TimeUnit.SECONDS));
+
+        CompletableFuture<Void> shutdown = CompletableFuture.runAsync(() -> {
+            try {
+                gcThread.shutdown();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(300);
+        assertFalse("the gc thread is shut down while entry logs are compacted", shutdown.isDone());
+        assertEquals(MAX_CONCURRENT_COMPACTIONS, gcThread.numCompactingEntryLogs.get());
+
+        completeCompactions.countDown();
+        shutdown.get(10, TimeUnit.SECONDS);
+        compaction.get(10, TimeUnit.SECONDS);
+        assertEquals(0, gcThread.numCompactingEntryLogs.get());
+        // the compactions in progress completed, the other entry logs were not compacted
+        verify(entryLogger, times(MAX_CONCURRENT_COMPACTIONS)).removeEntryLog(anyLong());
+        verify(ledgerStorage, times(MAX_CONCURRENT_COMPACTIONS)).getEntryLocationsInEntryLog(any());
+    }
+}
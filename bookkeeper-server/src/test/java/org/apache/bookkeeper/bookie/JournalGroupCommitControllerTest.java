@@ -0,0 +1,175 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_MAX_ENTRIES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_WAIT_USEC;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.test.TestStatsProvider;
+import org.junit.Test;
+
+/**
+ * Tests the group commit parameters picked by the {@link JournalGroupCommitController}.
+ */
+public class JournalGroupCommitControllerTest {
+
+    private static final long TARGET_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long MAX_BUFFERED_ENTRIES = 100_000;
+    private static final long MAX_BUFFERED_BYTES = 64 * 1024 * 1024;
+    private static final int ENTRY_SIZE = 1000;
+    // long enough for the first rate to be taken as it is, rather than averaged with the previous one
+    private static final long RATE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private long nowNanos;
+
+    private JournalGroupCommitController newController(long maxGroupWaitNanos, long maxBufferedEntries,
+                                                       boolean syncData) {
+        JournalGroupCommitController controller = new JournalGroupCommitController(TARGET_LATENCY_NANOS,
+                maxGroupWaitNanos, maxBufferedEntries, MAX_BUFFERED_BYTES, syncData, NullStatsLogger.INSTANCE);
+        // the rate intervals are slightly longer than the nominal one, the rate is not overestimated
+        nowNanos = System.nanoTime();
+        return controller;
+    }
+
+    /**
+     * Feed constant write and fsync latencies, long enough for their deviation to fade out.
+     */
+    private static void recordLatencies(JournalGroupCommitController controller, long writeMillis,
+                                        long syncMillis) {
+        for (int i = 0; i < 200; i++) {
+            controller.onFlush(TimeUnit.MILLISECONDS.toNanos(writeMillis), 10, 10 * ENTRY_SIZE);
+            controller.onSync(TimeUnit.MILLISECONDS.toNanos(syncMillis));
+        }
+    }
+
+    /**
+     * Dequeue the entries at the given rate over an interval that ends a rate computation.
+     */
+    private void dequeue(JournalGroupCommitController controller, long entriesPerSecond) {
+        nowNanos += RATE_INTERVAL_NANOS;
+        controller.onEntriesDequeued((int) (entriesPerSecond * RATE_INTERVAL_NANOS / TimeUnit.SECONDS.toNanos(1)),
+                nowNanos);
+    }
+
+    private static void assertNearMillis(double expectedMillis, long actualNanos) {
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1) * expectedMillis, actualNanos,
+                TimeUnit.MICROSECONDS.toNanos(50));
+    }
+
+    private static void assertFlushWhenQueueEmpty(JournalGroupCommitController controller,
+                                                  long maxBufferedEntries) {
+        assertEquals(0, controller.getGroupWaitNanos());
+        assertEquals(maxBufferedEntries, controller.getBufferedEntriesThreshold());
+        assertEquals(MAX_BUFFERED_BYTES, controller.getBufferedWritesThreshold());
+    }
+
+    @Test
+    public void testFlushWhenQueueEmptyUntilLoad() {
+        JournalGroupCommitController controller = newController(0, MAX_BUFFERED_ENTRIES, true);
+        assertFlushWhenQueueEmpty(controller, MAX_BUFFERED_ENTRIES);
+
+        // 100 entries/s are not expected to form a group of 2 entries within 10ms
+        recordLatencies(controller, 1, 2);
+        dequeue(controller, 100);
+        assertFlushWhenQueueEmpty(controller, MAX_BUFFERED_ENTRIES);
+    }
+
+    @Test
+    public void testWaitAndThresholdsFromArrivalRateAndLatency() {
+        JournalGroupCommitController controller = newController(0, MAX_BUFFERED_ENTRIES, true);
+        recordLatencies(controller, 1, 2);
+        dequeue(controller, 100_000);
+
+        // the write and the fsync leave 7ms of the target latency to wait for the group
+        assertNearMillis(7, controller.getGroupWaitNanos());
+        // about 700 entries arrive in 7ms
+        long entries = controller.getBufferedEntriesThreshold();
+        assertTrue("entries threshold " + entries, entries > 680 && entries <= 700);
+        assertEquals(entries * ENTRY_SIZE, controller.getBufferedWritesThreshold(), entries);
+    }
+
+    @Test
+    public void testFsyncLatencyIgnoredWithoutSyncData() {
+        JournalGroupCommitController controller = newController(0, MAX_BUFFERED_ENTRIES, false);
+        recordLatencies(controller, 1, 2);
+        dequeue(controller, 100_000);
+
+        // the entries are acknowledged before the fsync
+        assertNearMillis(9, controller.getGroupWaitNanos());
+    }
+
+    @Test
+    public void testUpperBounds() {
+        JournalGroupCommitController controller = newController(TimeUnit.MILLISECONDS.toNanos(2), 100, true);
+        recordLatencies(controller, 1, 2);
+        dequeue(controller, 100_000);
+
+        assertNearMillis(2, controller.getGroupWaitNanos());
+        assertEquals(100, controller.getBufferedEntriesThreshold());
+        assertEquals(100 * ENTRY_SIZE, controller.getBufferedWritesThreshold(), 100);
+    }
+
+    @Test
+    public void testNoLatencyBudgetLeft() {
+        JournalGroupCommitController controller = newController(0, MAX_BUFFERED_ENTRIES, true);
+        // the fsync alone takes longer than the target latency, waiting would only make it worse
+        recordLatencies(controller, 1, 20);
+        dequeue(controller, 100_000);
+        assertFlushWhenQueueEmpty(controller, MAX_BUFFERED_ENTRIES);
+    }
+
+    @Test
+    public void testFallbackToFlushWhenLoadDrops() {
+        JournalGroupCommitController controller = newController(0, MAX_BUFFERED_ENTRIES, true);
+        recordLatencies(controller, 1, 2);
+        dequeue(controller, 100_000);
+        assertTrue(controller.getGroupWaitNanos() > 0);
+
+        // the rate is not recomputed before a min interval
+        nowNanos += TimeUnit.MILLISECONDS.toNanos(1);
+        controller.onEntriesDequeued(1, nowNanos);
+        assertTrue(controller.getGroupWaitNanos() > 0);
+
+        // after an idle period the previous rate is dropped
+        nowNanos += TimeUnit.SECONDS.toNanos(1);
+        controller.onEntriesDequeued(1, nowNanos);
+        assertFlushWhenQueueEmpty(controller, MAX_BUFFERED_ENTRIES);
+    }
+
+    @Test
+    public void testGauges() {
+        TestStatsProvider statsProvider = new TestStatsProvider();
+        JournalGroupCommitController controller = new JournalGroupCommitController(TARGET_LATENCY_NANOS, 0,
+                MAX_BUFFERED_ENTRIES, MAX_BUFFERED_BYTES, true, statsProvider.getStatsLogger(""));
+        nowNanos = System.nanoTime();
+        recordLatencies(controller, 1, 2);
+        dequeue(controller, 100_000);
+
+        assertEquals(TimeUnit.NANOSECONDS.toMicros(controller.getGroupWaitNanos()),
+                statsProvider.getGauge(JOURNAL_GROUP_COMMIT_WAIT_USEC).getSample().longValue());
+        assertEquals(controller.getBufferedEntriesThreshold(),
+                statsProvider.getGauge(JOURNAL_GROUP_COMMIT_MAX_ENTRIES).getSample().longValue());
+    }
+}
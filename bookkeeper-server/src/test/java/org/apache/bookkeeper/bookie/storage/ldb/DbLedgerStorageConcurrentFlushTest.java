@@ -0,0 +1,137 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.bookie.TestBookieImpl;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.conf.TestBKConfiguration;
+import org.apache.bookkeeper.helper.TmpDirs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the insertions in the write cache of the {@link DbLedgerStorage} while it is flushed.
+ */
+public class DbLedgerStorageConcurrentFlushTest {
+
+    private static final int NUM_WRITERS = 4;
+    private static final int ENTRIES_PER_LEDGER = 20_000;
+    private static final byte[] MASTER_KEY = "key".getBytes();
+
+    private final TmpDirs tmpDirs = new TmpDirs();
+    private DbLedgerStorage storage;
+
+    @Before
+    public void setup() throws Exception {
+        File tmpDir = tmpDirs.createNew("bkTest", ".dir");
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(tmpDir));
+
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setGcWaitTime(1000);
+        conf.setLedgerStorageClass(DbLedgerStorage.class.getName());
+        conf.setLedgerDirNames(new String[] { tmpDir.toString() });
+        // Small write cache, so that it is also rotated when it gets full
+        conf.setProperty(DbLedgerStorage.WRITE_CACHE_MAX_SIZE_MB, 1);
+        storage = (DbLedgerStorage) new TestBookieImpl(conf).getLedgerStorage();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        storage.shutdown();
+        tmpDirs.cleanup();
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(64);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        entry.writeLong(entryId - 1);
+        entry.writeBytes(("entry-" + ledgerId + "-" + entryId).getBytes());
+        return entry;
+    }
+
+    @Test
+    public void testAddEntriesWhileFlushing() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(NUM_WRITERS + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int i = 0; i < NUM_WRITERS; i++) {
+                long ledgerId = i + 1;
+                storage.setMasterKey(ledgerId, MASTER_KEY);
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    for (long entryId = 0; entryId < ENTRIES_PER_LEDGER; entryId++) {
+                        storage.addEntry(entry(ledgerId, entryId));
+                    }
+                    return null;
+                }));
+            }
+
+            Future<?> flusher = executor.submit(() -> {
+                start.await();
+                while (writing.get()) {
+                    storage.flush();
+                }
+                return null;
+            });
+
+            start.countDown();
+            for (Future<?> writer : writers) {
+                writer.get(60, TimeUnit.SECONDS);
+            }
+            writing.set(false);
+            flusher.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Every entry was either flushed along with the cache it was inserted in, or by the last flush
+        storage.flush();
+        for (int i = 0; i < NUM_WRITERS; i++) {
+            long ledgerId = i + 1;
+            for (long entryId = 0; entryId < ENTRIES_PER_LEDGER; entryId++) {
+                ByteBuf read = storage.getEntry(ledgerId, entryId);
+                try {
+                    assertEquals(entry(ledgerId, entryId), read);
+                } finally {
+                    read.release();
+                }
+            }
+        }
+    }
+}
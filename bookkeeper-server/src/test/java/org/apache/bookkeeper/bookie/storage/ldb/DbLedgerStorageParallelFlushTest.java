@@ -0,0 +1,294 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.bookie.CheckpointSource;
+import org.apache.bookkeeper.bookie.CheckpointSource.Checkpoint;
+import org.apache.bookkeeper.bookie.LedgerDirsManager;
+import org.apache.bookkeeper.bookie.TestBookieImpl;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.conf.TestBKConfiguration;
+import org.apache.bookkeeper.helper.TmpDirs;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the concurrent flush of the directories of the {@link DbLedgerStorage}.
+ */
+public class DbLedgerStorageParallelFlushTest {
+
+    private static final int NUM_DIRS = 3;
+    private static final int NUM_ENTRIES = 100;
+    private static final byte[] MASTER_KEY = "key".getBytes();
+
+    private final TmpDirs tmpDirs = new TmpDirs();
+    private final RecordingCheckpointSource checkpointSource = new RecordingCheckpointSource();
+    private DbLedgerStorage storage;
+
+    @Before
+    public void setup() throws Exception {
+        String[] ledgerDirs = new String[NUM_DIRS];
+        for (int i = 0; i < NUM_DIRS; i++) {
+            File tmpDir = tmpDirs.createNew("bkTest", ".dir");
+            BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(tmpDir));
+            ledgerDirs[i] = tmpDir.toString();
+        }
+
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setGcWaitTime(1000);
+        conf.setLedgerStorageClass(BlockingDbLedgerStorage.class.getName());
+        conf.setLedgerDirNames(ledgerDirs);
+        conf.setProperty(DbLedgerStorage.PARALLEL_FLUSH_THREADS, NUM_DIRS);
+        storage = (DbLedgerStorage) new TestBookieImpl(conf).getLedgerStorage();
+        storage.setCheckpointSource(checkpointSource);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        // let the blocked flushes complete, if any, and the directories be flushed on shutdown
+        for (int i = 0; i < NUM_DIRS; i++) {
+            directory(i).failure = null;
+            directory(i).resume.countDown();
+        }
+        storage.shutdown();
+        tmpDirs.cleanup();
+    }
+
+    private BlockingSingleDirectoryDbLedgerStorage directory(int dir) {
+        return (BlockingSingleDirectoryDbLedgerStorage) storage.getLedgerStorageList().get(dir);
+    }
+
+    // the ledgers are spread over the directories by their id
+    private static long ledgerId(int dir) {
+        return NUM_DIRS + dir;
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(64);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        entry.writeLong(entryId - 1);
+        entry.writeBytes(("entry-" + ledgerId + "-" + entryId).getBytes());
+        return entry;
+    }
+
+    private void addEntries() throws Exception {
+        for (int dir = 0; dir < NUM_DIRS; dir++) {
+            long ledgerId = ledgerId(dir);
+            storage.setMasterKey(ledgerId, MASTER_KEY);
+            for (long entryId = 0; entryId < NUM_ENTRIES; entryId++) {
+                storage.addEntry(entry(ledgerId, entryId));
+            }
+        }
+        // every directory has entries to flush
+        assertTrue(storage.isFlushRequired());
+    }
+
+    private CompletableFuture<Void> flushAsync() {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                storage.flush();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    @Test
+    public void testDirectoriesFlushedConcurrently() throws Exception {
+        addEntries();
+        CountDownLatch allFlushing = new CountDownLatch(NUM_DIRS);
+        for (int dir = 0; dir < NUM_DIRS; dir++) {
+            directory(dir).block(allFlushing);
+        }
+
+        // all the directories are flushed at the same time, and the checkpoint waits for all of them
+        CompletableFuture<Void> flush = flushAsync();
+        assertTrue(allFlushing.await(10, TimeUnit.SECONDS));
+        assertFalse(flush.isDone());
+        assertTrue(checkpointSource.completed.isEmpty());
+
+        for (int dir = 0; dir < NUM_DIRS; dir++) {
+            directory(dir).resume.countDown();
+        }
+        flush.get(10, TimeUnit.SECONDS);
+
+        // the checkpoint is completed once, after every directory was flushed
+        assertEquals(1, checkpointSource.completed.size());
+        assertEquals(1, checkpointSource.flushedWhenCompleted.size());
+        assertTrue(checkpointSource.flushedWhenCompleted.get(0));
+        for (int dir = 0; dir < NUM_DIRS; dir++) {
+            assertFalse(directory(dir).isFlushRequired());
+            ByteBuf read = storage.getEntry(ledgerId(dir), NUM_ENTRIES - 1);
+            try {
+                assertEquals(entry(ledgerId(dir), NUM_ENTRIES - 1), read);
+            } finally {
+                read.release();
+            }
+        }
+    }
+
+    @Test
+    public void testFailedDirectoryWaitsForTheOthers() throws Exception {
+        addEntries();
+        CountDownLatch slowFlushing = new CountDownLatch(1);
+        directory(0).block(slowFlushing);
+        directory(1).failure = new IOException("injected flush failure");
+
+        CompletableFuture<Void> flush = flushAsync();
+        assertTrue(slowFlushing.await(10, TimeUnit.SECONDS));
+        // the failure is not reported until the slow directory is flushed
+        Thread.sleep(200);
+        assertFalse(flush.isDone());
+
+        directory(0).resume.countDown();
+        try {
+            flush.get(10, TimeUnit.SECONDS);
+            fail("the flush should have failed");
+        } catch (ExecutionException e) {
+            assertEquals("injected flush failure", e.getCause().getCause().getMessage());
+        }
+
+        // the checkpoint is not completed, but the other directories were flushed
+        assertTrue(checkpointSource.completed.isEmpty());
+        assertFalse(directory(0).isFlushRequired());
+        assertTrue(directory(1).isFlushRequired());
+        assertFalse(directory(2).isFlushRequired());
+    }
+
+    /**
+     * Checkpoint source recording the completed checkpoints, and whether all the directories were flushed then.
+     */
+    private class RecordingCheckpointSource implements CheckpointSource {
+        final AtomicLong nextCheckpoint = new AtomicLong();
+        final List<Checkpoint> completed = new CopyOnWriteArrayList<>();
+        final List<Boolean> flushedWhenCompleted = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Checkpoint newCheckpoint() {
+            long id = nextCheckpoint.incrementAndGet();
+            return new Checkpoint() {
+                @Override
+                public int compareTo(Checkpoint o) {
+                    if (o == MIN) {
+                        return 1;
+                    } else if (o == MAX) {
+                        return -1;
+                    }
+                    return Long.compare(id, Long.parseLong(o.toString()));
+                }
+
+                @Override
+                public String toString() {
+                    return Long.toString(id);
+                }
+            };
+        }
+
+        @Override
+        public void checkpointComplete(Checkpoint checkpoint, boolean compact) {
+            boolean flushed = true;
+            for (SingleDirectoryDbLedgerStorage ls : storage.getLedgerStorageList()) {
+                flushed &= !ls.isFlushRequired();
+            }
+            flushedWhenCompleted.add(flushed);
+            completed.add(checkpoint);
+        }
+    }
+
+    /**
+     * DbLedgerStorage whose directories can be blocked or failed when they are flushed.
+     */
+    public static class BlockingDbLedgerStorage extends DbLedgerStorage {
+        @Override
+        protected SingleDirectoryDbLedgerStorage newSingleDirectoryDbLedgerStorage(ServerConfiguration conf,
+                LedgerManager ledgerManager, LedgerDirsManager ledgerDirsManager,
+                LedgerDirsManager indexDirsManager, EntryLogger entryLogger, StatsLogger statsLogger,
+                long writeCacheSize, long readCacheSize, int readAheadCacheBatchSize) throws IOException {
+            return new BlockingSingleDirectoryDbLedgerStorage(conf, ledgerManager, ledgerDirsManager,
+                    indexDirsManager, entryLogger, statsLogger, allocator, writeCacheSize, readCacheSize,
+                    readAheadCacheBatchSize);
+        }
+    }
+
+    /**
+     * Directory storage that waits to be resumed, or fails, when it is flushed.
+     */
+    static class BlockingSingleDirectoryDbLedgerStorage extends SingleDirectoryDbLedgerStorage {
+        volatile CountDownLatch flushing = null;
+        final CountDownLatch resume = new CountDownLatch(1);
+        volatile IOException failure = null;
+
+        BlockingSingleDirectoryDbLedgerStorage(ServerConfiguration conf, LedgerManager ledgerManager,
+                                               LedgerDirsManager ledgerDirsManager,
+                                               LedgerDirsManager indexDirsManager, EntryLogger entryLogger,
+                                               StatsLogger statsLogger, ByteBufAllocator allocator,
+                                               long writeCacheSize, long readCacheSize,
+                                               int readAheadCacheBatchSize) throws IOException {
+            super(conf, ledgerManager, ledgerDirsManager, indexDirsManager, entryLogger, statsLogger, allocator,
+                    writeCacheSize, readCacheSize, readAheadCacheBatchSize);
+        }
+
+        void block(CountDownLatch flushing) {
+            this.flushing = flushing;
+        }
+
+        @Override
+        public void checkpoint(Checkpoint checkpoint) throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            CountDownLatch flushingLatch = flushing;
+            if (flushingLatch != null) {
+                flushingLatch.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            super.checkpoint(checkpoint);
+        }
+    }
+}
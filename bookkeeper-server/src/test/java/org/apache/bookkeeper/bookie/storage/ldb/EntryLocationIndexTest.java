@@ -0,0 +1,285 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.apache.bookkeeper.bookie.EntryLocation;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.conf.TestBKConfiguration;
+import org.apache.bookkeeper.helper.TmpDirs;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the lookups of the entries of the entry logs in the {@link EntryLocationIndex}.
+ */
+public class EntryLocationIndexTest {
+
+    private final TmpDirs tmpDirs = new TmpDirs();
+    private final ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+    private File dir;
+    private EntryLocationIndex index;
+
+    @Before
+    public void setup() throws Exception {
+        conf.setProperty(DbLedgerStorage.COMPACTION_LOOKUP_LIVE_ENTRIES_ENABLED, true);
+        dir = tmpDirs.createNew("locations", ".dir");
+        index = openIndex();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        index.close();
+        tmpDirs.cleanup();
+    }
+
+    private EntryLocationIndex openIndex() throws Exception {
+        return new EntryLocationIndex(conf, KeyValueStorageRocksDB.factory, dir.getAbsolutePath(),
+                NullStatsLogger.INSTANCE);
+    }
+
+    private static long location(long entryLogId, long offset) {
+        return (entryLogId << 32) | offset;
+    }
+
+    private List<Long> entriesInEntryLog(long ledgerId, long entryLogId) throws Exception {
+        List<EntryLocation> locations = new ArrayList<>();
+        int count = index.getLocationsInEntryLog(ledgerId, entryLogId, locations);
+        assertEquals(locations.size(), count);
+        locations.forEach(l -> assertEquals(entryLogId, l.getLocation() >> 32));
+        return locations.stream().map(EntryLocation::getEntry).collect(Collectors.toList());
+    }
+
+    private void writeEntries() throws Exception {
+        // ledger 1: entries 0-9 in log 1, 10-19 in log 2, 20-29 in log 1 again
+        for (long entryId = 0; entryId < 30; entryId++) {
+            long entryLogId = entryId >= 10 && entryId < 20 ? 2 : 1;
+            index.addLocation(1, entryId, location(entryLogId, 100 + entryId));
+        }
+        // ledger 2: entries 0-4 in log 2
+        for (long entryId = 0; entryId < 5; entryId++) {
+            index.addLocation(2, entryId, location(2, 1000 + entryId));
+        }
+        // entries 0-2 of ledger 1 moved to log 3 by a compaction
+        index.updateLocations(Arrays.asList(
+                new EntryLocation(1, 0, location(3, 0)),
+                new EntryLocation(1, 1, location(3, 10)),
+                new EntryLocation(1, 2, location(3, 20))));
+    }
+
+    private void verifyEntries() throws Exception {
+        List<Long> log1 = new ArrayList<>();
+        for (long entryId = 3; entryId < 30; entryId++) {
+            if (entryId < 10 || entryId >= 20) {
+                log1.add(entryId);
+            }
+        }
+        assertEquals(log1, entriesInEntryLog(1, 1));
+        assertEquals(Arrays.asList(10L, 11L, 12L, 13L, 14L, 15L, 16L, 17L, 18L, 19L), entriesInEntryLog(1, 2));
+        assertEquals(Arrays.asList(0L, 1L, 2L), entriesInEntryLog(1, 3));
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L), entriesInEntryLog(2, 2));
+        assertEquals(Arrays.asList(), entriesInEntryLog(2, 1));
+        assertEquals(Arrays.asList(), entriesInEntryLog(2, 3));
+    }
+
+    @Test
+    public void testEntriesInEntryLogsWrittenSinceOpen() throws Exception {
+        writeEntries();
+        verifyEntries();
+    }
+
+    @Test
+    public void testEntriesInEntryLogsWrittenBeforeOpen() throws Exception {
+        writeEntries();
+        index.close();
+
+        // the ranges of the entries written to the entry logs are lost, the whole ledgers are scanned
+        index = openIndex();
+        verifyEntries();
+    }
+
+    @Test
+    public void testEntriesInRemovedEntryLog() throws Exception {
+        writeEntries();
+        // ledger 1 in logs 1, 2 and 3, ledger 2 in log 2
+        assertEquals(4, index.getEntryLogRangesCount());
+        index.removeEntryLog(1);
+        assertEquals(3, index.getEntryLogRangesCount());
+        verifyEntries();
+    }
+
+    @Test
+    public void testEntryLogRangesBounded() throws Exception {
+        index.close();
+        conf.setProperty(DbLedgerStorage.COMPACTION_LOOKUP_MAX_RANGES, 2);
+        index = openIndex();
+
+        // the second ledger of log 2 goes over the bound, the ranges of log 2 are dropped
+        writeEntries();
+        assertEquals(2, index.getEntryLogRangesCount());
+        // the lookups in log 2 scan the whole ledgers
+        verifyEntries();
+
+        index.removeEntryLog(2);
+        index.removeEntryLog(3);
+        assertEquals(1, index.getEntryLogRangesCount());
+        verifyEntries();
+    }
+
+    @Test
+    public void testEntryLogRangesDisabled() throws Exception {
+        index.close();
+        conf.setProperty(DbLedgerStorage.COMPACTION_LOOKUP_LIVE_ENTRIES_ENABLED, false);
+        index = openIndex();
+
+        writeEntries();
+        assertEquals(0, index.getEntryLogRangesCount());
+        verifyEntries();
+    }
+
+    private void openIndexWithSnapshots(int maxSnapshots) throws Exception {
+        index.close();
+        conf.setProperty(DbLedgerStorage.ENTRY_LOCATION_SNAPSHOTS_ENABLED, true);
+        conf.setProperty(DbLedgerStorage.ENTRY_LOCATION_SNAPSHOT_MAX_COUNT, maxSnapshots);
+        index = openIndex();
+    }
+
+    private void writeLedger(long ledgerId, int numEntries) throws Exception {
+        for (long entryId = 0; entryId < numEntries; entryId++) {
+            index.addLocation(ledgerId, entryId, location(1, 100 + entryId));
+        }
+    }
+
+    @Test
+    public void testSnapshotsAreCapped() throws Exception {
+        openIndexWithSnapshots(2);
+        for (long ledgerId = 1; ledgerId <= 3; ledgerId++) {
+            writeLedger(ledgerId, 10);
+        }
+
+        assertTrue(index.createSnapshot(1, 1));
+        assertTrue(index.createSnapshot(2, 1));
+        assertTrue(index.isSnapshotsFull());
+        assertFalse(index.createSnapshot(3, 1));
+
+        // a dropped snapshot frees a slot
+        index.delete(1);
+        assertFalse(index.hasSnapshot(1));
+        assertFalse(index.isSnapshotsFull());
+        assertTrue(index.createSnapshot(3, 1));
+        assertEquals(location(1, 105), index.getLocation(3, 5));
+    }
+
+    @Test
+    public void testSnapshotDroppedWhenLocationsModified() throws Exception {
+        openIndexWithSnapshots(10);
+        writeLedger(1, 10);
+        assertTrue(index.createSnapshot(1, 1));
+        assertEquals(location(1, 105), index.getLocation(1, 5));
+
+        index.updateLocations(Arrays.asList(new EntryLocation(1, 5, location(2, 0))));
+        assertFalse(index.hasSnapshot(1));
+        assertEquals(location(2, 0), index.getLocation(1, 5));
+        assertEquals(location(1, 106), index.getLocation(1, 6));
+    }
+
+    @Test
+    public void testSnapshotCreatedBeforeBatchFlushIsDropped() throws Exception {
+        openIndexWithSnapshots(10);
+        writeLedger(1, 10);
+
+        Batch batch = index.newBatch();
+        try {
+            index.addLocation(batch, 1, 5, location(2, 0));
+            // the snapshot does not see the location added to the batch
+            assertTrue(index.createSnapshot(1, 1));
+            assertEquals(location(1, 105), index.getLocation(1, 5));
+
+            batch.flush();
+            assertFalse(index.hasSnapshot(1));
+            assertEquals(location(2, 0), index.getLocation(1, 5));
+        } finally {
+            batch.close();
+        }
+    }
+
+    private interface SnapshotIteratorListener {
+        void iteratorOpened(EntryLocationIndex index, long ledgerId) throws Exception;
+    }
+
+    private void openIndexWithSnapshots(SnapshotIteratorListener listener) throws Exception {
+        index.close();
+        conf.setProperty(DbLedgerStorage.ENTRY_LOCATION_SNAPSHOTS_ENABLED, true);
+        index = new EntryLocationIndex(conf, KeyValueStorageRocksDB.factory, dir.getAbsolutePath(),
+                NullStatsLogger.INSTANCE) {
+            @Override
+            void snapshotIteratorOpened(long ledgerId) throws IOException {
+                try {
+                    listener.iteratorOpened(this, ledgerId);
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testSnapshotDiscardedWhenWrittenAfterIteratorOpened() throws Exception {
+        openIndexWithSnapshots((idx, ledgerId) -> {
+            // a flush not seen by the iterator of the snapshot
+            Batch batch = idx.newBatch();
+            try {
+                idx.addLocation(batch, ledgerId, 5, location(2, 0));
+                batch.flush();
+            } finally {
+                batch.close();
+            }
+        });
+        writeLedger(1, 10);
+
+        assertFalse(index.createSnapshot(1, 1));
+        assertFalse(index.hasSnapshot(1));
+        assertEquals(location(2, 0), index.getLocation(1, 5));
+    }
+
+    @Test
+    public void testSnapshotDiscardedWhenDeletedAfterIteratorOpened() throws Exception {
+        openIndexWithSnapshots((idx, ledgerId) -> idx.delete(ledgerId));
+        writeLedger(1, 10);
+
+        assertFalse(index.createSnapshot(1, 1));
+        assertFalse(index.hasSnapshot(1));
+        // the discarded snapshot does not hold a mapping
+        assertEquals(0, dir.toPath().resolve("locations-snapshots").toFile().list().length);
+    }
+}
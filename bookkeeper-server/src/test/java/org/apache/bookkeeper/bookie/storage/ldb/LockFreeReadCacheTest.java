@@ -0,0 +1,338 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the rotation of the segments of the {@link LockFreeReadCache} and its lookups racing with it.
+ */
+public class LockFreeReadCacheTest {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    private static final int ENTRY_SIZE = 1024;
+    private static final int ENTRIES_PER_SEGMENT = SEGMENT_SIZE / ENTRY_SIZE;
+
+    private final List<LockFreeReadCache> caches = new ArrayList<>();
+
+    @After
+    public void teardown() {
+        caches.forEach(LockFreeReadCache::close);
+    }
+
+    private LockFreeReadCache newCache(ByteBufAllocator allocator, int numSegments, int segmentSize) {
+        LockFreeReadCache cache = new LockFreeReadCache(allocator, (long) numSegments * segmentSize, segmentSize);
+        caches.add(cache);
+        return cache;
+    }
+
+    private LockFreeReadCache newCache(int numSegments) {
+        return newCache(UnpooledByteBufAllocator.DEFAULT, numSegments, SEGMENT_SIZE);
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId, int size) {
+        ByteBuf entry = Unpooled.buffer(size);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        for (int i = 16; i < size; i++) {
+            entry.writeByte((int) (ledgerId * 31 + entryId + i));
+        }
+        return entry;
+    }
+
+    private static void putEntries(LockFreeReadCache cache, long ledgerId, long firstEntryId, long lastEntryId) {
+        for (long entryId = firstEntryId; entryId <= lastEntryId; entryId++) {
+            ByteBuf entry = entry(ledgerId, entryId, ENTRY_SIZE);
+            cache.put(ledgerId, entryId, entry);
+            entry.release();
+        }
+    }
+
+    private static void verifyEntry(ByteBuf entry, long ledgerId, long entryId, int size) {
+        assertNotNull("missing entry " + ledgerId + "@" + entryId, entry);
+        try {
+            assertEquals(entry(ledgerId, entryId, size), entry);
+        } finally {
+            entry.release();
+        }
+    }
+
+    @Test
+    public void testPutGetAcrossRotations() throws Exception {
+        LockFreeReadCache cache = newCache(4);
+
+        // the first 3 segments are filled, the fourth one is partially used
+        int numEntries = 3 * ENTRIES_PER_SEGMENT + 10;
+        putEntries(cache, 1, 0, numEntries - 1);
+        for (long entryId = 0; entryId < numEntries; entryId++) {
+            assertTrue(cache.hasEntry(1, entryId));
+            verifyEntry(cache.get(1, entryId), 1, entryId, ENTRY_SIZE);
+        }
+        assertEquals(numEntries, cache.count());
+        assertEquals((long) numEntries * ENTRY_SIZE, cache.size());
+        assertNull(cache.get(2, 0));
+        assertFalse(cache.hasEntry(1, numEntries));
+    }
+
+    @Test
+    public void testGetOnEvictedSegment() throws Exception {
+        LockFreeReadCache cache = newCache(4);
+
+        // filling the last segment wraps around to the first one, which is retired
+        int numEntries = 4 * ENTRIES_PER_SEGMENT + 1;
+        putEntries(cache, 1, 0, numEntries - 1);
+        for (long entryId = 0; entryId < ENTRIES_PER_SEGMENT; entryId++) {
+            assertNull(cache.get(1, entryId));
+            assertFalse(cache.hasEntry(1, entryId));
+        }
+        for (long entryId = ENTRIES_PER_SEGMENT; entryId < numEntries; entryId++) {
+            verifyEntry(cache.get(1, entryId), 1, entryId, ENTRY_SIZE);
+        }
+        assertEquals(3 * ENTRIES_PER_SEGMENT + 1, cache.count());
+        assertEquals((3L * ENTRIES_PER_SEGMENT + 1) * ENTRY_SIZE, cache.size());
+    }
+
+    @Test
+    public void testFullIndexForcesRotation() throws Exception {
+        // the index of a segment holds at most 1024 entries, which only use a fraction of its memory
+        int segmentSize = 256 * 1024;
+        int entriesPerIndex = 1024;
+        int entrySize = 64;
+        LockFreeReadCache cache = newCache(UnpooledByteBufAllocator.DEFAULT, 2, segmentSize);
+
+        for (long entryId = 0; entryId <= entriesPerIndex; entryId++) {
+            ByteBuf entry = entry(1, entryId, entrySize);
+            cache.put(1, entryId, entry);
+            entry.release();
+        }
+        // the first segment is accounted as full once its index is full
+        assertEquals(entriesPerIndex + 1, cache.count());
+        assertEquals(segmentSize + entrySize, cache.size());
+
+        // filling the index of the second segment wraps around to the first one
+        for (long entryId = entriesPerIndex + 1; entryId <= 2 * entriesPerIndex; entryId++) {
+            ByteBuf entry = entry(1, entryId, entrySize);
+            cache.put(1, entryId, entry);
+            entry.release();
+        }
+        assertFalse(cache.hasEntry(1, 0));
+        assertFalse(cache.hasEntry(1, entriesPerIndex - 1));
+        verifyEntry(cache.get(1, entriesPerIndex), 1, entriesPerIndex, entrySize);
+        verifyEntry(cache.get(1, 2 * entriesPerIndex), 1, 2 * entriesPerIndex, entrySize);
+        assertEquals(entriesPerIndex + 1, cache.count());
+    }
+
+    private static void putEntries(LockFreeReadCache cache, long ledgerId, long firstEntryId, long lastEntryId,
+                                   int entrySize) {
+        for (long entryId = firstEntryId; entryId <= lastEntryId; entryId++) {
+            ByteBuf entry = entry(ledgerId, entryId, entrySize);
+            cache.put(ledgerId, entryId, entry);
+            entry.release();
+        }
+    }
+
+    @Test
+    public void testSmallEntriesUseTheSegmentMemory() throws Exception {
+        int segmentSize = 1024 * 1024;
+        int entrySize = LockFreeReadCache.MIN_EXPECTED_ENTRY_SIZE;
+        int entriesPerSegment = segmentSize / entrySize;
+        LockFreeReadCache cache = newCache(UnpooledByteBufAllocator.DEFAULT, 2, segmentSize);
+        // the index is first sized for 1 KB entries
+        assertEquals(1024, cache.indexMaxEntries(0));
+
+        // the first segment is rotated on its full index, the next ones are sized for the small entries
+        putEntries(cache, 1, 0, 1023, entrySize);
+        putEntries(cache, 1, 1024, 1024, entrySize);
+        assertEquals(entriesPerSegment, cache.indexMaxEntries(1));
+
+        // once the cache wrapped around, the segments are full of small entries
+        int numEntries = 1024 + 2 * entriesPerSegment;
+        putEntries(cache, 1, 1025, numEntries - 1, entrySize);
+        assertEquals(entriesPerSegment, cache.indexMaxEntries(0));
+        assertEquals(2L * entriesPerSegment, cache.count());
+        assertEquals(2L * segmentSize, cache.size());
+        for (long entryId = numEntries - 2 * entriesPerSegment; entryId < numEntries; entryId++) {
+            verifyEntry(cache.get(1, entryId), 1, entryId, entrySize);
+        }
+
+        // the indexes shrink back when the entries are larger again
+        int largeEntrySize = 4 * 1024;
+        putEntries(cache, 2, 0, 2 * segmentSize / largeEntrySize, largeEntrySize);
+        assertEquals(1024, cache.indexMaxEntries(0));
+        assertEquals(1024, cache.indexMaxEntries(1));
+        verifyEntry(cache.get(2, 2 * segmentSize / largeEntrySize), 2, 2 * segmentSize / largeEntrySize,
+                largeEntrySize);
+        assertEquals(0, cache.droppedCount());
+    }
+
+    @Test
+    public void testEntriesSmallerThanTheIndexBound() throws Exception {
+        int segmentSize = 1024 * 1024;
+        int entrySize = 64;
+        int entriesPerIndex = segmentSize / LockFreeReadCache.MIN_EXPECTED_ENTRY_SIZE;
+        LockFreeReadCache cache = newCache(UnpooledByteBufAllocator.DEFAULT, 2, segmentSize);
+
+        // the index is not sized for more entries than the bound allows, the segments rotate on their full index
+        putEntries(cache, 1, 0, 3 * entriesPerIndex, entrySize);
+        assertEquals(entriesPerIndex, cache.indexMaxEntries(0));
+        assertEquals(entriesPerIndex, cache.indexMaxEntries(1));
+        assertEquals(entriesPerIndex + 1, cache.count());
+        verifyEntry(cache.get(1, 3 * entriesPerIndex), 1, 3 * entriesPerIndex, entrySize);
+    }
+
+    @Test
+    public void testEntryLargerThanSegment() throws Exception {
+        LockFreeReadCache cache = newCache(2);
+
+        ByteBuf largeEntry = entry(1, 0, SEGMENT_SIZE + 1);
+        cache.put(1, 0, largeEntry);
+        largeEntry.release();
+        assertNull(cache.get(1, 0));
+        assertFalse(cache.hasEntry(1, 0));
+        assertEquals(0, cache.count());
+        assertEquals(0, cache.size());
+
+        // an entry as large as a segment fills it
+        ByteBuf segmentEntry = entry(1, 1, SEGMENT_SIZE);
+        cache.put(1, 1, segmentEntry);
+        segmentEntry.release();
+        verifyEntry(cache.get(1, 1), 1, 1, SEGMENT_SIZE);
+        assertEquals(1, cache.count());
+        assertEquals(SEGMENT_SIZE, cache.size());
+    }
+
+    @Test
+    public void testRetiredSegmentKeptUntilReaderLeaves() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        AtomicBoolean blockNextRead = new AtomicBoolean(true);
+        // the entry is copied from the segment after the buffer is allocated, with the segment acquired
+        ByteBufAllocator blockingAllocator = new UnpooledByteBufAllocator(false) {
+            @Override
+            public ByteBuf buffer(int initialCapacity, int maxCapacity) {
+                if (blockNextRead.compareAndSet(true, false)) {
+                    reading.countDown();
+                    try {
+                        resume.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.buffer(initialCapacity, maxCapacity);
+            }
+        };
+        LockFreeReadCache cache = newCache(blockingAllocator, 2, SEGMENT_SIZE);
+        putEntries(cache, 1, 0, ENTRIES_PER_SEGMENT);
+
+        CompletableFuture<ByteBuf> read = CompletableFuture.supplyAsync(() -> cache.get(1, 0));
+        assertTrue(reading.await(10, TimeUnit.SECONDS));
+
+        // the rotation wraps around to the first segment while the reader is in it
+        putEntries(cache, 1, ENTRIES_PER_SEGMENT + 1, 2 * ENTRIES_PER_SEGMENT);
+        assertFalse(read.isDone());
+        // the retired segment is closed to the lookups and the writers until the reader leaves it
+        assertFalse(cache.hasEntry(1, 1));
+        assertFalse(cache.hasEntry(1, 2 * ENTRIES_PER_SEGMENT));
+        assertEquals(1, cache.droppedCount());
+
+        // the entry is still intact when the reader copies it
+        resume.countDown();
+        verifyEntry(read.get(10, TimeUnit.SECONDS), 1, 0, ENTRY_SIZE);
+
+        // the segment was cleared by the reader leaving it, and accepts the entries again
+        assertEquals(ENTRIES_PER_SEGMENT, cache.count());
+        assertFalse(cache.hasEntry(1, 0));
+        putEntries(cache, 1, 2 * ENTRIES_PER_SEGMENT, 2 * ENTRIES_PER_SEGMENT);
+        verifyEntry(cache.get(1, 2 * ENTRIES_PER_SEGMENT), 1, 2 * ENTRIES_PER_SEGMENT, ENTRY_SIZE);
+    }
+
+    @Test
+    public void testConcurrentPutGet() throws Exception {
+        int numWriters = 4;
+        int numReaders = 4;
+        int entriesPerWriter = 20 * ENTRIES_PER_SEGMENT;
+        // a small cache, so that the segments are rotated under the readers
+        LockFreeReadCache cache = newCache(4);
+
+        AtomicLong[] lastWritten = new AtomicLong[numWriters];
+        List<CompletableFuture<Void>> writers = new ArrayList<>();
+        for (int w = 0; w < numWriters; w++) {
+            long ledgerId = w;
+            AtomicLong last = new AtomicLong(-1);
+            lastWritten[w] = last;
+            writers.add(CompletableFuture.runAsync(() -> {
+                for (long entryId = 0; entryId < entriesPerWriter; entryId++) {
+                    ByteBuf entry = entry(ledgerId, entryId, ENTRY_SIZE);
+                    cache.put(ledgerId, entryId, entry);
+                    entry.release();
+                    last.set(entryId);
+                }
+            }));
+        }
+        CompletableFuture<Void> allWriters = CompletableFuture.allOf(writers.toArray(new CompletableFuture[0]));
+
+        AtomicLong hits = new AtomicLong();
+        List<CompletableFuture<Void>> readers = new ArrayList<>();
+        for (int r = 0; r < numReaders; r++) {
+            readers.add(CompletableFuture.runAsync(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (!allWriters.isDone()) {
+                    int ledgerId = random.nextInt(numWriters);
+                    long last = lastWritten[ledgerId].get();
+                    if (last < 0) {
+                        continue;
+                    }
+                    // look up the recent entries, which are the most likely to be in the cache
+                    long entryId = Math.max(0, last - random.nextInt(2 * ENTRIES_PER_SEGMENT));
+                    ByteBuf entry = cache.get(ledgerId, entryId);
+                    if (entry != null) {
+                        verifyEntry(entry, ledgerId, entryId, ENTRY_SIZE);
+                        hits.incrementAndGet();
+                    }
+                }
+            }));
+        }
+
+        allWriters.get(60, TimeUnit.SECONDS);
+        CompletableFuture.allOf(readers.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        assertTrue(hits.get() > 0);
+        assertTrue(cache.count() <= 4L * ENTRIES_PER_SEGMENT);
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.test.TestStatsProvider;
+import org.awaitility.Awaitility;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the sequential read detection and the batches of the {@link SequentialReadPrefetcher}.
+ */
+public class SequentialReadPrefetcherTest {
+
+    private static final long LEDGER_ID = 1;
+    private static final int NUM_ENTRIES = 50;
+    private static final int ENTRY_SIZE = 100;
+    private static final int BATCH_SIZE = 10;
+    private static final int SEQUENTIAL_THRESHOLD = 3;
+    // the first read is a random access, the next ones are counted as sequential
+    private static final long FIRST_READ = 1;
+    private static final long TRIGGER = FIRST_READ + SEQUENTIAL_THRESHOLD;
+
+    private final TestStatsProvider statsProvider = new TestStatsProvider();
+    private final ReadCache readCache = new LockFreeReadCache(UnpooledByteBufAllocator.DEFAULT,
+            4 * 1024 * 1024, 1024 * 1024);
+    private EntryLogger entryLogger;
+    private EntryLocationIndex entryLocationIndex;
+    private SequentialReadPrefetcher prefetcher;
+
+    // the entries are stored one after the other, entries from 20 onward in a second entry log
+    private static long location(long entryId) {
+        long logId = entryId < 20 ? 1 : 2;
+        return (logId << 32) | (entryId * (Integer.BYTES + ENTRY_SIZE));
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        entry.writeZero(ENTRY_SIZE - 16);
+        return entry;
+    }
+
+    @Before
+    public void setup() throws Exception {
+        entryLogger = mock(EntryLogger.class);
+        when(entryLogger.readEntry(anyLong(), anyLong(), anyLong()))
+                .thenAnswer(inv -> entry(inv.getArgument(0), inv.getArgument(1)));
+        when(entryLogger.readRegion(anyLong(), anyInt())).thenAnswer(inv -> {
+            long firstLocation = inv.getArgument(0);
+            int length = inv.getArgument(1);
+            long firstEntryId = (firstLocation & 0xFFFFFFFFL) / (Integer.BYTES + ENTRY_SIZE);
+            ByteBuf region = Unpooled.buffer(length);
+            for (long entryId = firstEntryId; region.writerIndex() < length; entryId++) {
+                region.writeInt(ENTRY_SIZE);
+                region.writeBytes(entry(LEDGER_ID, entryId));
+            }
+            return region;
+        });
+
+        entryLocationIndex = mock(EntryLocationIndex.class);
+        when(entryLocationIndex.getLocations(eq(LEDGER_ID), anyLong(), any(long[].class))).thenAnswer(inv -> {
+            long firstEntryId = inv.getArgument(1);
+            long[] locations = inv.getArgument(2);
+            int found = 0;
+            while (found < locations.length && firstEntryId + found < NUM_ENTRIES) {
+                locations[found] = location(firstEntryId + found);
+                found++;
+            }
+            return found;
+        });
+
+        DbLedgerStorageStats stats = new DbLedgerStorageStats(statsProvider.getStatsLogger(""),
+                () -> 0L, () -> 0L, readCache::size, readCache::count, readCache::droppedCount);
+        prefetcher = new SequentialReadPrefetcher(entryLogger, entryLocationIndex, readCache, stats,
+                BATCH_SIZE, 1024 * 1024, SEQUENTIAL_THRESHOLD, 1);
+    }
+
+    @After
+    public void teardown() {
+        prefetcher.close();
+        readCache.close();
+    }
+
+    private long prefetchesTriggered() {
+        return statsProvider.getCounter("readahead-prefetch-triggered").get();
+    }
+
+    private void waitForPrefetches(long numPrefetches) {
+        // the prefetch time is recorded once the state of the ledger is updated
+        Awaitility.await().untilAsserted(() -> assertEquals(numPrefetches,
+                statsProvider.getOpStatsLogger("readahead-prefetch-time").getSuccessCount()));
+    }
+
+    private void verifyCached(long firstEntryId, long lastEntryId) {
+        for (long entryId = firstEntryId; entryId <= lastEntryId; entryId++) {
+            ByteBuf entry = readCache.get(LEDGER_ID, entryId);
+            try {
+                assertEquals(entry(LEDGER_ID, entryId), entry);
+            } finally {
+                entry.release();
+            }
+        }
+    }
+
+    /**
+     * Read the entries in order from {@link #FIRST_READ}, the last one triggering the prefetch.
+     */
+    private void readSequentially() {
+        for (long entryId = FIRST_READ; entryId < TRIGGER; entryId++) {
+            assertFalse(prefetcher.onRead(LEDGER_ID, entryId, true));
+        }
+        assertTrue(prefetcher.onRead(LEDGER_ID, TRIGGER, true));
+    }
+
+    @Test
+    public void testSequentialReadDetection() throws Exception {
+        readSequentially();
+        waitForPrefetches(1);
+        assertEquals(1, prefetchesTriggered());
+        verifyCached(TRIGGER + 1, TRIGGER + BATCH_SIZE);
+        assertNull(readCache.get(LEDGER_ID, TRIGGER + BATCH_SIZE + 1));
+
+        // the reader has not got through half of the prefetched entries yet
+        assertTrue(prefetcher.onRead(LEDGER_ID, TRIGGER + 1, false));
+        // reading the same entry again is not a random access
+        assertTrue(prefetcher.onRead(LEDGER_ID, TRIGGER + 1, false));
+        assertEquals(1, prefetchesTriggered());
+
+        // a random access starts the detection again
+        assertFalse(prefetcher.onRead(LEDGER_ID, 40, true));
+        assertFalse(prefetcher.onRead(LEDGER_ID, 41, true));
+        assertEquals(1, prefetchesTriggered());
+    }
+
+    @Test
+    public void testPrefetchAfterReaderCatchesUp() throws Exception {
+        readSequentially();
+        waitForPrefetches(1);
+
+        // past half of the prefetched entries, the next batch is prefetched
+        for (long entryId = TRIGGER + 1; entryId < TRIGGER + BATCH_SIZE / 2; entryId++) {
+            assertTrue(prefetcher.onRead(LEDGER_ID, entryId, false));
+        }
+        assertEquals(1, prefetchesTriggered());
+        assertTrue(prefetcher.onRead(LEDGER_ID, TRIGGER + BATCH_SIZE / 2, false));
+        waitForPrefetches(2);
+        assertEquals(2, prefetchesTriggered());
+        verifyCached(TRIGGER + BATCH_SIZE + 1, TRIGGER + 2 * BATCH_SIZE);
+    }
+
+    @Test
+    public void testPrefetchBoundedByIndex() throws Exception {
+        // only the entries up to the last one in the index are prefetched
+        long trigger = NUM_ENTRIES - BATCH_SIZE / 2 - 1;
+        assertFalse(prefetcher.onRead(LEDGER_ID, trigger - 3, true));
+        assertFalse(prefetcher.onRead(LEDGER_ID, trigger - 2, true));
+        assertFalse(prefetcher.onRead(LEDGER_ID, trigger - 1, true));
+        assertTrue(prefetcher.onRead(LEDGER_ID, trigger, true));
+        waitForPrefetches(1);
+        verifyCached(trigger + 1, NUM_ENTRIES - 1);
+
+        // there is nothing more to prefetch until the reader gets past the end of the batch
+        assertTrue(prefetcher.onRead(LEDGER_ID, trigger + 1, false));
+        assertEquals(1, prefetchesTriggered());
+    }
+
+    @Test
+    public void testRangeCoalescing() throws Exception {
+        // entries 14-23 are prefetched, they are split over the two entry logs at entry 20
+        assertFalse(prefetcher.onRead(LEDGER_ID, 10, true));
+        assertFalse(prefetcher.onRead(LEDGER_ID, 11, true));
+        assertFalse(prefetcher.onRead(LEDGER_ID, 12, true));
+        assertTrue(prefetcher.onRead(LEDGER_ID, 13, true));
+        waitForPrefetches(1);
+        verifyCached(14, 23);
+
+        // each region is read at once, but for its last entry whose size is unknown
+        verify(entryLogger, times(1)).readRegion(location(14), (int) (location(19) - location(14)));
+        verify(entryLogger, times(1)).readRegion(location(20), (int) (location(23) - location(20)));
+        verify(entryLogger, times(1)).readEntry(LEDGER_ID, 19, location(19));
+        verify(entryLogger, times(1)).readEntry(LEDGER_ID, 23, location(23));
+        verify(entryLogger, times(2)).readRegion(anyLong(), anyInt());
+        verify(entryLogger, times(2)).readEntry(anyLong(), anyLong(), anyLong());
+        assertEquals(4, statsProvider.getCounter("readahead-prefetch-entrylog-reads").get());
+    }
+
+    @Test
+    public void testCachedEntriesSkipped() throws Exception {
+        ByteBuf cached = entry(LEDGER_ID, TRIGGER + 1);
+        readCache.put(LEDGER_ID, TRIGGER + 1, cached);
+        cached.release();
+
+        readSequentially();
+        waitForPrefetches(1);
+        verifyCached(TRIGGER + 1, TRIGGER + BATCH_SIZE);
+        verify(entryLocationIndex, times(1)).getLocations(eq(LEDGER_ID), eq(TRIGGER + 2), any(long[].class));
+    }
+
+    @Test
+    public void testStaleLedgerRemoval() throws Exception {
+        readSequentially();
+        waitForPrefetches(1);
+
+        // the state of a ledger read recently is kept
+        prefetcher.removeStaleLedgers();
+        assertTrue(prefetcher.onRead(LEDGER_ID, TRIGGER + 1, false));
+
+        // the state of a ledger not read for a while is dropped, the detection starts again
+        prefetcher.removeStaleLedgers(System.currentTimeMillis()
+                + SequentialReadPrefetcher.LEDGER_STATE_CACHING_TIME_MILLIS + 1000);
+        assertFalse(prefetcher.onRead(LEDGER_ID, TRIGGER + 2, false));
+        assertEquals(1, prefetchesTriggered());
+
+        // the state of a deleted ledger is dropped
+        assertFalse(prefetcher.onRead(LEDGER_ID, TRIGGER + 3, false));
+        assertFalse(prefetcher.onRead(LEDGER_ID, TRIGGER + 4, false));
+        assertTrue(prefetcher.onRead(LEDGER_ID, TRIGGER + 5, false));
+        waitForPrefetches(2);
+        prefetcher.removeLedger(LEDGER_ID);
+        assertFalse(prefetcher.onRead(LEDGER_ID, TRIGGER + 6, false));
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.buffer.UnpooledHeapByteBuf;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the {@link WriteCache} and its {@link WriteCacheIndex}.
+ */
+public class WriteCacheTest {
+
+    private final ByteBufAllocator allocator = UnpooledByteBufAllocator.DEFAULT;
+    private final List<WriteCache> caches = new ArrayList<>();
+
+    @After
+    public void teardown() {
+        caches.forEach(WriteCache::close);
+    }
+
+    private WriteCache newCache(long maxCacheSize) {
+        WriteCache cache = new WriteCache(allocator, maxCacheSize, 1024 * 1024);
+        caches.add(cache);
+        return cache;
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId, int size) {
+        ByteBuf entry = Unpooled.buffer(size);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        entry.writeZero(size - 16);
+        return entry;
+    }
+
+    @Test
+    public void testSealedCacheRefusesEntries() throws Exception {
+        WriteCache cache = newCache(64 * 1024);
+        assertTrue(cache.put(1, 0, entry(1, 0, 100)));
+
+        cache.seal();
+        assertFalse(cache.put(1, 1, entry(1, 1, 100)));
+        assertEquals(1, cache.count());
+        assertFalse(cache.hasEntry(1, 1));
+
+        // the cache accepts entries again once it is cleared
+        cache.clear();
+        assertTrue(cache.put(1, 1, entry(1, 1, 100)));
+        assertEquals(1, cache.count());
+    }
+
+    @Test
+    public void testSealWaitsForInsertInProgress() throws Exception {
+        WriteCache cache = newCache(64 * 1024);
+        CountDownLatch copying = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        ByteBuf blockingEntry = new UnpooledHeapByteBuf(allocator, 100, 100) {
+            @Override
+            public int readerIndex() {
+                // the entry is copied in the cache from its reader index
+                copying.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.readerIndex();
+            }
+        };
+        blockingEntry.writerIndex(100);
+
+        CompletableFuture<Boolean> put = CompletableFuture.supplyAsync(() -> cache.put(1, 0, blockingEntry));
+        assertTrue(copying.await(10, TimeUnit.SECONDS));
+        CompletableFuture<Void> seal = CompletableFuture.runAsync(cache::seal);
+        Thread.sleep(100);
+        assertFalse("the cache is sealed while an entry is inserted", seal.isDone());
+
+        resume.countDown();
+        seal.get(10, TimeUnit.SECONDS);
+        assertTrue(put.get());
+        assertTrue(cache.hasEntry(1, 0));
+    }
+
+    @Test
+    public void testSealWithConcurrentInserts() throws Exception {
+        int numWriters = 4;
+        WriteCache cache = newCache(4 * 1024 * 1024);
+        ExecutorService executor = Executors.newFixedThreadPool(numWriters);
+
+        try {
+            for (int round = 0; round < 20; round++) {
+                sealWithConcurrentInserts(cache, executor, numWriters);
+                cache.clear();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void sealWithConcurrentInserts(WriteCache cache, ExecutorService executor, int numWriters)
+            throws Exception {
+        AtomicBoolean stop = new AtomicBoolean();
+        CyclicBarrier start = new CyclicBarrier(numWriters + 1);
+        List<CompletableFuture<List<Long>>> writers = new ArrayList<>();
+        for (int w = 0; w < numWriters; w++) {
+            long ledgerId = w;
+            writers.add(CompletableFuture.supplyAsync(() -> {
+                List<Long> accepted = new ArrayList<>();
+                try {
+                    start.await();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                for (long entryId = 0; !stop.get(); entryId++) {
+                    if (cache.put(ledgerId, entryId, entry(ledgerId, entryId, 64))) {
+                        accepted.add(entryId);
+                    }
+                }
+                return accepted;
+            }, executor));
+        }
+
+        start.await();
+        Thread.sleep(1);
+        cache.seal();
+        // every insert accepted so far is in the cache, and none is accepted after the seal
+        Set<Long> sealed = new HashSet<>();
+        cache.forEach((ledgerId, entryId, entry) -> {
+            assertEquals(ledgerId, entry.getLong(entry.readerIndex()));
+            assertEquals(entryId, entry.getLong(entry.readerIndex() + 8));
+            sealed.add(ledgerId << 32 | entryId);
+        });
+        long sealedCount = cache.count();
+        stop.set(true);
+
+        List<Long> accepted = new ArrayList<>();
+        for (int w = 0; w < numWriters; w++) {
+            for (long entryId : writers.get(w).get(10, TimeUnit.SECONDS)) {
+                accepted.add((long) w << 32 | entryId);
+            }
+        }
+        assertEquals(accepted.size(), sealedCount);
+        assertEquals(sealedCount, cache.count());
+        assertEquals(new HashSet<>(accepted), sealed);
+    }
+
+    private WriteCache newCacheWithLedgerBudget(long maxCacheSize) {
+        // the ledgers are held to their share as soon as the cache is not empty
+        WriteCache cache = new WriteCache(allocator, maxCacheSize, 1024 * 1024, 1);
+        caches.add(cache);
+        return cache;
+    }
+
+    private static void putEntries(WriteCache cache, long ledgerId, int numEntries) {
+        for (int i = 0; i < numEntries; i++) {
+            assertTrue(cache.put(ledgerId, i, entry(ledgerId, i, 1024)));
+        }
+    }
+
+    @Test
+    public void testLoneWriterUsesWholeCache() {
+        WriteCache cache = newCacheWithLedgerBudget(64 * 1024);
+        for (int i = 0; i < 63; i++) {
+            assertFalse(cache.isOverLedgerBudget(1, 1024));
+            assertTrue(cache.put(1, i, entry(1, i, 1024)));
+        }
+        // a ledger that starts writing is always admitted
+        assertFalse(cache.isOverLedgerBudget(2, 1024));
+    }
+
+    @Test
+    public void testLedgersHeldToTheirShare() {
+        WriteCache cache = newCacheWithLedgerBudget(64 * 1024);
+        putEntries(cache, 1, 31);
+        putEntries(cache, 2, 1);
+
+        // two ledgers share the cache
+        assertFalse(cache.isOverLedgerBudget(1, 1024));
+        assertTrue(cache.put(1, 31, entry(1, 31, 1024)));
+        assertTrue(cache.isOverLedgerBudget(1, 1024));
+        assertFalse(cache.isOverLedgerBudget(2, 1024));
+
+        // the shares are reset when the cache is flushed
+        cache.clear();
+        putEntries(cache, 1, 40);
+        assertFalse(cache.isOverLedgerBudget(1, 1024));
+    }
+
+    @Test
+    public void testDeletedLedgerReleasesItsShare() {
+        WriteCache cache = newCacheWithLedgerBudget(64 * 1024);
+        putEntries(cache, 1, 21);
+        putEntries(cache, 2, 1);
+        putEntries(cache, 3, 1);
+        assertTrue(cache.isOverLedgerBudget(1, 1024));
+
+        cache.deleteLedger(3);
+        assertFalse(cache.isOverLedgerBudget(1, 1024));
+        cache.deleteLedger(2);
+        putEntries(cache, 1, 40);
+        assertFalse(cache.isOverLedgerBudget(1, 1024));
+    }
+
+    @Test
+    public void testIndexForEachWithConcurrentInserts() throws Exception {
+        WriteCacheIndex index = new WriteCacheIndex(1, 16);
+        try {
+            // ledger 1 is added in order, ledger 2 out of order
+            for (long entryId = 0; entryId < 100; entryId++) {
+                index.put(1, entryId, entryId * 100, 100);
+                index.put(2, 99 - entryId, entryId * 100, 100);
+            }
+
+            List<Long> ledger1 = new ArrayList<>();
+            List<Long> ledger2 = new ArrayList<>();
+            index.forEach((ledgerId, entryId, offset, length) -> {
+                if (ledgerId == 1) {
+                    ledger1.add(entryId);
+                    if (entryId == 0) {
+                        // the entries added to the ledger being iterated are skipped, those of the next ledgers
+                        // are iterated
+                        for (long e = 100; e < 200; e++) {
+                            index.put(1, e, e * 100, 100);
+                            index.put(2, e, e * 100, 100);
+                        }
+                    }
+                } else {
+                    ledger2.add(entryId);
+                }
+            });
+
+            assertEquals(100, ledger1.size());
+            assertEquals(200, ledger2.size());
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, ledger1.get(i).longValue());
+            }
+            for (int i = 0; i < 200; i++) {
+                assertEquals(i, ledger2.get(i).longValue());
+            }
+            assertEquals(Arrays.asList(199L, 199L), Arrays.asList(index.getLastEntryId(1),
+                    index.getLastEntryId(2)));
+        } finally {
+            index.close();
+        }
+    }
+}
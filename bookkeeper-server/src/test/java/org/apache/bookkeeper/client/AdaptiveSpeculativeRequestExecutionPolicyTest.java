@@ -0,0 +1,216 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.apache.bookkeeper.client.BookKeeperClientStats.SPECULATIVE_READ_BUDGET_EXHAUSTED;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.net.BookieSocketAddress;
+import org.apache.bookkeeper.test.TestStatsProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the timeouts and the budget of the {@link AdaptiveSpeculativeRequestExecutionPolicy}.
+ */
+public class AdaptiveSpeculativeRequestExecutionPolicyTest {
+
+    private static final int FIRST_TIMEOUT_MS = 50;
+    private static final int MAX_TIMEOUT_MS = 200;
+    private static final int MIN_SAMPLES = 32;
+    private static final int MAX_BUDGET_BURST = 100;
+
+    private final TestStatsProvider statsProvider = new TestStatsProvider();
+    private final BookieId bookie = new BookieSocketAddress("127.0.0.1", 3181).toBookieId();
+    // the tasks scheduled by the policy, run by the test
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final List<Long> delaysMicros = new ArrayList<>();
+    private ScheduledExecutorService scheduler;
+
+    @Before
+    public void setup() {
+        scheduler = mock(ScheduledExecutorService.class);
+        when(scheduler.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenAnswer(inv -> {
+            tasks.add(inv.getArgument(0));
+            delaysMicros.add(((TimeUnit) inv.getArgument(2)).toMicros(inv.getArgument(1)));
+            return mock(ScheduledFuture.class);
+        });
+    }
+
+    private AdaptiveSpeculativeRequestExecutionPolicy newPolicy(int budgetPercent) {
+        return new AdaptiveSpeculativeRequestExecutionPolicy(FIRST_TIMEOUT_MS, MAX_TIMEOUT_MS, 2.0f, 95,
+                budgetPercent, statsProvider.getStatsLogger(""));
+    }
+
+    private static void addSamplesMillis(AdaptiveSpeculativeRequestExecutionPolicy policy, BookieId bookie,
+                                         long... millis) {
+        for (long latency : millis) {
+            policy.onRequestComplete(bookie, TimeUnit.MILLISECONDS.toNanos(latency));
+        }
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+    private long budgetExhausted() {
+        return statsProvider.getCounter(SPECULATIVE_READ_BUDGET_EXHAUSTED).get();
+    }
+
+    /**
+     * Request executor counting the speculative requests it is asked to issue.
+     */
+    private class CountingExecutor implements SpeculativeRequestExecutor {
+        final AtomicInteger issued = new AtomicInteger();
+        final Supplier<ListenableFuture<Boolean>> result;
+
+        CountingExecutor(Supplier<ListenableFuture<Boolean>> result) {
+            this.result = result;
+        }
+
+        @Override
+        public ListenableFuture<Boolean> issueSpeculativeRequest() {
+            issued.incrementAndGet();
+            return result.get();
+        }
+
+        @Override
+        public BookieId getLastRequestTarget() {
+            return bookie;
+        }
+    }
+
+    @Test
+    public void testPercentileTimeoutAfterMinSamples() {
+        AdaptiveSpeculativeRequestExecutionPolicy policy = newPolicy(10);
+        CountingExecutor executor = new CountingExecutor(SettableFuture::create);
+
+        // the first timeout is used until enough requests completed on the bookie
+        for (int i = 1; i < MIN_SAMPLES; i++) {
+            addSamplesMillis(policy, bookie, i);
+        }
+        policy.initiateSpeculativeRequest(scheduler, executor);
+        assertEquals(TimeUnit.MILLISECONDS.toMicros(FIRST_TIMEOUT_MS), (long) delaysMicros.get(0));
+
+        // the 95th percentile of 1ms..32ms
+        addSamplesMillis(policy, bookie, MIN_SAMPLES);
+        policy.initiateSpeculativeRequest(scheduler, executor);
+        assertEquals(TimeUnit.MILLISECONDS.toMicros(31), (long) delaysMicros.get(1));
+
+        // the requests to other bookies, or to an unknown one, still use the first timeout
+        BookieId otherBookie = new BookieSocketAddress("127.0.0.2", 3181).toBookieId();
+        assertEquals(TimeUnit.MILLISECONDS.toMicros(FIRST_TIMEOUT_MS), policy.getFirstTimeoutMicros(otherBookie));
+        assertEquals(TimeUnit.MILLISECONDS.toMicros(FIRST_TIMEOUT_MS), policy.getFirstTimeoutMicros(null));
+    }
+
+    @Test
+    public void testTimeoutBounds() {
+        AdaptiveSpeculativeRequestExecutionPolicy policy = newPolicy(10);
+        BookieId slowBookie = new BookieSocketAddress("127.0.0.2", 3181).toBookieId();
+        for (int i = 0; i < MIN_SAMPLES; i++) {
+            addSamplesMillis(policy, slowBookie, 10 * MAX_TIMEOUT_MS);
+            policy.onRequestComplete(bookie, TimeUnit.MICROSECONDS.toNanos(10));
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toMicros(MAX_TIMEOUT_MS), policy.getFirstTimeoutMicros(slowBookie));
+        // the timeout is not shorter than the granularity of the scheduler
+        assertEquals(TimeUnit.MILLISECONDS.toMicros(1), policy.getFirstTimeoutMicros(bookie));
+    }
+
+    @Test
+    public void testBackoffUpToMaxTimeout() {
+        AdaptiveSpeculativeRequestExecutionPolicy policy = newPolicy(100);
+        AtomicInteger remaining = new AtomicInteger(4);
+        CountingExecutor executor = new CountingExecutor(
+                () -> Futures.immediateFuture(remaining.decrementAndGet() > 0));
+
+        policy.initiateSpeculativeRequest(scheduler, executor);
+        runTasks();
+        assertEquals(4, executor.issued.get());
+        List<Long> expected = new ArrayList<>();
+        expected.add(TimeUnit.MILLISECONDS.toMicros(FIRST_TIMEOUT_MS));
+        expected.add(TimeUnit.MILLISECONDS.toMicros(2 * FIRST_TIMEOUT_MS));
+        expected.add(TimeUnit.MILLISECONDS.toMicros(MAX_TIMEOUT_MS));
+        expected.add(TimeUnit.MILLISECONDS.toMicros(MAX_TIMEOUT_MS));
+        assertEquals(expected, delaysMicros);
+    }
+
+    @Test
+    public void testBudgetExhaustion() {
+        AdaptiveSpeculativeRequestExecutionPolicy policy = newPolicy(10);
+        CountingExecutor executor = new CountingExecutor(SettableFuture::create);
+
+        // the requests are all issued at once, the budget is full
+        for (int i = 0; i <= MAX_BUDGET_BURST; i++) {
+            policy.initiateSpeculativeRequest(scheduler, executor);
+        }
+        runTasks();
+        assertEquals(MAX_BUDGET_BURST, executor.issued.get());
+        assertEquals(1, budgetExhausted());
+
+        // each request adds 10% of a speculative request to the budget
+        for (int i = 0; i < 20; i++) {
+            policy.initiateSpeculativeRequest(scheduler, executor);
+        }
+        runTasks();
+        assertEquals(MAX_BUDGET_BURST + 2, executor.issued.get());
+        assertEquals(1 + 18, budgetExhausted());
+    }
+
+    @Test
+    public void testBudgetRefundedWhenNotIssued() {
+        AdaptiveSpeculativeRequestExecutionPolicy policy = newPolicy(0);
+        // the request completed before the speculative request, nothing was issued
+        CountingExecutor executor = new CountingExecutor(() -> Futures.immediateFuture(false));
+
+        for (int i = 0; i < 3 * MAX_BUDGET_BURST; i++) {
+            policy.initiateSpeculativeRequest(scheduler, executor);
+            runTasks();
+        }
+        assertEquals(3 * MAX_BUDGET_BURST, executor.issued.get());
+        assertEquals(0, budgetExhausted());
+
+        // without any budget per request, the budget only covers a burst
+        CountingExecutor issuingExecutor = new CountingExecutor(SettableFuture::create);
+        for (int i = 0; i < 2 * MAX_BUDGET_BURST; i++) {
+            policy.initiateSpeculativeRequest(scheduler, issuingExecutor);
+        }
+        runTasks();
+        assertEquals(MAX_BUDGET_BURST, issuingExecutor.issued.get());
+        assertEquals(MAX_BUDGET_BURST, budgetExhausted());
+    }
+}
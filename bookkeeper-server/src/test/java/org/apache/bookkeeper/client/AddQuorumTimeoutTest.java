@@ -0,0 +1,101 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.BookKeeper.DigestType;
+import org.awaitility.Awaitility;
+import org.junit.Test;
+
+/**
+ * Tests the add quorum timeout, scheduled for each add on the request timer of the client.
+ */
+public class AddQuorumTimeoutTest extends BookKeeperClusterTestCase {
+
+    private static final byte[] PASSWD = "timeout".getBytes(StandardCharsets.UTF_8);
+    private static final int QUORUM_TIMEOUT_SEC = 2;
+
+    public AddQuorumTimeoutTest() {
+        super(3);
+        baseConf.setJournalRemovePagesFromCache(false);
+        baseClientConf.setAddEntryQuorumTimeout(QUORUM_TIMEOUT_SEC);
+        // the requests to the bookies do not time out before the add
+        baseClientConf.setAddEntryTimeout(60);
+        baseClientConf.setTimeoutMonitorIntervalSec(1);
+    }
+
+    private static byte[] entryData(long entryId) {
+        return ("entry-" + entryId).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testAddTimesOutWithoutAckQuorum() throws Exception {
+        LedgerHandle lh = bkc.createLedger(3, 3, 3, DigestType.CRC32C, PASSWD);
+        lh.addEntry(entryData(0));
+        assertNotNull(lh.clientCtx.getRequestTimer());
+
+        CountDownLatch wakeUp = new CountDownLatch(1);
+        sleepBookie(lh.getLedgerMetadata().getAllEnsembles().get(0L).get(0), wakeUp);
+        try {
+            long startNanos = System.nanoTime();
+            try {
+                lh.appendAsync(entryData(1)).get(30, TimeUnit.SECONDS);
+                fail("the add should time out without an ack quorum");
+            } catch (ExecutionException e) {
+                assertEquals(BKException.Code.AddEntryQuorumTimeoutException,
+                        BKException.getExceptionCode(e.getCause()));
+            }
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            assertFalse("the add timed out after " + elapsedMillis + " ms",
+                    elapsedMillis < TimeUnit.SECONDS.toMillis(QUORUM_TIMEOUT_SEC));
+
+            // the ledger is closed on the timeout
+            Awaitility.await().until(lh::isClosed);
+            assertEquals(0, lh.getLastAddConfirmed());
+        } finally {
+            wakeUp.countDown();
+        }
+    }
+
+    @Test
+    public void testCompletedAddsNotTimedOut() throws Exception {
+        LedgerHandle lh = bkc.createLedger(3, 3, 3, DigestType.CRC32C, PASSWD);
+        for (int i = 0; i < 10; i++) {
+            lh.addEntry(entryData(i));
+        }
+
+        // the timeouts of the completed adds are cancelled, they do not fire after the quorum timeout
+        Thread.sleep(TimeUnit.SECONDS.toMillis(QUORUM_TIMEOUT_SEC + 2));
+        assertFalse(lh.isClosed());
+        assertEquals(10, lh.addEntry(entryData(10)));
+        assertEquals(10, lh.getLastAddConfirmed());
+        assertTrue(lh.clientCtx.getRequestTimer().getLagMillis() >= 0);
+    }
+}
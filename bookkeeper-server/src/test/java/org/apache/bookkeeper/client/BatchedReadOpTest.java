@@ -0,0 +1,223 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BATCH_READ_ENTRY_REQUEST;
+import static org.apache.bookkeeper.client.BookKeeperClientStats.CLIENT_SCOPE;
+import static org.apache.bookkeeper.client.BookKeeperClientStats.SPECULATIVE_READ_COUNT;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.client.BookKeeper.DigestType;
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.test.TestStatsProvider;
+import org.awaitility.Awaitility;
+import org.junit.Test;
+
+/**
+ * Tests the batched reads between the client and the bookies.
+ */
+public class BatchedReadOpTest extends BookKeeperClusterTestCase {
+
+    private static final byte[] PASSWD = "batch".getBytes(StandardCharsets.UTF_8);
+    private static final int NUM_ENTRIES = 50;
+
+    public BatchedReadOpTest() {
+        super(3);
+        baseConf.setJournalRemovePagesFromCache(false);
+        baseClientConf.setUseV2WireProtocol(true);
+        baseClientConf.setBatchReadEnabled(true);
+    }
+
+    private static byte[] entryData(long entryId) {
+        return ("entry-" + entryId).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private LedgerHandle writeLedger(BookKeeper bk) throws Exception {
+        LedgerHandle lh = bk.createLedger(3, 3, 2, DigestType.CRC32C, PASSWD);
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            lh.addEntry(entryData(i));
+        }
+        return lh;
+    }
+
+    private long batchReadRequests() throws Exception {
+        AtomicLong requests = new AtomicLong();
+        for (int i = 0; i < bookieCount(); i++) {
+            TestStatsProvider provider = getStatsProvider(i);
+            provider.forEachOpStatLogger((name, logger) -> {
+                if (name.endsWith(BATCH_READ_ENTRY_REQUEST)) {
+                    requests.addAndGet(logger.getSuccessCount() + logger.getFailureCount());
+                }
+            });
+        }
+        return requests.get();
+    }
+
+    private static void verifyEntries(LedgerEntries entries, long firstEntryId, int numEntries) {
+        long entryId = firstEntryId;
+        for (LedgerEntry entry : entries) {
+            assertEquals(entryId, entry.getEntryId());
+            assertArrayEquals(entryData(entryId), entry.getEntryBytes());
+            entryId++;
+        }
+        assertEquals(firstEntryId + numEntries, entryId);
+    }
+
+    @Test
+    public void testBatchRead() throws Exception {
+        LedgerHandle lh = writeLedger(bkc);
+        long requestsBefore = batchReadRequests();
+
+        // the bookies advertised the batched reads in the responses of the adds
+        try (LedgerEntries entries = lh.batchReadAsync(0, NUM_ENTRIES, 1024 * 1024).get()) {
+            verifyEntries(entries, 0, NUM_ENTRIES);
+        }
+        try (LedgerEntries entries = lh.readAsync(10, NUM_ENTRIES - 1).get()) {
+            verifyEntries(entries, 10, NUM_ENTRIES - 10);
+        }
+        // the request stats are recorded once the response is written
+        Awaitility.await().untilAsserted(() -> assertEquals(requestsBefore + 2, batchReadRequests()));
+        lh.close();
+    }
+
+    @Test
+    public void testBatchReadMaxSize() throws Exception {
+        LedgerHandle lh = writeLedger(bkc);
+
+        // the bookie always returns at least one entry, and stops before the size limit
+        try (LedgerEntries entries = lh.batchReadAsync(0, NUM_ENTRIES, 1).get()) {
+            verifyEntries(entries, 0, 1);
+        }
+        try (LedgerEntries entries = lh.batchReadAsync(5, 3, 1024 * 1024).get()) {
+            verifyEntries(entries, 5, 3);
+        }
+        lh.close();
+    }
+
+    @Test
+    public void testNoBatchReadBeforeBookieAdvertisesSupport() throws Exception {
+        LedgerHandle writer = writeLedger(bkc);
+        writer.close();
+        long ledgerId = writer.getId();
+
+        ClientConfiguration conf = new ClientConfiguration(baseClientConf);
+        try (BookKeeper reader = new BookKeeperTestClient(conf)) {
+            LedgerHandle lh = reader.openLedgerNoRecovery(ledgerId, DigestType.CRC32C, PASSWD);
+            long requestsBefore = batchReadRequests();
+
+            // no response was received yet on the new connections, the entries are read one by one
+            try (LedgerEntries entries = lh.readAsync(0, NUM_ENTRIES - 1).get()) {
+                verifyEntries(entries, 0, NUM_ENTRIES);
+            }
+            assertEquals(requestsBefore, batchReadRequests());
+
+            // the responses of the single reads advertised the batched reads
+            try (LedgerEntries entries = lh.readAsync(0, NUM_ENTRIES - 1).get()) {
+                verifyEntries(entries, 0, NUM_ENTRIES);
+            }
+            Awaitility.await().untilAsserted(() -> assertTrue(batchReadRequests() > requestsBefore));
+        }
+    }
+
+    @Test
+    public void testBatchReadThroughEntryCache() throws Exception {
+        LedgerHandle writer = writeLedger(bkc);
+        writer.close();
+
+        ClientConfiguration conf = new ClientConfiguration(baseClientConf);
+        conf.setEntryCacheMaxSizeBytes(1024 * 1024);
+        try (BookKeeper reader = new BookKeeperTestClient(conf)) {
+            LedgerHandle lh = reader.openLedgerNoRecovery(writer.getId(), DigestType.CRC32C, PASSWD);
+            // the single read of the first entry gets the bookie to advertise the batched reads
+            try (LedgerEntries entries = lh.readAsync(0, 0).get()) {
+                verifyEntries(entries, 0, 1);
+            }
+            long requestsBefore = batchReadRequests();
+
+            // only the entries missing from the cache are read in a batch, and the batch fills the cache
+            try (LedgerEntries entries = lh.readAsync(0, NUM_ENTRIES - 1).get()) {
+                verifyEntries(entries, 0, NUM_ENTRIES);
+            }
+            Awaitility.await().untilAsserted(() -> assertEquals(requestsBefore + 1, batchReadRequests()));
+
+            try (LedgerEntries entries = lh.readAsync(0, NUM_ENTRIES - 1).get()) {
+                verifyEntries(entries, 0, NUM_ENTRIES);
+            }
+            try (LedgerEntries entries = lh.batchReadAsync(5, 10, 1024 * 1024).get()) {
+                verifyEntries(entries, 5, 10);
+            }
+            // the size limit also bounds the entries served from the cache
+            try (LedgerEntries entries = lh.batchReadAsync(5, 10, 1).get()) {
+                verifyEntries(entries, 5, 1);
+            }
+            Thread.sleep(100);
+            assertEquals(requestsBefore + 1, batchReadRequests());
+        }
+    }
+
+    @Test
+    public void testSpeculativeBatchRead() throws Exception {
+        LedgerHandle writer = writeLedger(bkc);
+        writer.close();
+
+        ClientConfiguration conf = new ClientConfiguration(baseClientConf);
+        conf.setSpeculativeReadTimeout(100);
+        conf.setReadEntryTimeout(60);
+        conf.setReorderReadSequenceEnabled(false);
+        TestStatsProvider statsProvider = new TestStatsProvider();
+        try (BookKeeper reader = new BookKeeperTestClient(conf, statsProvider)) {
+            LedgerHandle lh = reader.openLedgerNoRecovery(writer.getId(), DigestType.CRC32C, PASSWD);
+            // the single reads of the first entries reach every bookie of the ensemble,
+            // which advertise the batched reads
+            for (int i = 0; i < 3; i++) {
+                try (LedgerEntries entries = lh.readAsync(i, i).get()) {
+                    verifyEntries(entries, i, 1);
+                }
+            }
+
+            DistributionSchedule.WriteSet writeSet = lh.getWriteSetForReadOperation(3);
+            BookieId slowBookie = lh.getLedgerMetadata().getEnsembleAt(3).get(writeSet.get(0));
+            writeSet.recycle();
+            CountDownLatch wakeUp = new CountDownLatch(1);
+            sleepBookie(slowBookie, wakeUp);
+            try {
+                // the batch is sent to the next replica without waiting for the read timeout
+                long startNanos = System.nanoTime();
+                try (LedgerEntries entries = lh.readAsync(3, NUM_ENTRIES - 1).get()) {
+                    verifyEntries(entries, 3, NUM_ENTRIES - 3);
+                }
+                assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos) < 30);
+                assertTrue(statsProvider.getCounter(CLIENT_SCOPE + "." + SPECULATIVE_READ_COUNT).get() > 0);
+            } finally {
+                wakeUp.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import io.netty.buffer.Unpooled;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.api.BatchedReadHandle;
+import org.apache.bookkeeper.client.api.BatchingWriteHandle;
+import org.apache.bookkeeper.client.api.DigestType;
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.apache.bookkeeper.client.api.WriteHandle;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the records written by a {@link BatchingWriteHandle} and read by a {@link BatchedReadHandle}.
+ */
+public class BatchingWriteHandleTest extends BookKeeperClusterTestCase {
+
+    private static final byte[] PASSWD = "batching".getBytes(StandardCharsets.UTF_8);
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    public BatchingWriteHandleTest() {
+        super(3);
+        baseConf.setJournalRemovePagesFromCache(false);
+    }
+
+    @After
+    public void shutdownScheduler() {
+        scheduler.shutdownNow();
+    }
+
+    private WriteHandle createLedger(boolean batched) throws Exception {
+        return bkc.newCreateLedgerOp()
+                .withEnsembleSize(3)
+                .withWriteQuorumSize(3)
+                .withAckQuorumSize(2)
+                .withDigestType(DigestType.CRC32C)
+                .withPassword(PASSWD)
+                .withCustomMetadata(batched
+                        ? BatchingWriteHandle.withBatchedEntries(Collections.emptyMap())
+                        : Collections.emptyMap())
+                .execute()
+                .get();
+    }
+
+    private ReadHandle openLedger(long ledgerId) throws Exception {
+        return bkc.newOpenLedgerOp()
+                .withLedgerId(ledgerId)
+                .withDigestType(DigestType.CRC32C)
+                .withPassword(PASSWD)
+                .execute()
+                .get();
+    }
+
+    private static String record(int i) {
+        return "record-" + i;
+    }
+
+    @Test
+    public void testCloseWritesLastBatch() throws Exception {
+        WriteHandle wh = createLedger(true);
+        // the batches are only written when full or on close
+        BatchingWriteHandle handle = BatchingWriteHandle.of(wh, 1024 * 1024, 1, TimeUnit.HOURS, scheduler);
+        List<CompletableFuture<Long>> positions = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            positions.add(handle.appendAsync(Unpooled.wrappedBuffer(record(i).getBytes(StandardCharsets.UTF_8))));
+        }
+        handle.closeAsync().get();
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(BatchedReadHandle.position(0, i), positions.get(i).get().longValue());
+        }
+
+        try (ReadHandle rh = openLedger(wh.getId())) {
+            assertEquals(0, rh.getLastAddConfirmed());
+            BatchedReadHandle reader = BatchedReadHandle.of(rh);
+            try (LedgerEntries records = reader.read(0, reader.getLastAddConfirmed())) {
+                int i = 0;
+                for (LedgerEntry record : records) {
+                    assertEquals(BatchedReadHandle.position(0, i), record.getEntryId());
+                    assertEquals(record(i), new String(record.getEntryBytes(), StandardCharsets.UTF_8));
+                    i++;
+                }
+                assertEquals(10, i);
+            }
+        }
+    }
+
+    @Test
+    public void testEntriesOfPlainLedgerAreSingleRecords() throws Exception {
+        WriteHandle wh = createLedger(false);
+        // a plain entry that happens to look like a batch header is still a single record
+        byte[] batchLike = ByteBuffer.allocate(2 * Integer.BYTES).putInt(1).putInt(0).array();
+        wh.append(batchLike);
+        wh.append(record(1).getBytes(StandardCharsets.UTF_8));
+        wh.close();
+
+        try (ReadHandle rh = openLedger(wh.getId())) {
+            BatchedReadHandle reader = BatchedReadHandle.of(rh);
+            try (LedgerEntries records = reader.read(0, reader.getLastAddConfirmed())) {
+                List<LedgerEntry> list = new ArrayList<>();
+                records.forEach(list::add);
+                assertEquals(2, list.size());
+                assertEquals(BatchedReadHandle.position(0, 0), list.get(0).getEntryId());
+                assertEquals(batchLike.length, list.get(0).getLength());
+                assertEquals(BatchedReadHandle.position(1, 0), list.get(1).getEntryId());
+                assertEquals(record(1), new String(list.get(1).getEntryBytes(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void testBatchingRequiresBatchedLedger() throws Exception {
+        WriteHandle wh = createLedger(false);
+        try {
+            BatchingWriteHandle.of(wh, 1024, 1, TimeUnit.MILLISECONDS, scheduler);
+            fail("The ledger was not created for batched entries");
+        } catch (IllegalArgumentException e) {
+            // expected
+        } finally {
+            wh.close();
+        }
+    }
+}
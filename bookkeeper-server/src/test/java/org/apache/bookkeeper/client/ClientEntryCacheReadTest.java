@@ -0,0 +1,108 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.apache.bookkeeper.client.BookKeeperClientStats.CLIENT_SCOPE;
+import static org.apache.bookkeeper.client.BookKeeperClientStats.ENTRY_CACHE_HITS;
+import static org.apache.bookkeeper.client.BookKeeperClientStats.ENTRY_CACHE_MISSES;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import org.apache.bookkeeper.client.BookKeeper.DigestType;
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.test.TestStatsProvider;
+import org.junit.Test;
+
+/**
+ * Tests the reads of the ledger handles served from the {@link ClientEntryCache}.
+ */
+public class ClientEntryCacheReadTest extends BookKeeperClusterTestCase {
+
+    private static final byte[] PASSWD = "cache".getBytes(StandardCharsets.UTF_8);
+    private static final int NUM_ENTRIES = 10;
+
+    public ClientEntryCacheReadTest() {
+        super(3);
+        baseConf.setJournalRemovePagesFromCache(false);
+    }
+
+    private static byte[] entryData(long entryId) {
+        return ("entry-" + entryId).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void verifyEntries(LedgerEntries entries, long firstEntryId, long lastEntryId) {
+        long entryId = firstEntryId;
+        for (LedgerEntry entry : entries) {
+            assertEquals(entryId, entry.getEntryId());
+            assertArrayEquals(entryData(entryId), entry.getEntryBytes());
+            entryId++;
+        }
+        assertEquals(lastEntryId + 1, entryId);
+    }
+
+    private static long counter(TestStatsProvider statsProvider, String name) {
+        return statsProvider.getCounter(CLIENT_SCOPE + "." + name).get();
+    }
+
+    @Test
+    public void testPartiallyCachedRange() throws Exception {
+        LedgerHandle writer = bkc.createLedger(3, 3, 2, DigestType.CRC32C, PASSWD);
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            writer.addEntry(entryData(i));
+        }
+        writer.close();
+
+        ClientConfiguration conf = new ClientConfiguration(baseClientConf);
+        conf.setEntryCacheMaxSizeBytes(1024 * 1024);
+        TestStatsProvider statsProvider = new TestStatsProvider();
+        try (BookKeeper reader = new BookKeeperTestClient(conf, statsProvider)) {
+            LedgerHandle lh = reader.openLedger(writer.getId(), DigestType.CRC32C, PASSWD);
+            try (LedgerEntries entries = lh.readAsync(2, 5).get()) {
+                verifyEntries(entries, 2, 5);
+            }
+            assertEquals(0, counter(statsProvider, ENTRY_CACHE_HITS));
+            assertEquals(4, counter(statsProvider, ENTRY_CACHE_MISSES));
+
+            // entries 0-1 are not cached, the whole range is read from the bookies
+            try (LedgerEntries entries = lh.readAsync(0, 3).get()) {
+                verifyEntries(entries, 0, 3);
+            }
+            assertEquals(0, counter(statsProvider, ENTRY_CACHE_HITS));
+            assertEquals(8, counter(statsProvider, ENTRY_CACHE_MISSES));
+
+            // entries 0-5 are served from the cache, only entries 6-9 are read from the bookies
+            try (LedgerEntries entries = lh.readAsync(0, NUM_ENTRIES - 1).get()) {
+                verifyEntries(entries, 0, NUM_ENTRIES - 1);
+            }
+            assertEquals(6, counter(statsProvider, ENTRY_CACHE_HITS));
+            assertEquals(12, counter(statsProvider, ENTRY_CACHE_MISSES));
+
+            try (LedgerEntries entries = lh.readAsync(0, NUM_ENTRIES - 1).get()) {
+                verifyEntries(entries, 0, NUM_ENTRIES - 1);
+            }
+            assertEquals(6 + NUM_ENTRIES, counter(statsProvider, ENTRY_CACHE_HITS));
+            assertEquals(12, counter(statsProvider, ENTRY_CACHE_MISSES));
+        }
+    }
+}
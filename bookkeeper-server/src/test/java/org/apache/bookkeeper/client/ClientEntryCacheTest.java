@@ -0,0 +1,179 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.apache.bookkeeper.client.BookKeeperClientStats.ENTRY_CACHE_HITS;
+import static org.apache.bookkeeper.client.BookKeeperClientStats.ENTRY_CACHE_MISSES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.test.TestStatsProvider;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the lookups, the eviction and the buffers of the {@link ClientEntryCache}.
+ */
+public class ClientEntryCacheTest {
+
+    private static final long LEDGER_ID = 1L;
+    private static final int ENTRY_SIZE = 100;
+
+    private final TestStatsProvider statsProvider = new TestStatsProvider();
+    // a single segment, so that the entries are evicted in LRU order
+    private final ClientEntryCache cache = new ClientEntryCache(UnpooledByteBufAllocator.DEFAULT,
+            3 * ENTRY_SIZE, 1, BookKeeperClientStats.newInstance(statsProvider.getStatsLogger("")));
+    private final List<ByteBuf> buffers = new ArrayList<>();
+
+    @After
+    public void teardown() {
+        cache.close();
+        buffers.forEach(ByteBuf::release);
+    }
+
+    private ByteBuf put(long entryId) {
+        ByteBuf data = Unpooled.buffer(ENTRY_SIZE);
+        data.writeLong(entryId);
+        data.writeZero(ENTRY_SIZE - 8);
+        buffers.add(data);
+        cache.put(LEDGER_ID, entryId, (entryId + 1) * ENTRY_SIZE, data);
+        return data;
+    }
+
+    private List<Long> getRange(long firstEntry, long lastEntry) {
+        List<Long> entryIds = new ArrayList<>();
+        for (LedgerEntry entry : cache.getRange(LEDGER_ID, firstEntry, lastEntry)) {
+            assertEquals(entryIds.size() + firstEntry, entry.getEntryId());
+            assertEquals(entry.getEntryId(), entry.getEntryBuffer().getLong(0));
+            entryIds.add(entry.getEntryId());
+            entry.close();
+        }
+        return entryIds;
+    }
+
+    private long counter(String name) {
+        return statsProvider.getCounter(name).get();
+    }
+
+    @Test
+    public void testGetRangeReturnsCachedPrefix() {
+        put(0);
+        put(1);
+        put(3);
+
+        assertEquals(Arrays.asList(0L, 1L), getRange(0, 4));
+        // the entries after the first missing entry are counted as misses, even if they are cached
+        assertEquals(2, counter(ENTRY_CACHE_HITS));
+        assertEquals(3, counter(ENTRY_CACHE_MISSES));
+
+        assertEquals(Collections.emptyList(), getRange(2, 3));
+        assertEquals(2, counter(ENTRY_CACHE_HITS));
+        assertEquals(5, counter(ENTRY_CACHE_MISSES));
+        assertEquals(Arrays.asList(3L), getRange(3, 3));
+    }
+
+    @Test
+    public void testMissDoesNotTouchEntriesAfterIt() {
+        put(1);
+        put(2);
+        put(3);
+
+        // entry 0 is missing: entries 1-3 are not looked up, so entry 1 stays the least recently used
+        assertEquals(Collections.emptyList(), getRange(0, 3));
+        put(4);
+        assertEquals(Collections.emptyList(), getRange(1, 1));
+        assertEquals(Arrays.asList(2L, 3L, 4L), getRange(2, 4));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesEvicted() {
+        put(0);
+        put(1);
+        put(2);
+        assertEquals(3 * ENTRY_SIZE, cache.size());
+
+        // entry 0 is read, entry 1 is now the least recently used
+        assertEquals(Arrays.asList(0L), getRange(0, 0));
+        put(3);
+        assertEquals(3 * ENTRY_SIZE, cache.size());
+        assertEquals(Collections.emptyList(), getRange(1, 1));
+        assertEquals(Arrays.asList(2L, 3L), getRange(2, 3));
+        assertEquals(Arrays.asList(0L), getRange(0, 0));
+    }
+
+    @Test
+    public void testEntryLargerThanSegmentNotCached() {
+        ByteBuf data = Unpooled.buffer(4 * ENTRY_SIZE);
+        data.writeZero(4 * ENTRY_SIZE);
+        buffers.add(data);
+        cache.put(LEDGER_ID, 0, 4 * ENTRY_SIZE, data);
+        assertEquals(0, cache.size());
+        assertEquals(Collections.emptyList(), getRange(0, 0));
+    }
+
+    @Test
+    public void testBuffers() {
+        ByteBuf data = put(0);
+        // the entry is copied
+        assertEquals(1, data.refCnt());
+
+        LedgerEntry reader = cache.getRange(LEDGER_ID, 0, 0).get(0);
+        ByteBuf cached = reader.getEntryBuffer();
+        assertEquals(2, cached.refCnt());
+        assertEquals(data.resetReaderIndex(), cached);
+
+        // an entry evicted while it is read stays valid until the reader closes it
+        put(1);
+        put(2);
+        put(3);
+        assertEquals(Collections.emptyList(), getRange(0, 0));
+        assertEquals(1, cached.refCnt());
+        assertEquals(0L, cached.getLong(0));
+        reader.close();
+        assertEquals(0, cached.refCnt());
+    }
+
+    @Test
+    public void testCloseReleasesEntries() {
+        put(0);
+        LedgerEntry reader = cache.getRange(LEDGER_ID, 0, 0).get(0);
+        ByteBuf cached = reader.getEntryBuffer();
+
+        cache.close();
+        assertEquals(0, cache.size());
+        assertEquals(1, cached.refCnt());
+        reader.close();
+        assertEquals(0, cached.refCnt());
+
+        // the entries added after the close are dropped
+        put(1);
+        assertEquals(0, cache.size());
+        assertTrue(cache.getRange(LEDGER_ID, 1, 1).isEmpty());
+    }
+}
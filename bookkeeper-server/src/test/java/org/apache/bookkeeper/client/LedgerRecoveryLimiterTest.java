@@ -0,0 +1,76 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Test;
+
+/**
+ * Tests the permits of the {@link LedgerRecoveryLimiter}.
+ */
+public class LedgerRecoveryLimiterTest {
+
+    @Test
+    public void testUnlimited() {
+        LedgerRecoveryLimiter limiter = new LedgerRecoveryLimiter(0);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.acquire().isDone());
+        }
+        limiter.release();
+        assertTrue(limiter.acquire().isDone());
+    }
+
+    @Test
+    public void testWaitingRecoveriesStartInOrder() {
+        LedgerRecoveryLimiter limiter = new LedgerRecoveryLimiter(2);
+        assertTrue(limiter.acquire().isDone());
+        assertTrue(limiter.acquire().isDone());
+        List<CompletableFuture<Void>> waiting = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            waiting.add(limiter.acquire());
+            assertFalse(waiting.get(i).isDone());
+        }
+
+        // each release hands the permit over to the oldest waiting recovery
+        for (int i = 0; i < waiting.size(); i++) {
+            limiter.release();
+            for (int j = 0; j < waiting.size(); j++) {
+                assertTrue(waiting.get(j).isDone() == (j <= i));
+            }
+        }
+
+        // once no recovery waits, the permits are returned
+        limiter.release();
+        assertTrue(limiter.acquire().isDone());
+        assertFalse(limiter.acquire().isDone());
+        limiter.release();
+        limiter.release();
+        limiter.release();
+        assertTrue(limiter.acquire().isDone());
+        assertTrue(limiter.acquire().isDone());
+        assertFalse(limiter.acquire().isDone());
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.netty.buffer.Unpooled;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.BookKeeper.DigestType;
+import org.apache.bookkeeper.client.impl.LedgerEntryImpl;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.junit.Test;
+
+/**
+ * Tests the read window of the {@link LedgerRecoveryOp} and the {@link LedgerRecoveryLimiter} of the client.
+ */
+public class LedgerRecoveryOpTest extends BookKeeperClusterTestCase {
+
+    private static final byte[] PASSWD = "recovery".getBytes(StandardCharsets.UTF_8);
+    private static final int NUM_ENTRIES = 5;
+    private static final int OK = BKException.Code.OK;
+    private static final int NO_ENTRY = BKException.Code.NoSuchEntryException;
+
+    public LedgerRecoveryOpTest() {
+        super(3);
+        baseConf.setJournalRemovePagesFromCache(false);
+        baseClientConf.setRecoveryReadBatchSize(2);
+        baseClientConf.setRecoveryReadWindowSize(3);
+    }
+
+    private static byte[] entryData(long entryId) {
+        return ("entry-" + entryId).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class ReadBatch {
+        final long firstEntryId;
+        final long lastEntryId;
+        final Object ctx;
+
+        ReadBatch(long firstEntryId, long lastEntryId, Object ctx) {
+            this.firstEntryId = firstEntryId;
+            this.lastEntryId = lastEntryId;
+            this.ctx = ctx;
+        }
+    }
+
+    /**
+     * A recovery whose batches are completed by the test, in the order chosen by the test.
+     */
+    private static class TestRecoveryOp extends LedgerRecoveryOp {
+        final BlockingQueue<ReadBatch> batches = new LinkedBlockingQueue<>();
+
+        TestRecoveryOp(LedgerHandle lh, ClientContext clientCtx) {
+            super(lh, clientCtx);
+        }
+
+        @Override
+        void readBatch(long firstEntryId, long lastEntryId, Object ctx) {
+            batches.add(new ReadBatch(firstEntryId, lastEntryId, ctx));
+        }
+
+        ReadBatch nextBatch() throws InterruptedException {
+            ReadBatch batch = batches.poll(30, TimeUnit.SECONDS);
+            assertNotNull("no batch read", batch);
+            return batch;
+        }
+
+        void complete(ReadBatch batch, int... rcs) {
+            assertEquals(batch.lastEntryId - batch.firstEntryId + 1, rcs.length);
+            for (int i = 0; i < rcs.length; i++) {
+                long entryId = batch.firstEntryId + i;
+                if (rcs[i] != OK) {
+                    onEntryComplete(rcs[i], lh, null, batch.ctx);
+                    continue;
+                }
+                byte[] data = entryData(entryId);
+                LedgerEntryImpl entryImpl = LedgerEntryImpl.create(lh.getId(), entryId,
+                        entryId * 100 + data.length, Unpooled.wrappedBuffer(data));
+                try {
+                    onEntryComplete(rcs[i], lh, new LedgerEntry(entryImpl), batch.ctx);
+                } finally {
+                    entryImpl.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Start the recovery of a ledger with {@link #NUM_ENTRIES} entries, of which the last one is not confirmed.
+     */
+    private TestRecoveryOp startRecovery() throws Exception {
+        LedgerHandle writer = bkc.createLedger(3, 3, 2, DigestType.CRC32C, PASSWD);
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            writer.addEntry(entryData(i));
+        }
+        LedgerHandle lh = bkc.openLedgerNoRecovery(writer.getId(), DigestType.CRC32C, PASSWD);
+        TestRecoveryOp op = new TestRecoveryOp(lh, bkc.getClientCtx());
+        op.initiate();
+        return op;
+    }
+
+    private List<ReadBatch> readWindow(TestRecoveryOp op) throws Exception {
+        List<ReadBatch> window = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            window.add(op.nextBatch());
+        }
+        // the recovery starts after the last add confirmed, read from the bookies
+        for (int i = 0; i < window.size(); i++) {
+            assertEquals(NUM_ENTRIES - 1 + 2 * i, window.get(i).firstEntryId);
+            assertEquals(NUM_ENTRIES + 2 * i, window.get(i).lastEntryId);
+        }
+        assertTrue(op.batches.isEmpty());
+        return window;
+    }
+
+    private static void verifyEntries(LedgerHandle lh, long lastEntryId) throws Exception {
+        assertEquals(lastEntryId, lh.getLastAddConfirmed());
+        Enumeration<LedgerEntry> entries = lh.readEntries(0, lastEntryId);
+        long entryId = 0;
+        while (entries.hasMoreElements()) {
+            LedgerEntry entry = entries.nextElement();
+            assertEquals(entryId, entry.getEntryId());
+            assertArrayEquals(entryData(entryId), entry.getEntry());
+            entryId++;
+        }
+        assertEquals(lastEntryId + 1, entryId);
+    }
+
+    @Test
+    public void testGapInTailWithReadWindow() throws Exception {
+        TestRecoveryOp op = startRecovery();
+        List<ReadBatch> window = readWindow(op);
+        long first = window.get(0).firstEntryId;
+
+        // the first batch is done, the next batch is read
+        op.complete(window.get(0), OK, OK);
+        ReadBatch next = op.nextBatch();
+        assertEquals(first + 6, next.firstEntryId);
+
+        // an entry is missing in the second batch, the entries after the gap are not recovered
+        op.complete(window.get(1), NO_ENTRY, OK);
+        op.complete(window.get(2), OK, OK);
+        LedgerHandle lh = op.promise.get(30, TimeUnit.SECONDS);
+        assertEquals(2, op.readCount.get());
+        assertEquals(2, op.writeCount.get());
+
+        // the batches still in flight once the end of the ledger is found are ignored
+        op.complete(next, OK, OK);
+        assertTrue(op.batches.isEmpty());
+        verifyEntries(lh, first + 1);
+    }
+
+    @Test
+    public void testNoSuchEntryOfEarlierBatchAfterLaterBatch() throws Exception {
+        TestRecoveryOp op = startRecovery();
+        List<ReadBatch> window = readWindow(op);
+        long first = window.get(0).firstEntryId;
+
+        // the later batches are read first, their entries wait for the entries of the first batch
+        op.complete(window.get(2), OK, OK);
+        op.complete(window.get(1), OK, OK);
+        assertEquals(0, op.readCount.get());
+        assertEquals(2, op.batches.size());
+        assertFalse(op.promise.isDone());
+
+        // the end of the ledger is found in the first batch, the entries read after it are dropped
+        op.complete(window.get(0), OK, NO_ENTRY);
+        LedgerHandle lh = op.promise.get(30, TimeUnit.SECONDS);
+        assertEquals(1, op.readCount.get());
+        assertEquals(1, op.writeCount.get());
+        verifyEntries(lh, first);
+    }
+
+    @Test
+    public void testReadErrorMidWindow() throws Exception {
+        TestRecoveryOp op = startRecovery();
+        List<ReadBatch> window = readWindow(op);
+
+        op.complete(window.get(1), OK, BKException.Code.ReadException);
+        try {
+            op.promise.get(30, TimeUnit.SECONDS);
+            fail("the recovery should fail on a read error");
+        } catch (ExecutionException e) {
+            assertEquals(BKException.Code.ReadException, BKException.getExceptionCode(e.getCause()));
+        }
+
+        // the entries read after the failure are not added again and no more batches are read
+        op.complete(window.get(0), OK, OK);
+        op.complete(window.get(2), OK, OK);
+        assertEquals(0, op.readCount.get());
+        assertTrue(op.batches.isEmpty());
+    }
+
+    private static CompletableFuture<LedgerHandle> openWithRecovery(BookKeeper bk, long ledgerId) {
+        CompletableFuture<LedgerHandle> future = new CompletableFuture<>();
+        bk.asyncOpenLedger(ledgerId, DigestType.CRC32C, PASSWD, (rc, lh, ctx) -> {
+            if (rc == BKException.Code.OK) {
+                future.complete(lh);
+            } else {
+                future.completeExceptionally(BKException.create(rc));
+            }
+        }, null);
+        return future;
+    }
+
+    @Test
+    public void testPermitReleasedWhenRecoveryFails() throws Exception {
+        List<Long> ledgers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            LedgerHandle writer = bkc.createLedger(3, 3, 2, DigestType.CRC32C, PASSWD);
+            writer.addEntry(entryData(0));
+            writer.addEntry(entryData(1));
+            ledgers.add(writer.getId());
+        }
+
+        ClientConfiguration conf = new ClientConfiguration(baseClientConf);
+        conf.setMaxConcurrentRecoveries(1);
+        try (BookKeeper bk = new BookKeeperTestClient(conf)) {
+            List<ServerConfiguration> confs = new ArrayList<>();
+            while (bookieCount() > 0) {
+                confs.add(killBookie(0));
+            }
+            // the ledger cannot be fenced without bookies
+            try {
+                openWithRecovery(bk, ledgers.get(0)).get(30, TimeUnit.SECONDS);
+                fail("the recovery should fail without bookies");
+            } catch (ExecutionException e) {
+                // expected
+            }
+
+            // the permit of the failed recovery was released
+            for (ServerConfiguration bookieConf : confs) {
+                startAndAddBookie(bookieConf);
+            }
+            LedgerHandle lh = openWithRecovery(bk, ledgers.get(1)).get(30, TimeUnit.SECONDS);
+            assertEquals(1, lh.getLastAddConfirmed());
+            lh = openWithRecovery(bk, ledgers.get(0)).get(30, TimeUnit.SECONDS);
+            assertEquals(1, lh.getLastAddConfirmed());
+        }
+    }
+}
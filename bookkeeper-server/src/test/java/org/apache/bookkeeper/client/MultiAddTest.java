@@ -0,0 +1,89 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.client.BookKeeper.DigestType;
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.junit.Test;
+
+/**
+ * Tests the adds of several ledgers sent to the bookies in multi add requests.
+ */
+public class MultiAddTest extends BookKeeperClusterTestCase {
+
+    private static final byte[] PASSWD = "multi".getBytes(StandardCharsets.UTF_8);
+    private static final int NUM_LEDGERS = 3;
+    private static final int NUM_ENTRIES = 200;
+
+    public MultiAddTest() {
+        super(3);
+        baseConf.setJournalRemovePagesFromCache(false);
+        baseClientConf.setUseV2WireProtocol(true);
+        baseClientConf.setMultiAddEnabled(true);
+    }
+
+    private static byte[] entryData(long ledgerId, long entryId) {
+        return ("entry-" + ledgerId + "-" + entryId).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testInterleavedAddsOfSeveralLedgers() throws Exception {
+        List<LedgerHandle> ledgers = new ArrayList<>();
+        for (int i = 0; i < NUM_LEDGERS; i++) {
+            LedgerHandle lh = bkc.createLedger(3, 3, 2, DigestType.CRC32C, PASSWD);
+            // the first add tells the client whether the bookies support multi adds
+            lh.addEntry(entryData(lh.getId(), 0));
+            ledgers.add(lh);
+        }
+
+        // the adds queued while the event loops are busy go out in multi add requests
+        List<CompletableFuture<Long>> adds = new ArrayList<>();
+        for (int entryId = 1; entryId < NUM_ENTRIES; entryId++) {
+            for (LedgerHandle lh : ledgers) {
+                adds.add(lh.appendAsync(entryData(lh.getId(), entryId)));
+            }
+        }
+        for (int i = 0; i < adds.size(); i++) {
+            assertEquals(i / NUM_LEDGERS + 1, adds.get(i).get().longValue());
+        }
+
+        for (LedgerHandle lh : ledgers) {
+            lh.close();
+            try (LedgerEntries entries = lh.readAsync(0, NUM_ENTRIES - 1).get()) {
+                long entryId = 0;
+                for (LedgerEntry entry : entries) {
+                    assertEquals(entryId, entry.getEntryId());
+                    assertArrayEquals(entryData(lh.getId(), entryId), entry.getEntryBytes());
+                    entryId++;
+                }
+                assertEquals(NUM_ENTRIES, entryId);
+            }
+        }
+    }
+}
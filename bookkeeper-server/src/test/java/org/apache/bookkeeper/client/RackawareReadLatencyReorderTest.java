@@ -0,0 +1,180 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertEquals;
+
+import io.netty.util.HashedWheelTimer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.feature.SettableFeatureProvider;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.net.BookieSocketAddress;
+import org.apache.bookkeeper.net.NetworkTopology;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the latency aware ordering of the reads of the {@link RackawareEnsemblePlacementPolicyImpl}.
+ */
+public class RackawareReadLatencyReorderTest {
+
+    private final HashedWheelTimer timer = new HashedWheelTimer();
+    private final List<BookieId> ensemble = new ArrayList<>();
+    private final Map<BookieId, Long> latencies = new HashMap<>();
+    private final Map<BookieId, Long> pendingRequests = new HashMap<>();
+    private final BookiesHealthInfo healthInfo = new BookiesHealthInfo() {
+        @Override
+        public long getBookieFailureHistory(BookieId bookieSocketAddress) {
+            return -1L;
+        }
+
+        @Override
+        public long getBookiePendingRequests(BookieId bookieSocketAddress) {
+            return pendingRequests.getOrDefault(bookieSocketAddress, 0L);
+        }
+
+        @Override
+        public long getBookieReadLatencyNanos(BookieId bookieSocketAddress) {
+            return latencies.getOrDefault(bookieSocketAddress, -1L);
+        }
+    };
+    private final List<RackawareEnsemblePlacementPolicy> policies = new ArrayList<>();
+
+    @Before
+    public void setup() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            ensemble.add(new BookieSocketAddress("127.0.0." + (i + 1), 3181).toBookieId());
+        }
+    }
+
+    @After
+    public void teardown() {
+        policies.forEach(RackawareEnsemblePlacementPolicy::uninitalize);
+        timer.stop();
+    }
+
+    private RackawareEnsemblePlacementPolicy newPolicy(ClientConfiguration conf) {
+        RackawareEnsemblePlacementPolicy policy = new RackawareEnsemblePlacementPolicy();
+        policy.initialize(conf,
+                Optional.of(new TopologyAwareEnsemblePlacementPolicy.DefaultResolver(
+                        () -> NetworkTopology.DEFAULT_REGION_AND_RACK)),
+                timer, SettableFeatureProvider.DISABLE_ALL, NullStatsLogger.INSTANCE,
+                new BookieAddressResolverDisabled());
+        policy.onClusterChanged(new HashSet<>(ensemble), Collections.emptySet());
+        policies.add(policy);
+        return policy;
+    }
+
+    private RackawareEnsemblePlacementPolicy newLatencyAwarePolicy() {
+        return newPolicy(new ClientConfiguration().setReorderReadLatencyAware(true));
+    }
+
+    private void setLatencyMillis(long... millis) {
+        for (int i = 0; i < millis.length; i++) {
+            latencies.put(ensemble.get(i), millis[i] < 0 ? -1L : TimeUnit.MILLISECONDS.toNanos(millis[i]));
+        }
+    }
+
+    private void setPendingRequests(long... pending) {
+        for (int i = 0; i < pending.length; i++) {
+            pendingRequests.put(ensemble.get(i), pending[i]);
+        }
+    }
+
+    private List<Integer> readSequence(RackawareEnsemblePlacementPolicy policy) {
+        DistributionSchedule.WriteSet writeSet = new RoundRobinDistributionSchedule(3, 2, 3).getWriteSet(0);
+        DistributionSchedule.WriteSet ordered = policy.reorderReadSequence(ensemble, healthInfo, writeSet);
+        List<Integer> sequence = new ArrayList<>();
+        for (int i = 0; i < ordered.size(); i++) {
+            sequence.add(ordered.get(i));
+        }
+        ordered.recycle();
+        return sequence;
+    }
+
+    @Test
+    public void testReadLatencyScore() {
+        assertEquals(1000.0, RackawareEnsemblePlacementPolicyImpl.readLatencyScore(1000, 0), 0.0);
+        // the pending requests are penalized cubically
+        assertEquals(8000.0, RackawareEnsemblePlacementPolicyImpl.readLatencyScore(1000, 1), 0.0);
+        assertEquals(27000.0, RackawareEnsemblePlacementPolicyImpl.readLatencyScore(1000, 2), 0.0);
+        // a zero latency still lets the pending requests be compared
+        assertEquals(8.0, RackawareEnsemblePlacementPolicyImpl.readLatencyScore(0, 1), 0.0);
+    }
+
+    @Test
+    public void testBestScoreFirst() {
+        RackawareEnsemblePlacementPolicy policy = newLatencyAwarePolicy();
+
+        setLatencyMillis(10, 2, 5);
+        // only the best bookie is moved ahead, the others keep their order
+        assertEquals(Arrays.asList(1, 0, 2), readSequence(policy));
+
+        // the fastest bookie has too many pending requests
+        setPendingRequests(0, 2, 0);
+        assertEquals(Arrays.asList(2, 0, 1), readSequence(policy));
+
+        // the first bookie is already the best one
+        setLatencyMillis(1, 2, 5);
+        assertEquals(Arrays.asList(0, 1, 2), readSequence(policy));
+    }
+
+    @Test
+    public void testBookieWithoutEstimateAssumedAverage() {
+        RackawareEnsemblePlacementPolicy policy = newLatencyAwarePolicy();
+
+        // the second bookie is assumed to take 20ms, like the average of the others
+        setLatencyMillis(30, -1, 10);
+        assertEquals(Arrays.asList(2, 0, 1), readSequence(policy));
+
+        setLatencyMillis(30, -1, 50);
+        assertEquals(Arrays.asList(0, 1, 2), readSequence(policy));
+
+        // without any estimate the bookies are ordered by pending requests
+        setLatencyMillis(-1, -1, -1);
+        setPendingRequests(5, 1, 3);
+        assertEquals(Arrays.asList(1, 0, 2), readSequence(policy));
+    }
+
+    @Test
+    public void testNoSlowBookiesWhenLatencyAware() {
+        RackawareEnsemblePlacementPolicy policy = newLatencyAwarePolicy();
+        setLatencyMillis(1, 1, 1);
+        policy.registerSlowBookie(ensemble.get(0), 0);
+        // the slow bookie is not moved to the end, its latency estimate is used instead
+        assertEquals(Arrays.asList(0, 1, 2), readSequence(policy));
+
+        RackawareEnsemblePlacementPolicy defaultPolicy = newPolicy(new ClientConfiguration());
+        defaultPolicy.registerSlowBookie(ensemble.get(0), 0);
+        assertEquals(Arrays.asList(1, 2, 0), readSequence(defaultPolicy));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.apache.bookkeeper.client.BookKeeperClientStats.REQUEST_TIMER_LAG;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.test.TestStatsProvider;
+import org.awaitility.Awaitility;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the timeouts and the lag probe of the {@link RequestTimer}.
+ */
+public class RequestTimerTest {
+
+    private final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+    private final TestStatsProvider statsProvider = new TestStatsProvider();
+    private final RequestTimer requestTimer = new RequestTimer(timer,
+            BookKeeperClientStats.newInstance(statsProvider.getStatsLogger("")));
+
+    @After
+    public void teardown() {
+        requestTimer.close();
+        timer.stop();
+    }
+
+    @Test
+    public void testTimeoutRunsUnlessCancelled() throws Exception {
+        CountDownLatch fired = new CountDownLatch(1);
+        AtomicInteger cancelledRuns = new AtomicInteger();
+        Timeout cancelled = requestTimer.newTimeout(t -> cancelledRuns.incrementAndGet(), 50, TimeUnit.MILLISECONDS);
+        Timeout timeout = requestTimer.newTimeout(t -> fired.countDown(), 50, TimeUnit.MILLISECONDS);
+        assertNotNull(timeout);
+        assertTrue(cancelled.cancel());
+
+        assertTrue(fired.await(10, TimeUnit.SECONDS));
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.cancel());
+        assertEquals(0, cancelledRuns.get());
+    }
+
+    @Test
+    public void testPeriodicRunsUntilCancelled() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        RequestTimer.Periodic periodic = requestTimer.schedulePeriodic(() -> {
+            runs.incrementAndGet();
+            throw new RuntimeException("the task keeps being scheduled after a failure");
+        }, 20, TimeUnit.MILLISECONDS);
+        Awaitility.await().until(() -> runs.get() >= 3);
+
+        periodic.cancel();
+        int runsAfterCancel = runs.get();
+        Thread.sleep(200);
+        // a run may have been in progress when the task was cancelled
+        assertTrue(runs.get() <= runsAfterCancel + 1);
+    }
+
+    @Test
+    public void testLagOfBlockedTimer() throws Exception {
+        assertEquals(0L, statsProvider.getGauge(REQUEST_TIMER_LAG).getSample().longValue());
+
+        // the timer thread is blocked past the deadline of the probe
+        long blockMillis = RequestTimer.LAG_PROBE_INTERVAL_MS + 500;
+        requestTimer.newTimeout(t -> Thread.sleep(blockMillis), 0, TimeUnit.MILLISECONDS);
+        Awaitility.await().until(() -> requestTimer.getLagMillis() >= 200);
+        assertTrue(statsProvider.getGauge(REQUEST_TIMER_LAG).getSample().longValue() >= 200);
+
+        // the next probes run on time once the timer catches up
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() -> requestTimer.getLagMillis() < 200);
+    }
+
+    @Test
+    public void testNoTimeoutOnStoppedTimer() {
+        timer.stop();
+        assertNull(requestTimer.newTimeout(t -> { }, 10, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Tests the encoding of the batched entries of {@link BatchedReadHandleImpl}.
+ */
+public class BatchedReadHandleImplTest {
+
+    private static ByteBuf record(String data) {
+        // not a wrapped buffer, which would be the unreleasable empty buffer for the empty records
+        return Unpooled.buffer(16).writeBytes(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void verifyRoundTrip(String... data) {
+        List<ByteBuf> records = new ArrayList<>();
+        for (String d : data) {
+            records.add(record(d));
+        }
+
+        ByteBuf entry = BatchedReadHandleImpl.encode(ByteBufAllocator.DEFAULT, records);
+        try {
+            List<ByteBuf> decoded = BatchedReadHandleImpl.decode(entry);
+            assertEquals(data.length, decoded.size());
+            for (int i = 0; i < data.length; i++) {
+                assertEquals(data[i], decoded.get(i).toString(StandardCharsets.UTF_8));
+            }
+            // the records were released by the encoding
+            records.forEach(r -> assertEquals(0, r.refCnt()));
+        } finally {
+            entry.release();
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        verifyRoundTrip("first", "second", "third");
+    }
+
+    @Test
+    public void testRoundTripSingleRecord() {
+        verifyRoundTrip("single");
+    }
+
+    @Test
+    public void testRoundTripEmptyRecords() {
+        verifyRoundTrip("", "not empty", "");
+    }
+
+    @Test
+    public void testDecodeWithReaderIndex() {
+        ByteBuf entry = BatchedReadHandleImpl.encode(ByteBufAllocator.DEFAULT,
+                new ArrayList<>(Collections.singletonList(record("data"))));
+        ByteBuf prefixed = Unpooled.buffer();
+        prefixed.writeLong(1234L);
+        prefixed.writeBytes(entry);
+        prefixed.skipBytes(Long.BYTES);
+        try {
+            List<ByteBuf> decoded = BatchedReadHandleImpl.decode(prefixed);
+            assertEquals(1, decoded.size());
+            assertEquals("data", decoded.get(0).toString(StandardCharsets.UTF_8));
+        } finally {
+            entry.release();
+            prefixed.release();
+        }
+    }
+
+    private static void verifyInvalid(ByteBuf entry) {
+        try {
+            BatchedReadHandleImpl.decode(entry);
+            fail("The entry should not be decoded");
+        } catch (IllegalArgumentException e) {
+            // expected
+        } finally {
+            entry.release();
+        }
+    }
+
+    @Test
+    public void testDecodeInvalidEntries() {
+        // too short for the header
+        verifyInvalid(Unpooled.wrappedBuffer(new byte[2]));
+        // no records
+        verifyInvalid(Unpooled.buffer().writeInt(0));
+        // record longer than the entry
+        verifyInvalid(Unpooled.buffer().writeInt(1).writeInt(10).writeBytes(new byte[5]));
+        // bytes after the records
+        verifyInvalid(Unpooled.buffer().writeInt(1).writeInt(2).writeBytes(new byte[5]));
+    }
+}
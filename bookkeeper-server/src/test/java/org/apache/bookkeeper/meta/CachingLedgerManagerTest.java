@@ -0,0 +1,333 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.meta;
+
+import static org.apache.bookkeeper.client.BookKeeperClientStats.LEDGER_METADATA_CACHE_HITS;
+import static org.apache.bookkeeper.client.BookKeeperClientStats.LEDGER_METADATA_CACHE_MISSES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeperClientStats;
+import org.apache.bookkeeper.client.LedgerMetadataBuilder;
+import org.apache.bookkeeper.client.api.DigestType;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.LedgerMetadataListener;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.Processor;
+import org.apache.bookkeeper.test.TestStatsProvider;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Version;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.apache.zookeeper.AsyncCallback;
+import org.junit.Test;
+
+/**
+ * Tests the caching of the ledger metadata by the {@link CachingLedgerManager}.
+ */
+public class CachingLedgerManagerTest {
+
+    private static final List<BookieId> ENSEMBLE = Arrays.asList(
+            BookieId.parse("bookie-1:3181"), BookieId.parse("bookie-2:3181"));
+    private static final List<BookieId> NEW_ENSEMBLE = Arrays.asList(
+            BookieId.parse("bookie-1:3181"), BookieId.parse("bookie-3:3181"));
+
+    /**
+     * A ledger manager keeping the metadata in memory, whose listeners are notified by the test.
+     */
+    private static class MemoryLedgerManager implements LedgerManager {
+        final Map<Long, Versioned<LedgerMetadata>> ledgers = new ConcurrentHashMap<>();
+        final Map<Long, Set<LedgerMetadataListener>> listeners = new ConcurrentHashMap<>();
+        final AtomicInteger reads = new AtomicInteger();
+        volatile CompletableFuture<Void> blockedReads = null;
+
+        void put(long ledgerId, LedgerMetadata metadata) {
+            Versioned<LedgerMetadata> current = ledgers.get(ledgerId);
+            long version = current == null ? 0 : ((LongVersion) current.getVersion()).getLongVersion() + 1;
+            ledgers.put(ledgerId, new Versioned<>(metadata, new LongVersion(version)));
+        }
+
+        void notifyListeners(long ledgerId) {
+            Versioned<LedgerMetadata> metadata = ledgers.get(ledgerId);
+            Set<LedgerMetadataListener> listenerSet = metadata == null
+                    ? listeners.remove(ledgerId) : listeners.get(ledgerId);
+            if (listenerSet != null) {
+                for (LedgerMetadataListener listener : listenerSet) {
+                    listener.onChanged(ledgerId, metadata);
+                }
+            }
+        }
+
+        int numListeners(long ledgerId) {
+            Set<LedgerMetadataListener> listenerSet = listeners.get(ledgerId);
+            return listenerSet == null ? 0 : listenerSet.size();
+        }
+
+        @Override
+        public CompletableFuture<Versioned<LedgerMetadata>> createLedgerMetadata(long ledgerId,
+                                                                                 LedgerMetadata metadata) {
+            put(ledgerId, metadata);
+            return FutureUtils.value(ledgers.get(ledgerId));
+        }
+
+        @Override
+        public CompletableFuture<Void> removeLedgerMetadata(long ledgerId, Version version) {
+            ledgers.remove(ledgerId);
+            return FutureUtils.Void();
+        }
+
+        @Override
+        public CompletableFuture<Versioned<LedgerMetadata>> readLedgerMetadata(long ledgerId) {
+            reads.incrementAndGet();
+            CompletableFuture<Void> blocked = blockedReads;
+            CompletableFuture<Void> ready = blocked == null ? FutureUtils.Void() : blocked;
+            return ready.thenCompose((ignored) -> {
+                Versioned<LedgerMetadata> metadata = ledgers.get(ledgerId);
+                return metadata == null
+                        ? FutureUtils.exception(new BKException.BKNoSuchLedgerExistsOnMetadataServerException())
+                        : FutureUtils.value(metadata);
+            });
+        }
+
+        @Override
+        public CompletableFuture<Versioned<LedgerMetadata>> writeLedgerMetadata(long ledgerId,
+                                                                                LedgerMetadata metadata,
+                                                                                Version currentVersion) {
+            Versioned<LedgerMetadata> current = ledgers.get(ledgerId);
+            if (current.getVersion().compare(currentVersion) == Version.Occurred.CONCURRENTLY) {
+                put(ledgerId, metadata);
+                return FutureUtils.value(ledgers.get(ledgerId));
+            }
+            return FutureUtils.exception(new BKException.BKMetadataVersionException());
+        }
+
+        @Override
+        public void registerLedgerMetadataListener(long ledgerId, LedgerMetadataListener listener) {
+            listeners.computeIfAbsent(ledgerId, (id) -> ConcurrentHashMap.newKeySet()).add(listener);
+        }
+
+        @Override
+        public void unregisterLedgerMetadataListener(long ledgerId, LedgerMetadataListener listener) {
+            Set<LedgerMetadataListener> listenerSet = listeners.get(ledgerId);
+            if (listenerSet != null) {
+                listenerSet.remove(listener);
+            }
+        }
+
+        @Override
+        public void asyncProcessLedgers(Processor<Long> processor, AsyncCallback.VoidCallback finalCb,
+                                        Object context, int successRc, int failureRc) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public LedgerRangeIterator getLedgerRanges(long zkOpTimeOutMs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private final MemoryLedgerManager underlying = new MemoryLedgerManager();
+    private final TestStatsProvider statsProvider = new TestStatsProvider();
+
+    private CachingLedgerManager newCachingLedgerManager(long maxSize) {
+        return new CachingLedgerManager(underlying, maxSize,
+                BookKeeperClientStats.newInstance(statsProvider.getStatsLogger("")));
+    }
+
+    private static LedgerMetadataBuilder ledger(long ledgerId, List<BookieId> ensemble) {
+        return LedgerMetadataBuilder.create()
+                .withId(ledgerId)
+                .withDigestType(DigestType.CRC32C)
+                .withPassword("pwd".getBytes(StandardCharsets.UTF_8))
+                .withEnsembleSize(2).withWriteQuorumSize(2).withAckQuorumSize(2)
+                .newEnsembleEntry(0L, ensemble);
+    }
+
+    private static LedgerMetadata closedLedger(long ledgerId, List<BookieId> ensemble) {
+        return ledger(ledgerId, ensemble).withClosedState().withLastEntryId(9).withLength(100).build();
+    }
+
+    private static LedgerMetadata openLedger(long ledgerId) {
+        return ledger(ledgerId, ENSEMBLE).build();
+    }
+
+    private long counter(String name) {
+        return statsProvider.getCounter(name).get();
+    }
+
+    @Test
+    public void testClosedLedgerIsCachedAndWatched() throws Exception {
+        CachingLedgerManager lm = newCachingLedgerManager(10);
+        underlying.put(1, closedLedger(1, ENSEMBLE));
+
+        Versioned<LedgerMetadata> first = lm.readLedgerMetadata(1).get();
+        Versioned<LedgerMetadata> second = lm.readLedgerMetadata(1).get();
+        assertSame(first, second);
+        assertEquals(1, underlying.reads.get());
+        assertEquals(1, counter(LEDGER_METADATA_CACHE_HITS));
+        assertEquals(1, counter(LEDGER_METADATA_CACHE_MISSES));
+        assertEquals(1, underlying.numListeners(1));
+    }
+
+    @Test
+    public void testEnsembleReplacementOfClosedLedgerUpdatesCache() throws Exception {
+        CachingLedgerManager lm = newCachingLedgerManager(10);
+        underlying.put(1, closedLedger(1, ENSEMBLE));
+        lm.readLedgerMetadata(1).get();
+
+        // the re-replication replaces a bookie of the closed ledger
+        underlying.put(1, closedLedger(1, NEW_ENSEMBLE));
+        underlying.notifyListeners(1);
+        assertEquals(NEW_ENSEMBLE, lm.readLedgerMetadata(1).get().getValue().getEnsembleAt(0L));
+        assertEquals(1, underlying.reads.get());
+    }
+
+    @Test
+    public void testDeletedLedgerIsInvalidated() throws Exception {
+        CachingLedgerManager lm = newCachingLedgerManager(10);
+        underlying.put(1, closedLedger(1, ENSEMBLE));
+        lm.readLedgerMetadata(1).get();
+
+        underlying.ledgers.remove(1L);
+        underlying.notifyListeners(1);
+        assertNull(lm.getCachedMetadata(1));
+        try {
+            lm.readLedgerMetadata(1).get();
+            fail("the ledger is deleted");
+        } catch (ExecutionException e) {
+            assertEquals(BKException.Code.NoSuchLedgerExistsOnMetadataServerException,
+                    BKException.getExceptionCode(e.getCause()));
+        }
+        assertNull(lm.getCachedMetadata(1));
+    }
+
+    @Test
+    public void testConcurrentMissesShareRead() throws Exception {
+        CachingLedgerManager lm = newCachingLedgerManager(10);
+        underlying.put(1, closedLedger(1, ENSEMBLE));
+        underlying.blockedReads = new CompletableFuture<>();
+
+        CompletableFuture<Versioned<LedgerMetadata>> first = lm.readLedgerMetadata(1);
+        CompletableFuture<Versioned<LedgerMetadata>> second = lm.readLedgerMetadata(1);
+        assertEquals(1, underlying.reads.get());
+        assertEquals(2, counter(LEDGER_METADATA_CACHE_MISSES));
+
+        underlying.blockedReads.complete(null);
+        assertSame(first.get(), second.get());
+        assertNotNull(lm.getCachedMetadata(1));
+        assertEquals(1, underlying.numListeners(1));
+    }
+
+    @Test
+    public void testEvictedLedgerIsUnwatched() throws Exception {
+        CachingLedgerManager lm = newCachingLedgerManager(2);
+        for (long ledgerId = 1; ledgerId <= 3; ledgerId++) {
+            underlying.put(ledgerId, closedLedger(ledgerId, ENSEMBLE));
+            lm.readLedgerMetadata(ledgerId).get();
+        }
+
+        assertNull(lm.getCachedMetadata(1));
+        assertEquals(0, underlying.numListeners(1));
+        assertEquals(1, underlying.numListeners(2));
+        assertEquals(1, underlying.numListeners(3));
+    }
+
+    @Test
+    public void testOpenLedgersDoNotEvictClosedLedgers() throws Exception {
+        CachingLedgerManager lm = newCachingLedgerManager(2);
+        for (long ledgerId = 1; ledgerId <= 2; ledgerId++) {
+            underlying.put(ledgerId, closedLedger(ledgerId, ENSEMBLE));
+            lm.readLedgerMetadata(ledgerId).get();
+        }
+        for (long ledgerId = 3; ledgerId <= 6; ledgerId++) {
+            underlying.put(ledgerId, openLedger(ledgerId));
+            lm.readLedgerMetadata(ledgerId).get();
+        }
+
+        assertNotNull(lm.getCachedMetadata(1));
+        assertNotNull(lm.getCachedMetadata(2));
+        assertNull(lm.getCachedMetadata(3));
+        assertNull(lm.getCachedMetadata(4));
+        assertNotNull(lm.getCachedMetadata(6));
+    }
+
+    @Test
+    public void testClosingOpenLedgerKeepsItWatched() throws Exception {
+        CachingLedgerManager lm = newCachingLedgerManager(2);
+        underlying.put(1, openLedger(1));
+        Versioned<LedgerMetadata> open = lm.readLedgerMetadata(1).get();
+
+        Versioned<LedgerMetadata> closed = lm.writeLedgerMetadata(1, closedLedger(1, ENSEMBLE),
+                open.getVersion()).get();
+        assertSame(closed, lm.getCachedMetadata(1));
+        assertTrue(closed.getValue().isClosed());
+        assertEquals(1, underlying.numListeners(1));
+
+        // the open ledgers evicted later do not evict the closed ledger
+        for (long ledgerId = 2; ledgerId <= 4; ledgerId++) {
+            underlying.put(ledgerId, openLedger(ledgerId));
+            lm.readLedgerMetadata(ledgerId).get();
+        }
+        assertSame(closed, lm.getCachedMetadata(1));
+        assertEquals(1, underlying.numListeners(1));
+    }
+
+    @Test
+    public void testVersionConflictInvalidatesCache() throws Exception {
+        CachingLedgerManager lm = newCachingLedgerManager(10);
+        underlying.put(1, openLedger(1));
+        Versioned<LedgerMetadata> cached = lm.readLedgerMetadata(1).get();
+
+        // a change made by another client, not seen by the watch yet
+        underlying.put(1, ledger(1, ENSEMBLE).withInRecoveryState().build());
+        try {
+            lm.writeLedgerMetadata(1, closedLedger(1, ENSEMBLE), cached.getVersion()).get();
+            fail("the cached version is stale");
+        } catch (ExecutionException e) {
+            assertEquals(BKException.Code.MetadataVersionException, BKException.getExceptionCode(e.getCause()));
+        }
+        assertNull(lm.getCachedMetadata(1));
+        assertEquals(0, underlying.numListeners(1));
+
+        Versioned<LedgerMetadata> latest = lm.readLedgerMetadata(1).get();
+        assertEquals(1L, ((LongVersion) latest.getVersion()).getLongVersion());
+        assertEquals(new HashSet<>(Arrays.asList(1L)), underlying.listeners.keySet());
+    }
+}
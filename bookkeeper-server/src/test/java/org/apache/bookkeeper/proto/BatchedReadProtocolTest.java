@@ -0,0 +1,173 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.protobuf.ExtensionRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.nio.charset.StandardCharsets;
+import org.apache.bookkeeper.proto.BookieProtocol.PacketHeader;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.junit.Test;
+
+/**
+ * Tests the encoding of the batched read requests and responses of the v2 protocol.
+ */
+public class BatchedReadProtocolTest {
+
+    private final BookieProtoEncoding.RequestEnDeCoderPreV3 requestCodec =
+            new BookieProtoEncoding.RequestEnDeCoderPreV3(ExtensionRegistry.newInstance());
+    private final BookieProtoEncoding.ResponseEnDeCoderPreV3 responseCodec =
+            new BookieProtoEncoding.ResponseEnDeCoderPreV3(ExtensionRegistry.newInstance());
+
+    private static ByteBuf toFrame(Object encoded) {
+        ByteBuf buf;
+        if (encoded instanceof ByteBufList) {
+            buf = ByteBufList.coalesce((ByteBufList) encoded);
+            ((ByteBufList) encoded).release();
+        } else {
+            buf = (ByteBuf) encoded;
+        }
+        int frameSize = buf.readInt();
+        assertEquals(frameSize, buf.readableBytes());
+        return buf;
+    }
+
+    private static ByteBuf entry(int index, int size) {
+        byte[] data = new byte[size];
+        byte[] prefix = ("entry-" + index).getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(prefix, 0, data, 0, Math.min(prefix.length, size));
+        return Unpooled.wrappedBuffer(data);
+    }
+
+    @Test
+    public void testRequestRoundTrip() throws Exception {
+        Object encoded = requestCodec.encode(BookieProtocol.BatchedReadRequest.create(
+                BookieProtocol.CURRENT_PROTOCOL_VERSION, 5L, 10L, 100, 1024 * 1024L, BookieProtocol.FLAG_NONE),
+                ByteBufAllocator.DEFAULT);
+        ByteBuf frame = toFrame(encoded);
+        try {
+            Object decoded = requestCodec.decode(frame);
+            assertTrue(decoded instanceof BookieProtocol.BatchedReadRequest);
+            BookieProtocol.BatchedReadRequest request = (BookieProtocol.BatchedReadRequest) decoded;
+            assertEquals(BookieProtocol.BATCH_READ_ENTRY, request.getOpCode());
+            assertEquals(5L, request.getLedgerId());
+            assertEquals(10L, request.getEntryId());
+            assertEquals(100, request.getMaxCount());
+            assertEquals(1024 * 1024L, request.getMaxSize());
+            assertEquals(0, frame.readableBytes());
+        } finally {
+            frame.release();
+        }
+    }
+
+    private void verifyResponseRoundTrip(int numEntries, int entrySize) throws Exception {
+        ByteBufList data = ByteBufList.get();
+        for (int i = 0; i < numEntries; i++) {
+            data.add(entry(i, entrySize));
+        }
+        BookieProtocol.BatchedReadResponse response = new BookieProtocol.BatchedReadResponse(
+                BookieProtocol.CURRENT_PROTOCOL_VERSION, BookieProtocol.EOK, 5L, 10L, data);
+
+        ByteBuf frame = toFrame(responseCodec.encode(response, ByteBufAllocator.DEFAULT));
+        BookieProtocol.BatchedReadResponse decoded =
+                (BookieProtocol.BatchedReadResponse) responseCodec.decode(frame);
+        try {
+            assertEquals(BookieProtocol.EOK, decoded.getErrorCode());
+            assertEquals(5L, decoded.getLedgerId());
+            assertEquals(10L, decoded.getEntryId());
+            assertTrue(decoded.isBatchReadSupported());
+            assertEquals(numEntries, decoded.getData().size());
+            for (int i = 0; i < numEntries; i++) {
+                ByteBuf expected = entry(i, entrySize);
+                assertEquals(expected, decoded.getData().getBuffer(i));
+            }
+        } finally {
+            decoded.release();
+            frame.release();
+        }
+    }
+
+    @Test
+    public void testSmallResponseRoundTrip() throws Exception {
+        verifyResponseRoundTrip(10, 100);
+    }
+
+    @Test
+    public void testLargeResponseRoundTrip() throws Exception {
+        // larger than the small entry threshold, so the entries are not copied in the headers buffer
+        verifyResponseRoundTrip(3, BookieProtoEncoding.SMALL_ENTRY_SIZE_THRESHOLD);
+    }
+
+    @Test
+    public void testErrorResponseRoundTrip() throws Exception {
+        BookieProtocol.BatchedReadResponse response = new BookieProtocol.BatchedReadResponse(
+                BookieProtocol.CURRENT_PROTOCOL_VERSION, BookieProtocol.ENOENTRY, 5L, 10L);
+
+        ByteBuf frame = toFrame(responseCodec.encode(response, ByteBufAllocator.DEFAULT));
+        BookieProtocol.BatchedReadResponse decoded =
+                (BookieProtocol.BatchedReadResponse) responseCodec.decode(frame);
+        try {
+            assertEquals(BookieProtocol.ENOENTRY, decoded.getErrorCode());
+            assertEquals(5L, decoded.getLedgerId());
+            assertEquals(10L, decoded.getEntryId());
+            assertEquals(0, decoded.getData().size());
+        } finally {
+            decoded.release();
+            frame.release();
+        }
+    }
+
+    @Test
+    public void testAllResponsesAdvertiseBatchReads() throws Exception {
+        ByteBuf frame = toFrame(responseCodec.encode(BookieProtocol.AddResponse.create(
+                BookieProtocol.CURRENT_PROTOCOL_VERSION, BookieProtocol.EOK, 5L, 10L), ByteBufAllocator.DEFAULT));
+        try {
+            BookieProtocol.Response decoded = (BookieProtocol.Response) responseCodec.decode(frame);
+            assertTrue(decoded.isBatchReadSupported());
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Test
+    public void testResponseOfOlderBookieDoesNotAdvertiseBatchReads() throws Exception {
+        // the header of the responses of the bookies without batched reads has no flags
+        ByteBuf frame = Unpooled.buffer();
+        frame.writeInt(PacketHeader.toInt(BookieProtocol.CURRENT_PROTOCOL_VERSION, BookieProtocol.ADDENTRY,
+                BookieProtocol.FLAG_NONE));
+        frame.writeInt(BookieProtocol.EOK);
+        frame.writeLong(5L);
+        frame.writeLong(10L);
+        try {
+            BookieProtocol.Response decoded = (BookieProtocol.Response) responseCodec.decode(frame);
+            assertEquals(BookieProtocol.ADDENTRY, decoded.getOpCode());
+            assertFalse(decoded.isBatchReadSupported());
+        } finally {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import java.net.ServerSocket;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.WriteFlag;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.net.BookieSocketAddress;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the add requests failed by the {@link BookieClientImpl} before reaching a channel are completed on
+ * the ordered executor thread of the ledger, serialized with the responses of the other bookies.
+ */
+public class BookieClientAddCompletionTest {
+
+    private static final long LEDGER_ID = 1L;
+    private static final byte[] MASTER_KEY = "key".getBytes();
+
+    private OrderedExecutor executor;
+    private EventLoopGroup eventLoopGroup;
+    private ScheduledExecutorService scheduler;
+    private BookieClientImpl bookieClient;
+    private Thread orderedThread;
+
+    @Before
+    public void setup() throws Exception {
+        executor = OrderedExecutor.newBuilder().name("add-completion-test").numThreads(2).build();
+        eventLoopGroup = new NioEventLoopGroup(1);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        bookieClient = new BookieClientImpl(new ClientConfiguration(), eventLoopGroup,
+                UnpooledByteBufAllocator.DEFAULT, executor, scheduler, NullStatsLogger.INSTANCE,
+                BookieSocketAddress.LEGACY_BOOKIEID_RESOLVER);
+        orderedThread = executor.chooseThread(LEDGER_ID).submit(Thread::currentThread).get();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        bookieClient.close();
+        executor.shutdown();
+        eventLoopGroup.shutdownGracefully();
+        scheduler.shutdown();
+    }
+
+    private void addEntry(BookieId bookie, WriteCallback cb) {
+        ByteBuf toSend = Unpooled.buffer(16).writeLong(LEDGER_ID).writeLong(0);
+        try {
+            bookieClient.addEntry(bookie, LEDGER_ID, MASTER_KEY, 0, toSend, cb, null,
+                    BookieProtocol.FLAG_NONE, false, EnumSet.noneOf(WriteFlag.class));
+        } finally {
+            toSend.release();
+        }
+    }
+
+    @Test
+    public void testConnectFailureCompletedOnOrderedThread() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        BookieId unreachable = BookieId.parse("127.0.0.1:" + port);
+
+        // the connection is refused on the netty thread, the failure is still delivered on the ordered thread
+        CountDownLatch completed = new CountDownLatch(1);
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        AtomicInteger result = new AtomicInteger(BKException.Code.OK);
+        addEntry(unreachable, (rc, ledgerId, entryId, addr, ctx) -> {
+            threads.add(Thread.currentThread());
+            result.set(rc);
+            completed.countDown();
+        });
+        assertTrue(completed.await(30, TimeUnit.SECONDS));
+        assertSame(orderedThread, threads.get(0));
+        assertTrue(result.get() != BKException.Code.OK);
+    }
+
+    @Test
+    public void testFailuresSerializedWithAcks() throws Exception {
+        // the lookup of the bookie fails once the client is closed
+        bookieClient.close();
+        BookieId bookie = BookieId.parse("127.0.0.1:3181");
+
+        int numAcks = 10_000;
+        int numFailures = 1_000;
+        AtomicInteger inCallback = new AtomicInteger();
+        AtomicInteger maxInCallback = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        CountDownLatch completed = new CountDownLatch(numAcks + numFailures);
+        WriteCallback cb = (rc, ledgerId, entryId, addr, ctx) -> {
+            maxInCallback.accumulateAndGet(inCallback.incrementAndGet(), Math::max);
+            if (Thread.currentThread() != orderedThread) {
+                threads.add(Thread.currentThread());
+            }
+            if (rc != BKException.Code.OK) {
+                failures.incrementAndGet();
+            }
+            inCallback.decrementAndGet();
+            completed.countDown();
+        };
+
+        // the acks of the other bookies arrive on the ordered thread, while the failures are raised elsewhere
+        Thread acks = new Thread(() -> {
+            for (int i = 0; i < numAcks; i++) {
+                executor.executeOrdered(LEDGER_ID, () -> cb.writeComplete(BKException.Code.OK, LEDGER_ID, 0,
+                        bookie, null));
+            }
+        });
+        Thread failing = new Thread(() -> {
+            for (int i = 0; i < numFailures; i++) {
+                addEntry(bookie, cb);
+            }
+        });
+        acks.start();
+        failing.start();
+        acks.join();
+        failing.join();
+
+        assertTrue(completed.await(30, TimeUnit.SECONDS));
+        assertEquals(numFailures, failures.get());
+        assertTrue("callbacks run on " + threads, threads.isEmpty());
+        assertEquals(1, maxInCallback.get());
+    }
+}
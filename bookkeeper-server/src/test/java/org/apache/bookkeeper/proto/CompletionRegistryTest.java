@@ -0,0 +1,290 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.apache.bookkeeper.proto.CompletionRegistry.INITIAL_SECTION_CAPACITY;
+import static org.apache.bookkeeper.proto.CompletionRegistry.NUM_SECTIONS;
+import static org.apache.bookkeeper.proto.CompletionRegistry.TICK_NANOS;
+import static org.apache.bookkeeper.proto.CompletionRegistry.WHEEL_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
+import org.apache.bookkeeper.util.MathUtils;
+import org.junit.Test;
+
+/**
+ * Tests the tables and the timeout wheel of the {@link CompletionRegistry}.
+ */
+public class CompletionRegistryTest {
+
+    private static final long LEDGER_ID = 1L;
+    private static final OperationType READ = OperationType.READ_ENTRY;
+
+    private static class TestCompletion extends CompletionRegistry.Completion {
+        final long entryId;
+
+        TestCompletion(long entryId) {
+            this.entryId = entryId;
+        }
+    }
+
+    private final CompletionRegistry<TestCompletion> registry = new CompletionRegistry<>();
+    private final long now = MathUtils.nowInNano();
+    private final long farDeadline = now + TimeUnit.HOURS.toNanos(1);
+
+    private static long hash(long entryId) {
+        return CompletionRegistry.hash(LEDGER_ID, entryId, READ.getNumber());
+    }
+
+    private static int sectionOf(long entryId) {
+        return (int) (hash(entryId) >>> 32) & (NUM_SECTIONS - 1);
+    }
+
+    private static int homeBucketOf(long entryId) {
+        return (int) hash(entryId) & (INITIAL_SECTION_CAPACITY - 1);
+    }
+
+    /**
+     * Find the entry ids of the reads of the same section of the registry, with the given home buckets.
+     */
+    private static long[] findEntries(int section, int... homeBuckets) {
+        long[] entries = new long[homeBuckets.length];
+        long entryId = 0;
+        for (int i = 0; i < homeBuckets.length; i++) {
+            while (sectionOf(entryId) != section || homeBucketOf(entryId) != homeBuckets[i]) {
+                entryId++;
+            }
+            entries[i] = entryId++;
+        }
+        return entries;
+    }
+
+    private TestCompletion put(long entryId, long deadlineNanos) {
+        TestCompletion completion = new TestCompletion(entryId);
+        registry.putV2(completion, READ, LEDGER_ID, entryId, deadlineNanos);
+        return completion;
+    }
+
+    @Test
+    public void testCollidingKeys() {
+        long[] entries = findEntries(3, 5, 5, 5, 6);
+        List<TestCompletion> completions = new ArrayList<>();
+        for (long entryId : entries) {
+            completions.add(put(entryId, farDeadline));
+        }
+        assertEquals(entries.length, registry.size());
+        completions.forEach(c -> assertTrue(registry.contains(c)));
+
+        // remove the key in the middle of the probe sequence
+        assertSame(completions.get(1), registry.removeV2(READ, LEDGER_ID, entries[1]));
+        assertNull(registry.removeV2(READ, LEDGER_ID, entries[1]));
+        assertFalse(registry.contains(completions.get(1)));
+        for (int i : new int[] {0, 2, 3}) {
+            assertSame(completions.get(i), registry.removeV2(READ, LEDGER_ID, entries[i]));
+        }
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testSameKeyCompletedInOrder() {
+        TestCompletion first = put(7, farDeadline);
+        TestCompletion second = put(7, farDeadline);
+        TestCompletion third = put(7, farDeadline);
+        assertEquals(3, registry.size());
+
+        // remove a completion in the middle of the chain
+        assertTrue(registry.remove(second));
+        assertFalse(registry.remove(second));
+        assertSame(first, registry.removeV2(READ, LEDGER_ID, 7));
+        assertSame(third, registry.removeV2(READ, LEDGER_ID, 7));
+        assertNull(registry.removeV2(READ, LEDGER_ID, 7));
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testV2AndV3KeysAreDistinct() {
+        TestCompletion v2 = put(5, farDeadline);
+        TestCompletion v3 = new TestCompletion(-1);
+        registry.putV3(v3, LEDGER_ID, farDeadline);
+
+        assertNull(registry.removeV3(5));
+        assertSame(v3, registry.removeV3(LEDGER_ID));
+        assertNull(registry.removeV2(OperationType.ADD_ENTRY, LEDGER_ID, 5));
+        assertSame(v2, registry.removeV2(READ, LEDGER_ID, 5));
+    }
+
+    @Test
+    public void testRemoveAcrossWrapAround() {
+        int last = INITIAL_SECTION_CAPACITY - 1;
+        // a, b and c probe from the last bucket and wrap around to the first ones, d lives in the first bucket
+        long[] entries = findEntries(0, last, last, last, 0);
+        List<TestCompletion> completions = new ArrayList<>();
+        for (long entryId : entries) {
+            completions.add(put(entryId, farDeadline));
+        }
+
+        // removing the key in the last bucket shifts back the keys wrapped around
+        assertSame(completions.get(0), registry.removeV2(READ, LEDGER_ID, entries[0]));
+        for (int i = 1; i < entries.length; i++) {
+            assertTrue(registry.contains(completions.get(i)));
+        }
+        assertTrue(registry.remove(completions.get(3)));
+        assertSame(completions.get(2), registry.removeV2(READ, LEDGER_ID, entries[2]));
+        assertSame(completions.get(1), registry.removeV2(READ, LEDGER_ID, entries[1]));
+        assertEquals(0, registry.size());
+
+        // the table is reusable after the removals
+        TestCompletion again = put(entries[3], farDeadline);
+        assertSame(again, registry.removeV2(READ, LEDGER_ID, entries[3]));
+    }
+
+    @Test
+    public void testRemoveExpiredAcrossWheelLaps() {
+        // expires after more than two laps of the wheel
+        long lapNanos = WHEEL_SIZE * TICK_NANOS;
+        TestCompletion later = put(1, now + 2 * lapNanos + 5 * TICK_NANOS);
+        TestCompletion sooner = put(2, now + 5 * TICK_NANOS);
+
+        List<TestCompletion> expired = new ArrayList<>();
+        for (long t = now; t <= now + 3 * lapNanos; t += TICK_NANOS) {
+            for (TestCompletion c : registry.removeExpired(t)) {
+                assertTrue("expired too early", c.entryId == 1
+                        ? t >= now + 2 * lapNanos + 5 * TICK_NANOS : t >= now + 5 * TICK_NANOS);
+                assertTrue("expired too late", c.entryId == 1
+                        ? t < now + 2 * lapNanos + 7 * TICK_NANOS : t < now + 7 * TICK_NANOS);
+                expired.add(c);
+            }
+        }
+        assertEquals(Arrays.asList(sooner, later), expired);
+        assertEquals(0, registry.size());
+    }
+
+    private void verifyRemoveExpiredAfterGap(long gapTicks) {
+        CompletionRegistry<TestCompletion> registry = new CompletionRegistry<>();
+        long now = MathUtils.nowInNano();
+        List<TestCompletion> completions = new ArrayList<>();
+        for (long i = 0; i < WHEEL_SIZE; i++) {
+            TestCompletion completion = new TestCompletion(i);
+            registry.putV2(completion, READ, LEDGER_ID, i, now + i * TICK_NANOS);
+            completions.add(completion);
+        }
+        TestCompletion notExpired = new TestCompletion(WHEEL_SIZE);
+        registry.putV2(notExpired, READ, LEDGER_ID, WHEEL_SIZE, now + (gapTicks + 10) * TICK_NANOS);
+
+        List<TestCompletion> expired = registry.removeExpired(now + gapTicks * TICK_NANOS);
+        assertEquals(new HashSet<>(completions), new HashSet<>(expired));
+        assertEquals(1, registry.size());
+        assertTrue(registry.contains(notExpired));
+    }
+
+    @Test
+    public void testRemoveExpiredAfterGap() {
+        // the check of the timeouts stalls for a lap of the wheel or more
+        verifyRemoveExpiredAfterGap(WHEEL_SIZE);
+        verifyRemoveExpiredAfterGap(WHEEL_SIZE + 1);
+        verifyRemoveExpiredAfterGap(3 * WHEEL_SIZE + 17);
+    }
+
+    @Test
+    public void testPastDeadlineExpiredOnNextCheck() {
+        assertTrue(registry.removeExpired(now + 5 * TICK_NANOS).isEmpty());
+
+        // the tick of the deadline was already checked
+        TestCompletion past = put(1, now + TICK_NANOS);
+        TestCompletion current = put(2, now + 5 * TICK_NANOS);
+        assertEquals(new HashSet<>(Arrays.asList(past, current)),
+                new HashSet<>(registry.removeExpired(now + 6 * TICK_NANOS)));
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testPastDeadlineRemovedBeforeCheck() {
+        assertTrue(registry.removeExpired(now + 5 * TICK_NANOS).isEmpty());
+        TestCompletion past = put(1, now);
+        TestCompletion other = put(1, now);
+        assertTrue(registry.remove(past));
+        assertEquals(Arrays.asList(other), registry.removeExpired(now + 6 * TICK_NANOS));
+    }
+
+    @Test
+    public void testRemovedCompletionIsNotExpired() {
+        TestCompletion completion = put(1, now + TICK_NANOS);
+        TestCompletion other = put(2, now + TICK_NANOS);
+        assertTrue(registry.remove(completion));
+        assertEquals(Arrays.asList(other), registry.removeExpired(now + 2 * TICK_NANOS));
+    }
+
+    @Test
+    public void testResizeUnderLoad() throws Exception {
+        int numThreads = 8;
+        int perThread = 20_000;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < numThreads; t++) {
+                long firstEntry = (long) t * perThread;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    List<TestCompletion> completions = new ArrayList<>();
+                    for (long e = firstEntry; e < firstEntry + perThread; e++) {
+                        completions.add(put(e, farDeadline));
+                        // remove every other completion while the tables grow
+                        if (e % 2 == 1) {
+                            assertSame(completions.get(completions.size() - 2),
+                                    registry.removeV2(READ, LEDGER_ID, e - 1));
+                        }
+                    }
+                    for (TestCompletion c : completions) {
+                        assertEquals(c.entryId % 2 == 1, registry.contains(c));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(numThreads * perThread / 2, registry.size());
+        List<TestCompletion> removed = registry.removeAll();
+        assertEquals(numThreads * perThread / 2, removed.size());
+        removed.forEach(c -> assertEquals(1, c.entryId % 2));
+        assertEquals(0, registry.size());
+        assertTrue(registry.removeExpired(farDeadline + TICK_NANOS).isEmpty());
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.protobuf.ExtensionRegistry;
+import io.netty.buffer.AbstractByteBufAllocator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.ReferenceCounted;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.bookkeeper.proto.BookieProtocol.PacketHeader;
+import org.apache.bookkeeper.proto.DataFormats.LedgerMetadataFormat.DigestType;
+import org.apache.bookkeeper.proto.checksum.DigestManager;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.junit.Test;
+
+/**
+ * Tests the encoding of the multi add requests and responses of the v2 protocol.
+ */
+public class MultiAddProtocolTest {
+
+    private static final byte[] MASTER_KEY = new byte[BookieProtocol.MASTER_KEY_LENGTH];
+
+    private final ByteBufAllocator allocator = UnpooledByteBufAllocator.DEFAULT;
+    private final BookieProtoEncoding.RequestEnDeCoderPreV3 requestCodec =
+            new BookieProtoEncoding.RequestEnDeCoderPreV3(ExtensionRegistry.newInstance());
+    private final BookieProtoEncoding.ResponseEnDeCoderPreV3 responseCodec =
+            new BookieProtoEncoding.ResponseEnDeCoderPreV3(ExtensionRegistry.newInstance());
+
+    private static ByteBuf toFrame(Object encoded) {
+        ByteBuf buf;
+        if (encoded instanceof ByteBufList) {
+            buf = ByteBufList.coalesce((ByteBufList) encoded);
+            ((ByteBufList) encoded).release();
+        } else {
+            buf = (ByteBuf) encoded;
+        }
+        int frameSize = buf.readInt();
+        assertEquals(frameSize, buf.readableBytes());
+        return buf;
+    }
+
+    private ByteBuf entryData(long ledgerId, long entryId, int size) {
+        byte[] data = new byte[size];
+        byte[] prefix = ("entry-" + ledgerId + "-" + entryId).getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(prefix, 0, data, 0, Math.min(prefix.length, size));
+        ByteBuf buf = allocator.buffer(size);
+        buf.writeBytes(data);
+        return buf;
+    }
+
+    /**
+     * @return the add request of an entry, as encoded by the client, the entry is still referenced by the caller
+     */
+    private ReferenceCounted addRequest(long ledgerId, long entryId, ByteBuf data) throws Exception {
+        DigestManager digestManager = DigestManager.instantiate(ledgerId, MASTER_KEY, DigestType.CRC32C,
+                allocator, true);
+        return digestManager.computeDigestAndPackageForSending(entryId, entryId - 1, (entryId + 1) * 100,
+                data.retain(), MASTER_KEY, BookieProtocol.FLAG_NONE);
+    }
+
+    @Test
+    public void testRequestRoundTrip() throws Exception {
+        long[][] keys = {{1, 0}, {1, 1}, {2, 0}, {1, 2}};
+        int[] sizes = {10, BookieProtoEncoding.SMALL_ENTRY_SIZE_THRESHOLD, 100, 1};
+        List<ByteBuf> data = new ArrayList<>();
+        List<Object> addRequests = new ArrayList<>();
+        for (int i = 0; i < keys.length; i++) {
+            data.add(entryData(keys[i][0], keys[i][1], sizes[i]));
+            addRequests.add(addRequest(keys[i][0], keys[i][1], data.get(i)));
+        }
+        // a small entry is copied in the add request, a large one is chained
+        assertTrue(addRequests.get(0) instanceof ByteBuf);
+        assertTrue(addRequests.get(1) instanceof ByteBufList);
+
+        ByteBuf frame = toFrame(
+                BookieProtoEncoding.RequestEnDeCoderPreV3.encodeMultiAddRequest(addRequests, allocator));
+        for (ByteBuf buf : data) {
+            // the encoded request no longer references the entries
+            assertEquals(1, buf.refCnt());
+        }
+        BookieProtocol.MultiAddRequest request = (BookieProtocol.MultiAddRequest) requestCodec.decode(frame);
+        try {
+            assertEquals(BookieProtocol.MULTI_ADD_ENTRY, request.getOpCode());
+            assertEquals(keys.length, request.getAdds().size());
+            for (int i = 0; i < keys.length; i++) {
+                BookieProtocol.ParsedAddRequest add = request.getAdds().get(i);
+                assertEquals(keys[i][0], add.getLedgerId());
+                assertEquals(keys[i][1], add.getEntryId());
+                assertFalse(add.isRecoveryAdd());
+                ByteBuf addData = add.getData();
+                // the entry follows the ledger id, entry id, lac, length and digest of its headers
+                addData.skipBytes(8 + 8 + 8 + 8 + 4);
+                assertEquals(data.get(i).resetReaderIndex(), addData);
+                addData.release();
+            }
+            assertEquals(0, frame.readableBytes());
+        } finally {
+            for (BookieProtocol.ParsedAddRequest add : request.getAdds()) {
+                add.recycle();
+            }
+            frame.release();
+            data.forEach(ByteBuf::release);
+        }
+    }
+
+    @Test
+    public void testAddRequestsReleasedWhenEncodingFails() throws Exception {
+        ByteBuf small = entryData(1, 0, 10);
+        ByteBuf large = entryData(1, 1, BookieProtoEncoding.SMALL_ENTRY_SIZE_THRESHOLD);
+        List<Object> addRequests = new ArrayList<>();
+        addRequests.add(addRequest(1, 0, small));
+        addRequests.add(addRequest(1, 1, large));
+        ByteBufAllocator failingAllocator = new AbstractByteBufAllocator() {
+            @Override
+            protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+                throw new OutOfMemoryError("no buffer");
+            }
+
+            @Override
+            protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+                throw new OutOfMemoryError("no buffer");
+            }
+
+            @Override
+            public boolean isDirectBufferPooled() {
+                return false;
+            }
+        };
+
+        try {
+            BookieProtoEncoding.RequestEnDeCoderPreV3.encodeMultiAddRequest(addRequests, failingAllocator);
+            fail("the headers cannot be allocated");
+        } catch (OutOfMemoryError e) {
+            // expected
+        }
+        for (Object addRequest : addRequests) {
+            assertEquals(0, ((ReferenceCounted) addRequest).refCnt());
+        }
+        // the large entry is only referenced by the test
+        assertEquals(1, large.refCnt());
+        small.release();
+        large.release();
+    }
+
+    @Test
+    public void testResponseRoundTrip() throws Exception {
+        BookieProtocol.MultiAddResponse response =
+                new BookieProtocol.MultiAddResponse(BookieProtocol.CURRENT_PROTOCOL_VERSION, 3);
+        response.setAddResult(0, BookieProtocol.EOK, 1L, 0L);
+        response.setAddResult(1, BookieProtocol.EFENCED, 2L, 5L);
+        response.setAddResult(2, BookieProtocol.EOK, 1L, 1L);
+
+        ByteBuf frame = toFrame(responseCodec.encode(response, allocator));
+        try {
+            BookieProtocol.MultiAddResponse decoded = (BookieProtocol.MultiAddResponse) responseCodec.decode(frame);
+            assertEquals(BookieProtocol.MULTI_ADD_ENTRY, decoded.getOpCode());
+            assertTrue(decoded.isMultiAddSupported());
+            assertEquals(3, decoded.getNumAdds());
+            assertEquals(BookieProtocol.EOK, decoded.getErrorCode(0));
+            assertEquals(1L, decoded.getLedgerId(0));
+            assertEquals(0L, decoded.getEntryId(0));
+            assertEquals(BookieProtocol.EFENCED, decoded.getErrorCode(1));
+            assertEquals(2L, decoded.getLedgerId(1));
+            assertEquals(5L, decoded.getEntryId(1));
+            assertEquals(1L, decoded.getEntryId(2));
+            assertEquals(0, frame.readableBytes());
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Test
+    public void testAllResponsesAdvertiseMultiAdds() throws Exception {
+        ByteBuf frame = toFrame(responseCodec.encode(BookieProtocol.AddResponse.create(
+                BookieProtocol.CURRENT_PROTOCOL_VERSION, BookieProtocol.EOK, 5L, 10L), allocator));
+        try {
+            BookieProtocol.Response decoded = (BookieProtocol.Response) responseCodec.decode(frame);
+            assertTrue(decoded.isMultiAddSupported());
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Test
+    public void testResponseOfOlderBookieDoesNotAdvertiseMultiAdds() throws Exception {
+        // a bookie with batched reads but without multi adds
+        ByteBuf frame = allocator.buffer();
+        frame.writeInt(PacketHeader.toInt(BookieProtocol.CURRENT_PROTOCOL_VERSION, BookieProtocol.ADDENTRY,
+                BookieProtocol.FLAG_BATCH_READ_SUPPORTED));
+        frame.writeInt(BookieProtocol.EOK);
+        frame.writeLong(5L);
+        frame.writeLong(10L);
+        try {
+            BookieProtocol.Response decoded = (BookieProtocol.Response) responseCodec.decode(frame);
+            assertTrue(decoded.isBatchReadSupported());
+            assertFalse(decoded.isMultiAddSupported());
+        } finally {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.storage.ldb.DefaultReadCache;
+import org.apache.bookkeeper.bookie.storage.ldb.LockFreeReadCache;
+import org.apache.bookkeeper.bookie.storage.ldb.ReadCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmarks for the read cache implementations, under concurrent put/get.
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 1, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+public class ReadCacheBenchmark {
+
+    private static final long CACHE_SIZE = 256 * 1024 * 1024;
+    private static final int SEGMENT_SIZE = 32 * 1024 * 1024;
+    private static final int ENTRY_SIZE = 1024;
+    private static final int LEDGERS = 100;
+    private static final int ENTRIES_PER_LEDGER = 1000;
+
+    /**
+     * State holder of the test.
+     */
+    @State(Scope.Benchmark)
+    public static class TestState {
+
+        @Param({"default", "lock-free"})
+        private String cacheType;
+
+        private ReadCache cache;
+
+        private final ByteBuf entry = Unpooled.directBuffer(ENTRY_SIZE, ENTRY_SIZE).writerIndex(ENTRY_SIZE);
+
+        @Setup(Level.Trial)
+        public void setup() {
+            if ("default".equals(cacheType)) {
+                cache = new DefaultReadCache(ByteBufAllocator.DEFAULT, CACHE_SIZE, SEGMENT_SIZE);
+            } else {
+                cache = new LockFreeReadCache(ByteBufAllocator.DEFAULT, CACHE_SIZE, SEGMENT_SIZE);
+            }
+
+            // Pre-fill the cache, so that most lookups are hits
+            for (int ledgerId = 0; ledgerId < LEDGERS; ledgerId++) {
+                for (int entryId = 0; entryId < ENTRIES_PER_LEDGER; entryId++) {
+                    cache.put(ledgerId, entryId, entry);
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() {
+            cache.close();
+            entry.release();
+        }
+    }
+
+    private static void get(TestState s) {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        ByteBuf res = s.cache.get(r.nextInt(LEDGERS), r.nextInt(ENTRIES_PER_LEDGER));
+        if (res != null) {
+            res.release();
+        }
+    }
+
+    private static void put(TestState s) {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        s.cache.put(r.nextInt(LEDGERS), r.nextInt(ENTRIES_PER_LEDGER), s.entry);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void concurrentGet(TestState s) {
+        get(s);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void concurrentPut(TestState s) {
+        put(s);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(24)
+    public void mixedGet(TestState s) {
+        get(s);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(8)
+    public void mixedPut(TestState s) {
+        put(s);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.storage.ldb.ArrayGroupSort;
+import org.apache.bookkeeper.bookie.storage.ldb.WriteCacheIndex;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Microbenchmarks for the write cache index: fill the index with the entries of multiple
+ * ledgers, added in round-robin like they would be by concurrent writers, then iterate them
+ * in (ledgerId, entryId) order like the write cache flush does.
+ *
+ * <p>The hash map + {@link ArrayGroupSort} variant is the index the write cache used before
+ * {@link WriteCacheIndex}, which sorts all the entries at each flush.
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 1, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+public class WriteCacheIndexBenchmark {
+
+    private static final int ENTRY_SIZE = 1024;
+
+    /**
+     * State holder of the test.
+     */
+    @State(Scope.Benchmark)
+    public static class TestState {
+
+        @Param({"1000000"})
+        private int entries;
+
+        @Param({"10", "1000"})
+        private int ledgers;
+
+        private ConcurrentLongLongPairHashMap hashMap;
+        private long[] sortedEntries;
+        private int sortedEntriesIdx;
+
+        private WriteCacheIndex index;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            hashMap = ConcurrentLongLongPairHashMap.newBuilder()
+                    .expectedItems(4096)
+                    .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+                    .build();
+            sortedEntries = new long[entries * 4];
+            index = new WriteCacheIndex();
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() {
+            index.close();
+        }
+    }
+
+    @Benchmark
+    public void hashMapAndGroupSort(TestState s, Blackhole bh) {
+        for (int i = 0; i < s.entries; i++) {
+            s.hashMap.put(i % s.ledgers, i / s.ledgers, (long) i * ENTRY_SIZE, ENTRY_SIZE);
+        }
+
+        s.sortedEntriesIdx = 0;
+        s.hashMap.forEach((ledgerId, entryId, offset, length) -> {
+            s.sortedEntries[s.sortedEntriesIdx] = ledgerId;
+            s.sortedEntries[s.sortedEntriesIdx + 1] = entryId;
+            s.sortedEntries[s.sortedEntriesIdx + 2] = offset;
+            s.sortedEntries[s.sortedEntriesIdx + 3] = length;
+            s.sortedEntriesIdx += 4;
+        });
+        ArrayGroupSort.sort(s.sortedEntries, 0, s.sortedEntriesIdx);
+        for (int i = 0; i < s.sortedEntriesIdx; i += 4) {
+            bh.consume(s.sortedEntries[i + 2]);
+        }
+
+        s.hashMap.clear();
+    }
+
+    @Benchmark
+    public void writeCacheIndex(TestState s, Blackhole bh) throws IOException {
+        for (int i = 0; i < s.entries; i++) {
+            s.index.put(i % s.ledgers, i / s.ledgers, (long) i * ENTRY_SIZE, ENTRY_SIZE);
+        }
+
+        s.index.forEach((ledgerId, entryId, offset, length) -> bh.consume(offset));
+
+        s.index.clear();
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.common.util.nativeio;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Asynchronous I/O queue backed by a linux io_uring instance.
+ *
+ * <p>Operations can be submitted concurrently by multiple threads. The operations that are
+ * pending when a thread gets to submit are all passed to the kernel with a single syscall,
+ * and the completions are reaped by a dedicated thread that completes the returned futures.
+ *
+ * <p>The number of operations in flight is capped to the queue depth, so submitting blocks
+ * when the ring is full.
+ *
+ * <p>If waiting for the completions keeps failing, the ring is failed: the operations in flight
+ * and the later submissions complete exceptionally.
+ */
+public class IoUring implements AutoCloseable {
+    private static final long SHUTDOWN_USER_DATA = 0L;
+    private static final int MAX_WAIT_FAILURES = 10;
+    private static final long MAX_WAIT_BACKOFF_MILLIS = 1000;
+
+    private final NativeIO nativeIO;
+    private final long ring;
+    private final int queueDepth;
+
+    private final Semaphore inFlightPermits;
+    private final ConcurrentLinkedQueue<Request> pendingRequests = new ConcurrentLinkedQueue<>();
+    private final ConcurrentHashMap<Long, Request> submittedRequests = new ConcurrentHashMap<>();
+    private final AtomicLong nextUserData = new AtomicLong(SHUTDOWN_USER_DATA + 1);
+
+    // Only accessed by the thread holding the submit lock
+    private final ReentrantLock submitLock = new ReentrantLock();
+    private final int[] ops;
+    private final int[] fds;
+    private final long[] pointers;
+    private final int[] sizes;
+    private final long[] offsets;
+    private final int[] bufIndexes;
+    private final long[] userData;
+    private boolean released = false;
+
+    private final Thread completionThread;
+    private volatile boolean closed = false;
+    private volatile NativeIOException failure = null;
+
+    public IoUring(NativeIO nativeIO, int queueDepth, String threadName) throws NativeIOException {
+        this.nativeIO = nativeIO;
+        this.queueDepth = queueDepth;
+        this.ring = nativeIO.io_uring_init(queueDepth);
+
+        this.inFlightPermits = new Semaphore(queueDepth);
+        this.ops = new int[queueDepth];
+        this.fds = new int[queueDepth];
+        this.pointers = new long[queueDepth];
+        this.sizes = new int[queueDepth];
+        this.offsets = new long[queueDepth];
+        this.bufIndexes = new int[queueDepth];
+        this.userData = new long[queueDepth];
+
+        this.completionThread = new Thread(this::reapCompletions, threadName);
+        this.completionThread.setDaemon(true);
+        this.completionThread.start();
+    }
+
+    /**
+     * Register buffers with the kernel, so that it doesn't have to map them on every operation.
+     * The buffer at position {@code i} is then used by passing {@code i} as buffer index.
+     */
+    public void registerBuffers(long[] bufferPointers, int[] bufferSizes) throws NativeIOException {
+        nativeIO.io_uring_register_buffers(ring, bufferPointers, bufferSizes);
+    }
+
+    /**
+     * Read into the buffer at {@code pointer}.
+     *
+     * @param bufIndex the index of the registered buffer containing the pointer, or -1
+     * @return a future with the number of bytes read
+     */
+    public CompletableFuture<Integer> read(int fd, long pointer, int size, long offset, int bufIndex) {
+        return submit(new Request(NativeIO.IOURING_OP_READ, fd, pointer, size, offset, bufIndex));
+    }
+
+    /**
+     * Write the buffer at {@code pointer}.
+     *
+     * @param bufIndex the index of the registered buffer containing the pointer, or -1
+     * @return a future with the number of bytes written
+     */
+    public CompletableFuture<Integer> write(int fd, long pointer, int size, long offset, int bufIndex) {
+        return submit(new Request(NativeIO.IOURING_OP_WRITE, fd, pointer, size, offset, bufIndex));
+    }
+
+    public CompletableFuture<Integer> fsync(int fd, boolean dataOnly) {
+        return submit(syncRequest(fd, dataOnly));
+    }
+
+    /**
+     * Write the buffer and sync the file, with a single submission. The sync is only started
+     * once the write has completed.
+     *
+     * @return the futures of the write and of the sync
+     */
+    public WriteAndSync writeAndSync(int fd, long pointer, int size, long offset, int bufIndex, boolean dataOnly) {
+        Request write = new Request(NativeIO.IOURING_OP_WRITE | NativeIO.IOURING_F_LINK,
+                fd, pointer, size, offset, bufIndex);
+        write.linked = syncRequest(fd, dataOnly);
+        CompletableFuture<Integer> syncFuture = write.linked.future;
+        CompletableFuture<Integer> writeFuture = submit(write);
+        // If the write fails, the sync is cancelled by the kernel and the write error is reported
+        return new WriteAndSync(writeFuture,
+                writeFuture.thenCompose(written -> syncFuture.thenApply(ignore -> written)));
+    }
+
+    private static Request syncRequest(int fd, boolean dataOnly) {
+        return new Request(dataOnly ? NativeIO.IOURING_OP_FDATASYNC : NativeIO.IOURING_OP_FSYNC,
+                fd, 0L, 0, 0L, -1);
+    }
+
+    private CompletableFuture<Integer> submit(Request request) {
+        if (closed || failure != null) {
+            request.future.completeExceptionally(unavailableException());
+            return request.future;
+        }
+
+        try {
+            inFlightPermits.acquire(request.count());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            request.future.completeExceptionally(new IOException(ie));
+            return request.future;
+        }
+
+        pendingRequests.add(request);
+        // Whoever gets the lock submits all the pending requests. Check again after releasing
+        // the lock, since requests could have been added while the previous holder was leaving.
+        while (!pendingRequests.isEmpty() && submitLock.tryLock()) {
+            try {
+                submitPending();
+            } finally {
+                submitLock.unlock();
+            }
+        }
+        return request.future;
+    }
+
+    private IOException unavailableException() {
+        NativeIOException cause = failure;
+        return cause != null ? new IOException("io_uring has failed", cause) : new IOException("io_uring is closed");
+    }
+
+    private void submitPending() {
+        if (released || failure != null) {
+            Request request;
+            while ((request = pendingRequests.poll()) != null) {
+                inFlightPermits.release(request.count());
+                request.future.completeExceptionally(unavailableException());
+            }
+            return;
+        }
+
+        int count = 0;
+        Request request;
+        // The in-flight permits guarantee that the pending requests fit in the submission arrays
+        while ((request = pendingRequests.poll()) != null) {
+            for (Request r = request; r != null; r = r.linked) {
+                r.userData = nextUserData.getAndIncrement();
+                submittedRequests.put(r.userData, r);
+
+                ops[count] = r.op;
+                fds[count] = r.fd;
+                pointers[count] = r.pointer;
+                sizes[count] = r.size;
+                offsets[count] = r.offset;
+                bufIndexes[count] = r.bufIndex;
+                userData[count] = r.userData;
+                count++;
+            }
+        }
+
+        if (count == 0) {
+            return;
+        }
+
+        // The operations that were not submitted are removed from the submission queue, so they can be
+        // completed right away and their buffers reused
+        int submitted;
+        NativeIOException error = null;
+        try {
+            submitted = nativeIO.io_uring_submit(ring, count, ops, fds, pointers, sizes, offsets,
+                    bufIndexes, userData);
+        } catch (NativeIOException ne) {
+            submitted = 0;
+            error = ne;
+        }
+
+        for (int i = submitted; i < count; i++) {
+            Request failed = submittedRequests.remove(userData[i]);
+            inFlightPermits.release();
+            if (failed != null) {
+                failed.future.completeExceptionally(
+                        error != null ? error : new NativeIOException("io_uring submission queue is full"));
+            }
+        }
+    }
+
+    private void reapCompletions() {
+        long[] completedUserData = new long[queueDepth];
+        int[] results = new int[queueDepth];
+        int failures = 0;
+
+        while (true) {
+            int completed;
+            try {
+                completed = nativeIO.io_uring_wait(ring, 1, completedUserData, results);
+                failures = 0;
+            } catch (NativeIOException ne) {
+                if (closed) {
+                    return;
+                }
+                if (++failures >= MAX_WAIT_FAILURES) {
+                    fail(ne);
+                    return;
+                }
+                try {
+                    Thread.sleep(Math.min(1L << failures, MAX_WAIT_BACKOFF_MILLIS));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    fail(ne);
+                    return;
+                }
+                continue;
+            }
+
+            boolean shutdown = false;
+            for (int i = 0; i < completed; i++) {
+                inFlightPermits.release();
+                if (completedUserData[i] == SHUTDOWN_USER_DATA) {
+                    shutdown = true;
+                    continue;
+                }
+
+                Request request = submittedRequests.remove(completedUserData[i]);
+                if (request == null) {
+                    continue;
+                }
+                int res = results[i];
+                if (res < 0) {
+                    request.future.completeExceptionally(
+                            new NativeIOException("io_uring operation failed", -res));
+                } else {
+                    request.future.complete(res);
+                }
+            }
+
+            if (shutdown) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop reaping the completions, after a persistent failure of the ring. The operations in
+     * flight won't get their completion anymore, so they are failed.
+     */
+    private void fail(NativeIOException cause) {
+        failure = cause;
+        for (Long key : submittedRequests.keySet()) {
+            Request request = submittedRequests.remove(key);
+            if (request != null) {
+                inFlightPermits.release();
+                request.future.completeExceptionally(new IOException("io_uring has failed", cause));
+            }
+        }
+    }
+
+    /**
+     * Wait for the operations in flight to complete, then release the ring.
+     */
+    @Override
+    public void close() throws NativeIOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        boolean drained = false;
+        if (failure == null) {
+            submitLock.lock();
+            try {
+                submitPending();
+            } finally {
+                submitLock.unlock();
+            }
+
+            // Once all the permits are taken, nothing is in flight anymore and nothing else can
+            // be submitted. The submitters still holding permits submit their requests before
+            // returning, so this doesn't wait forever.
+            inFlightPermits.acquireUninterruptibly(queueDepth);
+            drained = true;
+
+            // Wake up the completion thread with a no-op, which uses one of the permits
+            submitLock.lock();
+            try {
+                ops[0] = NativeIO.IOURING_OP_NOP;
+                userData[0] = SHUTDOWN_USER_DATA;
+                nativeIO.io_uring_submit(ring, 1, ops, fds, pointers, sizes, offsets, bufIndexes, userData);
+            } catch (NativeIOException ne) {
+                inFlightPermits.release(queueDepth);
+                throw ne;
+            } finally {
+                submitLock.unlock();
+            }
+        }
+
+        try {
+            completionThread.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+
+        submitLock.lock();
+        try {
+            released = true;
+            nativeIO.io_uring_exit(ring);
+        } finally {
+            submitLock.unlock();
+        }
+        // Let the submitters blocked on the permits get to fail their requests. The permit of the
+        // no-op was given back by the completion thread.
+        if (drained) {
+            inFlightPermits.release(queueDepth - 1);
+        }
+    }
+
+    /**
+     * The futures of a write linked with a sync.
+     */
+    public static final class WriteAndSync {
+        private final CompletableFuture<Integer> write;
+        private final CompletableFuture<Integer> sync;
+
+        private WriteAndSync(CompletableFuture<Integer> write, CompletableFuture<Integer> sync) {
+            this.write = write;
+            this.sync = sync;
+        }
+
+        /**
+         * @return a future with the number of bytes written, completed as soon as the write is done
+         */
+        public CompletableFuture<Integer> write() {
+            return write;
+        }
+
+        /**
+         * @return a future with the number of bytes written, completed once the file is synced
+         */
+        public CompletableFuture<Integer> sync() {
+            return sync;
+        }
+    }
+
+    private static final class Request {
+        final int op;
+        final int fd;
+        final long pointer;
+        final int size;
+        final long offset;
+        final int bufIndex;
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+        // Next request of a linked chain, submitted right after this one
+        Request linked;
+        long userData;
+
+        Request(int op, int fd, long pointer, int size, long offset, int bufIndex) {
+            this.op = op;
+            this.fd = fd;
+            this.pointer = pointer;
+            this.size = size;
+            this.offset = offset;
+            this.bufIndex = bufIndex;
+        }
+
+        int count() {
+            return linked == null ? 1 : 1 + linked.count();
+        }
+    }
+}
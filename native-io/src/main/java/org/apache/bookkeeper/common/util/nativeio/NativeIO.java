@@ -31,12 +31,23 @@ public interface NativeIO {
     int O_TRUNC = 0x08;
     int O_DIRECT = 0x10;
     int O_DSYNC = 0x20;
+    int O_RDWR = 0x40;
 
     int SEEK_SET = 0;
     int SEEK_END = 2;
 
     int FALLOC_FL_ZERO_RANGE = 0x10;
 
+    // Operations that can be submitted to an io_uring instance
+    int IOURING_OP_READ = 0x01;
+    int IOURING_OP_WRITE = 0x02;
+    int IOURING_OP_FSYNC = 0x03;
+    int IOURING_OP_FDATASYNC = 0x04;
+    int IOURING_OP_NOP = 0x05;
+    // Flag to link an operation to the next one in the same submission, which only starts
+    // once this one has completed successfully
+    int IOURING_F_LINK = 0x100;
+
     int open(String pathname, int flags, int mode) throws NativeIOException;
 
     int fsync(int fd) throws NativeIOException;
@@ -64,4 +75,41 @@ public interface NativeIO {
     long pread(int fd, long pointer, long size, long offset) throws NativeIOException;
 
     int close(int fd) throws NativeIOException;
+
+    /**
+     * io_uring is a linux-only interface (kernel 5.6+), so callers must handle the possibility
+     * that it does not exist.
+     *
+     * @return a handle to the ring, to be passed to the other io_uring methods
+     */
+    long io_uring_init(int queueDepth) throws NativeIOException;
+
+    /**
+     * Register fixed buffers with the ring. The buffers at position {@code i} can then be
+     * used in the read and write operations with buffer index {@code i}.
+     */
+    int io_uring_register_buffers(long ring, long[] pointers, int[] sizes) throws NativeIOException;
+
+    /**
+     * Submit a batch of operations with a single syscall. Each operation is described by the
+     * elements at the same position in all the arrays. A negative buffer index means that the
+     * buffer is not a registered one.
+     *
+     * <p>The operations that the kernel did not accept are removed from the submission queue,
+     * so they are never started, including when an exception is thrown.
+     *
+     * @return the number of operations that were submitted
+     */
+    int io_uring_submit(long ring, int count, int[] ops, int[] fds, long[] pointers, int[] sizes,
+                        long[] offsets, int[] bufIndexes, long[] userData) throws NativeIOException;
+
+    /**
+     * Wait until at least {@code minComplete} operations have completed, and collect up to
+     * {@code userData.length} completions. A negative result is the errno of a failed operation.
+     *
+     * @return the number of completions that were collected
+     */
+    int io_uring_wait(long ring, int minComplete, long[] userData, int[] results) throws NativeIOException;
+
+    void io_uring_exit(long ring) throws NativeIOException;
 }
@@ -74,4 +74,30 @@ public class NativeIOImpl implements NativeIO {
     public long pread(int fd, long pointer, long size, long offset) throws NativeIOException {
         return NativeIOJni.pread(fd, pointer, size, offset);
     }
+
+    @Override
+    public long io_uring_init(int queueDepth) throws NativeIOException {
+        return NativeIOJni.io_uring_init(queueDepth);
+    }
+
+    @Override
+    public int io_uring_register_buffers(long ring, long[] pointers, int[] sizes) throws NativeIOException {
+        return NativeIOJni.io_uring_register_buffers(ring, pointers, sizes);
+    }
+
+    @Override
+    public int io_uring_submit(long ring, int count, int[] ops, int[] fds, long[] pointers, int[] sizes,
+                               long[] offsets, int[] bufIndexes, long[] userData) throws NativeIOException {
+        return NativeIOJni.io_uring_submit(ring, count, ops, fds, pointers, sizes, offsets, bufIndexes, userData);
+    }
+
+    @Override
+    public int io_uring_wait(long ring, int minComplete, long[] userData, int[] results) throws NativeIOException {
+        return NativeIOJni.io_uring_wait(ring, minComplete, userData, results);
+    }
+
+    @Override
+    public void io_uring_exit(long ring) throws NativeIOException {
+        NativeIOJni.io_uring_exit(ring);
+    }
 }
@@ -48,6 +48,18 @@ class NativeIOJni {
 
     static native int close(int fd) throws NativeIOException;
 
+    static native long io_uring_init(int queueDepth) throws NativeIOException;
+
+    static native int io_uring_register_buffers(long ring, long[] pointers, int[] sizes) throws NativeIOException;
+
+    static native int io_uring_submit(long ring, int count, int[] ops, int[] fds, long[] pointers, int[] sizes,
+                                      long[] offsets, int[] bufIndexes, long[] userData) throws NativeIOException;
+
+    static native int io_uring_wait(long ring, int minComplete, long[] userData, int[] results)
+            throws NativeIOException;
+
+    static native void io_uring_exit(long ring) throws NativeIOException;
+
     static {
         try {
             if (SystemUtils.IS_OS_MAC_OSX) {
@@ -28,6 +28,17 @@
 
 #include <org_apache_bookkeeper_common_util_nativeio_NativeIOJni.h>
 
+#if defined(__linux__) && defined(__has_include)
+#if __has_include(<linux/io_uring.h>)
+#include <linux/io_uring.h>
+#include <sys/mman.h>
+#include <sys/syscall.h>
+#if defined(__NR_io_uring_setup) && defined(__NR_io_uring_enter) && defined(__NR_io_uring_register)
+#define HAVE_IO_URING 1
+#endif
+#endif
+#endif
+
 #ifdef _WIN32
 
 #define fsync(fd) fflush(fd)
@@ -133,6 +144,10 @@ Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_open(
         flags |= O_TRUNC;
     }
 
+    if (javaFlags & 0x40) {
+        flags |= O_RDWR;
+    }
+
 #ifdef __linux__
     if (javaFlags & 0x10) {
         flags |= O_DIRECT;
@@ -311,3 +326,330 @@ JNIEXPORT void JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJ
      free((const void*) pointer);
 }
 
+#ifdef HAVE_IO_URING
+
+/* Java side op codes, see NativeIO.IOURING_* */
+#define BK_IOURING_OP_MASK 0xff
+#define BK_IOURING_OP_READ 0x01
+#define BK_IOURING_OP_WRITE 0x02
+#define BK_IOURING_OP_FSYNC 0x03
+#define BK_IOURING_OP_FDATASYNC 0x04
+#define BK_IOURING_OP_NOP 0x05
+#define BK_IOURING_F_LINK 0x100
+
+struct bk_uring {
+    int ring_fd;
+
+    unsigned *sq_head;
+    unsigned *sq_tail;
+    unsigned *sq_mask;
+    unsigned *sq_array;
+    unsigned sq_entries;
+    struct io_uring_sqe *sqes;
+
+    unsigned *cq_head;
+    unsigned *cq_tail;
+    unsigned *cq_mask;
+    struct io_uring_cqe *cqes;
+
+    void *sq_ptr;
+    size_t sq_len;
+    void *cq_ptr;
+    size_t cq_len;
+    size_t sqes_len;
+};
+
+static void bk_uring_unmap(struct bk_uring *ring) {
+    if (ring->sqes != NULL && ring->sqes != MAP_FAILED) {
+        munmap(ring->sqes, ring->sqes_len);
+    }
+    if (ring->cq_ptr != NULL && ring->cq_ptr != MAP_FAILED && ring->cq_ptr != ring->sq_ptr) {
+        munmap(ring->cq_ptr, ring->cq_len);
+    }
+    if (ring->sq_ptr != NULL && ring->sq_ptr != MAP_FAILED) {
+        munmap(ring->sq_ptr, ring->sq_len);
+    }
+}
+
+#endif
+
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    io_uring_init
+ * Signature: (I)J
+ */
+JNIEXPORT jlong JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_io_1uring_1init
+    (JNIEnv * env, jclass clazz, jint entries) {
+#ifdef HAVE_IO_URING
+    struct io_uring_params p;
+    memset(&p, 0, sizeof(p));
+
+    int fd = syscall(__NR_io_uring_setup, entries, &p);
+    if (fd < 0) {
+        throwExceptionWithErrno(env, "Failed to setup io_uring");
+        return 0;
+    }
+
+    struct bk_uring *ring = calloc(1, sizeof(struct bk_uring));
+    if (ring == NULL) {
+        close(fd);
+        throwException(env, "Failed to allocate io_uring");
+        return 0;
+    }
+    ring->ring_fd = fd;
+
+    ring->sq_len = p.sq_off.array + p.sq_entries * sizeof(unsigned);
+    ring->cq_len = p.cq_off.cqes + p.cq_entries * sizeof(struct io_uring_cqe);
+    if (p.features & IORING_FEAT_SINGLE_MMAP) {
+        if (ring->cq_len > ring->sq_len) {
+            ring->sq_len = ring->cq_len;
+        }
+        ring->cq_len = ring->sq_len;
+    }
+
+    ring->sq_ptr = mmap(NULL, ring->sq_len, PROT_READ | PROT_WRITE, MAP_SHARED | MAP_POPULATE,
+                        fd, IORING_OFF_SQ_RING);
+    if (ring->sq_ptr == MAP_FAILED) {
+        goto fail;
+    }
+
+    if (p.features & IORING_FEAT_SINGLE_MMAP) {
+        ring->cq_ptr = ring->sq_ptr;
+    } else {
+        ring->cq_ptr = mmap(NULL, ring->cq_len, PROT_READ | PROT_WRITE, MAP_SHARED | MAP_POPULATE,
+                            fd, IORING_OFF_CQ_RING);
+        if (ring->cq_ptr == MAP_FAILED) {
+            goto fail;
+        }
+    }
+
+    ring->sqes_len = p.sq_entries * sizeof(struct io_uring_sqe);
+    ring->sqes = mmap(NULL, ring->sqes_len, PROT_READ | PROT_WRITE, MAP_SHARED | MAP_POPULATE,
+                      fd, IORING_OFF_SQES);
+    if (ring->sqes == MAP_FAILED) {
+        goto fail;
+    }
+
+    ring->sq_head = (unsigned *) ((char *) ring->sq_ptr + p.sq_off.head);
+    ring->sq_tail = (unsigned *) ((char *) ring->sq_ptr + p.sq_off.tail);
+    ring->sq_mask = (unsigned *) ((char *) ring->sq_ptr + p.sq_off.ring_mask);
+    ring->sq_array = (unsigned *) ((char *) ring->sq_ptr + p.sq_off.array);
+    ring->sq_entries = p.sq_entries;
+
+    ring->cq_head = (unsigned *) ((char *) ring->cq_ptr + p.cq_off.head);
+    ring->cq_tail = (unsigned *) ((char *) ring->cq_ptr + p.cq_off.tail);
+    ring->cq_mask = (unsigned *) ((char *) ring->cq_ptr + p.cq_off.ring_mask);
+    ring->cqes = (struct io_uring_cqe *) ((char *) ring->cq_ptr + p.cq_off.cqes);
+
+    return (jlong) ring;
+
+fail:
+    throwExceptionWithErrno(env, "Failed to map io_uring");
+    bk_uring_unmap(ring);
+    close(fd);
+    free(ring);
+    return 0;
+#else
+    throwException(env, "io_uring is not available");
+    return 0;
+#endif
+}
+
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    io_uring_register_buffers
+ * Signature: (J[J[I)I
+ */
+JNIEXPORT jint JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_io_1uring_1register_1buffers
+    (JNIEnv * env, jclass clazz, jlong ringPtr, jlongArray pointers, jintArray sizes) {
+#ifdef HAVE_IO_URING
+    struct bk_uring *ring = (struct bk_uring *) ringPtr;
+    jsize count = (*env)->GetArrayLength(env, pointers);
+
+    jlong *cPointers = (*env)->GetLongArrayElements(env, pointers, NULL);
+    jint *cSizes = (*env)->GetIntArrayElements(env, sizes, NULL);
+    struct iovec *iovecs = calloc(count, sizeof(struct iovec));
+    for (int i = 0; i < count; i++) {
+        iovecs[i].iov_base = (void *) cPointers[i];
+        iovecs[i].iov_len = cSizes[i];
+    }
+    (*env)->ReleaseLongArrayElements(env, pointers, cPointers, JNI_ABORT);
+    (*env)->ReleaseIntArrayElements(env, sizes, cSizes, JNI_ABORT);
+
+    int res = syscall(__NR_io_uring_register, ring->ring_fd, IORING_REGISTER_BUFFERS, iovecs, count);
+    free(iovecs);
+
+    if (res < 0) {
+        throwExceptionWithErrno(env, "Failed to register io_uring buffers");
+    }
+    return res;
+#else
+    throwException(env, "io_uring is not available");
+    return -1;
+#endif
+}
+
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    io_uring_submit
+ * Signature: (JI[I[I[J[I[J[I[J)I
+ */
+JNIEXPORT jint JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_io_1uring_1submit
+    (JNIEnv * env, jclass clazz, jlong ringPtr, jint count, jintArray ops, jintArray fds,
+     jlongArray pointers, jintArray sizes, jlongArray offsets, jintArray bufIndexes, jlongArray userData) {
+#ifdef HAVE_IO_URING
+    struct bk_uring *ring = (struct bk_uring *) ringPtr;
+
+    jint *cOps = (*env)->GetIntArrayElements(env, ops, NULL);
+    jint *cFds = (*env)->GetIntArrayElements(env, fds, NULL);
+    jlong *cPointers = (*env)->GetLongArrayElements(env, pointers, NULL);
+    jint *cSizes = (*env)->GetIntArrayElements(env, sizes, NULL);
+    jlong *cOffsets = (*env)->GetLongArrayElements(env, offsets, NULL);
+    jint *cBufIndexes = (*env)->GetIntArrayElements(env, bufIndexes, NULL);
+    jlong *cUserData = (*env)->GetLongArrayElements(env, userData, NULL);
+
+    // Only the submitting thread writes the tail, while the kernel moves the head
+    unsigned firstTail = *ring->sq_tail;
+    unsigned tail = firstTail;
+    unsigned head = __atomic_load_n(ring->sq_head, __ATOMIC_ACQUIRE);
+    int queued = 0;
+    for (; queued < count && tail - head < ring->sq_entries; queued++) {
+        unsigned idx = tail & *ring->sq_mask;
+        struct io_uring_sqe *sqe = &ring->sqes[idx];
+        memset(sqe, 0, sizeof(*sqe));
+
+        int op = cOps[queued] & BK_IOURING_OP_MASK;
+        int bufIndex = cBufIndexes[queued];
+        switch (op) {
+        case BK_IOURING_OP_READ:
+            sqe->opcode = bufIndex >= 0 ? IORING_OP_READ_FIXED : IORING_OP_READ;
+            break;
+        case BK_IOURING_OP_WRITE:
+            sqe->opcode = bufIndex >= 0 ? IORING_OP_WRITE_FIXED : IORING_OP_WRITE;
+            break;
+        case BK_IOURING_OP_FSYNC:
+            sqe->opcode = IORING_OP_FSYNC;
+            break;
+        case BK_IOURING_OP_FDATASYNC:
+            sqe->opcode = IORING_OP_FSYNC;
+            sqe->fsync_flags = IORING_FSYNC_DATASYNC;
+            break;
+        default:
+            sqe->opcode = IORING_OP_NOP;
+            break;
+        }
+
+        sqe->fd = cFds[queued];
+        sqe->off = cOffsets[queued];
+        sqe->user_data = cUserData[queued];
+        if (cOps[queued] & BK_IOURING_F_LINK) {
+            sqe->flags |= IOSQE_IO_LINK;
+        }
+
+        if (op == BK_IOURING_OP_READ || op == BK_IOURING_OP_WRITE) {
+            sqe->addr = (unsigned long) cPointers[queued];
+            sqe->len = cSizes[queued];
+            if (bufIndex >= 0) {
+                sqe->buf_index = bufIndex;
+            }
+        }
+
+        ring->sq_array[idx] = idx;
+        tail++;
+    }
+    __atomic_store_n(ring->sq_tail, tail, __ATOMIC_RELEASE);
+
+    (*env)->ReleaseIntArrayElements(env, ops, cOps, JNI_ABORT);
+    (*env)->ReleaseIntArrayElements(env, fds, cFds, JNI_ABORT);
+    (*env)->ReleaseLongArrayElements(env, pointers, cPointers, JNI_ABORT);
+    (*env)->ReleaseIntArrayElements(env, sizes, cSizes, JNI_ABORT);
+    (*env)->ReleaseLongArrayElements(env, offsets, cOffsets, JNI_ABORT);
+    (*env)->ReleaseIntArrayElements(env, bufIndexes, cBufIndexes, JNI_ABORT);
+    (*env)->ReleaseLongArrayElements(env, userData, cUserData, JNI_ABORT);
+
+    // A single syscall for the whole batch
+    int res;
+    do {
+        res = syscall(__NR_io_uring_enter, ring->ring_fd, queued, 0, 0, NULL, 0);
+    } while (res < 0 && errno == EINTR);
+
+    // The kernel only consumes the entries during the syscall, so the ones it didn't take are
+    // removed from the queue, and the caller can complete them and reuse their buffers
+    int consumed = res < 0 ? 0 : res;
+    if (consumed < queued) {
+        __atomic_store_n(ring->sq_tail, firstTail + consumed, __ATOMIC_RELEASE);
+    }
+
+    if (res < 0) {
+        throwExceptionWithErrno(env, "Failed to submit to io_uring");
+        return res;
+    }
+    return consumed;
+#else
+    throwException(env, "io_uring is not available");
+    return -1;
+#endif
+}
+
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    io_uring_wait
+ * Signature: (JI[J[I)I
+ */
+JNIEXPORT jint JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_io_1uring_1wait
+    (JNIEnv * env, jclass clazz, jlong ringPtr, jint minComplete, jlongArray userData, jintArray results) {
+#ifdef HAVE_IO_URING
+    struct bk_uring *ring = (struct bk_uring *) ringPtr;
+    jsize max = (*env)->GetArrayLength(env, userData);
+
+    // Poll the completion queue first, and only enter the kernel if there's not enough completions
+    unsigned head = *ring->cq_head;
+    unsigned tail = __atomic_load_n(ring->cq_tail, __ATOMIC_ACQUIRE);
+    if ((int) (tail - head) < minComplete) {
+        int res;
+        do {
+            res = syscall(__NR_io_uring_enter, ring->ring_fd, 0, minComplete, IORING_ENTER_GETEVENTS, NULL, 0);
+        } while (res < 0 && errno == EINTR);
+
+        if (res < 0) {
+            throwExceptionWithErrno(env, "Failed to wait for io_uring completions");
+            return res;
+        }
+        tail = __atomic_load_n(ring->cq_tail, __ATOMIC_ACQUIRE);
+    }
+
+    jlong *cUserData = (*env)->GetLongArrayElements(env, userData, NULL);
+    jint *cResults = (*env)->GetIntArrayElements(env, results, NULL);
+    int count = 0;
+    while (head != tail && count < max) {
+        struct io_uring_cqe *cqe = &ring->cqes[head & *ring->cq_mask];
+        cUserData[count] = cqe->user_data;
+        cResults[count] = cqe->res;
+        count++;
+        head++;
+    }
+    __atomic_store_n(ring->cq_head, head, __ATOMIC_RELEASE);
+    (*env)->ReleaseLongArrayElements(env, userData, cUserData, 0);
+    (*env)->ReleaseIntArrayElements(env, results, cResults, 0);
+
+    return count;
+#else
+    throwException(env, "io_uring is not available");
+    return -1;
+#endif
+}
+
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    io_uring_exit
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_io_1uring_1exit
+    (JNIEnv * env, jclass clazz, jlong ringPtr) {
+#ifdef HAVE_IO_URING
+    struct bk_uring *ring = (struct bk_uring *) ringPtr;
+    bk_uring_unmap(ring);
+    close(ring->ring_fd);
+    free(ring);
+#endif
+}
@@ -0,0 +1,260 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.common.util.nativeio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the submissions, the completions and the close of the {@link IoUring} queue, on a real ring.
+ * The tests are skipped where io_uring is not available.
+ */
+public class IoUringTest {
+
+    private static final int QUEUE_DEPTH = 8;
+    private static final int SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private final FlakyNativeIO nativeIO = new FlakyNativeIO();
+    private final byte[] data = new byte[SIZE];
+    private File file;
+    private int fd = -1;
+    private long pointer = 0;
+    private IoUring ring;
+
+    @Before
+    public void setup() throws Exception {
+        try {
+            nativeIO.io_uring_exit(nativeIO.io_uring_init(QUEUE_DEPTH));
+        } catch (Throwable t) {
+            Assume.assumeNoException("io_uring is not available", t);
+        }
+
+        new Random(0).nextBytes(data);
+        file = tmpDir.newFile("io-uring");
+        Files.write(file.toPath(), data);
+        fd = nativeIO.open(file.getPath(), NativeIO.O_RDWR, 0644);
+        pointer = nativeIO.posix_memalign(SIZE, SIZE);
+        ring = new IoUring(nativeIO, QUEUE_DEPTH, "io-uring-test");
+        // the buffer holds the data at offset 0 of the file
+        assertEquals(SIZE, (int) ring.read(fd, pointer, SIZE, 0, -1).get(10, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (ring != null) {
+            closeRing();
+        }
+        if (fd >= 0) {
+            nativeIO.close(fd);
+        }
+        if (pointer != 0) {
+            nativeIO.free(pointer);
+        }
+    }
+
+    private void closeRing() throws Exception {
+        // the close waits for the permits of the operations in flight, it hangs if any of them leaked
+        CompletableFuture.runAsync(() -> {
+            try {
+                ring.close();
+            } catch (NativeIOException e) {
+                throw new CompletionException(e);
+            }
+        }).get(10, TimeUnit.SECONDS);
+    }
+
+    private void verifyFile(int numCopies) throws IOException {
+        byte[] content = Files.readAllBytes(file.toPath());
+        assertEquals(numCopies * SIZE, content.length);
+        for (int i = 0; i < numCopies; i++) {
+            assertArrayEquals(data, Arrays.copyOfRange(content, i * SIZE, (i + 1) * SIZE));
+        }
+    }
+
+    private static void assertFailed(CompletableFuture<Integer> future, String message) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("the operation should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains(message));
+        }
+    }
+
+    @Test
+    public void testSubmitWaitCloseCycle() throws Exception {
+        assertEquals(SIZE, (int) ring.write(fd, pointer, SIZE, SIZE, -1).get(10, TimeUnit.SECONDS));
+        assertEquals(0, (int) ring.fsync(fd, false).get(10, TimeUnit.SECONDS));
+
+        IoUring.WriteAndSync writeAndSync = ring.writeAndSync(fd, pointer, SIZE, 2 * SIZE, -1, true);
+        assertEquals(SIZE, (int) writeAndSync.write().get(10, TimeUnit.SECONDS));
+        assertEquals(SIZE, (int) writeAndSync.sync().get(10, TimeUnit.SECONDS));
+
+        // the registered buffers are written with a fixed write
+        ring.registerBuffers(new long[] {pointer}, new int[] {SIZE});
+        assertEquals(SIZE, (int) ring.write(fd, pointer, SIZE, 3 * SIZE, 0).get(10, TimeUnit.SECONDS));
+        verifyFile(4);
+
+        closeRing();
+        assertFailed(ring.write(fd, pointer, SIZE, 4 * SIZE, -1), "io_uring is closed");
+        // closing again is a no-op
+        ring.close();
+        verifyFile(4);
+    }
+
+    @Test
+    public void testCloseWaitsForOperationsInFlight() throws Exception {
+        CompletableFuture<?>[] writes = new CompletableFuture<?>[4 * QUEUE_DEPTH];
+        for (int i = 0; i < writes.length; i++) {
+            writes[i] = ring.write(fd, pointer, SIZE, (long) (i + 1) * SIZE, -1);
+        }
+        closeRing();
+        for (CompletableFuture<?> write : writes) {
+            assertTrue(write.isDone());
+            assertEquals(SIZE, write.get());
+        }
+        verifyFile(writes.length + 1);
+    }
+
+    @Test
+    public void testFailedSubmitRecovery() throws Exception {
+        nativeIO.failNextSubmit.set(true);
+        assertFailed(ring.write(fd, pointer, SIZE, SIZE, -1), "injected submit failure");
+
+        // the permits of the failed operation were given back, the ring is still usable
+        for (int i = 0; i < 2 * QUEUE_DEPTH; i++) {
+            assertEquals(SIZE, (int) ring.write(fd, pointer, SIZE, SIZE, -1).get(10, TimeUnit.SECONDS));
+        }
+        verifyFile(2);
+    }
+
+    @Test
+    public void testPartialSubmitRecovery() throws Exception {
+        // the first submitter holds the submit lock, while two more operations are queued behind it
+        CountDownLatch submitting = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        nativeIO.blockNextSubmit.set(new CountDownLatch[] {submitting, resume});
+        CompletableFuture<CompletableFuture<Integer>> first = CompletableFuture.supplyAsync(
+                () -> ring.write(fd, pointer, SIZE, SIZE, -1));
+        assertTrue(submitting.await(10, TimeUnit.SECONDS));
+        CompletableFuture<Integer> second = ring.write(fd, pointer, SIZE, 2 * SIZE, -1);
+        CompletableFuture<Integer> third = ring.write(fd, pointer, SIZE, 3 * SIZE, -1);
+        assertFalse(second.isDone());
+        assertFalse(third.isDone());
+
+        // the two queued operations are submitted together, and only the first one is accepted
+        nativeIO.acceptNextSubmit.set(1);
+        resume.countDown();
+        assertEquals(SIZE, (int) first.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS));
+        assertEquals(SIZE, (int) second.get(10, TimeUnit.SECONDS));
+        assertFailed(third, "io_uring submission queue is full");
+        verifyFile(3);
+
+        // the operation that was not accepted is never started, and its permit was given back
+        for (int i = 0; i < 2 * QUEUE_DEPTH; i++) {
+            assertEquals(SIZE, (int) ring.write(fd, pointer, SIZE, 3 * SIZE, -1).get(10, TimeUnit.SECONDS));
+        }
+        verifyFile(4);
+    }
+
+    @Test
+    public void testWaitFailuresFailTheRing() throws Exception {
+        // the completion of the write is lost, then waiting keeps failing until the ring is failed
+        nativeIO.failWaits.set(true);
+        CompletableFuture<Integer> write = ring.write(fd, pointer, SIZE, SIZE, -1);
+        assertFailed(write, "io_uring has failed");
+
+        assertFailed(ring.write(fd, pointer, SIZE, 2 * SIZE, -1), "io_uring has failed");
+        assertFailed(ring.fsync(fd, true), "io_uring has failed");
+        closeRing();
+    }
+
+    /**
+     * Native IO injecting failures in the io_uring submissions and completions.
+     */
+    private static class FlakyNativeIO extends NativeIOImpl {
+        final AtomicBoolean failNextSubmit = new AtomicBoolean();
+        final AtomicReference<Integer> acceptNextSubmit = new AtomicReference<>();
+        final AtomicReference<CountDownLatch[]> blockNextSubmit = new AtomicReference<>();
+        final AtomicBoolean failWaits = new AtomicBoolean();
+
+        @Override
+        public int io_uring_submit(long ring, int count, int[] ops, int[] fds, long[] pointers, int[] sizes,
+                                   long[] offsets, int[] bufIndexes, long[] userData) throws NativeIOException {
+            CountDownLatch[] latches = blockNextSubmit.getAndSet(null);
+            if (latches != null) {
+                latches[0].countDown();
+                try {
+                    latches[1].await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.io_uring_submit(ring, count, ops, fds, pointers, sizes, offsets, bufIndexes, userData);
+            }
+            if (failNextSubmit.getAndSet(false)) {
+                throw new NativeIOException("injected submit failure");
+            }
+            Integer accepted = acceptNextSubmit.getAndSet(null);
+            return super.io_uring_submit(ring, accepted != null ? Math.min(accepted, count) : count, ops, fds,
+                    pointers, sizes, offsets, bufIndexes, userData);
+        }
+
+        @Override
+        public int io_uring_wait(long ring, int minComplete, long[] userData, int[] results)
+                throws NativeIOException {
+            if (failWaits.get()) {
+                throw new NativeIOException("injected wait failure");
+            }
+            int completed = super.io_uring_wait(ring, minComplete, userData, results);
+            if (failWaits.get()) {
+                // the wait was started before the failures were injected, its completions are dropped
+                throw new NativeIOException("injected wait failure");
+            }
+            return completed;
+        }
+    }
+}